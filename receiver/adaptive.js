@@ -0,0 +1,988 @@
+/*
+ * Adaptive streaming for the receiver.
+ *
+ * When the media player points #media at an HLS playlist or a DASH
+ * manifest, the manifest is parsed here and its segments are fed to the
+ * element through Media Source Extensions. The representation of each
+ * segment is chosen from the measured bandwidth and the amount of media
+ * buffered ahead of the playhead. Progressive files still go straight to
+ * the element.
+ *
+ * Supported: on-demand HLS with fragmented MP4 segments (#EXT-X-MAP,
+ * optionally #EXT-X-BYTERANGE), and on-demand DASH with SegmentTemplate
+ * (numbered or with a SegmentTimeline) or SegmentList, first Period only.
+ * MPEG-TS segments and live presentations are not.
+ */
+var AdaptiveStreaming = (function () {
+    var HLS_TYPES = ["application/x-mpegurl", "application/vnd.apple.mpegurl", "audio/mpegurl"];
+    var DASH_TYPES = ["application/dash+xml"];
+
+    // Fetching pauses once this much media is buffered ahead of the playhead.
+    var BUFFER_AHEAD_SECONDS = 30;
+    // Media further behind the playhead than this is evicted.
+    var BUFFER_BEHIND_SECONDS = 30;
+    // Below this level only representations well within the bandwidth are used.
+    var BUFFER_LOW_SECONDS = 8;
+    // Switching up waits until this much is buffered.
+    var BUFFER_HIGH_SECONDS = 20;
+    // Share of the estimated bandwidth a representation may use.
+    var BANDWIDTH_SAFETY = 0.8;
+    var BANDWIDTH_SAFETY_LOW_BUFFER = 0.5;
+    // Bits per second assumed before the first measurement.
+    var DEFAULT_BANDWIDTH = 1000000;
+    // Downloads smaller than this say more about latency than bandwidth.
+    var MIN_SAMPLE_BYTES = 16000;
+    var DEFAULT_CODECS = "avc1.42E01E,mp4a.40.2";
+    var TICK_MS = 250;
+    // Tolerance when matching buffered ranges against segment boundaries.
+    var EPSILON_SECONDS = 0.1;
+
+    // Content types announced by the sender, by URL.
+    var contentTypes = {};
+
+    /**
+     * @return "hls", "dash", or null for anything else
+     */
+    function manifestType(url, contentType) {
+        if (contentType) {
+            contentType = contentType.toLowerCase().split(";")[0];
+            if (HLS_TYPES.indexOf(contentType) >= 0) {
+                return "hls";
+            }
+            if (DASH_TYPES.indexOf(contentType) >= 0) {
+                return "dash";
+            }
+        }
+        if (!url) {
+            return null;
+        }
+        var path = url.split("#")[0].split("?")[0].toLowerCase();
+        if (/\.m3u8$/.test(path)) {
+            return "hls";
+        }
+        if (/\.mpd$/.test(path)) {
+            return "dash";
+        }
+        return null;
+    }
+
+    function resolveUrl(base, url) {
+        if (typeof URL == "function") {
+            return new URL(url, base).toString();
+        }
+        var anchor = document.createElement("a");
+        anchor.href = base;
+        anchor.href = url;
+        return anchor.href;
+    }
+
+    // ---- HLS ----
+
+    function parseAttributes(text) {
+        var attributes = {};
+        var pattern = /([A-Z0-9-]+)=("[^"]*"|[^,]*)/g;
+        var match;
+        while ((match = pattern.exec(text)) !== null) {
+            var value = match[2];
+            if (value.charAt(0) == '"') {
+                value = value.substring(1, value.length - 1);
+            }
+            attributes[match[1]] = value;
+        }
+        return attributes;
+    }
+
+    /*
+     * "<length>[@<offset>]"; without an offset the range follows the
+     * previous one of the same resource.
+     */
+    function parseByteRange(text, previousEnd) {
+        var parts = text.split("@");
+        var length = parseInt(parts[0], 10);
+        var start = parts.length > 1 ? parseInt(parts[1], 10) : previousEnd;
+        return [start, start + length - 1];
+    }
+
+    function playlistLines(text) {
+        var lines = text.split(/\r?\n/);
+        if (lines[0].replace(/^\uFEFF/, "").trim() != "#EXTM3U") {
+            throw new Error("not an HLS playlist");
+        }
+        return lines;
+    }
+
+    /**
+     * @return the variants of a master playlist, or null if the text is a
+     *         media playlist
+     */
+    function parseHlsMaster(text, url) {
+        var lines = playlistLines(text);
+        var variants = [];
+        for (var i = 1; i < lines.length; i++) {
+            var line = lines[i].trim();
+            if (line.indexOf("#EXT-X-STREAM-INF:") != 0) {
+                continue;
+            }
+            var attributes = parseAttributes(line.substring(18));
+            var uri = null;
+            while (++i < lines.length) {
+                uri = lines[i].trim();
+                if (uri && uri.charAt(0) != "#") {
+                    break;
+                }
+                uri = null;
+            }
+            if (!uri) {
+                break;
+            }
+            var resolution = (attributes.RESOLUTION || "").split("x");
+            variants.push({
+                bandwidth: parseInt(attributes.BANDWIDTH, 10) || 0,
+                codecs: attributes.CODECS || DEFAULT_CODECS,
+                height: parseInt(resolution[1], 10) || 0,
+                url: resolveUrl(url, uri)
+            });
+        }
+        return variants.length ? variants : null;
+    }
+
+    function parseHlsMedia(text, url) {
+        var lines = playlistLines(text);
+        var playlist = { initUrl: null, initRange: null, segments: [], duration: 0 };
+        var segmentDuration = 0;
+        var range = null;
+        var rangeEnds = {};
+        var ended = false;
+        for (var i = 1; i < lines.length; i++) {
+            var line = lines[i].trim();
+            if (!line) {
+                continue;
+            }
+            if (line.indexOf("#EXTINF:") == 0) {
+                segmentDuration = parseFloat(line.substring(8));
+            } else if (line.indexOf("#EXT-X-BYTERANGE:") == 0) {
+                range = line.substring(17);
+            } else if (line.indexOf("#EXT-X-MAP:") == 0) {
+                var map = parseAttributes(line.substring(11));
+                playlist.initUrl = resolveUrl(url, map.URI);
+                if (map.BYTERANGE) {
+                    playlist.initRange = parseByteRange(map.BYTERANGE, 0);
+                    rangeEnds[playlist.initUrl] = playlist.initRange[1] + 1;
+                }
+            } else if (line == "#EXT-X-ENDLIST") {
+                ended = true;
+            } else if (line.charAt(0) != "#") {
+                var segmentUrl = resolveUrl(url, line);
+                var segmentRange = null;
+                if (range !== null) {
+                    segmentRange = parseByteRange(range, rangeEnds[segmentUrl] || 0);
+                    rangeEnds[segmentUrl] = segmentRange[1] + 1;
+                }
+                playlist.segments.push({
+                    url: segmentUrl,
+                    range: segmentRange,
+                    start: playlist.duration,
+                    duration: segmentDuration
+                });
+                playlist.duration += segmentDuration;
+                range = null;
+            }
+        }
+        if (!ended) {
+            throw new Error("live HLS playlists are not supported");
+        }
+        if (!playlist.initUrl) {
+            throw new Error("HLS playlist without #EXT-X-MAP; only fragmented MP4 is supported");
+        }
+        return playlist;
+    }
+
+    function mimeTypeForCodecs(codecs) {
+        return /avc|hvc|hev|vp0|vp9|av01/.test(codecs) ? "video/mp4" : "audio/mp4";
+    }
+
+    function loadHls(url, callback) {
+        fetchText(url, function (error, text) {
+            if (error) {
+                return callback(error);
+            }
+            var variants;
+            try {
+                variants = parseHlsMaster(text, url);
+            } catch (e) {
+                return callback(e);
+            }
+            if (!variants) {
+                variants = [{ bandwidth: 0, codecs: DEFAULT_CODECS, height: 0, url: url, text: text }];
+            }
+            var remaining = variants.length;
+            var representations = [];
+            var failure = null;
+            variants.forEach(function (variant, index) {
+                function onPlaylist(error, text) {
+                    if (error) {
+                        failure = error;
+                    } else {
+                        try {
+                            var playlist = parseHlsMedia(text, variant.url);
+                            representations.push({
+                                id: String(index),
+                                bandwidth: variant.bandwidth,
+                                height: variant.height,
+                                mimeType: mimeTypeForCodecs(variant.codecs),
+                                codecs: variant.codecs,
+                                initUrl: playlist.initUrl,
+                                initRange: playlist.initRange,
+                                segments: playlist.segments,
+                                duration: playlist.duration
+                            });
+                        } catch (e) {
+                            failure = e;
+                        }
+                    }
+                    if (--remaining == 0) {
+                        if (!representations.length) {
+                            return callback(failure || new Error("no playable variant"));
+                        }
+                        callback(null, {
+                            duration: representations[0].duration,
+                            tracks: [{ type: "main", representations: representations }]
+                        });
+                    }
+                }
+                if (variant.text) {
+                    onPlaylist(null, variant.text);
+                } else {
+                    fetchText(variant.url, onPlaylist);
+                }
+            });
+        });
+    }
+
+    // ---- DASH ----
+
+    /*
+     * ISO 8601 durations as used by MPDs, e.g. "PT1H2M3.5S".
+     */
+    function parseDuration(text) {
+        var match = /^P(?:(\d+)D)?(?:T(?:(\d+)H)?(?:(\d+)M)?(?:([\d.]+)S)?)?$/.exec(text || "");
+        if (!match) {
+            return 0;
+        }
+        return (parseInt(match[1] || 0, 10) * 86400) + (parseInt(match[2] || 0, 10) * 3600)
+            + (parseInt(match[3] || 0, 10) * 60) + parseFloat(match[4] || 0);
+    }
+
+    /*
+     * $RepresentationID$, $Bandwidth$, $Number$ and $Time$, with an
+     * optional printf width such as $Number%05d$.
+     */
+    function fillTemplate(template, representation, number, time) {
+        return template.replace(/\$(RepresentationID|Bandwidth|Number|Time|)(?:%0(\d+)d)?\$/g,
+            function (match, name, width) {
+                var value;
+                if (name == "") {
+                    return "$";
+                } else if (name == "RepresentationID") {
+                    return representation.id;
+                } else if (name == "Bandwidth") {
+                    value = representation.bandwidth;
+                } else if (name == "Number") {
+                    value = number;
+                } else {
+                    value = time;
+                }
+                value = String(value);
+                while (width && value.length < parseInt(width, 10)) {
+                    value = "0" + value;
+                }
+                return value;
+            });
+    }
+
+    function childElements(node, name) {
+        var result = [];
+        for (var child = node.firstChild; child; child = child.nextSibling) {
+            if (child.nodeType == 1 && child.localName == name) {
+                result.push(child);
+            }
+        }
+        return result;
+    }
+
+    function firstChild(node, name) {
+        return node ? childElements(node, name)[0] || null : null;
+    }
+
+    /*
+     * Value of an attribute of the first of the nodes that has it, so that
+     * a Representation inherits from its AdaptationSet.
+     */
+    function inherited(nodes, name) {
+        for (var i = 0; i < nodes.length; i++) {
+            if (nodes[i] && nodes[i].hasAttribute(name)) {
+                return nodes[i].getAttribute(name);
+            }
+        }
+        return null;
+    }
+
+    function baseUrl(nodes, url) {
+        for (var i = nodes.length - 1; i >= 0; i--) {
+            var base = firstChild(nodes[i], "BaseURL");
+            if (base) {
+                url = resolveUrl(url, base.textContent.trim());
+            }
+        }
+        return url;
+    }
+
+    function parseRange(text) {
+        if (!text) {
+            return null;
+        }
+        var parts = text.split("-");
+        return [parseInt(parts[0], 10), parseInt(parts[1], 10)];
+    }
+
+    function dashSegments(representation, nodes, base, duration) {
+        var templates = nodes.map(function (node) { return firstChild(node, "SegmentTemplate"); });
+        var lists = nodes.map(function (node) { return firstChild(node, "SegmentList"); });
+        var segments = [];
+        var timescale;
+        if (templates.some(Boolean)) {
+            timescale = parseInt(inherited(templates, "timescale") || 1, 10);
+            var number = parseInt(inherited(templates, "startNumber") || 1, 10);
+            var offset = parseInt(inherited(templates, "presentationTimeOffset") || 0, 10);
+            var media = inherited(templates, "media");
+            var initialization = inherited(templates, "initialization");
+            representation.initUrl = resolveUrl(base, fillTemplate(initialization, representation, 0, 0));
+            var timeline = null;
+            for (var i = 0; i < templates.length && !timeline; i++) {
+                timeline = firstChild(templates[i], "SegmentTimeline");
+            }
+            if (timeline) {
+                var time = 0;
+                childElements(timeline, "S").forEach(function (s) {
+                    if (s.hasAttribute("t")) {
+                        time = parseInt(s.getAttribute("t"), 10);
+                    }
+                    var d = parseInt(s.getAttribute("d"), 10);
+                    var repeat = parseInt(s.getAttribute("r") || 0, 10);
+                    if (repeat < 0) {
+                        // Repeats until the end of the period.
+                        repeat = Math.ceil((duration * timescale - (time - offset)) / d) - 1;
+                    }
+                    for (var r = 0; r <= repeat; r++) {
+                        segments.push({
+                            url: resolveUrl(base, fillTemplate(media, representation, number++, time)),
+                            range: null,
+                            start: (time - offset) / timescale,
+                            duration: d / timescale
+                        });
+                        time += d;
+                    }
+                });
+            } else {
+                var segmentDuration = parseInt(inherited(templates, "duration"), 10) / timescale;
+                var count = Math.ceil(duration / segmentDuration);
+                for (var n = 0; n < count; n++) {
+                    segments.push({
+                        url: resolveUrl(base, fillTemplate(media, representation, number + n,
+                            Math.round(n * segmentDuration * timescale) + offset)),
+                        range: null,
+                        start: n * segmentDuration,
+                        duration: Math.min(segmentDuration, duration - n * segmentDuration)
+                    });
+                }
+            }
+        } else if (lists.some(Boolean)) {
+            var list = lists.filter(Boolean)[0];
+            timescale = parseInt(inherited(lists, "timescale") || 1, 10);
+            var listDuration = parseInt(inherited(lists, "duration"), 10) / timescale;
+            var init = firstChild(list, "Initialization");
+            if (init) {
+                representation.initUrl = resolveUrl(base, init.getAttribute("sourceURL") || "");
+                representation.initRange = parseRange(init.getAttribute("range"));
+            }
+            childElements(list, "SegmentURL").forEach(function (segment, index) {
+                segments.push({
+                    url: resolveUrl(base, segment.getAttribute("media") || ""),
+                    range: parseRange(segment.getAttribute("mediaRange")),
+                    start: index * listDuration,
+                    duration: listDuration
+                });
+            });
+        } else {
+            throw new Error("DASH representation " + representation.id
+                + " has neither SegmentTemplate nor SegmentList");
+        }
+        if (!representation.initUrl) {
+            throw new Error("DASH representation " + representation.id + " has no initialization segment");
+        }
+        return segments;
+    }
+
+    function parseDashManifest(text, url) {
+        var mpd = new DOMParser().parseFromString(text, "application/xml").documentElement;
+        if (!mpd || mpd.localName != "MPD") {
+            throw new Error("not a DASH manifest");
+        }
+        if (mpd.getAttribute("type") == "dynamic") {
+            throw new Error("live DASH manifests are not supported");
+        }
+        var period = firstChild(mpd, "Period");
+        if (!period) {
+            throw new Error("DASH manifest without Period");
+        }
+        var duration = parseDuration(mpd.getAttribute("mediaPresentationDuration"))
+            || parseDuration(period.getAttribute("duration"));
+        var tracks = [];
+        var seen = {};
+        childElements(period, "AdaptationSet").forEach(function (set) {
+            var representations = [];
+            childElements(set, "Representation").forEach(function (node) {
+                var nodes = [node, set, period];
+                var mimeType = inherited(nodes, "mimeType") || "";
+                var representation = {
+                    id: node.getAttribute("id"),
+                    bandwidth: parseInt(node.getAttribute("bandwidth"), 10) || 0,
+                    height: parseInt(inherited(nodes, "height"), 10) || 0,
+                    mimeType: mimeType,
+                    codecs: inherited(nodes, "codecs") || DEFAULT_CODECS,
+                    initUrl: null,
+                    initRange: null
+                };
+                representation.segments = dashSegments(representation, nodes,
+                    baseUrl([node, set, period, mpd], url), duration);
+                representations.push(representation);
+            });
+            var type = (set.getAttribute("contentType")
+                || (representations[0] ? representations[0].mimeType : "")).split("/")[0];
+            // One video and one audio track.
+            if (representations.length && (type == "video" || type == "audio") && !seen[type]) {
+                seen[type] = true;
+                tracks.push({ type: type, representations: representations });
+            }
+        });
+        if (!tracks.length) {
+            throw new Error("DASH manifest without audio or video");
+        }
+        return { duration: duration, tracks: tracks };
+    }
+
+    function loadDash(url, callback) {
+        fetchText(url, function (error, text) {
+            if (error) {
+                return callback(error);
+            }
+            var presentation;
+            try {
+                presentation = parseDashManifest(text, url);
+            } catch (e) {
+                return callback(e);
+            }
+            callback(null, presentation);
+        });
+    }
+
+    // ---- Network ----
+
+    function fetchText(url, callback) {
+        var xhr = new XMLHttpRequest();
+        xhr.open("GET", url);
+        xhr.onload = function () {
+            if (xhr.status >= 200 && xhr.status < 300) {
+                callback(null, xhr.responseText);
+            } else {
+                callback(new Error("HTTP " + xhr.status + " for " + url));
+            }
+        };
+        xhr.onerror = function () {
+            callback(new Error("network error for " + url));
+        };
+        xhr.send();
+    }
+
+    /**
+     * @return the request, which can be aborted
+     */
+    function fetchSegment(url, range, callback) {
+        var xhr = new XMLHttpRequest();
+        var start = Date.now();
+        xhr.open("GET", url);
+        xhr.responseType = "arraybuffer";
+        if (range) {
+            xhr.setRequestHeader("Range", "bytes=" + range[0] + "-" + range[1]);
+        }
+        xhr.onload = function () {
+            if (xhr.status >= 200 && xhr.status < 300) {
+                callback(null, xhr.response, Date.now() - start);
+            } else {
+                callback(new Error("HTTP " + xhr.status + " for " + url));
+            }
+        };
+        xhr.onerror = function () {
+            callback(new Error("network error for " + url));
+        };
+        xhr.send();
+        return xhr;
+    }
+
+    // ---- Adaptation ----
+
+    /*
+     * Two exponentially weighted moving averages of the download rate,
+     * weighted by download time; the lower one is used, so that the
+     * estimate drops fast and recovers slowly.
+     */
+    function BandwidthEstimator() {
+        this.fast = new MovingAverage(2);
+        this.slow = new MovingAverage(5);
+        this.samples = 0;
+    }
+
+    BandwidthEstimator.prototype.sample = function (bytes, durationMs) {
+        if (bytes < MIN_SAMPLE_BYTES) {
+            return;
+        }
+        durationMs = Math.max(durationMs, 1);
+        var bitsPerSecond = 8000 * bytes / durationMs;
+        this.fast.sample(durationMs / 1000, bitsPerSecond);
+        this.slow.sample(durationMs / 1000, bitsPerSecond);
+        this.samples++;
+    };
+
+    /**
+     * @return bits per second
+     */
+    BandwidthEstimator.prototype.getEstimate = function () {
+        if (!this.samples) {
+            return DEFAULT_BANDWIDTH;
+        }
+        return Math.min(this.fast.getEstimate(), this.slow.getEstimate());
+    };
+
+    function MovingAverage(halfLifeSeconds) {
+        this.alpha = Math.exp(Math.log(0.5) / halfLifeSeconds);
+        this.estimate = 0;
+        this.totalWeight = 0;
+    }
+
+    MovingAverage.prototype.sample = function (weight, value) {
+        var adjustedAlpha = Math.pow(this.alpha, weight);
+        this.estimate = value * (1 - adjustedAlpha) + adjustedAlpha * this.estimate;
+        this.totalWeight += weight;
+    };
+
+    MovingAverage.prototype.getEstimate = function () {
+        // Corrects the bias towards the initial 0.
+        return this.estimate / (1 - Math.pow(this.alpha, this.totalWeight));
+    };
+
+    /**
+     * Choose the representation for the next segment.
+     *
+     * @param representations sorted by ascending bandwidth
+     * @param current the representation of the last segment, or null
+     * @param bandwidth estimate in bits per second
+     * @param bufferLevel seconds buffered ahead of the playhead
+     */
+    function selectRepresentation(representations, current, bandwidth, bufferLevel) {
+        var safety = bufferLevel < BUFFER_LOW_SECONDS ? BANDWIDTH_SAFETY_LOW_BUFFER : BANDWIDTH_SAFETY;
+        var selected = representations[0];
+        for (var i = 1; i < representations.length; i++) {
+            if (representations[i].bandwidth <= bandwidth * safety) {
+                selected = representations[i];
+            }
+        }
+        // Switching up costs buffer, so wait until there is enough of it.
+        if (current && selected.bandwidth > current.bandwidth && bufferLevel < BUFFER_HIGH_SECONDS) {
+            return current;
+        }
+        return selected;
+    }
+
+    function findSegment(segments, time) {
+        for (var i = 0; i < segments.length; i++) {
+            if (segments[i].start + segments[i].duration > time + EPSILON_SECONDS) {
+                return segments[i];
+            }
+        }
+        return null;
+    }
+
+    /*
+     * End of the buffered range around time, or time if it is not
+     * buffered.
+     */
+    function bufferedEnd(buffered, time) {
+        for (var i = 0; i < buffered.length; i++) {
+            if (buffered.start(i) <= time + EPSILON_SECONDS && buffered.end(i) > time) {
+                return buffered.end(i);
+            }
+        }
+        return time;
+    }
+
+    // ---- Playback session ----
+
+    /**
+     * Plays one manifest on a media element through a MediaSource.
+     *
+     * @param listener optional; onSwitch(trackType, representation) and
+     *        onError(error)
+     */
+    function Session(element, setNativeSrc, url, type, listener) {
+        this.element = element;
+        this.setNativeSrc = setNativeSrc;
+        this.url = url;
+        this.type = type;
+        this.listener = listener || {};
+        this.estimator = new BandwidthEstimator();
+        this.mediaSource = null;
+        this.objectUrl = null;
+        this.presentation = null;
+        this.tracks = [];
+        this.timer = null;
+        this.switchCount = 0;
+        this.stopped = false;
+        this.onSeeking = this.abortRequests.bind(this);
+    }
+
+    Session.prototype.start = function () {
+        var self = this;
+        this.mediaSource = new MediaSource();
+        this.mediaSource.addEventListener("sourceopen", function () {
+            self.open();
+        });
+        this.objectUrl = URL.createObjectURL(this.mediaSource);
+        this.setNativeSrc(this.objectUrl);
+        this.element.addEventListener("seeking", this.onSeeking);
+        (this.type == "hls" ? loadHls : loadDash)(this.url, function (error, presentation) {
+            if (self.stopped) {
+                return;
+            }
+            if (error) {
+                return self.fail(error);
+            }
+            presentation.tracks.forEach(function (track) {
+                track.representations = track.representations.filter(function (representation) {
+                    return MediaSource.isTypeSupported(representation.mimeType
+                        + '; codecs="' + representation.codecs + '"');
+                }).sort(function (a, b) {
+                    return a.bandwidth - b.bandwidth;
+                });
+            });
+            presentation.tracks = presentation.tracks.filter(function (track) {
+                return track.representations.length > 0;
+            });
+            if (!presentation.tracks.length) {
+                return self.fail(new Error("no representation this device can play"));
+            }
+            self.presentation = presentation;
+            self.open();
+        });
+    };
+
+    /*
+     * Set up the source buffers once both the manifest and the media source
+     * are ready. A reattached media source starts over with new buffers.
+     */
+    Session.prototype.open = function () {
+        var mediaSource = this.mediaSource;
+        if (this.stopped || !this.presentation || mediaSource.readyState != "open"
+                || mediaSource.sourceBuffers.length) {
+            return;
+        }
+        var self = this;
+        try {
+            if (this.presentation.duration) {
+                mediaSource.duration = this.presentation.duration;
+            }
+            this.tracks = this.presentation.tracks.map(function (track) {
+                var first = track.representations[0];
+                var sourceBuffer = mediaSource.addSourceBuffer(first.mimeType + '; codecs="' + first.codecs + '"');
+                var state = {
+                    type: track.type,
+                    representations: track.representations,
+                    sourceBuffer: sourceBuffer,
+                    representation: null,
+                    initialized: null,
+                    request: null,
+                    done: false
+                };
+                sourceBuffer.addEventListener("updateend", function () {
+                    self.tick();
+                });
+                return state;
+            });
+        } catch (e) {
+            return this.fail(e);
+        }
+        clearInterval(this.timer);
+        this.timer = setInterval(this.tick.bind(this), TICK_MS);
+        this.tick();
+    };
+
+    Session.prototype.tick = function () {
+        if (this.stopped || this.mediaSource.readyState == "closed") {
+            return;
+        }
+        var self = this;
+        var time = this.element.currentTime;
+        this.tracks.forEach(function (track) {
+            self.feed(track, time);
+        });
+        var done = this.tracks.length && this.tracks.every(function (track) {
+            return track.done && !track.sourceBuffer.updating;
+        });
+        if (done && this.mediaSource.readyState == "open") {
+            this.mediaSource.endOfStream();
+        }
+    };
+
+    Session.prototype.feed = function (track, time) {
+        var sourceBuffer = track.sourceBuffer;
+        if (sourceBuffer.updating || track.request) {
+            return;
+        }
+        var buffered = sourceBuffer.buffered;
+        if (buffered.length && buffered.start(0) < time - BUFFER_BEHIND_SECONDS - EPSILON_SECONDS) {
+            sourceBuffer.remove(0, time - BUFFER_BEHIND_SECONDS);
+            return;
+        }
+        var end = bufferedEnd(buffered, time);
+        var level = end - time;
+        track.done = false;
+        if (level >= BUFFER_AHEAD_SECONDS) {
+            return;
+        }
+
+        var representation = selectRepresentation(track.representations, track.representation,
+            this.estimator.getEstimate(), level);
+        if (representation != track.representation) {
+            if (track.representation) {
+                this.switchCount++;
+            }
+            track.representation = representation;
+            if (this.listener.onSwitch) {
+                this.listener.onSwitch(track.type, representation);
+            }
+        }
+        if (track.initialized != representation) {
+            this.append(track, representation.initUrl, representation.initRange, function () {
+                track.initialized = representation;
+            });
+            return;
+        }
+        var segment = findSegment(representation.segments, end);
+        if (!segment) {
+            track.done = true;
+            return;
+        }
+        this.append(track, segment.url, segment.range);
+    };
+
+    Session.prototype.append = function (track, url, range, onAppended) {
+        var self = this;
+        track.request = fetchSegment(url, range, function (error, data, durationMs) {
+            track.request = null;
+            if (self.stopped) {
+                return;
+            }
+            if (error) {
+                // Retried on a later tick.
+                console.log("adaptive: " + error.message);
+                return;
+            }
+            self.estimator.sample(data.byteLength, durationMs);
+            try {
+                track.sourceBuffer.appendBuffer(data);
+                if (onAppended) {
+                    onAppended();
+                }
+            } catch (e) {
+                if (e.name == "QuotaExceededError") {
+                    // Evicted and fetched again on a later tick.
+                    self.evict(track);
+                } else {
+                    self.fail(e);
+                }
+            }
+        });
+    };
+
+    Session.prototype.evict = function (track) {
+        var time = this.element.currentTime;
+        var buffered = track.sourceBuffer.buffered;
+        if (buffered.length && buffered.start(0) < time - 1 && !track.sourceBuffer.updating) {
+            track.sourceBuffer.remove(0, time - 1);
+        }
+    };
+
+    /*
+     * Pending fetches are for the old position; the next tick fetches for
+     * the new one.
+     */
+    Session.prototype.abortRequests = function () {
+        this.tracks.forEach(function (track) {
+            if (track.request) {
+                track.request.abort();
+                track.request = null;
+            }
+        });
+    };
+
+    Session.prototype.fail = function (error) {
+        console.log("adaptive: " + error.message);
+        this.stop();
+        if (this.listener.onError) {
+            this.listener.onError(error);
+        }
+    };
+
+    Session.prototype.stop = function () {
+        if (this.stopped) {
+            return;
+        }
+        this.stopped = true;
+        clearInterval(this.timer);
+        this.abortRequests();
+        this.element.removeEventListener("seeking", this.onSeeking);
+        if (this.objectUrl) {
+            URL.revokeObjectURL(this.objectUrl);
+        }
+    };
+
+    /**
+     * @return the representation being fetched for each track, with the
+     *         bandwidth estimate and the number of switches
+     */
+    Session.prototype.getStats = function () {
+        return {
+            bandwidth: this.estimator.getEstimate(),
+            switches: this.switchCount,
+            representations: this.tracks.map(function (track) {
+                return track.representation;
+            })
+        };
+    };
+
+    // ---- Hooking the media element ----
+
+    function findSrcDescriptor(element) {
+        for (var proto = element; proto; proto = Object.getPrototypeOf(proto)) {
+            var descriptor = Object.getOwnPropertyDescriptor(proto, "src");
+            if (descriptor && descriptor.set) {
+                return descriptor;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Take over an element's src, so that manifests set on it by the media
+     * player play through a Session.
+     *
+     * @param listener passed to each Session
+     * @return an object whose getSession() returns the current Session, or
+     *         null if Media Source Extensions are missing
+     */
+    function attach(element, listener) {
+        if (!window.MediaSource) {
+            return null;
+        }
+        var descriptor = findSrcDescriptor(element);
+        var session = null;
+
+        function getNativeSrc() {
+            return descriptor ? descriptor.get.call(element) : element.getAttribute("src");
+        }
+
+        function setNativeSrc(value) {
+            if (descriptor) {
+                descriptor.set.call(element, value);
+            } else {
+                element.setAttribute("src", value);
+            }
+        }
+
+        function stop() {
+            if (session) {
+                session.stop();
+                session = null;
+            }
+        }
+
+        /*
+         * @return true if the url is a manifest and now plays through a
+         *         session
+         */
+        function play(url) {
+            var type = manifestType(url, contentTypes[url]);
+            if (!type) {
+                return false;
+            }
+            stop();
+            console.log("adaptive: playing " + type + " manifest " + url);
+            session = new Session(element, setNativeSrc, url, type, listener);
+            session.start();
+            return true;
+        }
+
+        if (descriptor) {
+            Object.defineProperty(element, "src", {
+                configurable: true,
+                get: function () {
+                    return session ? session.url : getNativeSrc();
+                },
+                set: function (value) {
+                    if (!play(value)) {
+                        stop();
+                        setNativeSrc(value);
+                    }
+                }
+            });
+        }
+        // In case the player sets the attribute rather than the property.
+        if (window.MutationObserver) {
+            new MutationObserver(function () {
+                var value = element.getAttribute("src");
+                if (!session || value != session.objectUrl) {
+                    play(value);
+                }
+            }).observe(element, { attributes: true, attributeFilter: ["src"] });
+        }
+        element.addEventListener("emptied", function () {
+            // The source was removed or replaced behind our back.
+            if (session && getNativeSrc() != session.objectUrl) {
+                stop();
+            }
+        });
+        return {
+            getSession: function () {
+                return session;
+            }
+        };
+    }
+
+    return {
+        manifestType: manifestType,
+        /**
+         * Record the content type the sender gave a URL, for URLs whose
+         * extension does not tell.
+         */
+        setContentType: function (url, contentType) {
+            contentTypes[url] = contentType;
+        },
+        parseHlsMaster: parseHlsMaster,
+        parseHlsMedia: parseHlsMedia,
+        parseDashManifest: parseDashManifest,
+        fillTemplate: fillTemplate,
+        parseDuration: parseDuration,
+        selectRepresentation: selectRepresentation,
+        BandwidthEstimator: BandwidthEstimator,
+        attach: attach
+    };
+})();
@@ -0,0 +1,7 @@
+package android.content;
+
+/**
+ * Stand-in for the Android Context; nothing in the benchmarks uses it.
+ */
+public class Context {
+}
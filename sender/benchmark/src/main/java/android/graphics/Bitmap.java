@@ -0,0 +1,31 @@
+package android.graphics;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Stand-in for the Android Bitmap, backed by a BufferedImage. Pixels count
+ * as ARGB_8888, four bytes each, like a decoded Android bitmap.
+ */
+public final class Bitmap {
+    private final BufferedImage mImage;
+
+    Bitmap(BufferedImage image) {
+        mImage = image;
+    }
+
+    public int getWidth() {
+        return mImage.getWidth();
+    }
+
+    public int getHeight() {
+        return mImage.getHeight();
+    }
+
+    public int getRowBytes() {
+        return mImage.getWidth() * 4;
+    }
+
+    public int getByteCount() {
+        return getRowBytes() * getHeight();
+    }
+}
@@ -0,0 +1,89 @@
+package android.graphics;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Stand-in for the Android BitmapFactory, limited to decoding files with
+ * ImageIO. inSampleSize keeps every nth pixel in each direction while
+ * decoding, so the full-size image is never held in memory.
+ */
+public final class BitmapFactory {
+    private BitmapFactory() {
+    }
+
+    public static class Options {
+        public boolean inJustDecodeBounds;
+        public int inSampleSize;
+        public int outWidth;
+        public int outHeight;
+    }
+
+    public static Bitmap decodeFile(String pathName) {
+        return decodeFile(pathName, null);
+    }
+
+    /**
+     * @param pathName
+     * @param opts
+     *            may be null
+     * @return the bitmap, or null if the file cannot be decoded or only the
+     *         bounds were asked for
+     */
+    public static Bitmap decodeFile(String pathName, Options opts) {
+        if (opts != null) {
+            opts.outWidth = -1;
+            opts.outHeight = -1;
+        }
+        ImageInputStream in = null;
+        ImageReader reader = null;
+        try {
+            in = ImageIO.createImageInputStream(new File(pathName));
+            if (in == null) {
+                return null;
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            reader = readers.next();
+            reader.setInput(in, true, true);
+            int sampleSize = 1;
+            if (opts != null) {
+                opts.outWidth = reader.getWidth(0);
+                opts.outHeight = reader.getHeight(0);
+                if (opts.inJustDecodeBounds) {
+                    return null;
+                }
+                sampleSize = Math.max(1, opts.inSampleSize);
+            }
+            ImageReadParam param = reader.getDefaultReadParam();
+            param.setSourceSubsampling(sampleSize, sampleSize, 0, 0);
+            BufferedImage image = reader.read(0, param);
+            if (opts != null) {
+                opts.outWidth = image.getWidth();
+                opts.outHeight = image.getHeight();
+            }
+            return new Bitmap(image);
+        } catch (IOException e) {
+            return null;
+        } finally {
+            if (reader != null) {
+                reader.dispose();
+            }
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+}
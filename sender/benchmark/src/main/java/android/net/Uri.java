@@ -0,0 +1,53 @@
+package android.net;
+
+import java.net.URI;
+
+/**
+ * Stand-in for the Android Uri, backed by java.net.URI.
+ */
+public final class Uri {
+    private final String mString;
+    private final URI mUri;
+
+    private Uri(String string) {
+        mString = string;
+        URI uri;
+        try {
+            uri = new URI(string);
+        } catch (Exception e) {
+            uri = null;
+        }
+        mUri = uri;
+    }
+
+    public static Uri parse(String uriString) {
+        return new Uri(uriString);
+    }
+
+    public String getScheme() {
+        return mUri != null ? mUri.getScheme() : null;
+    }
+
+    public String getHost() {
+        return mUri != null ? mUri.getHost() : null;
+    }
+
+    public String getPath() {
+        return mUri != null ? mUri.getPath() : null;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Uri && mString.equals(((Uri) o).mString);
+    }
+
+    @Override
+    public int hashCode() {
+        return mString.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return mString;
+    }
+}
@@ -0,0 +1,7 @@
+package android.os;
+
+/**
+ * Stand-in for the Android Bundle; the stand-in SDK always passes null.
+ */
+public class Bundle {
+}
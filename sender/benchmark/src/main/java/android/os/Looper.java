@@ -0,0 +1,140 @@
+package android.os;
+
+import java.util.Iterator;
+import java.util.PriorityQueue;
+
+/**
+ * Stand-in for the Android message loop, running the Runnables posted
+ * through Handlers in time order.
+ *
+ * There is no UI thread on a desktop JVM, so the main looper runs on a daemon
+ * thread started the first time getMainLooper() is called.
+ */
+public final class Looper {
+    private static final ThreadLocal<Looper> sThreadLocal = new ThreadLocal<Looper>();
+    private static Looper sMainLooper;
+
+    private static final class Message implements Comparable<Message> {
+        final Handler target;
+        final Runnable callback;
+        final long when;
+        final long sequence;
+
+        Message(Handler target, Runnable callback, long when, long sequence) {
+            this.target = target;
+            this.callback = callback;
+            this.when = when;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Message other) {
+            if (when != other.when) {
+                return when < other.when ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1
+                    : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+
+    private final Thread mThread;
+    private final PriorityQueue<Message> mQueue = new PriorityQueue<Message>();
+    private long mSequence;
+    private boolean mQuitting;
+
+    private Looper() {
+        mThread = Thread.currentThread();
+    }
+
+    public static void prepare() {
+        if (sThreadLocal.get() != null) {
+            throw new RuntimeException(
+                    "Only one Looper may be created per thread");
+        }
+        sThreadLocal.set(new Looper());
+    }
+
+    public static Looper myLooper() {
+        return sThreadLocal.get();
+    }
+
+    public static synchronized Looper getMainLooper() {
+        if (sMainLooper == null) {
+            HandlerThread thread = new HandlerThread("main");
+            thread.start();
+            sMainLooper = thread.getLooper();
+        }
+        return sMainLooper;
+    }
+
+    /**
+     * Run the messages of the calling thread's looper until quit() is called.
+     */
+    public static void loop() {
+        Looper looper = myLooper();
+        if (looper == null) {
+            throw new RuntimeException(
+                    "No Looper; Looper.prepare() wasn't called on this thread.");
+        }
+        while (true) {
+            Message message = looper.next();
+            if (message == null) {
+                return;
+            }
+            message.callback.run();
+        }
+    }
+
+    public Thread getThread() {
+        return mThread;
+    }
+
+    /**
+     * Stop the loop; messages still queued are dropped.
+     */
+    public synchronized void quit() {
+        mQuitting = true;
+        mQueue.clear();
+        notifyAll();
+    }
+
+    synchronized boolean enqueue(Handler target, Runnable callback,
+            long uptimeMillis) {
+        if (mQuitting) {
+            return false;
+        }
+        mQueue.add(new Message(target, callback, uptimeMillis, mSequence++));
+        notifyAll();
+        return true;
+    }
+
+    synchronized void remove(Handler target, Runnable callback) {
+        Iterator<Message> it = mQueue.iterator();
+        while (it.hasNext()) {
+            Message message = it.next();
+            if (message.target == target && message.callback == callback) {
+                it.remove();
+            }
+        }
+    }
+
+    private synchronized Message next() {
+        while (!mQuitting) {
+            Message head = mQueue.peek();
+            long now = SystemClock.uptimeMillis();
+            if (head != null && head.when <= now) {
+                return mQueue.poll();
+            }
+            try {
+                if (head == null) {
+                    wait();
+                } else {
+                    wait(head.when - now);
+                }
+            } catch (InterruptedException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+}
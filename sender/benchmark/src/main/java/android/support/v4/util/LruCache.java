@@ -0,0 +1,114 @@
+package android.support.v4.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Stand-in for the support library LruCache: a map bounded by the sum of
+ * sizeOf() over its entries, evicting the least recently used first.
+ * Thread-safe.
+ */
+public class LruCache<K, V> {
+    private final LinkedHashMap<K, V> mMap;
+    private final int mMaxSize;
+    private int mSize;
+    private int mHitCount;
+    private int mMissCount;
+    private int mEvictionCount;
+
+    public LruCache(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        mMaxSize = maxSize;
+        mMap = new LinkedHashMap<K, V>(0, 0.75f, true);
+    }
+
+    public final synchronized V get(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+        V value = mMap.get(key);
+        if (value != null) {
+            mHitCount++;
+        } else {
+            mMissCount++;
+        }
+        return value;
+    }
+
+    public final V put(K key, V value) {
+        if (key == null || value == null) {
+            throw new NullPointerException("key == null || value == null");
+        }
+        V previous;
+        synchronized (this) {
+            mSize += safeSizeOf(key, value);
+            previous = mMap.put(key, value);
+            if (previous != null) {
+                mSize -= safeSizeOf(key, previous);
+            }
+        }
+        trimToSize(mMaxSize);
+        return previous;
+    }
+
+    public final synchronized V remove(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+        V previous = mMap.remove(key);
+        if (previous != null) {
+            mSize -= safeSizeOf(key, previous);
+        }
+        return previous;
+    }
+
+    public synchronized void trimToSize(int maxSize) {
+        Iterator<Map.Entry<K, V>> it = mMap.entrySet().iterator();
+        while (mSize > maxSize && it.hasNext()) {
+            Map.Entry<K, V> eldest = it.next();
+            it.remove();
+            mSize -= safeSizeOf(eldest.getKey(), eldest.getValue());
+            mEvictionCount++;
+        }
+    }
+
+    public final void evictAll() {
+        trimToSize(-1);
+    }
+
+    protected int sizeOf(K key, V value) {
+        return 1;
+    }
+
+    public final synchronized int size() {
+        return mSize;
+    }
+
+    public final synchronized int maxSize() {
+        return mMaxSize;
+    }
+
+    public final synchronized int hitCount() {
+        return mHitCount;
+    }
+
+    public final synchronized int missCount() {
+        return mMissCount;
+    }
+
+    public final synchronized int evictionCount() {
+        return mEvictionCount;
+    }
+
+    private int safeSizeOf(K key, V value) {
+        int result = sizeOf(key, value);
+        if (result < 0) {
+            throw new IllegalStateException("Negative size: " + key + "="
+                    + value);
+        }
+        return result;
+    }
+}
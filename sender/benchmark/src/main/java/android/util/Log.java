@@ -0,0 +1,50 @@
+package android.util;
+
+/**
+ * Stand-in for the Android logger. Warnings and errors go to stderr; debug,
+ * info and verbose messages are dropped so they do not skew measurements.
+ */
+public final class Log {
+    private Log() {
+    }
+
+    public static int v(String tag, String msg) {
+        return 0;
+    }
+
+    public static int d(String tag, String msg) {
+        return 0;
+    }
+
+    public static int d(String tag, String msg, Throwable tr) {
+        return 0;
+    }
+
+    public static int i(String tag, String msg) {
+        return 0;
+    }
+
+    public static int w(String tag, String msg) {
+        return print("W", tag, msg, null);
+    }
+
+    public static int w(String tag, String msg, Throwable tr) {
+        return print("W", tag, msg, tr);
+    }
+
+    public static int e(String tag, String msg) {
+        return print("E", tag, msg, null);
+    }
+
+    public static int e(String tag, String msg, Throwable tr) {
+        return print("E", tag, msg, tr);
+    }
+
+    private static int print(String level, String tag, String msg,
+            Throwable tr) {
+        String line = level + "/" + tag + ": " + msg
+                + (tr != null ? ": " + tr : "");
+        System.err.println(line);
+        return line.length();
+    }
+}
@@ -0,0 +1,51 @@
+package com.infthink.flint.samples.videoplayer.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.infthink.flint.samples.videoplayer.CommandLatencyStats;
+
+/**
+ * Recording a round trip, which every answered command does on the
+ * dispatcher thread, and reading a percentile back. Recording a known
+ * operation should not allocate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandLatencyStatsBenchmark {
+    private CommandLatencyStats mStats;
+    private long mLatency;
+
+    @Setup
+    public void setUp() {
+        mStats = new CommandLatencyStats();
+        for (int i = 0; i < 100000; i++) {
+            mStats.record(CommandLatencyStats.OP_SEEK, i % 500);
+        }
+    }
+
+    @Benchmark
+    public void record() {
+        mLatency = (mLatency + 37) % 2000;
+        mStats.record(CommandLatencyStats.OP_SEEK, mLatency);
+    }
+
+    @Benchmark
+    public long percentile() {
+        return mStats.getPercentile(CommandLatencyStats.OP_SEEK, 99);
+    }
+}
@@ -0,0 +1,1121 @@
+package com.infthink.flint.samples.videoplayer.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import tv.matchstick.flint.FlintDevice;
+import tv.matchstick.flint.MediaInfo;
+import tv.matchstick.flint.MediaMetadata;
+import tv.matchstick.flint.MediaStatus;
+import tv.matchstick.flint.PendingResult;
+import tv.matchstick.flint.RemoteMediaPlayer;
+import tv.matchstick.flint.RemoteMediaPlayer.MediaChannelResult;
+import tv.matchstick.flint.ResultCallback;
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.infthink.flint.samples.videoplayer.CommandLatencyStats;
+import com.infthink.flint.samples.videoplayer.FlintSessionPool;
+import com.infthink.flint.samples.videoplayer.FlintSessionPool.FanOutCallback;
+import com.infthink.flint.samples.videoplayer.LatencyHistogram;
+import com.infthink.flint.samples.videoplayer.MediaCommandDispatcher;
+import com.infthink.flint.samples.videoplayer.PlaybackSyncEngine;
+
+/**
+ * Drives the sender control path against SimulatedReceivers, to measure its
+ * throughput and tail latency without a receiver or network.
+ *
+ * run() sends commands through MediaCommandDispatcher exactly as
+ * FlintVideoManager does. Each lane stands for one sender with its own
+ * dispatcher and runs sessions one after another; a session loads, plays,
+ * scrubs, drags the volume, pauses and stops. The scrub and volume steps are
+ * bursts, so they also exercise command coalescing.
+ *
+ * runPool() connects a FlintSessionPool to many simulated devices through
+ * the stand-in SDK and runs rounds of fan-outs over all of them. Between
+ * rounds a share of the devices lose their connection and the pool
+ * reconnects them, while the dropped connections still send late callbacks.
+ *
+ * runSync() starts the devices of a pool in step with a PlaybackSyncEngine
+ * and keeps them there. The devices differ in latency and media clock rate,
+ * rebuffer after a seek, and now and then one stalls. Skew is measured from
+ * the simulated playback positions, not from what the engine believes.
+ *
+ * Round trips are recorded in a CommandLatencyStats. See main() for the
+ * options.
+ */
+public class ControlPathLoadHarness {
+    private static final String TAG = ControlPathLoadHarness.class
+            .getSimpleName();
+
+    private static final int SCRUB_BURST = 10;
+    private static final int VOLUME_BURST = 5;
+    private static final long STEP_TIMEOUT_MARGIN_MS = 1000;
+    private static final long READY_TIMEOUT_MS = 60000;
+    private static final long READY_POLL_MS = 2;
+    private static final long MAIN_THREAD_TIMEOUT_MS = 10000;
+    private static final int[] SCALING_DEVICES = { 1, 4, 16, 64, 256 };
+    private static final long SYNC_SAMPLE_MS = 50;
+    /* Time the skew must stay within the tolerance to count as converged. */
+    private static final long SYNC_HOLD_MS = 1000;
+    private static final long SYNC_START_TIMEOUT_MS = 10000;
+
+    /** Time to put one fan-out on the wire for all devices. */
+    public static final String OP_FAN_OUT_ISSUE = "fan_out_issue";
+    private static final String APP_URL = "http://openflint.github.io/simple-player-demo/receiver/index.html";
+
+    /**
+     * Outcome of one run.
+     */
+    public static final class Report {
+        public final int sessions;
+        public final long submitted;
+        public final long answered;
+        public final long failed;
+        public final long superseded;
+        public final long stalled;
+        public final long elapsedMs;
+        public final CommandLatencyStats latencyStats;
+
+        Report(int sessions, long submitted, long answered, long failed,
+                long superseded, long stalled, long elapsedMs,
+                CommandLatencyStats latencyStats) {
+            this.sessions = sessions;
+            this.submitted = submitted;
+            this.answered = answered;
+            this.failed = failed;
+            this.superseded = superseded;
+            this.stalled = stalled;
+            this.elapsedMs = elapsedMs;
+            this.latencyStats = latencyStats;
+        }
+
+        /**
+         * @return answered commands per second
+         */
+        public double getThroughput() {
+            return elapsedMs > 0 ? answered * 1000.0 / elapsedMs : 0;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(sessions).append(" sessions in ").append(elapsedMs)
+                    .append("ms: submitted=").append(submitted)
+                    .append(" answered=").append(answered).append(" failed=")
+                    .append(failed).append(" superseded=").append(superseded)
+                    .append(" stalled=").append(stalled)
+                    .append(String.format(" throughput=%.1f/s", getThroughput()));
+            String[] operations = { CommandLatencyStats.OP_LOAD,
+                    CommandLatencyStats.OP_PLAY, CommandLatencyStats.OP_SEEK,
+                    CommandLatencyStats.OP_STREAM_VOLUME,
+                    CommandLatencyStats.OP_PAUSE, CommandLatencyStats.OP_STOP };
+            appendPercentiles(sb, latencyStats, operations);
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Outcome of one runPool().
+     */
+    public static final class PoolReport {
+        public final int devices;
+        public final int rounds;
+        public final int fanOuts;
+        public final long sent;
+        public final long succeeded;
+        public final long failed;
+        public final long timedOut;
+        public final long skipped;
+        public final long drops;
+        /** Callbacks of dropped or replaced connections. */
+        public final long lateCallbacks;
+        /** Sessions suspended by anything but a drop. */
+        public final long unexpectedSuspends;
+        public final long elapsedMs;
+        public final CommandLatencyStats latencyStats;
+
+        PoolReport(int devices, int rounds, int fanOuts, long sent,
+                long succeeded, long failed, long timedOut, long skipped,
+                long drops, long lateCallbacks, long unexpectedSuspends,
+                long elapsedMs, CommandLatencyStats latencyStats) {
+            this.devices = devices;
+            this.rounds = rounds;
+            this.fanOuts = fanOuts;
+            this.sent = sent;
+            this.succeeded = succeeded;
+            this.failed = failed;
+            this.timedOut = timedOut;
+            this.skipped = skipped;
+            this.drops = drops;
+            this.lateCallbacks = lateCallbacks;
+            this.unexpectedSuspends = unexpectedSuspends;
+            this.elapsedMs = elapsedMs;
+            this.latencyStats = latencyStats;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(devices).append(" devices, ").append(rounds)
+                    .append(" rounds in ").append(elapsedMs)
+                    .append("ms: fanOuts=").append(fanOuts).append(" sent=")
+                    .append(sent).append(" ok=").append(succeeded)
+                    .append(" failed=").append(failed).append(" timedOut=")
+                    .append(timedOut).append(" skipped=").append(skipped)
+                    .append(" drops=").append(drops)
+                    .append(" lateCallbacks=").append(lateCallbacks)
+                    .append(" unexpectedSuspends=")
+                    .append(unexpectedSuspends);
+            String[] operations = { CommandLatencyStats.OP_FAN_OUT_LOAD,
+                    CommandLatencyStats.OP_FAN_OUT_PLAY,
+                    CommandLatencyStats.OP_FAN_OUT_SEEK,
+                    CommandLatencyStats.OP_FAN_OUT_PAUSE,
+                    CommandLatencyStats.OP_FAN_OUT_STOP,
+                    CommandLatencyStats.OP_FAN_OUT_TOTAL, OP_FAN_OUT_ISSUE };
+            appendPercentiles(sb, latencyStats, operations);
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Outcome of one runSync().
+     */
+    public static final class SyncReport {
+        public final int devices;
+        public final long tolerance;
+        /** Skew once all devices play after the first start. */
+        public final long coldStartSkew;
+        /** Skew once all devices play after a start with known latencies. */
+        public final long warmStartSkew;
+        public final int stalls;
+        /** Stalls after which the skew got back within the tolerance. */
+        public final int converged;
+        /** Share of the samples within the tolerance while undisturbed. */
+        public final double withinTolerance;
+        public final long ticks;
+        public final long corrections;
+        /** Commands per device and second, fan-outs included. */
+        public final double commandRate;
+        public final long elapsedMs;
+        /** Skew samples while undisturbed. */
+        public final LatencyHistogram skew;
+        /** Time from the end of a stall, or the first start, to convergence. */
+        public final LatencyHistogram convergence;
+
+        SyncReport(int devices, long tolerance, long coldStartSkew,
+                long warmStartSkew, int stalls, int converged,
+                double withinTolerance, long ticks, long corrections,
+                double commandRate, long elapsedMs, LatencyHistogram skew,
+                LatencyHistogram convergence) {
+            this.devices = devices;
+            this.tolerance = tolerance;
+            this.coldStartSkew = coldStartSkew;
+            this.warmStartSkew = warmStartSkew;
+            this.stalls = stalls;
+            this.converged = converged;
+            this.withinTolerance = withinTolerance;
+            this.ticks = ticks;
+            this.corrections = corrections;
+            this.commandRate = commandRate;
+            this.elapsedMs = elapsedMs;
+            this.skew = skew;
+            this.convergence = convergence;
+        }
+
+        @Override
+        public String toString() {
+            return devices + " devices in " + elapsedMs + "ms: tolerance="
+                    + tolerance + " coldStartSkew=" + coldStartSkew
+                    + " warmStartSkew=" + warmStartSkew + " stalls=" + stalls
+                    + " converged=" + converged
+                    + String.format(" withinTolerance=%.3f", withinTolerance)
+                    + " ticks=" + ticks + " corrections=" + corrections
+                    + String.format(" commands/device/s=%.2f", commandRate)
+                    + "\nskew: p50=" + skew.getValueAtPercentile(50)
+                    + " p99=" + skew.getValueAtPercentile(99) + " max="
+                    + skew.getMax() + "\nconvergence: p50="
+                    + convergence.getValueAtPercentile(50) + " p99="
+                    + convergence.getValueAtPercentile(99) + " max="
+                    + convergence.getMax();
+        }
+    }
+
+    private int mSessions = 1000;
+    private int mLanes = 8;
+    private int mDevices = 16;
+    private int mRounds = 50;
+    private double mDropConnectionRate = 0.05;
+    private long mLatencyMs = 20;
+    private long mJitterMs = 10;
+    private double mFailureRate;
+    private double mDropRate;
+    private long mTimeoutMs = SimulatedReceiver.DEFAULT_TIMEOUT_MS;
+    private long mSeed = 1;
+    private long mSyncMs = 60000;
+    private long mLatencySpreadMs = 300;
+    private double mClockDrift = 0.002;
+    private long mSeekDelayMs = 200;
+    private long mStallMs = 1000;
+    private long mStallIntervalMs = 15000;
+    private long mTolerance = PlaybackSyncEngine.DEFAULT_TOLERANCE_MS;
+
+    private final AtomicInteger mAnswered = new AtomicInteger();
+    private final AtomicInteger mFailed = new AtomicInteger();
+    private final AtomicInteger mStalled = new AtomicInteger();
+
+    /**
+     * @param sessions
+     *            total number of media sessions
+     * @param lanes
+     *            number of senders running sessions in parallel
+     */
+    public void setSessions(int sessions, int lanes) {
+        mSessions = sessions;
+        mLanes = lanes;
+    }
+
+    /**
+     * @param latencyMs
+     * @param jitterMs
+     * @see SimulatedReceiver#setLatency(long, long)
+     */
+    public void setLatency(long latencyMs, long jitterMs) {
+        mLatencyMs = latencyMs;
+        mJitterMs = jitterMs;
+    }
+
+    /**
+     * @param failureRate
+     * @param dropRate
+     * @param timeoutMs
+     * @see SimulatedReceiver#setFailureRates(double, double)
+     */
+    public void setFailures(double failureRate, double dropRate,
+            long timeoutMs) {
+        mFailureRate = failureRate;
+        mDropRate = dropRate;
+        mTimeoutMs = timeoutMs;
+    }
+
+    /**
+     * @param devices
+     *            number of devices in the pool
+     * @param rounds
+     *            number of rounds of load, play, seek, pause and stop
+     * @param dropConnectionRate
+     *            share of the devices that lose their connection before
+     *            each round
+     */
+    public void setPool(int devices, int rounds, double dropConnectionRate) {
+        mDevices = devices;
+        mRounds = rounds;
+        mDropConnectionRate = dropConnectionRate;
+    }
+
+    public void setSeed(long seed) {
+        mSeed = seed;
+    }
+
+    /**
+     * @param syncMs
+     *            how long runSync() keeps the devices playing
+     * @param latencySpreadMs
+     *            the latencies of the devices are spread evenly from the
+     *            latency to the latency plus this
+     * @param clockDrift
+     *            largest deviation of a media clock rate from 1, e.g. 0.002
+     *            for 2 ms per second
+     * @param seekDelayMs
+     * @see SimulatedReceiver#setSeekDelay(long)
+     */
+    public void setSync(long syncMs, long latencySpreadMs, double clockDrift,
+            long seekDelayMs) {
+        mSyncMs = syncMs;
+        mLatencySpreadMs = latencySpreadMs;
+        mClockDrift = clockDrift;
+        mSeekDelayMs = seekDelayMs;
+    }
+
+    /**
+     * @param stallMs
+     *            how long a stalled device freezes
+     * @param stallIntervalMs
+     *            time between stalls, each of a random device; 0 for none
+     */
+    public void setStalls(long stallMs, long stallIntervalMs) {
+        mStallMs = stallMs;
+        mStallIntervalMs = stallIntervalMs;
+    }
+
+    public void setTolerance(long tolerance) {
+        mTolerance = tolerance;
+    }
+
+    /**
+     * Run all sessions and wait for them. Results of the dispatchers are
+     * delivered on the main thread, so this must be called from another one.
+     *
+     * @return
+     * @throws InterruptedException
+     */
+    public Report run() throws InterruptedException {
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            throw new IllegalStateException("run() blocks the main thread");
+        }
+        mAnswered.set(0);
+        mFailed.set(0);
+        mStalled.set(0);
+
+        final CommandLatencyStats stats = new CommandLatencyStats();
+        final ScheduledExecutorService scheduler = Executors
+                .newScheduledThreadPool(2);
+        final AtomicInteger nextSession = new AtomicInteger();
+        final List<MediaCommandDispatcher> dispatchers = new ArrayList<MediaCommandDispatcher>();
+        List<Thread> threads = new ArrayList<Thread>();
+
+        long start = SystemClock.elapsedRealtime();
+        for (int lane = 0; lane < mLanes; lane++) {
+            final MediaCommandDispatcher dispatcher = new MediaCommandDispatcher(
+                    stats);
+            dispatchers.add(dispatcher);
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    int session;
+                    while ((session = nextSession.getAndIncrement()) < mSessions) {
+                        SimulatedReceiver receiver = new SimulatedReceiver(
+                                scheduler, mSeed + session);
+                        receiver.setLatency(mLatencyMs, mJitterMs);
+                        receiver.setFailureRates(mFailureRate, mDropRate);
+                        receiver.setTimeout(mTimeoutMs);
+                        try {
+                            runSession(dispatcher, receiver, session);
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                }
+            }, TAG + "-" + lane);
+            threads.add(thread);
+            thread.start();
+        }
+        try {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } finally {
+            for (Thread thread : threads) {
+                thread.interrupt();
+            }
+            scheduler.shutdownNow();
+        }
+        long elapsed = SystemClock.elapsedRealtime() - start;
+
+        long submitted = 0;
+        long superseded = 0;
+        for (MediaCommandDispatcher dispatcher : dispatchers) {
+            submitted += dispatcher.getSubmittedCount();
+            superseded += dispatcher.getSupersededCount();
+            dispatcher.quit();
+        }
+        Report report = new Report(mSessions, submitted, mAnswered.get(),
+                mFailed.get(), superseded, mStalled.get(), elapsed, stats);
+        Log.d(TAG, report.toString());
+        return report;
+    }
+
+    /**
+     * Connect a FlintSessionPool to the devices and run the rounds. The pool
+     * is driven on the main thread, so this must be called from another one.
+     *
+     * @return
+     * @throws InterruptedException
+     */
+    public PoolReport runPool() throws InterruptedException {
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            throw new IllegalStateException("runPool() blocks the main thread");
+        }
+        final CommandLatencyStats stats = new CommandLatencyStats();
+        final ScheduledExecutorService scheduler = Executors
+                .newScheduledThreadPool(2);
+        final List<SimulatedReceiver> receivers = new ArrayList<SimulatedReceiver>();
+        final List<FlintDevice> devices = new ArrayList<FlintDevice>();
+        for (int i = 0; i < mDevices; i++) {
+            SimulatedReceiver receiver = new SimulatedReceiver(scheduler,
+                    mSeed + i);
+            receiver.setLatency(mLatencyMs, mJitterMs);
+            receiver.setFailureRates(mFailureRate, mDropRate);
+            receiver.setTimeout(mTimeoutMs);
+            receivers.add(receiver);
+            devices.add(new FlintDevice("device-" + i, "Receiver " + i,
+                    receiver));
+        }
+
+        final AtomicInteger suspends = new AtomicInteger();
+        final FlintSessionPool pool = newPool(devices, stats, suspends);
+
+        Random random = new Random(mSeed);
+        long start = SystemClock.elapsedRealtime();
+        long drops = 0;
+        int fanOuts = 0;
+        long sent = 0;
+        long succeeded = 0;
+        long failed = 0;
+        long timedOut = 0;
+        long skipped = 0;
+        try {
+            awaitReady(pool, suspends, 0);
+            for (int round = 0; round < mRounds; round++) {
+                if (round > 0 && mDropConnectionRate > 0) {
+                    for (SimulatedReceiver receiver : receivers) {
+                        if (random.nextDouble() < mDropConnectionRate
+                                && receiver.dropConnection()) {
+                            drops++;
+                        }
+                    }
+                    awaitReady(pool, suspends, drops);
+                }
+                for (FlintSessionPool.FanOutResult result : runRound(pool,
+                        round)) {
+                    stats.record(OP_FAN_OUT_ISSUE, result.issueMs);
+                    fanOuts++;
+                    sent += result.sent;
+                    succeeded += result.succeeded;
+                    failed += result.failed;
+                    timedOut += result.timedOut;
+                    skipped += result.skipped;
+                }
+            }
+        } finally {
+            try {
+                onMainThread(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        pool.release();
+                        return null;
+                    }
+                });
+            } finally {
+                scheduler.shutdownNow();
+            }
+        }
+        long elapsed = SystemClock.elapsedRealtime() - start;
+
+        long lateCallbacks = 0;
+        for (SimulatedReceiver receiver : receivers) {
+            lateCallbacks += receiver.getLateCallbackCount();
+        }
+        PoolReport report = new PoolReport(mDevices, mRounds, fanOuts, sent,
+                succeeded, failed, timedOut, skipped, drops, lateCallbacks,
+                suspends.get() - drops, elapsed, stats);
+        Log.d(TAG, report.toString());
+        return report;
+    }
+
+    /**
+     * Start a pool in step with a PlaybackSyncEngine and keep it playing for
+     * the sync time, stalling a device now and then, then start it again
+     * with the latencies the engine has learned. The pool is driven on the
+     * main thread, so this must be called from another one.
+     *
+     * @return
+     * @throws InterruptedException
+     */
+    public SyncReport runSync() throws InterruptedException {
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            throw new IllegalStateException("runSync() blocks the main thread");
+        }
+        final ScheduledExecutorService scheduler = Executors
+                .newScheduledThreadPool(2);
+        Random random = new Random(mSeed);
+        final List<SimulatedReceiver> receivers = new ArrayList<SimulatedReceiver>();
+        final List<FlintDevice> devices = new ArrayList<FlintDevice>();
+        for (int i = 0; i < mDevices; i++) {
+            SimulatedReceiver receiver = new SimulatedReceiver(scheduler,
+                    mSeed + i);
+            long spread = mDevices > 1 ? mLatencySpreadMs * i / (mDevices - 1)
+                    : 0;
+            receiver.setLatency(mLatencyMs + spread, mJitterMs);
+            receiver.setClockRate(1 + mClockDrift
+                    * (2 * random.nextDouble() - 1));
+            receiver.setSeekDelay(mSeekDelayMs);
+            receivers.add(receiver);
+            devices.add(new FlintDevice("device-" + i, "Receiver " + i,
+                    receiver));
+        }
+
+        final AtomicInteger suspends = new AtomicInteger();
+        final FlintSessionPool pool = newPool(devices, null, suspends);
+        final PlaybackSyncEngine engine = onMainThread(new Callable<PlaybackSyncEngine>() {
+            @Override
+            public PlaybackSyncEngine call() {
+                PlaybackSyncEngine engine = new PlaybackSyncEngine(pool, null);
+                engine.setTolerance(mTolerance);
+                return engine;
+            }
+        });
+
+        LatencyHistogram skew = new LatencyHistogram();
+        LatencyHistogram convergence = new LatencyHistogram();
+        long[] positions = new long[mDevices];
+        long start = SystemClock.elapsedRealtime();
+        long coldStartSkew;
+        long warmStartSkew;
+        int stalls = 0;
+        int converged = 0;
+        long samples = 0;
+        long within = 0;
+        long[] counts;
+        try {
+            awaitReady(pool, suspends, 0);
+            MediaInfo mediaInfo = newMediaInfo("Sync 0");
+            startSynchronized(engine, mediaInfo);
+            coldStartSkew = awaitStart(receivers, mediaInfo, positions);
+
+            // Disturbed from the start or the end of the last stall until
+            // the skew stays within the tolerance.
+            long now = SystemClock.elapsedRealtime();
+            boolean disturbed = true;
+            boolean stalled = false;
+            long disturbedSince = now;
+            long withinSince = -1;
+            long nextStall = mStallIntervalMs > 0 ? now + mStallIntervalMs
+                    : Long.MAX_VALUE;
+            long end = now + mSyncMs;
+            while ((now = SystemClock.elapsedRealtime()) < end) {
+                if (now >= nextStall) {
+                    nextStall = now + mStallIntervalMs;
+                    if (receivers.get(random.nextInt(mDevices))
+                            .stall(mStallMs)) {
+                        stalls++;
+                        disturbed = true;
+                        stalled = true;
+                        disturbedSince = now + mStallMs;
+                        withinSince = -1;
+                    }
+                }
+                long current = getSkew(receivers, mediaInfo, positions, true);
+                if (disturbed) {
+                    if (now < disturbedSince || current < 0
+                            || current > mTolerance) {
+                        withinSince = -1;
+                    } else if (withinSince < 0) {
+                        withinSince = now;
+                    } else if (now - withinSince >= SYNC_HOLD_MS) {
+                        convergence.record(withinSince - disturbedSince);
+                        disturbed = false;
+                        if (stalled) {
+                            converged++;
+                            stalled = false;
+                        }
+                    }
+                } else if (current >= 0) {
+                    skew.record(current);
+                    samples++;
+                    if (current <= mTolerance) {
+                        within++;
+                    }
+                }
+                Thread.sleep(SYNC_SAMPLE_MS);
+            }
+
+            mediaInfo = newMediaInfo("Sync 1");
+            startSynchronized(engine, mediaInfo);
+            warmStartSkew = awaitStart(receivers, mediaInfo, positions);
+        } finally {
+            try {
+                counts = onMainThread(new Callable<long[]>() {
+                    @Override
+                    public long[] call() {
+                        long[] counts = { engine.getTickCount(),
+                                engine.getCorrectionCount() };
+                        engine.stop();
+                        pool.release();
+                        return counts;
+                    }
+                });
+            } finally {
+                scheduler.shutdownNow();
+            }
+        }
+        long elapsed = SystemClock.elapsedRealtime() - start;
+
+        long commands = 0;
+        for (SimulatedReceiver receiver : receivers) {
+            commands += receiver.getCommandCount();
+        }
+        SyncReport report = new SyncReport(mDevices, mTolerance,
+                coldStartSkew, warmStartSkew, stalls, converged,
+                samples > 0 ? (double) within / samples : 0, counts[0],
+                counts[1], commands * 1000.0 / mDevices / elapsed, elapsed,
+                skew, convergence);
+        Log.d(TAG, report.toString());
+        return report;
+    }
+
+    private static void startSynchronized(final PlaybackSyncEngine engine,
+            final MediaInfo mediaInfo) throws InterruptedException {
+        onMainThread(new Callable<Void>() {
+            @Override
+            public Void call() {
+                engine.startSynchronized(mediaInfo, 0);
+                return null;
+            }
+        });
+    }
+
+    /*
+     * Wait until every device plays the media.
+     *
+     * @return the skew then
+     */
+    private static long awaitStart(List<SimulatedReceiver> receivers,
+            MediaInfo mediaInfo, long[] positions) throws InterruptedException {
+        long deadline = SystemClock.elapsedRealtime() + SYNC_START_TIMEOUT_MS;
+        while (true) {
+            long skew = getSkew(receivers, mediaInfo, positions, false);
+            if (skew >= 0) {
+                return skew;
+            }
+            if (SystemClock.elapsedRealtime() > deadline) {
+                throw new IllegalStateException("Devices did not start playing");
+            }
+            Thread.sleep(1);
+        }
+    }
+
+    /*
+     * A device rebuffering after a seek shows no frames, so only playing
+     * devices count; buffering ones are let off unless buffering is false.
+     *
+     * @return largest distance of a playing device from the median position
+     *         in ms, or -1 unless every device plays the media
+     */
+    private static long getSkew(List<SimulatedReceiver> receivers,
+            MediaInfo mediaInfo, long[] positions, boolean buffering) {
+        int playing = 0;
+        for (SimulatedReceiver receiver : receivers) {
+            int state = receiver.getPlayerState();
+            if (receiver.getMediaInfo() != mediaInfo) {
+                return -1;
+            }
+            if (state == MediaStatus.PLAYER_STATE_PLAYING) {
+                positions[playing++] = receiver.getPosition();
+            } else if (state != MediaStatus.PLAYER_STATE_BUFFERING
+                    || !buffering) {
+                return -1;
+            }
+        }
+        if (playing == 0) {
+            return -1;
+        }
+        Arrays.sort(positions, 0, playing);
+        long median = positions[playing / 2];
+        return Math.max(median - positions[0], positions[playing - 1]
+                - median);
+    }
+
+    private static FlintSessionPool newPool(final List<FlintDevice> devices,
+            final CommandLatencyStats stats, final AtomicInteger suspends)
+            throws InterruptedException {
+        return onMainThread(new Callable<FlintSessionPool>() {
+            @Override
+            public FlintSessionPool call() {
+                FlintSessionPool pool = new FlintSessionPool(new Context(),
+                        APP_URL, stats);
+                pool.setListener(new FlintSessionPool.Listener() {
+                    @Override
+                    public void onSessionStateChanged(
+                            FlintSessionPool.Session session) {
+                        if (session.getState() == FlintSessionPool.STATE_SUSPENDED) {
+                            suspends.incrementAndGet();
+                        }
+                    }
+                });
+                for (FlintDevice device : devices) {
+                    pool.addDevice(device, null);
+                }
+                return pool;
+            }
+        });
+    }
+
+    private static MediaInfo newMediaInfo(String name) {
+        MediaMetadata metadata = new MediaMetadata(
+                MediaMetadata.MEDIA_TYPE_MOVIE);
+        metadata.putString(MediaMetadata.KEY_TITLE, name);
+        return new MediaInfo.Builder("http://localhost/media/"
+                + name.replace(' ', '-') + ".mp4")
+                .setStreamType(MediaInfo.STREAM_TYPE_BUFFERED)
+                .setContentType("video/mp4").setMetadata(metadata).build();
+    }
+
+    private static List<FlintSessionPool.FanOutResult> runRound(
+            final FlintSessionPool pool, final int round)
+            throws InterruptedException {
+        final MediaInfo mediaInfo = newMediaInfo("Round " + round);
+
+        List<FlintSessionPool.FanOutResult> results = new ArrayList<FlintSessionPool.FanOutResult>();
+        results.add(fanOut(new PoolStep() {
+            @Override
+            public void run(FanOutCallback callback) {
+                pool.load(null, mediaInfo, false, callback);
+            }
+        }));
+        results.add(fanOut(new PoolStep() {
+            @Override
+            public void run(FanOutCallback callback) {
+                pool.play(null, callback);
+            }
+        }));
+        results.add(fanOut(new PoolStep() {
+            @Override
+            public void run(FanOutCallback callback) {
+                pool.seek(null, 60000, RemoteMediaPlayer.RESUME_STATE_UNCHANGED,
+                        callback);
+            }
+        }));
+        results.add(fanOut(new PoolStep() {
+            @Override
+            public void run(FanOutCallback callback) {
+                pool.pause(null, callback);
+            }
+        }));
+        results.add(fanOut(new PoolStep() {
+            @Override
+            public void run(FanOutCallback callback) {
+                pool.stop(null, callback);
+            }
+        }));
+        return results;
+    }
+
+    interface PoolStep {
+        void run(FanOutCallback callback);
+    }
+
+    static FlintSessionPool.FanOutResult fanOut(final PoolStep step)
+            throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicReference<FlintSessionPool.FanOutResult> result = new AtomicReference<FlintSessionPool.FanOutResult>();
+        onMainThread(new Callable<Void>() {
+            @Override
+            public Void call() {
+                step.run(new FanOutCallback() {
+                    @Override
+                    public void onFanOutCompleted(
+                            FlintSessionPool.FanOutResult fanOutResult) {
+                        result.set(fanOutResult);
+                        done.countDown();
+                    }
+                });
+                return null;
+            }
+        });
+        if (!done.await(FlintSessionPool.FAN_OUT_TIMEOUT_MS
+                + STEP_TIMEOUT_MARGIN_MS, TimeUnit.MILLISECONDS)) {
+            throw new IllegalStateException("Fan-out did not complete");
+        }
+        return result.get();
+    }
+
+    /**
+     * Wait until the pool has seen the drops so far and every session is
+     * ready again, reconnecting the ones that failed or were suspended.
+     */
+    static void awaitReady(final FlintSessionPool pool,
+            AtomicInteger suspends, long drops) throws InterruptedException {
+        long deadline = SystemClock.elapsedRealtime() + READY_TIMEOUT_MS;
+        while (suspends.get() < drops) {
+            if (SystemClock.elapsedRealtime() > deadline) {
+                throw new IllegalStateException("Drops were not reported");
+            }
+            Thread.sleep(READY_POLL_MS);
+        }
+        while (true) {
+            int notReady = onMainThread(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    int notReady = 0;
+                    boolean reconnect = false;
+                    for (FlintSessionPool.Session session : pool
+                            .getSessions()) {
+                        int state = session.getState();
+                        if (state != FlintSessionPool.STATE_READY) {
+                            notReady++;
+                        }
+                        if (state == FlintSessionPool.STATE_FAILED
+                                || state == FlintSessionPool.STATE_SUSPENDED) {
+                            reconnect = true;
+                        }
+                    }
+                    if (reconnect) {
+                        pool.reconnect();
+                    }
+                    return notReady;
+                }
+            });
+            if (notReady == 0) {
+                return;
+            }
+            if (SystemClock.elapsedRealtime() > deadline) {
+                throw new IllegalStateException(notReady
+                        + " sessions did not get ready");
+            }
+            Thread.sleep(READY_POLL_MS);
+        }
+    }
+
+    static <T> T onMainThread(Callable<T> callable)
+            throws InterruptedException {
+        FutureTask<T> task = new FutureTask<T>(callable);
+        new Handler(Looper.getMainLooper()).post(task);
+        try {
+            return task.get(MAIN_THREAD_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (TimeoutException e) {
+            // E.g. an exception in a callback ended the main thread.
+            throw new IllegalStateException("The main thread is not responding");
+        }
+    }
+
+    private void runSession(MediaCommandDispatcher dispatcher,
+            final SimulatedReceiver receiver, int session)
+            throws InterruptedException {
+        final MediaInfo mediaInfo = newMediaInfo("Session " + session);
+
+        await(dispatcher, new SimulatedCommand(MediaCommandDispatcher.KEY_LOAD,
+                CommandLatencyStats.OP_LOAD) {
+            @Override
+            protected PendingResult<MediaChannelResult> send() {
+                return receiver.load(mediaInfo, false, 0);
+            }
+        });
+        await(dispatcher, new SimulatedCommand(
+                MediaCommandDispatcher.KEY_PLAYBACK,
+                CommandLatencyStats.OP_PLAY) {
+            @Override
+            protected PendingResult<MediaChannelResult> send() {
+                return receiver.play();
+            }
+        });
+
+        SimulatedCommand last = null;
+        for (int i = 1; i <= SCRUB_BURST; i++) {
+            final long position = i * 1000;
+            last = new SimulatedCommand(MediaCommandDispatcher.KEY_SEEK,
+                    CommandLatencyStats.OP_SEEK) {
+                @Override
+                protected PendingResult<MediaChannelResult> send() {
+                    return receiver.seek(position,
+                            RemoteMediaPlayer.RESUME_STATE_UNCHANGED);
+                }
+            };
+            dispatcher.submit(last);
+        }
+        // The last command of a burst is never superseded.
+        await(last);
+
+        for (int i = 1; i <= VOLUME_BURST; i++) {
+            final double volume = (double) i / VOLUME_BURST;
+            last = new SimulatedCommand(
+                    MediaCommandDispatcher.KEY_STREAM_VOLUME,
+                    CommandLatencyStats.OP_STREAM_VOLUME) {
+                @Override
+                protected PendingResult<MediaChannelResult> send() {
+                    return receiver.setStreamVolume(volume);
+                }
+            };
+            dispatcher.submit(last);
+        }
+        await(last);
+
+        await(dispatcher, new SimulatedCommand(
+                MediaCommandDispatcher.KEY_PLAYBACK,
+                CommandLatencyStats.OP_PAUSE) {
+            @Override
+            protected PendingResult<MediaChannelResult> send() {
+                return receiver.pause();
+            }
+        });
+        await(dispatcher, new SimulatedCommand(MediaCommandDispatcher.KEY_STOP,
+                CommandLatencyStats.OP_STOP) {
+            @Override
+            protected PendingResult<MediaChannelResult> send() {
+                return receiver.stop();
+            }
+        });
+    }
+
+    private void await(MediaCommandDispatcher dispatcher,
+            SimulatedCommand command) throws InterruptedException {
+        dispatcher.submit(command);
+        await(command);
+    }
+
+    private void await(SimulatedCommand command) throws InterruptedException {
+        if (!command.mDone.await(mTimeoutMs + mLatencyMs + mJitterMs * 20
+                + STEP_TIMEOUT_MARGIN_MS, TimeUnit.MILLISECONDS)) {
+            mStalled.incrementAndGet();
+        }
+    }
+
+    private abstract class SimulatedCommand extends
+            MediaCommandDispatcher.Command {
+        final CountDownLatch mDone;
+
+        SimulatedCommand(String key, String operation) {
+            this(key, operation, new CountDownLatch(1));
+        }
+
+        private SimulatedCommand(String key, String operation,
+                final CountDownLatch done) {
+            super(key, operation, new ResultCallback<MediaChannelResult>() {
+                @Override
+                public void onResult(MediaChannelResult result) {
+                    if (!result.getStatus().isSuccess()) {
+                        mFailed.incrementAndGet();
+                    }
+                    done.countDown();
+                }
+            });
+            mDone = done;
+        }
+
+        @Override
+        protected void onCompleted(MediaChannelResult result, long roundTripMs) {
+            mAnswered.incrementAndGet();
+        }
+    }
+    private static void appendPercentiles(StringBuilder sb,
+            CommandLatencyStats latencyStats, String[] operations) {
+        for (String operation : operations) {
+            LatencyHistogram histogram = latencyStats.getHistogram(operation);
+            sb.append('\n').append(operation).append(": p50=")
+                    .append(histogram.getValueAtPercentile(50))
+                    .append(" p99=")
+                    .append(histogram.getValueAtPercentile(99))
+                    .append(" p99.9=")
+                    .append(histogram.getValueAtPercentile(99.9))
+                    .append(" max=").append(histogram.getMax());
+        }
+    }
+
+    /**
+     * Usage: java -cp target/benchmarks.jar
+     * com.infthink.flint.samples.videoplayer.benchmark.ControlPathLoadHarness
+     * [lanes|pool|scaling|sync] [name=value...]
+     *
+     * Without a mode the lanes and pool runs are made. Options are sessions,
+     * lanes, devices, rounds, drop_connection, latency, jitter, failure,
+     * drop, timeout and seed; latencies are in ms and rates between 0 and 1.
+     *
+     * Mode sync makes a runSync() with the options devices, latency,
+     * jitter, seed, sync_seconds, latency_spread, drift, seek_delay, stall,
+     * stall_interval and tolerance.
+     *
+     * Mode scaling makes a pool run for 1, 4, 16, 64 and 256 devices and
+     * prints one line per run, to show how fan-out latency follows the
+     * device count.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        String mode = null;
+        Map<String, String> options = new HashMap<String, String>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq < 0) {
+                mode = arg;
+            } else {
+                options.put(arg.substring(0, eq), arg.substring(eq + 1));
+            }
+        }
+
+        ControlPathLoadHarness harness = new ControlPathLoadHarness();
+        harness.setSessions(
+                (int) option(options, "sessions", harness.mSessions),
+                (int) option(options, "lanes", harness.mLanes));
+        harness.setPool((int) option(options, "devices", harness.mDevices),
+                (int) option(options, "rounds", harness.mRounds),
+                option(options, "drop_connection", harness.mDropConnectionRate));
+        harness.setLatency((long) option(options, "latency", harness.mLatencyMs),
+                (long) option(options, "jitter", harness.mJitterMs));
+        harness.setFailures(option(options, "failure", harness.mFailureRate),
+                option(options, "drop", harness.mDropRate),
+                (long) option(options, "timeout", harness.mTimeoutMs));
+        harness.setSeed((long) option(options, "seed", harness.mSeed));
+        harness.setSync(
+                (long) (option(options, "sync_seconds", harness.mSyncMs / 1000.0) * 1000),
+                (long) option(options, "latency_spread",
+                        harness.mLatencySpreadMs),
+                option(options, "drift", harness.mClockDrift),
+                (long) option(options, "seek_delay", harness.mSeekDelayMs));
+        harness.setStalls((long) option(options, "stall", harness.mStallMs),
+                (long) option(options, "stall_interval",
+                        harness.mStallIntervalMs));
+        harness.setTolerance((long) option(options, "tolerance",
+                harness.mTolerance));
+        if (!options.isEmpty()) {
+            throw new IllegalArgumentException("Unknown options "
+                    + options.keySet());
+        }
+
+        if (mode == null || mode.equals("lanes")) {
+            System.out.println(harness.run());
+        }
+        if (mode == null || mode.equals("pool")) {
+            System.out.println(harness.runPool());
+        }
+        if ("sync".equals(mode)) {
+            System.out.println(harness.runSync());
+        }
+        if ("scaling".equals(mode)) {
+            System.out.println("devices  play p50/p99  fan-out p50/p99/max  issue p99  ok/sent  unexpectedSuspends");
+            for (int devices : SCALING_DEVICES) {
+                harness.mDevices = devices;
+                PoolReport report = harness.runPool();
+                LatencyHistogram device = report.latencyStats
+                        .getHistogram(CommandLatencyStats.OP_FAN_OUT_PLAY);
+                LatencyHistogram total = report.latencyStats
+                        .getHistogram(CommandLatencyStats.OP_FAN_OUT_TOTAL);
+                LatencyHistogram issue = report.latencyStats
+                        .getHistogram(OP_FAN_OUT_ISSUE);
+                System.out.println(String.format(
+                        "%7d  %6d/%-6d  %7d/%d/%-7d  %9d  %d/%d  %d", devices,
+                        device.getValueAtPercentile(50),
+                        device.getValueAtPercentile(99),
+                        total.getValueAtPercentile(50),
+                        total.getValueAtPercentile(99), total.getMax(),
+                        issue.getValueAtPercentile(99), report.succeeded,
+                        report.sent, report.unexpectedSuspends));
+            }
+        }
+    }
+
+    private static double option(Map<String, String> options, String name,
+            double defaultValue) {
+        String value = options.remove(name);
+        return value != null ? Double.parseDouble(value) : defaultValue;
+    }
+}
@@ -0,0 +1,108 @@
+package com.infthink.flint.samples.videoplayer.benchmark;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import tv.matchstick.flint.FlintDevice;
+import tv.matchstick.flint.RemoteMediaPlayer;
+import android.content.Context;
+
+import com.infthink.flint.samples.videoplayer.FlintSessionPool;
+import com.infthink.flint.samples.videoplayer.FlintSessionPool.FanOutCallback;
+
+/**
+ * Sender-side cost of a FlintSessionPool fan-out, from the call on the main
+ * thread to the completion callback, against receivers that answer at once.
+ *
+ * With no network latency the time is all sender work, so it grows with the
+ * device count; divide by the count for the cost per device. How the
+ * latency over a network follows the count is what
+ * "ControlPathLoadHarness scaling" shows.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FlintSessionPoolBenchmark {
+    @Param({ "1", "4", "16", "64", "256" })
+    public int devices;
+
+    private ScheduledExecutorService mScheduler;
+    private FlintSessionPool mPool;
+
+    @Setup
+    public void setUp() throws InterruptedException {
+        mScheduler = Executors.newScheduledThreadPool(2);
+        mPool = ControlPathLoadHarness
+                .onMainThread(new Callable<FlintSessionPool>() {
+                    @Override
+                    public FlintSessionPool call() {
+                        FlintSessionPool pool = new FlintSessionPool(
+                                new Context(), "http://localhost/receiver",
+                                null);
+                        for (int i = 0; i < devices; i++) {
+                            SimulatedReceiver receiver = new SimulatedReceiver(
+                                    mScheduler, i);
+                            pool.addDevice(new FlintDevice("device-" + i,
+                                    "Receiver " + i, receiver), null);
+                        }
+                        return pool;
+                    }
+                });
+        ControlPathLoadHarness.awaitReady(mPool, new AtomicInteger(), 0);
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        ControlPathLoadHarness.onMainThread(new Callable<Void>() {
+            @Override
+            public Void call() {
+                mPool.release();
+                return null;
+            }
+        });
+        mScheduler.shutdownNow();
+    }
+
+    @Benchmark
+    public FlintSessionPool.FanOutResult play() throws InterruptedException {
+        return ControlPathLoadHarness
+                .fanOut(new ControlPathLoadHarness.PoolStep() {
+                    @Override
+                    public void run(FanOutCallback callback) {
+                        mPool.play(null, callback);
+                    }
+                });
+    }
+
+    @Benchmark
+    public FlintSessionPool.FanOutResult seek() throws InterruptedException {
+        return ControlPathLoadHarness
+                .fanOut(new ControlPathLoadHarness.PoolStep() {
+                    @Override
+                    public void run(FanOutCallback callback) {
+                        mPool.seek(null, 60000,
+                                RemoteMediaPlayer.RESUME_STATE_UNCHANGED,
+                                callback);
+                    }
+                });
+    }
+}
@@ -0,0 +1,642 @@
+package com.infthink.flint.samples.videoplayer.benchmark;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.imageio.ImageIO;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.infthink.flint.samples.videoplayer.ImageCache;
+import com.infthink.flint.samples.videoplayer.LatencyHistogram;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Runs ImageCache against a local HTTP server of generated posters and
+ * checks what it promises: one download per URL however many requests
+ * arrive at once, bitmaps downsampled to the requested size, and hit-rate
+ * and bytes-saved counters that agree with what the server actually sent.
+ *
+ * The prefetch step downloads posters ahead of the requests for them, which
+ * must count as downloads but not as requests or hits. The browse step
+ * scrolls a grid of thumbnails a row at a time, going back
+ * now and then and jumping to popular rows, with a memory budget that holds
+ * only a few rows. The restart step opens a new cache on the same directory,
+ * which must not download anything. Each check prints ok or FAIL; the exit
+ * status is 1 if any failed.
+ *
+ * Usage: java -cp target/benchmarks.jar
+ * com.infthink.flint.samples.videoplayer.benchmark.ImageCacheTest
+ * [name=value...]
+ *
+ * Options are posters (200), rows to browse (300), latency of the server in
+ * ms (50) and memory_mb, the budget for decoded bitmaps (4).
+ */
+public final class ImageCacheTest {
+    private static final int POSTER_WIDTH = 1280;
+    private static final int POSTER_HEIGHT = 720;
+    private static final int THUMB_WIDTH = 320;
+    private static final int THUMB_HEIGHT = 180;
+    private static final int ROW = 8;
+    private static final int DUPLICATES = 16;
+    private static final int RESTART_POSTERS = 40;
+    /* Prefetched posters start after the two the first steps use. */
+    private static final int PREFETCH_FIRST = 2;
+    private static final int PREFETCH_POSTERS = 16;
+    private static final long LOAD_TIMEOUT_MS = 30000;
+
+    /**
+     * Serves /poster/&lt;n&gt;.jpg, generated on start, after a fixed
+     * latency, and counts requests per path. Anything else is a 404.
+     */
+    private static final class PosterServer implements HttpHandler {
+        private static final String PREFIX = "/poster/";
+
+        private final HttpServer mServer;
+        private final ExecutorService mExecutor = Executors
+                .newFixedThreadPool(8);
+        private final byte[][] mPosters;
+        private final long mLatencyMs;
+        private final Map<String, AtomicInteger> mRequests = new ConcurrentHashMap<String, AtomicInteger>();
+        private final AtomicLong mBytesSent = new AtomicLong();
+
+        PosterServer(int posters, long latencyMs) throws IOException {
+            mPosters = new byte[posters][];
+            Random random = new Random(1);
+            for (int i = 0; i < posters; i++) {
+                mPosters[i] = generate(i, random);
+            }
+            mLatencyMs = latencyMs;
+            mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0),
+                    64);
+            mServer.createContext("/", this);
+            mServer.setExecutor(mExecutor);
+            mServer.start();
+        }
+
+        String getUrl(int poster) {
+            return "http://127.0.0.1:" + mServer.getAddress().getPort()
+                    + PREFIX + poster + ".jpg";
+        }
+
+        String getMissingUrl() {
+            return "http://127.0.0.1:" + mServer.getAddress().getPort()
+                    + "/missing.jpg";
+        }
+
+        int getSize(int poster) {
+            return mPosters[poster].length;
+        }
+
+        int getRequestCount(String url) {
+            AtomicInteger count = mRequests.get(url.substring(url.indexOf(
+                    '/', "http://".length())));
+            return count != null ? count.get() : 0;
+        }
+
+        int getRequestCount() {
+            int total = 0;
+            for (AtomicInteger count : mRequests.values()) {
+                total += count.get();
+            }
+            return total;
+        }
+
+        long getBytesSent() {
+            return mBytesSent.get();
+        }
+
+        void stop() {
+            mServer.stop(0);
+            mExecutor.shutdownNow();
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            String path = exchange.getRequestURI().getPath();
+            AtomicInteger count = mRequests.get(path);
+            if (count == null) {
+                mRequests.putIfAbsent(path, new AtomicInteger());
+                count = mRequests.get(path);
+            }
+            count.incrementAndGet();
+            sleep(mLatencyMs);
+
+            byte[] body = null;
+            if (path.startsWith(PREFIX) && path.endsWith(".jpg")) {
+                try {
+                    int poster = Integer.parseInt(path.substring(
+                            PREFIX.length(), path.length() - ".jpg".length()));
+                    if (poster >= 0 && poster < mPosters.length) {
+                        body = mPosters[poster];
+                    }
+                } catch (NumberFormatException e) {
+                    // Not a poster.
+                }
+            }
+            try {
+                if (body == null) {
+                    exchange.sendResponseHeaders(404, -1);
+                    return;
+                }
+                exchange.getResponseHeaders().set("Content-Type", "image/jpeg");
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+                mBytesSent.addAndGet(body.length);
+            } finally {
+                exchange.close();
+            }
+        }
+
+        private static byte[] generate(int poster, Random random)
+                throws IOException {
+            BufferedImage image = new BufferedImage(POSTER_WIDTH,
+                    POSTER_HEIGHT, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = image.createGraphics();
+            try {
+                g.setColor(new Color(random.nextInt(0x1000000)));
+                g.fillRect(0, 0, POSTER_WIDTH, POSTER_HEIGHT);
+                for (int i = 0; i < 40; i++) {
+                    g.setColor(new Color(random.nextInt(0x1000000)));
+                    g.fillOval(random.nextInt(POSTER_WIDTH),
+                            random.nextInt(POSTER_HEIGHT),
+                            20 + random.nextInt(400), 20 + random.nextInt(300));
+                }
+                g.setColor(Color.WHITE);
+                g.drawString("Poster " + poster, 40, POSTER_HEIGHT - 40);
+            } finally {
+                g.dispose();
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ImageIO.write(image, "jpg", out);
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * One load() and what its callback got.
+     */
+    private static final class Load {
+        final String url;
+        final int width;
+        final int height;
+        long startMs;
+        long elapsedMs;
+        Bitmap bitmap;
+
+        Load(String url, int width, int height) {
+            this.url = url;
+            this.width = width;
+            this.height = height;
+        }
+    }
+
+    private final PosterServer mServer;
+    private final int mPosters;
+    private final int mRows;
+    private final int mMemoryBytes;
+    private final File mDirectory;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final LatencyHistogram mLoadMs = new LatencyHistogram();
+    /* Posters loaded while browsing, so on disk. */
+    private final Set<Integer> mBrowsed = new TreeSet<Integer>();
+    private int mFailures;
+
+    private ImageCacheTest(PosterServer server, int posters, int rows,
+            int memoryBytes, File directory) {
+        mServer = server;
+        mPosters = posters;
+        mRows = rows;
+        mMemoryBytes = memoryBytes;
+        mDirectory = directory;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<String, String>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq < 0) {
+                throw new IllegalArgumentException("Expected name=value: "
+                        + arg);
+            }
+            options.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+        int posters = (int) option(options, "posters", 200);
+        int rows = (int) option(options, "rows", 300);
+        long latencyMs = (long) option(options, "latency", 50);
+        int memoryBytes = (int) (option(options, "memory_mb", 4) * 1024 * 1024);
+        if (!options.isEmpty()) {
+            throw new IllegalArgumentException("Unknown options "
+                    + options.keySet());
+        }
+
+        File directory = File.createTempFile("images", "");
+        directory.delete();
+        PosterServer server = new PosterServer(posters, latencyMs);
+        int failures;
+        try {
+            ImageCacheTest test = new ImageCacheTest(server, posters, rows,
+                    memoryBytes, directory);
+            test.run();
+            failures = test.mFailures;
+        } finally {
+            server.stop();
+            delete(directory);
+        }
+        System.out.println(failures == 0 ? "all checks passed" : failures
+                + " checks FAILED");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    private void run() throws InterruptedException {
+        ImageCache cache = new ImageCache(mDirectory, mMemoryBytes,
+                1024L * 1024 * 1024);
+        try {
+            deduplicate(cache);
+            downsample(cache);
+            fail(cache);
+            prefetch(cache);
+            browse(cache);
+        } finally {
+            cache.shutdown();
+        }
+
+        ImageCache restarted = new ImageCache(mDirectory, mMemoryBytes,
+                1024L * 1024 * 1024);
+        try {
+            restart(restarted);
+        } finally {
+            restarted.shutdown();
+        }
+    }
+
+    /*
+     * Requests for one poster at three sizes, all issued before the first
+     * completes: one download, and one decode per size.
+     */
+    private void deduplicate(ImageCache cache) throws InterruptedException {
+        System.out.println("deduplicate: " + DUPLICATES
+                + " requests each at 3 sizes for one poster");
+        String url = mServer.getUrl(0);
+        int[][] sizes = { { THUMB_WIDTH, THUMB_HEIGHT },
+                { POSTER_WIDTH, POSTER_HEIGHT }, { 0, 0 } };
+        List<Load> loads = new ArrayList<Load>();
+        for (int i = 0; i < DUPLICATES; i++) {
+            for (int[] size : sizes) {
+                loads.add(new Load(url, size[0], size[1]));
+            }
+        }
+        loadAll(cache, loads);
+
+        boolean loaded = true;
+        boolean shared = true;
+        for (int i = 0; i < loads.size(); i++) {
+            Load load = loads.get(i);
+            loaded &= load.bitmap != null;
+            shared &= load.bitmap == loads.get(i % sizes.length).bitmap;
+        }
+        check("every request got a bitmap", loaded);
+        check("requests of one size got the same bitmap", shared);
+        check("server saw 1 request, got " + mServer.getRequestCount(url),
+                mServer.getRequestCount(url) == 1);
+        check("cache downloaded once, got " + cache.getDownloadCount(),
+                cache.getDownloadCount() == 1);
+        // A fetch that completes early turns later requests into hits.
+        long joined = cache.getSharedRequestCount()
+                + cache.getMemoryHitCount();
+        check("requests joining a fetch " + (loads.size() - sizes.length)
+                + ", got " + joined, joined == loads.size() - sizes.length);
+        long expectSaved = (long) (loads.size() - 1) * mServer.getSize(0);
+        check("bytes saved " + expectSaved + ", got " + cache.getBytesSaved(),
+                cache.getBytesSaved() == expectSaved);
+        printCounters(cache);
+    }
+
+    /*
+     * Decoded sizes for targets that do and do not divide the poster: the
+     * largest power-of-two reduction that still covers the target.
+     */
+    private void downsample(ImageCache cache) throws InterruptedException {
+        System.out.println("downsample: one poster at several sizes");
+        int[][] cases = { { 0, 0, POSTER_WIDTH, POSTER_HEIGHT },
+                { THUMB_WIDTH, THUMB_HEIGHT, 320, 180 },
+                { 300, 300, 640, 360 }, { 100, 50, 160, 90 },
+                { 2000, 2000, POSTER_WIDTH, POSTER_HEIGHT } };
+        long fullBytes = (long) POSTER_WIDTH * POSTER_HEIGHT * 4;
+        for (int[] c : cases) {
+            Load load = new Load(mServer.getUrl(1), c[0], c[1]);
+            List<Load> loads = new ArrayList<Load>();
+            loads.add(load);
+            loadAll(cache, loads);
+            Bitmap bitmap = load.bitmap;
+            if (bitmap == null) {
+                check("target " + c[0] + "x" + c[1] + " loaded", false);
+                continue;
+            }
+            check("target " + c[0] + "x" + c[1] + " decoded at "
+                    + bitmap.getWidth() + "x" + bitmap.getHeight() + ", "
+                    + bitmap.getByteCount() / 1024 + " KB, "
+                    + (fullBytes / bitmap.getByteCount()) + "x smaller",
+                    bitmap.getWidth() == c[2] && bitmap.getHeight() == c[3]);
+        }
+        check("server saw 1 request for 5 sizes, got "
+                + mServer.getRequestCount(mServer.getUrl(1)),
+                mServer.getRequestCount(mServer.getUrl(1)) == 1);
+    }
+
+    /*
+     * A 404 yields null and is not cached, so the next request asks again.
+     */
+    private void fail(ImageCache cache) throws InterruptedException {
+        System.out.println("fail: a URL the server does not have");
+        String url = mServer.getMissingUrl();
+        for (int i = 0; i < 2; i++) {
+            List<Load> loads = new ArrayList<Load>();
+            loads.add(new Load(url, THUMB_WIDTH, THUMB_HEIGHT));
+            loadAll(cache, loads);
+            check("attempt " + (i + 1) + " got null",
+                    loads.get(0).bitmap == null);
+        }
+        check("server saw 2 requests, got " + mServer.getRequestCount(url),
+                mServer.getRequestCount(url) == 2);
+    }
+
+    /*
+     * Prefetch posters, one of them already on disk, then load them: the
+     * prefetch shows up in downloads only, the loads as disk hits.
+     */
+    private void prefetch(ImageCache cache) throws InterruptedException {
+        System.out.println("prefetch: " + PREFETCH_POSTERS
+                + " new posters and one on disk, then load them");
+        long requestsBefore = cache.getRequestCount();
+        long hitsBefore = cache.getMemoryHitCount() + cache.getDiskHitCount()
+                + cache.getSharedRequestCount();
+        long diskHitsBefore = cache.getDiskHitCount();
+        long downloadsBefore = cache.getDownloadCount();
+        long savedBefore = cache.getBytesSaved();
+        int serverBefore = mServer.getRequestCount();
+
+        // Queued first, so it is done before the downloads are.
+        cache.prefetch(mServer.getUrl(0));
+        for (int p = PREFETCH_FIRST; p < PREFETCH_FIRST + PREFETCH_POSTERS; p++) {
+            cache.prefetch(mServer.getUrl(p));
+        }
+        long deadline = SystemClock.elapsedRealtime() + LOAD_TIMEOUT_MS;
+        while (cache.getDownloadCount() - downloadsBefore < PREFETCH_POSTERS) {
+            if (SystemClock.elapsedRealtime() > deadline) {
+                throw new IllegalStateException("Prefetch did not complete in "
+                        + LOAD_TIMEOUT_MS + "ms");
+            }
+            sleep(10);
+        }
+        check("server saw " + PREFETCH_POSTERS + " requests, got "
+                + (mServer.getRequestCount() - serverBefore),
+                mServer.getRequestCount() - serverBefore == PREFETCH_POSTERS);
+        check("requests unchanged, got "
+                + (cache.getRequestCount() - requestsBefore) + " more",
+                cache.getRequestCount() == requestsBefore);
+        check("hits unchanged", cache.getMemoryHitCount()
+                + cache.getDiskHitCount() + cache.getSharedRequestCount()
+                == hitsBefore);
+        check("bytes saved unchanged", cache.getBytesSaved() == savedBefore);
+
+        List<Load> loads = new ArrayList<Load>();
+        long requestedBytes = 0;
+        for (int p = PREFETCH_FIRST; p < PREFETCH_FIRST + PREFETCH_POSTERS; p++) {
+            loads.add(new Load(mServer.getUrl(p), THUMB_WIDTH, THUMB_HEIGHT));
+            requestedBytes += mServer.getSize(p);
+        }
+        loadAll(cache, loads);
+        boolean loaded = true;
+        for (Load load : loads) {
+            loaded &= load.bitmap != null;
+        }
+        check("every request got a bitmap", loaded);
+        check("server saw no more requests",
+                mServer.getRequestCount() - serverBefore == PREFETCH_POSTERS);
+        check("disk hits " + PREFETCH_POSTERS + ", got "
+                + (cache.getDiskHitCount() - diskHitsBefore),
+                cache.getDiskHitCount() - diskHitsBefore == PREFETCH_POSTERS);
+        check("bytes saved " + requestedBytes + ", got "
+                + (cache.getBytesSaved() - savedBefore),
+                cache.getBytesSaved() - savedBefore == requestedBytes);
+        printCounters(cache);
+    }
+
+    /*
+     * Scroll a grid of thumbnails a row at a time, waiting for each row.
+     * Counters are checked against the requests made and the bytes the
+     * server sent.
+     */
+    private void browse(ImageCache cache) throws InterruptedException {
+        System.out.println("browse: " + mRows + " rows of " + ROW
+                + " thumbnails over " + mPosters + " posters, "
+                + mMemoryBytes / 1024 + " KB of bitmaps");
+        long requestsBefore = cache.getRequestCount();
+        long downloadsBefore = cache.getDownloadCount();
+        long savedBefore = cache.getBytesSaved();
+        long downloadedBefore = cache.getBytesDownloaded();
+        int serverBefore = mServer.getRequestCount();
+        long sentBefore = mServer.getBytesSent();
+        Set<String> seen = new HashSet<String>();
+        // The earlier steps already downloaded these.
+        for (int p = 0; p < PREFETCH_FIRST + PREFETCH_POSTERS; p++) {
+            seen.add(mServer.getUrl(p));
+        }
+        int seenBefore = seen.size();
+
+        int rowCount = (mPosters + ROW - 1) / ROW;
+        Random random = new Random(1);
+        int row = 0;
+        long requestedBytes = 0;
+        mLoadMs.reset();
+        for (int i = 0; i < mRows; i++) {
+            double r = random.nextDouble();
+            if (r < 0.6) {
+                row = (row + 1) % rowCount;
+            } else if (r < 0.85) {
+                row = (row + rowCount - 1) % rowCount;
+            } else {
+                // Popular rows, the first ones most of all.
+                row = (int) (rowCount * Math.pow(random.nextDouble(), 3));
+            }
+            List<Load> loads = new ArrayList<Load>();
+            for (int p = row * ROW; p < Math.min(mPosters, (row + 1) * ROW); p++) {
+                String url = mServer.getUrl(p);
+                loads.add(new Load(url, THUMB_WIDTH, THUMB_HEIGHT));
+                seen.add(url);
+                mBrowsed.add(p);
+                requestedBytes += mServer.getSize(p);
+            }
+            loadAll(cache, loads);
+            for (Load load : loads) {
+                mLoadMs.record(load.elapsedMs);
+            }
+        }
+
+        long requests = cache.getRequestCount() - requestsBefore;
+        long downloads = cache.getDownloadCount() - downloadsBefore;
+        long saved = cache.getBytesSaved() - savedBefore;
+        long downloaded = cache.getBytesDownloaded() - downloadedBefore;
+        int serverRequests = mServer.getRequestCount() - serverBefore;
+        long sent = mServer.getBytesSent() - sentBefore;
+        check("downloads " + downloads + " = new posters seen "
+                + (seen.size() - seenBefore),
+                downloads == seen.size() - seenBefore);
+        check("server requests " + serverRequests + " = downloads",
+                serverRequests == downloads);
+        check("bytes downloaded " + downloaded + " = bytes sent " + sent,
+                downloaded == sent);
+        check("bytes downloaded + saved " + (downloaded + saved)
+                + " = bytes requested " + requestedBytes, downloaded + saved
+                == requestedBytes);
+        System.out.println(String.format(
+                "  %d loads, hit rate %.1f%%, %d KB downloaded, %d KB saved"
+                        + " (%.1f%%)", requests, 100.0 * (requests - downloads)
+                        / requests, downloaded / 1024, saved / 1024, 100.0
+                        * saved / requestedBytes));
+        System.out.println("  load ms: p50=" + mLoadMs.getValueAtPercentile(50)
+                + " p99=" + mLoadMs.getValueAtPercentile(99) + " max="
+                + mLoadMs.getMax());
+        printCounters(cache);
+    }
+
+    /*
+     * A new cache on the same directory, as after the app restarts: memory
+     * is empty, the disk tier is not, so browsed posters are not downloaded
+     * again.
+     */
+    private void restart(ImageCache cache) throws InterruptedException {
+        int serverBefore = mServer.getRequestCount();
+        long requestedBytes = 0;
+        List<Load> loads = new ArrayList<Load>();
+        for (int p : mBrowsed) {
+            if (loads.size() == RESTART_POSTERS) {
+                break;
+            }
+            loads.add(new Load(mServer.getUrl(p), THUMB_WIDTH, THUMB_HEIGHT));
+            requestedBytes += mServer.getSize(p);
+        }
+        System.out.println("restart: " + loads.size()
+                + " browsed posters with a new cache on the same directory");
+        loadAll(cache, loads);
+        boolean loaded = true;
+        for (Load load : loads) {
+            loaded &= load.bitmap != null;
+        }
+        check("every request got a bitmap", loaded);
+        check("server saw no requests, got "
+                + (mServer.getRequestCount() - serverBefore),
+                mServer.getRequestCount() == serverBefore);
+        check("disk hits " + loads.size() + ", got "
+                + cache.getDiskHitCount(),
+                cache.getDiskHitCount() == loads.size());
+        check("hit rate 100%", cache.getHitRate() == 1);
+        check("bytes saved " + requestedBytes + ", got "
+                + cache.getBytesSaved(),
+                cache.getBytesSaved() == requestedBytes);
+        printCounters(cache);
+    }
+
+    /*
+     * Issue every load in one turn of the main looper, as a list view
+     * binding a screen of rows would, and wait for all callbacks.
+     */
+    private void loadAll(final ImageCache cache, final List<Load> loads)
+            throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(loads.size());
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (final Load load : loads) {
+                    load.startMs = SystemClock.elapsedRealtime();
+                    cache.load(load.url, load.width, load.height,
+                            new ImageCache.Callback() {
+                                @Override
+                                public void onImageLoaded(String url,
+                                        Bitmap bitmap) {
+                                    load.elapsedMs = SystemClock
+                                            .elapsedRealtime() - load.startMs;
+                                    load.bitmap = bitmap;
+                                    done.countDown();
+                                }
+                            });
+                }
+            }
+        });
+        if (!done.await(LOAD_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+            throw new IllegalStateException(done.getCount() + " of "
+                    + loads.size() + " loads did not complete in "
+                    + LOAD_TIMEOUT_MS + "ms");
+        }
+    }
+
+    private void check(String what, boolean ok) {
+        System.out.println("  " + (ok ? "ok   " : "FAIL ") + what);
+        if (!ok) {
+            mFailures++;
+        }
+    }
+
+    private static void printCounters(ImageCache cache) {
+        System.out.println("  cache: requests=" + cache.getRequestCount()
+                + " memoryHits=" + cache.getMemoryHitCount() + " diskHits="
+                + cache.getDiskHitCount() + " shared="
+                + cache.getSharedRequestCount() + " downloads="
+                + cache.getDownloadCount() + " downloaded="
+                + cache.getBytesDownloaded() / 1024 + "KB saved="
+                + cache.getBytesSaved() / 1024 + "KB");
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static double option(Map<String, String> options, String name,
+            double defaultValue) {
+        String value = options.remove(name);
+        return value != null ? Double.parseDouble(value) : defaultValue;
+    }
+}
@@ -0,0 +1,51 @@
+package com.infthink.flint.samples.videoplayer.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import tv.matchstick.flint.PendingResult;
+import tv.matchstick.flint.RemoteMediaPlayer;
+import tv.matchstick.flint.RemoteMediaPlayer.MediaChannelResult;
+import tv.matchstick.flint.ResultCallback;
+import tv.matchstick.flint.Status;
+
+/**
+ * A pending result that has already succeeded, for measuring the sender side
+ * of a command without any receiver latency.
+ */
+final class ImmediateResult implements PendingResult<MediaChannelResult> {
+    static final ImmediateResult SUCCEEDED = new ImmediateResult();
+
+    private final MediaChannelResult mResult = new MediaChannelResult() {
+        private final Status mStatus = new Status(
+                RemoteMediaPlayer.STATUS_SUCCEEDED);
+
+        @Override
+        public Status getStatus() {
+            return mStatus;
+        }
+    };
+
+    private ImmediateResult() {
+    }
+
+    @Override
+    public MediaChannelResult await() {
+        return mResult;
+    }
+
+    @Override
+    public MediaChannelResult await(long time, TimeUnit unit) {
+        return mResult;
+    }
+
+    @Override
+    public void setResultCallback(ResultCallback<MediaChannelResult> callback) {
+        callback.onResult(mResult);
+    }
+
+    @Override
+    public void setResultCallback(ResultCallback<MediaChannelResult> callback,
+            long time, TimeUnit unit) {
+        callback.onResult(mResult);
+    }
+}
@@ -0,0 +1,26 @@
+package com.infthink.flint.samples.videoplayer.benchmark;
+
+/**
+ * How VideoPlayerActivity formatted times before TimeText, kept as the
+ * baseline the benchmarks compare against.
+ */
+final class LegacyTimeFormat {
+    private LegacyTimeFormat() {
+    }
+
+    static String formatTime(long millisec) {
+        int seconds = (int) (millisec / 1000);
+        int hours = seconds / (60 * 60);
+        seconds %= (60 * 60);
+        int minutes = seconds / 60;
+        seconds %= 60;
+
+        String time;
+        if (hours > 0) {
+            time = String.format("%d:%02d:%02d", hours, minutes, seconds);
+        } else {
+            time = String.format("%d:%02d", minutes, seconds);
+        }
+        return time;
+    }
+}
@@ -0,0 +1,543 @@
+package com.infthink.flint.samples.videoplayer.benchmark;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.infthink.flint.samples.videoplayer.LatencyHistogram;
+import com.infthink.flint.samples.videoplayer.LocalMediaServer;
+import com.infthink.flint.samples.videoplayer.SegmentCache;
+
+/**
+ * Plays media from a LocalMediaServer to several simulated receivers over
+ * loopback HTTP, to see whether it keeps up with HD bitrates.
+ *
+ * Each client reads the media the way a video element does. It asks for
+ * the next CHUNK_SECONDS whenever less than LOW_WATER_SECONDS are buffered
+ * ahead of the playhead, up to HIGH_WATER_SECONDS, and now and then seeks
+ * to a random position. Playback runs in real time, so a client stalls when
+ * the server falls behind. A progressive file is read with byte ranges; an
+ * HLS stream from publishSegmented() one segment at a time. With bitrate=0
+ * clients read a progressive file as fast as they can, for the server's
+ * peak throughput.
+ *
+ * Usage: java -cp target/benchmarks.jar
+ * com.infthink.flint.samples.videoplayer.benchmark.LocalMediaServerLoadTest
+ * [name=value...]
+ *
+ * Options are clients (8), bitrate in bit/s (8000000, a 1080p stream),
+ * seconds to run (30), seek_interval in seconds (20), and file, an MP4 to
+ * serve as HLS. Without a file a progressive file of random bytes at the
+ * given bitrate is generated and served.
+ */
+public final class LocalMediaServerLoadTest {
+    private static final double CHUNK_SECONDS = 4;
+    private static final double LOW_WATER_SECONDS = 10;
+    private static final double HIGH_WATER_SECONDS = 20;
+    private static final double GENERATED_SECONDS = 120;
+    private static final long UNLIMITED_CHUNK = 4 * 1024 * 1024;
+    private static final double SEGMENT_SECONDS = 6;
+
+    /**
+     * Media as a client reads it: a duration, and requests that fetch the
+     * media from a given time on.
+     */
+    private interface Source {
+        double getDuration();
+
+        /**
+         * @param time
+         *            in seconds
+         * @return seconds of media fetched from time on
+         * @throws IOException
+         *             if the request fails or has an unexpected status
+         */
+        double fetch(double time) throws IOException;
+    }
+
+    private final int mClients;
+    private final long mBitrate;
+    private final long mRunMs;
+    private final double mSeekInterval;
+
+    private final LatencyHistogram mFirstByteUs = new LatencyHistogram();
+    private final LatencyHistogram mRequestMs = new LatencyHistogram();
+    private final LatencyHistogram mStartupMs = new LatencyHistogram();
+    private final AtomicLong mBytes = new AtomicLong();
+    private final AtomicLong mErrors = new AtomicLong();
+    private final AtomicLong mStalls = new AtomicLong();
+    private final AtomicLong mStallMs = new AtomicLong();
+    private final AtomicLong mSeeks = new AtomicLong();
+    private final AtomicLong mPlayedMs = new AtomicLong();
+
+    private LocalMediaServerLoadTest(int clients, long bitrate, long runMs,
+            double seekInterval) {
+        mClients = clients;
+        mBitrate = bitrate;
+        mRunMs = runMs;
+        mSeekInterval = seekInterval;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<String, String>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq < 0) {
+                throw new IllegalArgumentException("Expected name=value: "
+                        + arg);
+            }
+            options.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+        int clients = (int) option(options, "clients", 8);
+        long bitrate = (long) option(options, "bitrate", 8000000);
+        long runMs = (long) (option(options, "seconds", 30) * 1000);
+        double seekInterval = option(options, "seek_interval", 20);
+        String mp4 = options.remove("file");
+        if (!options.isEmpty()) {
+            throw new IllegalArgumentException("Unknown options "
+                    + options.keySet());
+        }
+
+        File work = File.createTempFile("load", "");
+        work.delete();
+        work.mkdirs();
+        LocalMediaServer server = new LocalMediaServer();
+        server.start(0);
+        try {
+            LocalMediaServerLoadTest test = new LocalMediaServerLoadTest(
+                    clients, bitrate, runMs, seekInterval);
+            String base = "http://127.0.0.1:" + server.getPort();
+            if (mp4 != null) {
+                SegmentCache cache = new SegmentCache(new File(work, "cache"),
+                        512L * 1024 * 1024);
+                String master = server.publishSegmented(new File(mp4), cache,
+                        SEGMENT_SECONDS);
+                System.out.println(clients + " clients, HLS from " + mp4);
+                test.run(base + master, true);
+                System.out.println("segment cache: hits="
+                        + cache.getHitCount() + " misses="
+                        + cache.getMissCount() + " generate avg="
+                        + cache.getAverageGenerateMs() + "ms");
+            } else {
+                File file = new File(work, "media.mp4");
+                generate(file, (long) (Math.max(bitrate, 8000000) / 8
+                        * GENERATED_SECONDS));
+                String path = server.publish(file, "video/mp4");
+                System.out.println(clients + " clients, progressive at "
+                        + (bitrate > 0 ? bitrate / 1000 + " kbit/s"
+                                : "full speed"));
+                test.run(base + path, false);
+            }
+            System.out.println("server: connections="
+                    + server.getConnectionCount() + " requests="
+                    + server.getRequestCount() + " sent="
+                    + server.getBytesSent() / (1024 * 1024) + "MB");
+        } finally {
+            server.stop();
+            delete(work);
+        }
+    }
+
+    private void run(final String url, final boolean segmented)
+            throws InterruptedException {
+        final long end = System.currentTimeMillis() + mRunMs;
+        List<Thread> threads = new ArrayList<Thread>();
+        // Small consecutive seeds give nearly the same first draws.
+        Random seeds = new Random(1);
+        for (int i = 0; i < mClients; i++) {
+            final Random random = new Random(seeds.nextLong());
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Source source = segmented ? new HlsSource(url)
+                                : new ProgressiveSource(url);
+                        play(source, random, end);
+                    } catch (IOException e) {
+                        System.err.println("Client failed: " + e);
+                        mErrors.incrementAndGet();
+                    }
+                }
+            }, "client-" + i);
+            threads.add(thread);
+            thread.start();
+        }
+        long start = System.currentTimeMillis();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long elapsed = System.currentTimeMillis() - start;
+
+        double mbits = mBytes.get() * 8.0 / 1000000 / (elapsed / 1000.0);
+        System.out.println(String.format(
+                "%.1f s: %.1f MB read, %.1f Mbit/s total, %.1f Mbit/s per client",
+                elapsed / 1000.0, mBytes.get() / 1048576.0, mbits, mbits
+                        / mClients));
+        System.out.println("requests: " + mRequestMs.getTotalCount()
+                + " errors=" + mErrors.get() + " request p50="
+                + mRequestMs.getValueAtPercentile(50) + "ms p99="
+                + mRequestMs.getValueAtPercentile(99) + "ms max="
+                + mRequestMs.getMax() + "ms");
+        System.out.println("first byte: p50="
+                + mFirstByteUs.getValueAtPercentile(50) + "us p99="
+                + mFirstByteUs.getValueAtPercentile(99) + "us max="
+                + mFirstByteUs.getMax() + "us");
+        if (mBitrate > 0 || segmented) {
+            System.out.println("playback: seeks=" + mSeeks.get()
+                    + " startup p50=" + mStartupMs.getValueAtPercentile(50)
+                    + "ms p99=" + mStartupMs.getValueAtPercentile(99)
+                    + "ms stalls=" + mStalls.get() + " stalled="
+                    + mStallMs.get() + "ms of " + mPlayedMs.get()
+                    + "ms played");
+        }
+    }
+
+    /**
+     * Playhead of one client, which only moves over buffered media.
+     */
+    private final class Playback {
+        double playhead;
+        double buffered;
+        private final double mDuration;
+        private long mPlayheadAt;
+        private boolean mStalled;
+
+        Playback(double duration) {
+            mDuration = duration;
+        }
+
+        void start(double position, double fetched, long requestedAt) {
+            playhead = position;
+            buffered = position + fetched;
+            mPlayheadAt = System.currentTimeMillis();
+            mStartupMs.record(mPlayheadAt - requestedAt);
+            mStalled = false;
+        }
+
+        /**
+         * Play up to now, stalling where the buffer ends before the media
+         * does.
+         */
+        void advance() {
+            long now = System.currentTimeMillis();
+            double advance = (now - mPlayheadAt) / 1000.0;
+            mPlayheadAt = now;
+            // Under a millisecond is the granularity of the clock.
+            if (playhead + advance > buffered + 0.001 && buffered < mDuration) {
+                if (!mStalled) {
+                    mStalls.incrementAndGet();
+                    mStalled = true;
+                }
+                mStallMs.addAndGet((long) ((playhead + advance - buffered) * 1000));
+                advance = buffered - playhead;
+            } else {
+                advance = Math.min(advance, buffered - playhead);
+                mStalled = false;
+            }
+            mPlayedMs.addAndGet((long) (advance * 1000));
+            playhead += advance;
+        }
+    }
+
+    /**
+     * Play from the start until end, seeking now and then.
+     */
+    private void play(Source source, Random random, long end) {
+        if (mBitrate <= 0 && !(source instanceof HlsSource)) {
+            readFullSpeed(source, end);
+            return;
+        }
+        double duration = source.getDuration();
+        Playback playback = null;
+        long nextSeek = System.currentTimeMillis() + seekDelay(random);
+
+        while (System.currentTimeMillis() < end) {
+            long now = System.currentTimeMillis();
+            if (playback == null || now >= nextSeek) {
+                // Start, or seek: nothing is buffered at the new position.
+                double position = 0;
+                if (playback != null) {
+                    playback.advance();
+                    mSeeks.incrementAndGet();
+                    position = random.nextDouble() * (duration - CHUNK_SECONDS);
+                    nextSeek = now + seekDelay(random);
+                }
+                double fetched = fetch(source, position);
+                if (fetched > 0) {
+                    if (playback == null) {
+                        playback = new Playback(duration);
+                    }
+                    playback.start(position, fetched, now);
+                }
+                continue;
+            }
+
+            playback.advance();
+            if (playback.playhead >= duration - 0.001) {
+                // Ended; start over.
+                playback = null;
+                continue;
+            }
+            while (playback.buffered < duration
+                    && playback.buffered - playback.playhead < HIGH_WATER_SECONDS
+                    && System.currentTimeMillis() < nextSeek
+                    && System.currentTimeMillis() < end) {
+                double fetched = fetch(source, playback.buffered);
+                playback.advance();
+                if (fetched <= 0) {
+                    break;
+                }
+                playback.buffered += fetched;
+            }
+            // Sleep until the buffer runs low, the media ends or it is time
+            // to seek.
+            double ahead = playback.buffered - playback.playhead;
+            long sleepMs = (long) ((playback.buffered >= duration ? ahead
+                    : ahead - LOW_WATER_SECONDS) * 1000);
+            long wakeUp = Math.min(nextSeek, end);
+            sleep(Math.max(1, Math.min(sleepMs, wakeUp
+                    - System.currentTimeMillis())));
+        }
+        if (playback != null) {
+            playback.advance();
+        }
+    }
+
+    /**
+     * Read the file over and over, each request right after the last.
+     */
+    private void readFullSpeed(Source source, long end) {
+        double position = 0;
+        while (System.currentTimeMillis() < end) {
+            position += fetch(source, position);
+            if (position >= source.getDuration()) {
+                position = 0;
+            }
+        }
+    }
+
+    /**
+     * @return seconds fetched, or 0 after an error
+     */
+    private double fetch(Source source, double time) {
+        try {
+            return source.fetch(time);
+        } catch (IOException e) {
+            mErrors.incrementAndGet();
+            sleep(100);
+            return 0;
+        }
+    }
+
+    private long seekDelay(Random random) {
+        if (mSeekInterval <= 0) {
+            return Long.MAX_VALUE / 2;
+        }
+        return (long) (-Math.log(1.0 - random.nextDouble()) * mSeekInterval * 1000);
+    }
+
+    /**
+     * GET a URL, optionally a byte range of it, and read the whole body.
+     *
+     * @return the length of the body
+     */
+    private long get(String url, long first, long last, int expectedStatus)
+            throws IOException {
+        long start = System.nanoTime();
+        HttpURLConnection connection = (HttpURLConnection) new URL(url)
+                .openConnection();
+        if (first >= 0) {
+            connection.setRequestProperty("Range", "bytes=" + first + "-"
+                    + last);
+        }
+        int status = connection.getResponseCode();
+        if (status != expectedStatus) {
+            connection.disconnect();
+            throw new IOException(url + ": status " + status);
+        }
+        InputStream in = connection.getInputStream();
+        byte[] buffer = new byte[64 * 1024];
+        long total = 0;
+        try {
+            int read = in.read(buffer);
+            mFirstByteUs.record((System.nanoTime() - start) / 1000);
+            while (read > 0) {
+                total += read;
+                read = in.read(buffer);
+            }
+        } finally {
+            // Read to the end, so the connection is kept alive.
+            in.close();
+        }
+        mBytes.addAndGet(total);
+        mRequestMs.record((System.nanoTime() - start) / 1000000);
+        return total;
+    }
+
+    private String getText(String url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url)
+                .openConnection();
+        if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+            throw new IOException(url + ": status "
+                    + connection.getResponseCode());
+        }
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                connection.getInputStream(), "UTF-8"));
+        StringBuilder sb = new StringBuilder();
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                sb.append(line).append('\n');
+            }
+        } finally {
+            reader.close();
+        }
+        return sb.toString();
+    }
+
+    /**
+     * A file read with byte ranges, as if it had mBitrate.
+     */
+    private final class ProgressiveSource implements Source {
+        private final String mUrl;
+        private final long mLength;
+        private final double mBytesPerSecond;
+
+        ProgressiveSource(String url) throws IOException {
+            mUrl = url;
+            HttpURLConnection connection = (HttpURLConnection) new URL(url)
+                    .openConnection();
+            connection.setRequestMethod("HEAD");
+            mLength = Long.parseLong(connection
+                    .getHeaderField("Content-Length"));
+            connection.disconnect();
+            mBytesPerSecond = mBitrate > 0 ? mBitrate / 8.0 : UNLIMITED_CHUNK
+                    / CHUNK_SECONDS;
+        }
+
+        @Override
+        public double getDuration() {
+            return mLength / mBytesPerSecond;
+        }
+
+        @Override
+        public double fetch(double time) throws IOException {
+            long first = Math.min((long) (time * mBytesPerSecond), mLength - 1);
+            long last = Math.min(first
+                    + (long) (CHUNK_SECONDS * mBytesPerSecond), mLength) - 1;
+            long read = get(mUrl, first, last,
+                    HttpURLConnection.HTTP_PARTIAL);
+            if (read != last - first + 1) {
+                throw new IOException("Expected " + (last - first + 1)
+                        + " bytes, got " + read);
+            }
+            return read / mBytesPerSecond;
+        }
+    }
+
+    /**
+     * An HLS stream read one segment at a time.
+     */
+    private final class HlsSource implements Source {
+        private final List<String> mSegments = new ArrayList<String>();
+        private final List<Double> mStarts = new ArrayList<Double>();
+        private double mDuration;
+
+        HlsSource(String masterUrl) throws IOException {
+            String base = masterUrl.substring(0, masterUrl.lastIndexOf('/') + 1);
+            String mediaPlaylist = null;
+            for (String line : getText(masterUrl).split("\n")) {
+                if (line.length() > 0 && !line.startsWith("#")) {
+                    mediaPlaylist = line.trim();
+                }
+            }
+            if (mediaPlaylist == null) {
+                throw new IOException("No media playlist in " + masterUrl);
+            }
+            double duration = 0;
+            for (String line : getText(base + mediaPlaylist).split("\n")) {
+                if (line.startsWith("#EXTINF:")) {
+                    duration = Double.parseDouble(line.substring(8,
+                            line.indexOf(',')));
+                } else if (line.startsWith("#EXT-X-MAP:URI=\"")) {
+                    get(base + line.substring(16, line.lastIndexOf('"')), -1,
+                            -1, HttpURLConnection.HTTP_OK);
+                } else if (line.length() > 0 && !line.startsWith("#")) {
+                    mSegments.add(base + line.trim());
+                    mStarts.add(mDuration);
+                    mDuration += duration;
+                }
+            }
+        }
+
+        @Override
+        public double getDuration() {
+            return mDuration;
+        }
+
+        @Override
+        public double fetch(double time) throws IOException {
+            int segment = 0;
+            while (segment + 1 < mSegments.size()
+                    && mStarts.get(segment + 1) <= time) {
+                segment++;
+            }
+            get(mSegments.get(segment), -1, -1, HttpURLConnection.HTTP_OK);
+            double end = segment + 1 < mSegments.size() ? mStarts
+                    .get(segment + 1) : mDuration;
+            return end - time;
+        }
+    }
+
+    private static void generate(File file, long length) throws IOException {
+        Random random = new Random(1);
+        byte[] buffer = new byte[1024 * 1024];
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+        try {
+            for (long written = 0; written < length; written += buffer.length) {
+                random.nextBytes(buffer);
+                out.write(buffer, 0, (int) Math.min(buffer.length, length
+                        - written));
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static double option(Map<String, String> options, String name,
+            double defaultValue) {
+        String value = options.remove(name);
+        return value != null ? Double.parseDouble(value) : defaultValue;
+    }
+}
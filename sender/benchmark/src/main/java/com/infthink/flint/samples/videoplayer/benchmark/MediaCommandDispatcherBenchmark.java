@@ -0,0 +1,100 @@
+package com.infthink.flint.samples.videoplayer.benchmark;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import tv.matchstick.flint.PendingResult;
+import tv.matchstick.flint.RemoteMediaPlayer.MediaChannelResult;
+import tv.matchstick.flint.ResultCallback;
+
+import com.infthink.flint.samples.videoplayer.CommandLatencyStats;
+import com.infthink.flint.samples.videoplayer.MediaCommandDispatcher;
+
+/**
+ * Sender-side cost of a media command going through MediaCommandDispatcher:
+ * queued on the caller's thread, sent on the dispatcher thread, answered at
+ * once, recorded and called back on the main looper.
+ *
+ * command sends one command and waits for its callback. scrubBurst submits
+ * SCRUB_BURST seeks back to back, as dragging the seek bar does, and waits
+ * for the last one; the ones in between are coalesced away.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MediaCommandDispatcherBenchmark {
+    private static final int SCRUB_BURST = 10;
+
+    private MediaCommandDispatcher mDispatcher;
+
+    private static final class AnsweredCommand extends
+            MediaCommandDispatcher.Command {
+        AnsweredCommand(String key, String operation,
+                ResultCallback<MediaChannelResult> callback) {
+            super(key, operation, callback);
+        }
+
+        @Override
+        protected PendingResult<MediaChannelResult> send() {
+            return ImmediateResult.SUCCEEDED;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        mDispatcher = new MediaCommandDispatcher(new CommandLatencyStats());
+    }
+
+    @TearDown
+    public void tearDown() {
+        mDispatcher.quit();
+    }
+
+    @Benchmark
+    public void command() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        mDispatcher.submit(new AnsweredCommand(
+                MediaCommandDispatcher.KEY_PLAYBACK,
+                CommandLatencyStats.OP_PLAY, countDown(done)));
+        done.await();
+    }
+
+    @Benchmark
+    public void scrubBurst() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        for (int i = 1; i < SCRUB_BURST; i++) {
+            mDispatcher.submit(new AnsweredCommand(
+                    MediaCommandDispatcher.KEY_SEEK,
+                    CommandLatencyStats.OP_SEEK, null));
+        }
+        mDispatcher.submit(new AnsweredCommand(
+                MediaCommandDispatcher.KEY_SEEK, CommandLatencyStats.OP_SEEK,
+                countDown(done)));
+        done.await();
+    }
+
+    private static ResultCallback<MediaChannelResult> countDown(
+            final CountDownLatch latch) {
+        return new ResultCallback<MediaChannelResult>() {
+            @Override
+            public void onResult(MediaChannelResult result) {
+                latch.countDown();
+            }
+        };
+    }
+}
@@ -0,0 +1,120 @@
+package com.infthink.flint.samples.videoplayer.benchmark;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.infthink.flint.samples.videoplayer.MediaCatalogEntry;
+import com.infthink.flint.samples.videoplayer.MediaLibraryIndex;
+
+/**
+ * MediaLibraryIndex build time and query latency over catalogs of up to
+ * 100k entries. Queries return at most one screen of results, as the
+ * browser asks for. MediaLibraryIndexFootprint reports memory per entry.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = { "-Xmx2g" })
+public class MediaLibraryIndexBenchmark {
+    private static final int LIMIT = 50;
+    private static final int QUERY_COUNT = 1024;
+
+    @Param({ "1000", "10000", "100000" })
+    public int size;
+
+    private List<MediaCatalogEntry> mEntries;
+    private MediaLibraryIndex mIndex;
+    private String[] mPrefixes;
+    private String[] mPhrases;
+    private String[] mStudios;
+    private int mNext;
+
+    @Setup
+    public void setUp() {
+        mEntries = SyntheticCatalog.entries(size, 42);
+        mIndex = new MediaLibraryIndex();
+        for (MediaCatalogEntry entry : mEntries) {
+            mIndex.add(entry);
+        }
+
+        // Queries as typed: a prefix of one word, or a whole word followed
+        // by the prefix of another word of the same title.
+        Random random = new Random(7);
+        mPrefixes = new String[QUERY_COUNT];
+        mPhrases = new String[QUERY_COUNT];
+        mStudios = new String[QUERY_COUNT];
+        for (int i = 0; i < QUERY_COUNT; i++) {
+            String[] words = mEntries.get(random.nextInt(size)).title
+                    .split(" ");
+            String word = words[random.nextInt(words.length)];
+            mPrefixes[i] = word.substring(0, 1 + random.nextInt(word.length()));
+            String next = words[1];
+            mPhrases[i] = words[0] + " "
+                    + next.substring(0, 1 + random.nextInt(next.length()));
+            mStudios[i] = SyntheticCatalog.studio(random
+                    .nextInt(SyntheticCatalog.STUDIO_COUNT));
+        }
+    }
+
+    private int next() {
+        return mNext++ & (QUERY_COUNT - 1);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 5)
+    @Measurement(iterations = 10)
+    public MediaLibraryIndex build() {
+        MediaLibraryIndex index = new MediaLibraryIndex();
+        for (MediaCatalogEntry entry : mEntries) {
+            index.add(entry);
+        }
+        return index;
+    }
+
+    @Benchmark
+    public List<MediaCatalogEntry> searchPrefix() {
+        return mIndex.search(mPrefixes[next()], null, null, null, LIMIT);
+    }
+
+    @Benchmark
+    public List<MediaCatalogEntry> searchPhrase() {
+        return mIndex.search(mPhrases[next()], null, null, null, LIMIT);
+    }
+
+    @Benchmark
+    public List<MediaCatalogEntry> searchPrefixByTypeAndStudio() {
+        int i = next();
+        return mIndex.search(mPrefixes[i], MediaCatalogEntry.TYPE_MOVIE,
+                null, mStudios[i], LIMIT);
+    }
+
+    @Benchmark
+    public List<MediaCatalogEntry> searchStudio() {
+        return mIndex.search(null, null, null, mStudios[next()], LIMIT);
+    }
+
+    @Benchmark
+    public boolean removeAndAdd() {
+        MediaCatalogEntry entry = mEntries.get(next() % size);
+        boolean removed = mIndex.remove(entry);
+        mIndex.add(entry);
+        return removed;
+    }
+}
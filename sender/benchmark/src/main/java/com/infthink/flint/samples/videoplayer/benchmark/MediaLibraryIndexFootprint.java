@@ -0,0 +1,57 @@
+package com.infthink.flint.samples.videoplayer.benchmark;
+
+import java.util.List;
+
+import com.infthink.flint.samples.videoplayer.MediaCatalogEntry;
+import com.infthink.flint.samples.videoplayer.MediaLibraryIndex;
+
+/**
+ * Prints the heap retained by a MediaLibraryIndex per entry, not counting
+ * the entries themselves.
+ *
+ * Usage: java -cp target/benchmarks.jar
+ * com.infthink.flint.samples.videoplayer.benchmark.MediaLibraryIndexFootprint
+ * [size...]
+ */
+public final class MediaLibraryIndexFootprint {
+    private MediaLibraryIndexFootprint() {
+    }
+
+    public static void main(String[] args) {
+        int[] sizes = { 1000, 10000, 100000 };
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                sizes[i] = Integer.parseInt(args[i]);
+            }
+        }
+        for (int size : sizes) {
+            List<MediaCatalogEntry> entries = SyntheticCatalog.entries(size, 42);
+            long before = usedHeap();
+            MediaLibraryIndex index = new MediaLibraryIndex();
+            for (MediaCatalogEntry entry : entries) {
+                index.add(entry);
+            }
+            long after = usedHeap();
+            System.out.printf("%7d entries: index %8d KB, %5d B/entry%n",
+                    index.size(), (after - before) / 1024, (after - before)
+                            / size);
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        // Take the lowest of a few collections; one may leave garbage.
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+}
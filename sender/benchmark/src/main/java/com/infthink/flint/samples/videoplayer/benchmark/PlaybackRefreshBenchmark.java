@@ -0,0 +1,80 @@
+package com.infthink.flint.samples.videoplayer.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.infthink.flint.samples.videoplayer.MediaPositionInterpolator;
+import com.infthink.flint.samples.videoplayer.PlaybackPositionDisplay;
+
+/**
+ * One refresh of the playback position: extrapolate the position from the
+ * last media status, then work out what the position text, duration text and
+ * seek bar show.
+ *
+ * Each call advances the clock by stepMs: 1000 is the refresh rate the
+ * activity settles on, 250 a faster one where most refreshes change nothing.
+ * refreshLegacy is what VideoPlayerActivity did before, formatting both
+ * texts with String.format on every refresh. Run with -prof gc to see the
+ * allocation rate of each.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PlaybackRefreshBenchmark {
+    private static final long DURATION_MS = 2 * 60 * 60 * 1000;
+
+    @Param({ "1000", "250" })
+    public long stepMs;
+
+    private MediaPositionInterpolator mInterpolator;
+    private PlaybackPositionDisplay mDisplay;
+    private long mNow;
+
+    @Setup
+    public void setUp() {
+        mInterpolator = new MediaPositionInterpolator();
+        mDisplay = new PlaybackPositionDisplay();
+        mNow = 0;
+    }
+
+    private long nextPosition() {
+        mNow += stepMs;
+        if (mNow >= DURATION_MS) {
+            // Start over rather than sit at the end of the stream.
+            mNow = 0;
+            mInterpolator.update(0, 1.0, true, DURATION_MS, 0);
+        } else if (mNow == stepMs) {
+            mInterpolator.update(0, 1.0, true, DURATION_MS, 0);
+        }
+        return mInterpolator.getPosition(mNow);
+    }
+
+    @Benchmark
+    public long refresh() {
+        long position = nextPosition();
+        int changed = mDisplay.update(position, DURATION_MS, false);
+        return changed + mInterpolator.getDelayToNextChange(mNow);
+    }
+
+    @Benchmark
+    public int refreshLegacy() {
+        long position = nextPosition();
+        String positionText = LegacyTimeFormat.formatTime(position);
+        String durationText = LegacyTimeFormat.formatTime(DURATION_MS);
+        return positionText.length() + durationText.length();
+    }
+}
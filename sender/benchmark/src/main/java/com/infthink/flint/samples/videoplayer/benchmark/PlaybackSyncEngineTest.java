@@ -0,0 +1,107 @@
+package com.infthink.flint.samples.videoplayer.benchmark;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.infthink.flint.samples.videoplayer.PlaybackSyncEngine;
+
+/**
+ * Runs PlaybackSyncEngine against simulated receivers with spread latencies,
+ * drifting media clocks, rebuffering seeks and stalls, and checks what it
+ * promises: a start with known latencies lands within half the tolerance,
+ * the skew stays within the tolerance while nothing disturbs it, and it gets
+ * back within the tolerance after every stall, well before the next one.
+ *
+ * Each device count is one ControlPathLoadHarness.runSync(). Each check
+ * prints ok or FAIL; the exit status is 1 if any failed.
+ *
+ * Usage: java -cp target/benchmarks.jar
+ * com.infthink.flint.samples.videoplayer.benchmark.PlaybackSyncEngineTest
+ * [name=value...]
+ *
+ * Options are devices, a single device count instead of 8 and 32,
+ * sync_seconds per run (60), drift (0.002), stall in ms (1000),
+ * stall_interval in ms (15000) and tolerance in ms (100).
+ */
+public final class PlaybackSyncEngineTest {
+    private static final int[] DEVICES = { 8, 32 };
+    /* Share of the undisturbed samples that must be within the tolerance. */
+    private static final double MIN_WITHIN_TOLERANCE = 0.99;
+
+    private int mFailures;
+
+    private PlaybackSyncEngineTest() {
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        Map<String, String> options = new HashMap<String, String>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq < 0) {
+                throw new IllegalArgumentException("Expected name=value: "
+                        + arg);
+            }
+            options.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+        int[] devices = DEVICES;
+        if (options.containsKey("devices")) {
+            devices = new int[] { (int) option(options, "devices", 0) };
+        }
+        long syncMs = (long) (option(options, "sync_seconds", 60) * 1000);
+        double drift = option(options, "drift", 0.002);
+        long stallMs = (long) option(options, "stall", 1000);
+        long stallIntervalMs = (long) option(options, "stall_interval", 15000);
+        long tolerance = (long) option(options, "tolerance",
+                PlaybackSyncEngine.DEFAULT_TOLERANCE_MS);
+        if (!options.isEmpty()) {
+            throw new IllegalArgumentException("Unknown options "
+                    + options.keySet());
+        }
+
+        PlaybackSyncEngineTest test = new PlaybackSyncEngineTest();
+        for (int count : devices) {
+            ControlPathLoadHarness harness = new ControlPathLoadHarness();
+            harness.setPool(count, 0, 0);
+            harness.setSync(syncMs, 300, drift, 200);
+            harness.setStalls(stallMs, stallIntervalMs);
+            harness.setTolerance(tolerance);
+            test.check(harness.runSync(), stallIntervalMs);
+        }
+        System.out.println(test.mFailures == 0 ? "all checks passed"
+                : test.mFailures + " checks FAILED");
+        System.exit(test.mFailures == 0 ? 0 : 1);
+    }
+
+    private void check(ControlPathLoadHarness.SyncReport report,
+            long stallIntervalMs) {
+        System.out.println(report);
+        check("warm start skew " + report.warmStartSkew
+                + "ms within half the tolerance",
+                report.warmStartSkew <= report.tolerance / 2);
+        check(report.withinTolerance + " of the undisturbed samples within "
+                + report.tolerance + "ms",
+                report.withinTolerance >= MIN_WITHIN_TOLERANCE);
+        check("undisturbed skew p99 " + report.skew.getValueAtPercentile(99)
+                + "ms within the tolerance",
+                report.skew.getValueAtPercentile(99) <= report.tolerance);
+        check(report.converged + " of " + report.stalls
+                + " stalls converged", report.stalls > 0
+                && report.converged == report.stalls);
+        check("convergence max " + report.convergence.getMax()
+                + "ms shorter than the stall interval",
+                report.convergence.getMax() < stallIntervalMs);
+    }
+
+    private void check(String what, boolean ok) {
+        System.out.println("  " + (ok ? "ok   " : "FAIL ") + what);
+        if (!ok) {
+            mFailures++;
+        }
+    }
+
+    private static double option(Map<String, String> options, String name,
+            double defaultValue) {
+        String value = options.remove(name);
+        return value != null ? Double.parseDouble(value) : defaultValue;
+    }
+}
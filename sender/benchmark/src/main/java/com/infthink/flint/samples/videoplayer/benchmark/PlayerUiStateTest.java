@@ -0,0 +1,216 @@
+package com.infthink.flint.samples.videoplayer.benchmark;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+
+import tv.matchstick.flint.MediaStatus;
+
+import com.infthink.flint.samples.videoplayer.PlayerUiState;
+
+/**
+ * Checks the change detection the player activity relies on: two
+ * PlayerUiState snapshots are equal exactly when every field is, so a
+ * change to any single control is noticed and a status update that changes
+ * nothing visible touches no widget.
+ *
+ * The exhaustive step compares every pair of inputs field by field; the
+ * fields are found by reflection, so a field left out of equals() fails it.
+ * The session step walks through connecting, launching, playing, buffering,
+ * pausing and disconnecting, and checks which fields change at each step.
+ * Each check prints ok or FAIL; the exit status is 1 if any failed.
+ *
+ * Usage: java -cp target/benchmarks.jar
+ * com.infthink.flint.samples.videoplayer.benchmark.PlayerUiStateTest
+ */
+public final class PlayerUiStateTest {
+    private static final int[] MEDIA_STATES = {
+            MediaStatus.PLAYER_STATE_UNKNOWN, MediaStatus.PLAYER_STATE_IDLE,
+            MediaStatus.PLAYER_STATE_PLAYING, MediaStatus.PLAYER_STATE_PAUSED,
+            MediaStatus.PLAYER_STATE_BUFFERING };
+
+    /**
+     * One step of a session: the inputs and the fields expected to change
+     * from the step before.
+     */
+    private static final class Step {
+        final String name;
+        final boolean device;
+        final boolean app;
+        final boolean media;
+        final boolean status;
+        final int mediaState;
+        final String[] changed;
+
+        Step(String name, boolean device, boolean app, boolean media,
+                boolean status, int mediaState, String... changed) {
+            this.name = name;
+            this.device = device;
+            this.app = app;
+            this.media = media;
+            this.status = status;
+            this.mediaState = mediaState;
+            this.changed = changed;
+        }
+
+        PlayerUiState compute() {
+            return PlayerUiState.compute(device, app, media, status,
+                    mediaState);
+        }
+    }
+
+    private final List<Field> mFields = new ArrayList<Field>();
+    private int mFailures;
+
+    private PlayerUiStateTest() {
+        for (Field field : PlayerUiState.class.getFields()) {
+            if (!Modifier.isStatic(field.getModifiers())) {
+                mFields.add(field);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IllegalAccessException {
+        if (args.length > 0) {
+            throw new IllegalArgumentException("No options expected");
+        }
+        PlayerUiStateTest test = new PlayerUiStateTest();
+        test.exhaustive();
+        test.session();
+        System.out.println(test.mFailures == 0 ? "all checks passed"
+                : test.mFailures + " checks FAILED");
+        System.exit(test.mFailures == 0 ? 0 : 1);
+    }
+
+    /*
+     * Every pair of inputs: equal exactly when no field differs, and equal
+     * snapshots hash alike.
+     */
+    private void exhaustive() throws IllegalAccessException {
+        List<PlayerUiState> states = new ArrayList<PlayerUiState>();
+        for (int inputs = 0; inputs < 16; inputs++) {
+            for (int mediaState : MEDIA_STATES) {
+                states.add(PlayerUiState.compute((inputs & 1) != 0,
+                        (inputs & 2) != 0, (inputs & 4) != 0,
+                        (inputs & 8) != 0, mediaState));
+            }
+        }
+        System.out.println("exhaustive: " + states.size() + " inputs, "
+                + mFields.size() + " fields");
+        int mismatches = 0;
+        int badHashes = 0;
+        TreeSet<String> seenChanging = new TreeSet<String>();
+        for (PlayerUiState a : states) {
+            for (PlayerUiState b : states) {
+                List<String> changed = diff(a, b);
+                seenChanging.addAll(changed);
+                if (a.equals(b) != changed.isEmpty()) {
+                    if (mismatches++ == 0) {
+                        System.out.println("  " + a + " vs " + b
+                                + " differ in " + changed);
+                    }
+                }
+                if (a.equals(b) && a.hashCode() != b.hashCode()) {
+                    badHashes++;
+                }
+            }
+        }
+        check("equals() agrees with the fields for every pair, "
+                + mismatches + " mismatches", mismatches == 0);
+        check("equal snapshots hash alike, " + badHashes + " do not",
+                badHashes == 0);
+        check("every field changes for some pair, " + seenChanging.size()
+                + " of " + mFields.size(),
+                seenChanging.size() == mFields.size());
+        check("a snapshot is not equal to null",
+                !states.get(0).equals(null));
+    }
+
+    /*
+     * A session from the first connection to the last disconnect. Status
+     * updates that only move the position must change nothing.
+     */
+    private void session() throws IllegalAccessException {
+        int unknown = MediaStatus.PLAYER_STATE_UNKNOWN;
+        int idle = MediaStatus.PLAYER_STATE_IDLE;
+        int playing = MediaStatus.PLAYER_STATE_PLAYING;
+        int paused = MediaStatus.PLAYER_STATE_PAUSED;
+        int buffering = MediaStatus.PLAYER_STATE_BUFFERING;
+        Step[] steps = {
+                new Step("disconnected", false, false, false, false, unknown),
+                new Step("device connected", true, false, false, false,
+                        unknown, "launchAppEnabled", "joinAppEnabled",
+                        "deviceVolumeEnabled"),
+                new Step("app launched", true, true, false, false, unknown,
+                        "launchAppEnabled", "joinAppEnabled",
+                        "leaveAppEnabled", "stopAppEnabled",
+                        "autoplayEnabled"),
+                new Step("media channel attached", true, true, true, false,
+                        unknown, "startMediaEnabled"),
+                new Step("first status, idle", true, true, true, true, idle),
+                new Step("loading", true, true, true, true, buffering,
+                        "playerState", "stopMediaEnabled", "seekBarEnabled",
+                        "streamVolumeEnabled"),
+                new Step("playing", true, true, true, true, playing,
+                        "playerState", "playPauseEnabled"),
+                new Step("position update", true, true, true, true, playing),
+                new Step("rebuffering", true, true, true, true, buffering,
+                        "playerState", "playPauseEnabled"),
+                new Step("playing again", true, true, true, true, playing,
+                        "playerState", "playPauseEnabled"),
+                new Step("paused", true, true, true, true, paused,
+                        "playerState"),
+                new Step("stopped", true, true, true, true, idle,
+                        "playerState", "playPauseEnabled",
+                        "stopMediaEnabled", "seekBarEnabled",
+                        "streamVolumeEnabled"),
+                new Step("app left", true, false, false, false, unknown,
+                        "launchAppEnabled", "joinAppEnabled",
+                        "leaveAppEnabled", "stopAppEnabled",
+                        "autoplayEnabled", "startMediaEnabled"),
+                new Step("device disconnected", false, false, false, false,
+                        unknown, "launchAppEnabled", "joinAppEnabled",
+                        "deviceVolumeEnabled") };
+        System.out.println("session: " + steps.length + " steps");
+        PlayerUiState old = steps[0].compute();
+        for (int i = 1; i < steps.length; i++) {
+            PlayerUiState state = steps[i].compute();
+            List<String> changed = diff(old, state);
+            List<String> expected = new ArrayList<String>(
+                    Arrays.asList(steps[i].changed));
+            Collections.sort(expected);
+            check(steps[i].name + ": "
+                    + (changed.isEmpty() ? "nothing" : changed)
+                    + " changed" + (changed.equals(expected) ? "" : ", expected "
+                    + expected), changed.equals(expected)
+                    && old.equals(state) == changed.isEmpty());
+            old = state;
+        }
+    }
+
+    /*
+     * @return names of the fields that differ, sorted
+     */
+    private List<String> diff(PlayerUiState a, PlayerUiState b)
+            throws IllegalAccessException {
+        List<String> changed = new ArrayList<String>();
+        for (Field field : mFields) {
+            if (!field.get(a).equals(field.get(b))) {
+                changed.add(field.getName());
+            }
+        }
+        Collections.sort(changed);
+        return changed;
+    }
+
+    private void check(String what, boolean ok) {
+        System.out.println("  " + (ok ? "ok   " : "FAIL ") + what);
+        if (!ok) {
+            mFailures++;
+        }
+    }
+}
@@ -0,0 +1,590 @@
+package com.infthink.flint.samples.videoplayer.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import tv.matchstick.flint.Flint.ApplicationConnectionResult;
+import tv.matchstick.flint.FlintManager;
+import tv.matchstick.flint.MediaInfo;
+import tv.matchstick.flint.MediaStatus;
+import tv.matchstick.flint.PendingResult;
+import tv.matchstick.flint.RemoteMediaPlayer;
+import tv.matchstick.flint.RemoteMediaPlayer.MediaChannelResult;
+import tv.matchstick.flint.Result;
+import tv.matchstick.flint.ResultCallback;
+import tv.matchstick.flint.SimulatedEndpoint;
+import tv.matchstick.flint.Status;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+/**
+ * In-process stand-in for a receiver running receiver/index.html.
+ *
+ * It keeps the state the media namespace reports (media, player state,
+ * position, stream volume and mute) and answers each command the way
+ * RemoteMediaPlayer does, with a PendingResult. Answers arrive after a
+ * configurable latency plus an exponentially distributed jitter, so the
+ * simulated round trips have a realistic tail. A command takes effect, and
+ * the status its answer carries is taken, halfway through its round trip. A
+ * share of the commands can be made to fail, or to get no answer, which the
+ * media channel reports as STATUS_TIMED_OUT. Result callbacks run on the
+ * looper of the thread that set them, or on the main thread, as they do
+ * with the real SDK.
+ *
+ * Playback can be made imperfect the way real devices are: the media clock
+ * can run a little fast or slow, a seek while playing rebuffers before
+ * playback resumes, and stall() freezes playback as a network hiccup would.
+ * The player state reads PLAYER_STATE_BUFFERING meanwhile.
+ *
+ * As the endpoint of a FlintDevice it also takes connections. Connecting and
+ * launching take the same latency as a command. A FlintManager that
+ * disconnects still gets one late onConnectionSuspended, as a callback
+ * already under way would arrive, so callers must tell stale connections
+ * from current ones. All methods are thread-safe.
+ */
+public class SimulatedReceiver implements SimulatedEndpoint {
+    public static final long DEFAULT_TIMEOUT_MS = 10000;
+    /** Cause reported with onConnectionSuspended. */
+    public static final int CAUSE_NETWORK_LOST = 2;
+
+    private final ScheduledExecutorService mScheduler;
+    private final Random mRandom;
+
+    private long mLatencyMs;
+    private long mJitterMs;
+    private double mFailureRate;
+    private double mDropRate;
+    private long mTimeoutMs = DEFAULT_TIMEOUT_MS;
+    private double mClockRate = 1.0;
+    private long mSeekDelayMs;
+
+    private MediaInfo mMediaInfo;
+    private int mPlayerState = MediaStatus.PLAYER_STATE_IDLE;
+    private long mPosition;
+    /* When playback resumes from mPosition; in the future while buffering. */
+    private long mPositionUpdatedAt;
+    private MediaStatus mReportedStatus;
+    private double mStreamVolume = 1.0;
+    private boolean mMuted;
+
+    private FlintManager mManager;
+
+    private long mCommands;
+    private long mFailures;
+    private long mDrops;
+    private long mConnects;
+    private long mLateCallbacks;
+
+    /**
+     * @param scheduler
+     *            delivers the answers; can be shared by many receivers
+     * @param seed
+     *            seed of the latency and failure draws
+     */
+    public SimulatedReceiver(ScheduledExecutorService scheduler, long seed) {
+        mScheduler = scheduler;
+        mRandom = new Random(seed);
+    }
+
+    /**
+     * @param latencyMs
+     *            smallest round trip
+     * @param jitterMs
+     *            mean of the exponential delay added to it
+     */
+    public synchronized void setLatency(long latencyMs, long jitterMs) {
+        mLatencyMs = latencyMs;
+        mJitterMs = jitterMs;
+    }
+
+    /**
+     * @param failureRate
+     *            share of commands answered with STATUS_FAILED
+     * @param dropRate
+     *            share of commands never answered, reported as
+     *            STATUS_TIMED_OUT after the timeout
+     */
+    public synchronized void setFailureRates(double failureRate,
+            double dropRate) {
+        mFailureRate = failureRate;
+        mDropRate = dropRate;
+    }
+
+    public synchronized void setTimeout(long timeoutMs) {
+        mTimeoutMs = timeoutMs;
+    }
+
+    /**
+     * @param clockRate
+     *            media ms played per ms of real time, e.g. 1.001 for a media
+     *            clock that runs 0.1% fast
+     */
+    public synchronized void setClockRate(double clockRate) {
+        setPosition(getPosition(), getBufferingMs());
+        mClockRate = clockRate;
+    }
+
+    /**
+     * @param seekDelayMs
+     *            time a seek while playing rebuffers before playback resumes
+     */
+    public synchronized void setSeekDelay(long seekDelayMs) {
+        mSeekDelayMs = seekDelayMs;
+    }
+
+    /**
+     * Freeze playback for a while, as when the network falls behind.
+     *
+     * @param stallMs
+     * @return true if the media was playing
+     */
+    public synchronized boolean stall(long stallMs) {
+        if (mPlayerState != MediaStatus.PLAYER_STATE_PLAYING) {
+            return false;
+        }
+        setPosition(getPosition(), getBufferingMs() + stallMs);
+        return true;
+    }
+
+    @Override
+    public void connect(final FlintManager manager) {
+        long delayMs;
+        synchronized (this) {
+            mConnects++;
+            delayMs = nextLatency();
+        }
+        mScheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (SimulatedReceiver.this) {
+                    mManager = manager;
+                }
+                manager.notifyConnected();
+            }
+        }, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void disconnect(final FlintManager manager) {
+        long delayMs;
+        synchronized (this) {
+            if (mManager == manager) {
+                mManager = null;
+            }
+            mLateCallbacks++;
+            delayMs = nextLatency();
+        }
+        mScheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                manager.notifyConnectionSuspended(CAUSE_NETWORK_LOST);
+            }
+        }, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Lose the current connection, as a network drop would.
+     *
+     * @return true if there was one
+     */
+    public boolean dropConnection() {
+        FlintManager manager;
+        synchronized (this) {
+            manager = mManager;
+            mManager = null;
+        }
+        if (manager == null) {
+            return false;
+        }
+        manager.notifyConnectionSuspended(CAUSE_NETWORK_LOST);
+        return true;
+    }
+
+    @Override
+    public PendingResult<ApplicationConnectionResult> launchApplication(
+            FlintManager manager, String appUrl) {
+        SimulatedResult<ApplicationConnectionResult> result = new SimulatedResult<ApplicationConnectionResult>() {
+            @Override
+            ApplicationConnectionResult newResult(final int statusCode) {
+                return new ApplicationConnectionResult() {
+                    private final Status mStatus = new Status(statusCode);
+
+                    @Override
+                    public Status getStatus() {
+                        return mStatus;
+                    }
+                };
+            }
+        };
+        return send(result, null);
+    }
+
+    @Override
+    public PendingResult<MediaChannelResult> load(final MediaInfo mediaInfo,
+            final boolean autoPlay, final long position) {
+        return send(new Runnable() {
+            @Override
+            public void run() {
+                mMediaInfo = mediaInfo;
+                setPosition(position, 0);
+                mPlayerState = autoPlay ? MediaStatus.PLAYER_STATE_PLAYING
+                        : MediaStatus.PLAYER_STATE_PAUSED;
+            }
+        });
+    }
+
+    @Override
+    public PendingResult<MediaChannelResult> play() {
+        return send(new Runnable() {
+            @Override
+            public void run() {
+                if (mMediaInfo != null) {
+                    setPosition(getPosition(), getBufferingMs());
+                    mPlayerState = MediaStatus.PLAYER_STATE_PLAYING;
+                }
+            }
+        });
+    }
+
+    @Override
+    public PendingResult<MediaChannelResult> pause() {
+        return send(new Runnable() {
+            @Override
+            public void run() {
+                if (mMediaInfo != null) {
+                    setPosition(getPosition(), 0);
+                    mPlayerState = MediaStatus.PLAYER_STATE_PAUSED;
+                }
+            }
+        });
+    }
+
+    @Override
+    public PendingResult<MediaChannelResult> stop() {
+        return send(new Runnable() {
+            @Override
+            public void run() {
+                mMediaInfo = null;
+                setPosition(0, 0);
+                mPlayerState = MediaStatus.PLAYER_STATE_IDLE;
+            }
+        });
+    }
+
+    /**
+     * @param position
+     * @param resumeState
+     *            one of the RemoteMediaPlayer.RESUME_STATE_* constants
+     * @return
+     */
+    @Override
+    public PendingResult<MediaChannelResult> seek(final long position,
+            final int resumeState) {
+        return send(new Runnable() {
+            @Override
+            public void run() {
+                if (mMediaInfo == null) {
+                    return;
+                }
+                if (resumeState == RemoteMediaPlayer.RESUME_STATE_PLAY) {
+                    mPlayerState = MediaStatus.PLAYER_STATE_PLAYING;
+                } else if (resumeState == RemoteMediaPlayer.RESUME_STATE_PAUSE) {
+                    mPlayerState = MediaStatus.PLAYER_STATE_PAUSED;
+                }
+                setPosition(position,
+                        mPlayerState == MediaStatus.PLAYER_STATE_PLAYING ? mSeekDelayMs
+                                : 0);
+            }
+        });
+    }
+
+    @Override
+    public PendingResult<MediaChannelResult> setStreamVolume(
+            final double volume) {
+        return send(new Runnable() {
+            @Override
+            public void run() {
+                mStreamVolume = volume;
+            }
+        });
+    }
+
+    @Override
+    public PendingResult<MediaChannelResult> setStreamMute(final boolean muted) {
+        return send(new Runnable() {
+            @Override
+            public void run() {
+                mMuted = muted;
+            }
+        });
+    }
+
+    @Override
+    public PendingResult<MediaChannelResult> requestStatus() {
+        return send(null);
+    }
+
+    public synchronized MediaInfo getMediaInfo() {
+        return mMediaInfo;
+    }
+
+    /**
+     * @return the player state, PLAYER_STATE_BUFFERING while playback waits
+     *         after a seek or stall
+     */
+    public synchronized int getPlayerState() {
+        if (mPlayerState == MediaStatus.PLAYER_STATE_PLAYING
+                && SystemClock.elapsedRealtime() < mPositionUpdatedAt) {
+            return MediaStatus.PLAYER_STATE_BUFFERING;
+        }
+        return mPlayerState;
+    }
+
+    /**
+     * @return current stream position in ms
+     */
+    public synchronized long getPosition() {
+        long played = SystemClock.elapsedRealtime() - mPositionUpdatedAt;
+        if (mPlayerState != MediaStatus.PLAYER_STATE_PLAYING || played <= 0) {
+            return mPosition;
+        }
+        return mPosition + (long) (played * mClockRate);
+    }
+
+    @Override
+    public synchronized MediaStatus getMediaStatus() {
+        return mReportedStatus;
+    }
+
+    public synchronized double getStreamVolume() {
+        return mStreamVolume;
+    }
+
+    public synchronized boolean isMute() {
+        return mMuted;
+    }
+
+    public synchronized long getCommandCount() {
+        return mCommands;
+    }
+
+    public synchronized long getFailureCount() {
+        return mFailures;
+    }
+
+    public synchronized long getDropCount() {
+        return mDrops;
+    }
+
+    public synchronized long getConnectCount() {
+        return mConnects;
+    }
+
+    /**
+     * @return onConnectionSuspended callbacks sent after a disconnect()
+     */
+    public synchronized long getLateCallbackCount() {
+        return mLateCallbacks;
+    }
+
+    /**
+     * @return whether a FlintManager is connected
+     */
+    public synchronized boolean isConnected() {
+        return mManager != null;
+    }
+
+    private long getBufferingMs() {
+        return Math.max(0, mPositionUpdatedAt - SystemClock.elapsedRealtime());
+    }
+
+    private void setPosition(long position, long delayMs) {
+        mPosition = position;
+        mPositionUpdatedAt = SystemClock.elapsedRealtime() + delayMs;
+    }
+
+    private PendingResult<MediaChannelResult> send(Runnable change) {
+        SimulatedResult<MediaChannelResult> result = new SimulatedResult<MediaChannelResult>() {
+            @Override
+            MediaChannelResult newResult(int statusCode) {
+                return new SimulatedChannelResult(statusCode);
+            }
+        };
+        return send(result, change);
+    }
+
+    private synchronized <R extends Result> PendingResult<R> send(
+            SimulatedResult<R> result, Runnable change) {
+        mCommands++;
+        double draw = mRandom.nextDouble();
+        if (draw < mDropRate) {
+            mDrops++;
+            schedule(result, RemoteMediaPlayer.STATUS_TIMED_OUT, null,
+                    mTimeoutMs);
+        } else if (draw < mDropRate + mFailureRate) {
+            mFailures++;
+            schedule(result, RemoteMediaPlayer.STATUS_FAILED, null,
+                    nextLatency());
+        } else {
+            schedule(result, RemoteMediaPlayer.STATUS_SUCCEEDED, change,
+                    nextLatency());
+        }
+        return result;
+    }
+
+    private long nextLatency() {
+        if (mJitterMs <= 0) {
+            return mLatencyMs;
+        }
+        return mLatencyMs
+                + (long) (-Math.log(1.0 - mRandom.nextDouble()) * mJitterMs);
+    }
+
+    /*
+     * Apply the change and take the status halfway through the round trip,
+     * deliver both at its end.
+     */
+    private void schedule(final SimulatedResult<?> result, final int statusCode,
+            final Runnable change, final long delayMs) {
+        final long arrivalMs = delayMs / 2;
+        mScheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                final MediaStatus status;
+                synchronized (SimulatedReceiver.this) {
+                    if (change != null) {
+                        change.run();
+                    }
+                    status = new MediaStatus(getPlayerState(), getPosition(),
+                            1.0);
+                }
+                mScheduler.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (statusCode == RemoteMediaPlayer.STATUS_SUCCEEDED) {
+                            synchronized (SimulatedReceiver.this) {
+                                mReportedStatus = status;
+                            }
+                        }
+                        result.complete(statusCode);
+                    }
+                }, delayMs - arrivalMs, TimeUnit.MILLISECONDS);
+            }
+        }, arrivalMs, TimeUnit.MILLISECONDS);
+    }
+
+    private static final class SimulatedChannelResult implements
+            MediaChannelResult {
+        private final Status mStatus;
+
+        SimulatedChannelResult(int statusCode) {
+            mStatus = new Status(statusCode);
+        }
+
+        @Override
+        public Status getStatus() {
+            return mStatus;
+        }
+    }
+
+    /**
+     * Pending answer to one command.
+     */
+    private abstract class SimulatedResult<R extends Result> implements
+            PendingResult<R> {
+        private final CountDownLatch mDone = new CountDownLatch(1);
+        private R mResult;
+        private ResultCallback<R> mCallback;
+        private Handler mCallbackHandler;
+
+        abstract R newResult(int statusCode);
+
+        void complete(int statusCode) {
+            final ResultCallback<R> callback;
+            final R result = newResult(statusCode);
+            Handler handler;
+            synchronized (this) {
+                if (mResult != null) {
+                    return;
+                }
+                mResult = result;
+                callback = mCallback;
+                handler = mCallbackHandler;
+            }
+            mDone.countDown();
+            if (callback != null) {
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onResult(result);
+                    }
+                });
+            }
+        }
+
+        @Override
+        public R await() {
+            try {
+                mDone.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return newResult(RemoteMediaPlayer.STATUS_CANCELED);
+            }
+            return getResult();
+        }
+
+        @Override
+        public R await(long time, TimeUnit unit) {
+            try {
+                if (!mDone.await(time, unit)) {
+                    return newResult(RemoteMediaPlayer.STATUS_TIMED_OUT);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return newResult(RemoteMediaPlayer.STATUS_CANCELED);
+            }
+            return getResult();
+        }
+
+        @Override
+        public void setResultCallback(final ResultCallback<R> callback) {
+            Looper looper = Looper.myLooper();
+            Handler handler = new Handler(looper != null ? looper : Looper
+                    .getMainLooper());
+            final R result;
+            synchronized (this) {
+                result = mResult;
+                if (result == null) {
+                    mCallback = callback;
+                    mCallbackHandler = handler;
+                    return;
+                }
+            }
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    callback.onResult(result);
+                }
+            });
+        }
+
+        @Override
+        public void setResultCallback(ResultCallback<R> callback, long time,
+                TimeUnit unit) {
+            setResultCallback(callback);
+            mScheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    complete(RemoteMediaPlayer.STATUS_TIMED_OUT);
+                }
+            }, time, unit);
+        }
+
+        private synchronized R getResult() {
+            return mResult;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.infthink.flint.samples.videoplayer.benchmark;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import com.infthink.flint.samples.videoplayer.MediaCatalogEntry;
+
+/**
+ * Generates repeatable catalogs shaped like a large home library: titles of
+ * two to five words from a few thousand pseudo-words, three media types,
+ * four mime types and 50 studios.
+ */
+final class SyntheticCatalog {
+    static final String[] TYPES = { MediaCatalogEntry.TYPE_MOVIE,
+            MediaCatalogEntry.TYPE_MUSIC, MediaCatalogEntry.TYPE_PHOTO };
+    static final String[] MIME_TYPES = { "video/mp4", "video/webm",
+            "audio/mpeg", "image/jpeg" };
+    static final int STUDIO_COUNT = 50;
+    static final int WORD_COUNT = 4000;
+
+    private static final String CONSONANTS = "bcdfghklmnprstvz";
+    private static final String VOWELS = "aeiou";
+
+    private SyntheticCatalog() {
+    }
+
+    /**
+     * @param random
+     * @return WORD_COUNT distinct lower case words of two or three
+     *         syllables
+     */
+    static String[] words(Random random) {
+        Set<String> words = new LinkedHashSet<String>();
+        while (words.size() < WORD_COUNT) {
+            StringBuilder sb = new StringBuilder();
+            int syllables = 2 + random.nextInt(2);
+            for (int i = 0; i < syllables; i++) {
+                sb.append(CONSONANTS.charAt(random.nextInt(CONSONANTS.length())));
+                sb.append(VOWELS.charAt(random.nextInt(VOWELS.length())));
+            }
+            words.add(sb.toString());
+        }
+        return words.toArray(new String[words.size()]);
+    }
+
+    static String studio(int i) {
+        return "Studio " + i;
+    }
+
+    /**
+     * @param count
+     * @param seed
+     * @return count entries; the same seed gives the same entries
+     */
+    static List<MediaCatalogEntry> entries(int count, long seed) {
+        Random random = new Random(seed);
+        String[] words = words(random);
+        List<MediaCatalogEntry> entries = new ArrayList<MediaCatalogEntry>(
+                count);
+        for (int i = 0; i < count; i++) {
+            StringBuilder title = new StringBuilder();
+            int titleWords = 2 + random.nextInt(4);
+            for (int w = 0; w < titleWords; w++) {
+                if (w > 0) {
+                    title.append(' ');
+                }
+                String word = words[skewed(random, words.length)];
+                title.append(Character.toUpperCase(word.charAt(0)))
+                        .append(word, 1, word.length());
+            }
+            int type = random.nextInt(TYPES.length);
+            String mimeType = type == 1 ? MIME_TYPES[2]
+                    : (type == 2 ? MIME_TYPES[3] : MIME_TYPES[random
+                            .nextInt(2)]);
+            entries.add(new MediaCatalogEntry(title.toString(), TYPES[type],
+                    mimeType, "http://media.local/" + i, "http://media.local/"
+                            + i + ".jpg", studio(skewed(random, STUDIO_COUNT))));
+        }
+        return entries;
+    }
+
+    /* Roughly Zipf-like: low indexes are much more common. */
+    private static int skewed(Random random, int n) {
+        double u = random.nextDouble();
+        return (int) (n * u * u * u);
+    }
+}
@@ -0,0 +1,76 @@
+package com.infthink.flint.samples.videoplayer.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.infthink.flint.samples.videoplayer.TimeText;
+
+/**
+ * TimeText against the String.format based formatTime it replaced.
+ *
+ * The *NewSecond benchmarks move the time on by a second per call, so every
+ * call renders; the *SameSecond ones move it by 100 ms, so TimeText only
+ * renders every tenth call while formatTime cannot tell. startMs 3600000
+ * renders "h:mm:ss" instead of "m:ss". Run with -prof gc for the allocation
+ * per call.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TimeTextBenchmark {
+    @Param({ "0", "3600000" })
+    public long startMs;
+
+    private TimeText mText;
+    private long mTime;
+
+    @Setup
+    public void setUp() {
+        mText = new TimeText();
+        mTime = startMs;
+    }
+
+    private long advance(long stepMs) {
+        mTime += stepMs;
+        if (mTime >= startMs + 50 * 60 * 1000) {
+            mTime = startMs;
+        }
+        return mTime;
+    }
+
+    @Benchmark
+    public int timeTextNewSecond() {
+        mText.set(advance(1000));
+        return mText.length();
+    }
+
+    @Benchmark
+    public int timeTextSameSecond() {
+        mText.set(advance(100));
+        return mText.length();
+    }
+
+    @Benchmark
+    public String formatTimeNewSecond() {
+        return LegacyTimeFormat.formatTime(advance(1000));
+    }
+
+    @Benchmark
+    public String formatTimeSameSecond() {
+        return LegacyTimeFormat.formatTime(advance(100));
+    }
+}
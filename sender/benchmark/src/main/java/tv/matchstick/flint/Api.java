@@ -0,0 +1,9 @@
+package tv.matchstick.flint;
+
+/**
+ * Stand-in for the Flint SDK API token.
+ */
+public final class Api<O extends Api.ApiOptions> {
+    public interface ApiOptions {
+    }
+}
@@ -0,0 +1,19 @@
+package tv.matchstick.flint;
+
+/**
+ * Stand-in for the Flint SDK connection error.
+ */
+public final class ConnectionResult {
+    public static final int SUCCESS = 0;
+    public static final int NETWORK_ERROR = 7;
+
+    private final int mErrorCode;
+
+    public ConnectionResult(int errorCode) {
+        mErrorCode = errorCode;
+    }
+
+    public int getErrorCode() {
+        return mErrorCode;
+    }
+}
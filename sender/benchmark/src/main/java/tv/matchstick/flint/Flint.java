@@ -0,0 +1,87 @@
+package tv.matchstick.flint;
+
+import java.io.IOException;
+
+/**
+ * Stand-in for the Flint SDK entry points, limited to what FlintSessionPool
+ * uses.
+ */
+public final class Flint {
+    public static final Api<FlintOptions> API = new Api<FlintOptions>();
+
+    private Flint() {
+    }
+
+    public static final class FlintOptions implements Api.ApiOptions {
+        final FlintDevice mDevice;
+        final Listener mListener;
+
+        private FlintOptions(FlintDevice device, Listener listener) {
+            mDevice = device;
+            mListener = listener;
+        }
+
+        public static Builder builder(FlintDevice device, Listener listener) {
+            return new Builder(device, listener);
+        }
+
+        public static final class Builder {
+            private final FlintDevice mDevice;
+            private final Listener mListener;
+
+            private Builder(FlintDevice device, Listener listener) {
+                mDevice = device;
+                mListener = listener;
+            }
+
+            public FlintOptions build() {
+                return new FlintOptions(mDevice, mListener);
+            }
+        }
+    }
+
+    public static class Listener {
+        public void onApplicationStatusChanged() {
+        }
+
+        public void onApplicationDisconnected(int statusCode) {
+        }
+
+        public void onVolumeChanged() {
+        }
+    }
+
+    public interface MessageReceivedCallback {
+        void onMessageReceived(FlintDevice device, String namespace,
+                String message);
+    }
+
+    public interface ApplicationConnectionResult extends Result {
+    }
+
+    public static final class FlintApi {
+        private FlintApi() {
+        }
+
+        public static PendingResult<ApplicationConnectionResult> launchApplication(
+                FlintManager manager, String appUrl, boolean relaunchIfRunning) {
+            manager.checkConnected();
+            return manager.getDevice().getEndpoint()
+                    .launchApplication(manager, appUrl);
+        }
+
+        public static void setMessageReceivedCallbacks(FlintManager manager,
+                String namespace, MessageReceivedCallback callback)
+                throws IOException {
+            if (!manager.isConnected()) {
+                throw new IOException("Not connected");
+            }
+            manager.setMessageReceivedCallback(namespace, callback);
+        }
+
+        public static void removeMessageReceivedCallbacks(
+                FlintManager manager, String namespace) throws IOException {
+            manager.setMessageReceivedCallback(namespace, null);
+        }
+    }
+}
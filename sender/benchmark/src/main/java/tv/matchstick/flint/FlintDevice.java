@@ -0,0 +1,37 @@
+package tv.matchstick.flint;
+
+/**
+ * Stand-in for the Flint SDK device, backed by a SimulatedEndpoint.
+ */
+public class FlintDevice {
+    private final String mDeviceId;
+    private final String mFriendlyName;
+    private final SimulatedEndpoint mEndpoint;
+
+    public FlintDevice(String deviceId, String friendlyName,
+            SimulatedEndpoint endpoint) {
+        mDeviceId = deviceId;
+        mFriendlyName = friendlyName;
+        mEndpoint = endpoint;
+    }
+
+    public String getDeviceId() {
+        return mDeviceId;
+    }
+
+    public String getFriendlyName() {
+        return mFriendlyName;
+    }
+
+    /**
+     * Not part of the real SDK.
+     */
+    public SimulatedEndpoint getEndpoint() {
+        return mEndpoint;
+    }
+
+    @Override
+    public String toString() {
+        return mFriendlyName + " (" + mDeviceId + ")";
+    }
+}
@@ -0,0 +1,182 @@
+package tv.matchstick.flint;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * Stand-in for the Flint SDK client, connected to the SimulatedEndpoint of
+ * its device.
+ *
+ * Connection callbacks run on the main thread. They are delivered even after
+ * disconnect(), as a callback already under way on a real device would be.
+ */
+public class FlintManager {
+    private static final int STATE_DISCONNECTED = 0;
+    private static final int STATE_CONNECTING = 1;
+    private static final int STATE_CONNECTED = 2;
+
+    public interface ConnectionCallbacks {
+        void onConnected(Bundle connectionHint);
+
+        void onConnectionSuspended(int cause);
+
+        void onConnectionFailed(ConnectionResult result);
+    }
+
+    public static final class Builder {
+        private Flint.FlintOptions mOptions;
+        private final List<ConnectionCallbacks> mCallbacks = new ArrayList<ConnectionCallbacks>();
+
+        public Builder(Context context) {
+        }
+
+        public <O extends Api.ApiOptions> Builder addApi(Api<O> api, O options) {
+            if (options instanceof Flint.FlintOptions) {
+                mOptions = (Flint.FlintOptions) options;
+            }
+            return this;
+        }
+
+        public Builder addConnectionCallbacks(ConnectionCallbacks callbacks) {
+            mCallbacks.add(callbacks);
+            return this;
+        }
+
+        public FlintManager build() {
+            if (mOptions == null) {
+                throw new IllegalStateException("Flint.API is required");
+            }
+            return new FlintManager(mOptions, mCallbacks);
+        }
+    }
+
+    private final Flint.FlintOptions mOptions;
+    private final List<ConnectionCallbacks> mCallbacks;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Map<String, Flint.MessageReceivedCallback> mMessageCallbacks = new HashMap<String, Flint.MessageReceivedCallback>();
+    private int mState = STATE_DISCONNECTED;
+
+    private FlintManager(Flint.FlintOptions options,
+            List<ConnectionCallbacks> callbacks) {
+        mOptions = options;
+        mCallbacks = new ArrayList<ConnectionCallbacks>(callbacks);
+    }
+
+    public void connect() {
+        synchronized (this) {
+            if (mState != STATE_DISCONNECTED) {
+                return;
+            }
+            mState = STATE_CONNECTING;
+        }
+        getDevice().getEndpoint().connect(this);
+    }
+
+    public void disconnect() {
+        synchronized (this) {
+            if (mState == STATE_DISCONNECTED) {
+                return;
+            }
+            mState = STATE_DISCONNECTED;
+            mMessageCallbacks.clear();
+        }
+        getDevice().getEndpoint().disconnect(this);
+    }
+
+    public synchronized boolean isConnected() {
+        return mState == STATE_CONNECTED;
+    }
+
+    public synchronized boolean isConnecting() {
+        return mState == STATE_CONNECTING;
+    }
+
+    /**
+     * Not part of the real SDK.
+     */
+    public FlintDevice getDevice() {
+        return mOptions.mDevice;
+    }
+
+    /**
+     * Called by the endpoint once a connect() has gone through. Not part of
+     * the real SDK.
+     */
+    public void notifyConnected() {
+        synchronized (this) {
+            if (mState != STATE_CONNECTING) {
+                return;
+            }
+            mState = STATE_CONNECTED;
+        }
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (ConnectionCallbacks callbacks : mCallbacks) {
+                    callbacks.onConnected(null);
+                }
+            }
+        });
+    }
+
+    /**
+     * Called by the endpoint when the connection is lost. Not part of the
+     * real SDK.
+     */
+    public void notifyConnectionSuspended(final int cause) {
+        synchronized (this) {
+            if (mState == STATE_CONNECTED) {
+                mState = STATE_CONNECTING;
+            }
+        }
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (ConnectionCallbacks callbacks : mCallbacks) {
+                    callbacks.onConnectionSuspended(cause);
+                }
+            }
+        });
+    }
+
+    /**
+     * Called by the endpoint when a connect() fails. Not part of the real
+     * SDK.
+     */
+    public void notifyConnectionFailed(final ConnectionResult result) {
+        synchronized (this) {
+            mState = STATE_DISCONNECTED;
+        }
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (ConnectionCallbacks callbacks : mCallbacks) {
+                    callbacks.onConnectionFailed(result);
+                }
+            }
+        });
+    }
+
+    synchronized void setMessageReceivedCallback(String namespace,
+            Flint.MessageReceivedCallback callback) {
+        if (callback == null) {
+            mMessageCallbacks.remove(namespace);
+        } else {
+            mMessageCallbacks.put(namespace, callback);
+        }
+    }
+
+    void checkConnected() {
+        if (!isConnected()) {
+            throw new IllegalStateException("Not connected to "
+                    + getDevice().getDeviceId());
+        }
+    }
+}
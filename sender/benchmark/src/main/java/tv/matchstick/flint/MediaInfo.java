@@ -0,0 +1,72 @@
+package tv.matchstick.flint;
+
+/**
+ * Stand-in for the Flint SDK media description.
+ */
+public final class MediaInfo {
+    public static final int STREAM_TYPE_NONE = 0;
+    public static final int STREAM_TYPE_BUFFERED = 1;
+    public static final int STREAM_TYPE_LIVE = 2;
+
+    private final String mContentId;
+    private int mStreamType = STREAM_TYPE_NONE;
+    private String mContentType;
+    private MediaMetadata mMetadata;
+    private long mStreamDuration;
+
+    private MediaInfo(String contentId) {
+        mContentId = contentId;
+    }
+
+    public String getContentId() {
+        return mContentId;
+    }
+
+    public int getStreamType() {
+        return mStreamType;
+    }
+
+    public String getContentType() {
+        return mContentType;
+    }
+
+    public MediaMetadata getMetadata() {
+        return mMetadata;
+    }
+
+    public long getStreamDuration() {
+        return mStreamDuration;
+    }
+
+    public static class Builder {
+        private final MediaInfo mInfo;
+
+        public Builder(String contentId) {
+            mInfo = new MediaInfo(contentId);
+        }
+
+        public Builder setStreamType(int streamType) {
+            mInfo.mStreamType = streamType;
+            return this;
+        }
+
+        public Builder setContentType(String contentType) {
+            mInfo.mContentType = contentType;
+            return this;
+        }
+
+        public Builder setMetadata(MediaMetadata metadata) {
+            mInfo.mMetadata = metadata;
+            return this;
+        }
+
+        public Builder setStreamDuration(long duration) {
+            mInfo.mStreamDuration = duration;
+            return this;
+        }
+
+        public MediaInfo build() {
+            return mInfo;
+        }
+    }
+}
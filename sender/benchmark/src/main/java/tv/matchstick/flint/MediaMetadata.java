@@ -0,0 +1,57 @@
+package tv.matchstick.flint;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import tv.matchstick.flint.images.WebImage;
+
+/**
+ * Stand-in for the Flint SDK media metadata: a media type, strings and
+ * images.
+ */
+public class MediaMetadata {
+    public static final int MEDIA_TYPE_GENERIC = 0;
+    public static final int MEDIA_TYPE_MOVIE = 1;
+    public static final int MEDIA_TYPE_TV_SHOW = 2;
+    public static final int MEDIA_TYPE_MUSIC_TRACK = 3;
+    public static final int MEDIA_TYPE_PHOTO = 4;
+
+    public static final String KEY_TITLE = "TITLE";
+    public static final String KEY_SUBTITLE = "SUBTITLE";
+    public static final String KEY_ARTIST = "ARTIST";
+    public static final String KEY_STUDIO = "STUDIO";
+
+    private final int mMediaType;
+    private final Map<String, String> mStrings = new HashMap<String, String>();
+    private final List<WebImage> mImages = new ArrayList<WebImage>();
+
+    public MediaMetadata() {
+        this(MEDIA_TYPE_GENERIC);
+    }
+
+    public MediaMetadata(int mediaType) {
+        mMediaType = mediaType;
+    }
+
+    public int getMediaType() {
+        return mMediaType;
+    }
+
+    public void putString(String key, String value) {
+        mStrings.put(key, value);
+    }
+
+    public String getString(String key) {
+        return mStrings.get(key);
+    }
+
+    public void addImage(WebImage image) {
+        mImages.add(image);
+    }
+
+    public List<WebImage> getImages() {
+        return mImages;
+    }
+}
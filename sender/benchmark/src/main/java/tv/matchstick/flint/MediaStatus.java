@@ -0,0 +1,45 @@
+package tv.matchstick.flint;
+
+/**
+ * Stand-in for the Flint SDK media status, limited to the player state,
+ * stream position and playback rate.
+ */
+public final class MediaStatus {
+    public static final int PLAYER_STATE_UNKNOWN = 0;
+    public static final int PLAYER_STATE_IDLE = 1;
+    public static final int PLAYER_STATE_PLAYING = 2;
+    public static final int PLAYER_STATE_PAUSED = 3;
+    public static final int PLAYER_STATE_BUFFERING = 4;
+
+    private final int mPlayerState;
+    private final long mStreamPosition;
+    private final double mPlaybackRate;
+
+    /**
+     * Not part of the real SDK, which builds the status from receiver
+     * messages.
+     *
+     * @param playerState
+     * @param streamPosition
+     *            in ms
+     * @param playbackRate
+     */
+    public MediaStatus(int playerState, long streamPosition,
+            double playbackRate) {
+        mPlayerState = playerState;
+        mStreamPosition = streamPosition;
+        mPlaybackRate = playbackRate;
+    }
+
+    public int getPlayerState() {
+        return mPlayerState;
+    }
+
+    public long getStreamPosition() {
+        return mStreamPosition;
+    }
+
+    public double getPlaybackRate() {
+        return mPlaybackRate;
+    }
+}
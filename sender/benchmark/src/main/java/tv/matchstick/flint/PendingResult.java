@@ -0,0 +1,17 @@
+package tv.matchstick.flint;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stand-in for the Flint SDK pending result of an asynchronous call.
+ */
+public interface PendingResult<R extends Result> {
+    R await();
+
+    R await(long time, TimeUnit unit);
+
+    void setResultCallback(ResultCallback<R> callback);
+
+    void setResultCallback(ResultCallback<R> callback, long time,
+            TimeUnit unit);
+}
@@ -0,0 +1,95 @@
+package tv.matchstick.flint;
+
+/**
+ * Stand-in for the Flint SDK media channel. Commands go to the
+ * SimulatedEndpoint of the manager's device.
+ */
+public class RemoteMediaPlayer implements Flint.MessageReceivedCallback {
+    public static final int STATUS_SUCCEEDED = 0;
+    public static final int STATUS_FAILED = 2100;
+    public static final int STATUS_CANCELED = 2101;
+    public static final int STATUS_TIMED_OUT = 2102;
+    public static final int STATUS_REPLACED = 2103;
+
+    public static final int RESUME_STATE_UNCHANGED = 0;
+    public static final int RESUME_STATE_PLAY = 1;
+    public static final int RESUME_STATE_PAUSE = 2;
+
+    private static final String NAMESPACE = "urn:flint:org.openflint.fling.media";
+
+    /* Endpoint of the last command, whose answers carry the status. */
+    private volatile SimulatedEndpoint mEndpoint;
+
+    public interface MediaChannelResult extends Result {
+    }
+
+    public String getNamespace() {
+        return NAMESPACE;
+    }
+
+    @Override
+    public void onMessageReceived(FlintDevice device, String namespace,
+            String message) {
+    }
+
+    public PendingResult<MediaChannelResult> load(FlintManager manager,
+            MediaInfo mediaInfo, boolean autoPlay) {
+        return load(manager, mediaInfo, autoPlay, 0);
+    }
+
+    public PendingResult<MediaChannelResult> load(FlintManager manager,
+            MediaInfo mediaInfo, boolean autoPlay, long position) {
+        return endpoint(manager).load(mediaInfo, autoPlay, position);
+    }
+
+    public PendingResult<MediaChannelResult> play(FlintManager manager) {
+        return endpoint(manager).play();
+    }
+
+    public PendingResult<MediaChannelResult> pause(FlintManager manager) {
+        return endpoint(manager).pause();
+    }
+
+    public PendingResult<MediaChannelResult> stop(FlintManager manager) {
+        return endpoint(manager).stop();
+    }
+
+    public PendingResult<MediaChannelResult> seek(FlintManager manager,
+            long position) {
+        return seek(manager, position, RESUME_STATE_UNCHANGED);
+    }
+
+    public PendingResult<MediaChannelResult> seek(FlintManager manager,
+            long position, int resumeState) {
+        return endpoint(manager).seek(position, resumeState);
+    }
+
+    public PendingResult<MediaChannelResult> setStreamVolume(
+            FlintManager manager, double volume) {
+        return endpoint(manager).setStreamVolume(volume);
+    }
+
+    public PendingResult<MediaChannelResult> setStreamMute(
+            FlintManager manager, boolean muted) {
+        return endpoint(manager).setStreamMute(muted);
+    }
+
+    public PendingResult<MediaChannelResult> requestStatus(FlintManager manager) {
+        return endpoint(manager).requestStatus();
+    }
+
+    /**
+     * @return the media status received last, or null before the first
+     */
+    public MediaStatus getMediaStatus() {
+        SimulatedEndpoint endpoint = mEndpoint;
+        return endpoint != null ? endpoint.getMediaStatus() : null;
+    }
+
+    private SimulatedEndpoint endpoint(FlintManager manager) {
+        manager.checkConnected();
+        SimulatedEndpoint endpoint = manager.getDevice().getEndpoint();
+        mEndpoint = endpoint;
+        return endpoint;
+    }
+}
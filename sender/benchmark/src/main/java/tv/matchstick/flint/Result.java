@@ -0,0 +1,8 @@
+package tv.matchstick.flint;
+
+/**
+ * Stand-in for the Flint SDK result of an asynchronous call.
+ */
+public interface Result {
+    Status getStatus();
+}
@@ -0,0 +1,5 @@
+package tv.matchstick.flint;
+
+public interface ResultCallback<R extends Result> {
+    void onResult(R result);
+}
@@ -0,0 +1,42 @@
+package tv.matchstick.flint;
+
+import tv.matchstick.flint.RemoteMediaPlayer.MediaChannelResult;
+
+/**
+ * What the stand-in SDK talks to in place of a device on the network. Not
+ * part of the real SDK.
+ *
+ * An endpoint reports on connections through the notify methods of the
+ * FlintManager and answers commands with PendingResults. Like the receiver's
+ * status messages, every answer brings the media status along.
+ */
+public interface SimulatedEndpoint {
+    void connect(FlintManager manager);
+
+    void disconnect(FlintManager manager);
+
+    PendingResult<Flint.ApplicationConnectionResult> launchApplication(
+            FlintManager manager, String appUrl);
+
+    PendingResult<MediaChannelResult> load(MediaInfo mediaInfo,
+            boolean autoPlay, long position);
+
+    PendingResult<MediaChannelResult> play();
+
+    PendingResult<MediaChannelResult> pause();
+
+    PendingResult<MediaChannelResult> stop();
+
+    PendingResult<MediaChannelResult> seek(long position, int resumeState);
+
+    PendingResult<MediaChannelResult> setStreamVolume(double volume);
+
+    PendingResult<MediaChannelResult> setStreamMute(boolean muted);
+
+    PendingResult<MediaChannelResult> requestStatus();
+
+    /**
+     * @return the media status as of the last answer delivered, or null
+     */
+    MediaStatus getMediaStatus();
+}
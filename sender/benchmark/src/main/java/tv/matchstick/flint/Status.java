@@ -0,0 +1,30 @@
+package tv.matchstick.flint;
+
+/**
+ * Stand-in for the Flint SDK status; code 0 is success.
+ */
+public final class Status implements Result {
+    private final int mStatusCode;
+
+    public Status(int statusCode) {
+        mStatusCode = statusCode;
+    }
+
+    public boolean isSuccess() {
+        return mStatusCode == 0;
+    }
+
+    public int getStatusCode() {
+        return mStatusCode;
+    }
+
+    @Override
+    public Status getStatus() {
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return "Status{statusCode=" + mStatusCode + "}";
+    }
+}
@@ -0,0 +1,18 @@
+package tv.matchstick.flint.images;
+
+import android.net.Uri;
+
+/**
+ * Stand-in for the Flint SDK image reference.
+ */
+public final class WebImage {
+    private final Uri mUrl;
+
+    public WebImage(Uri url) {
+        mUrl = url;
+    }
+
+    public Uri getUrl() {
+        return mUrl;
+    }
+}
@@ -0,0 +1,219 @@
+package com.infthink.flint.samples.videoplayer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Picks the rendition of a catalog entry the network can sustain.
+ *
+ * Throughput to a media host is measured by downloading the first bytes of a
+ * rendition with a range request, and kept per host as a moving average so
+ * later loads from the same host need no new probe while it is fresh. A
+ * rendition is chosen if its bitrate fits in a safety share of the
+ * estimate. Probes block, so select() must not be called on the main thread.
+ */
+public class BitrateSelector {
+    private static final String TAG = BitrateSelector.class.getSimpleName();
+
+    private static final int PROBE_BYTES = 256 * 1024;
+    private static final int CONNECT_TIMEOUT_MS = 3000;
+    private static final int READ_TIMEOUT_MS = 5000;
+    /* Share of the measured throughput a rendition may use. */
+    private static final double SAFETY_FACTOR = 0.7;
+    /* Weight of a new sample in the moving average. */
+    private static final double SAMPLE_WEIGHT = 0.5;
+    /* Estimates older than this are refreshed by a new probe. */
+    private static final long ESTIMATE_MAX_AGE_MS = 60 * 1000;
+
+    private static final class Estimate {
+        double bitsPerSecond;
+        long updatedAt;
+    }
+
+    private final Map<String, Estimate> mEstimates = new HashMap<String, Estimate>();
+    private long mProbes;
+    private long mProbeFailures;
+
+    /**
+     * Choose a rendition of an entry, probing its host if there is no fresh
+     * estimate.
+     *
+     * @param entry
+     * @return the rendition to load, or null if the entry has none
+     */
+    public MediaRendition select(MediaCatalogEntry entry) {
+        if (entry.renditions.isEmpty()) {
+            return null;
+        }
+        // Probe with the lowest rendition, which every link should be able
+        // to start.
+        MediaRendition lowest = entry.renditions
+                .get(entry.renditions.size() - 1);
+        String host = getHost(lowest.url);
+        double estimate = getEstimate(host, ESTIMATE_MAX_AGE_MS);
+        if (estimate <= 0) {
+            estimate = probe(host, lowest.url);
+        }
+        if (estimate <= 0) {
+            Log.d(TAG, "no throughput estimate for " + host
+                    + ", using the lowest rendition");
+            return lowest;
+        }
+        MediaRendition rendition = entry
+                .selectRendition((long) (estimate * SAFETY_FACTOR));
+        Log.d(TAG, "selected " + rendition + " for " + (long) estimate
+                + "bps to " + host);
+        return rendition;
+    }
+
+    /**
+     * Record that playback of a rendition keeps stalling: its host is taken
+     * to be too slow for it, so the next select() for that host picks a
+     * lower rendition.
+     *
+     * @param rendition
+     */
+    public void onStalled(MediaRendition rendition) {
+        String host = getHost(rendition.url);
+        if (host == null) {
+            return;
+        }
+        double cap = (rendition.bitrate - 1) / SAFETY_FACTOR;
+        synchronized (this) {
+            Estimate estimate = mEstimates.get(host);
+            if (estimate == null) {
+                estimate = new Estimate();
+                estimate.bitsPerSecond = cap;
+                mEstimates.put(host, estimate);
+            } else {
+                estimate.bitsPerSecond = Math.min(estimate.bitsPerSecond, cap);
+            }
+            estimate.updatedAt = SystemClock.elapsedRealtime();
+        }
+    }
+
+    /**
+     * @param host
+     * @param maxAgeMs
+     * @return the throughput estimate in bits per second, or 0 if there is
+     *         none younger than maxAgeMs
+     */
+    public synchronized double getEstimate(String host, long maxAgeMs) {
+        Estimate estimate = host != null ? mEstimates.get(host) : null;
+        if (estimate == null
+                || SystemClock.elapsedRealtime() - estimate.updatedAt > maxAgeMs) {
+            return 0;
+        }
+        return estimate.bitsPerSecond;
+    }
+
+    public synchronized long getProbeCount() {
+        return mProbes;
+    }
+
+    public synchronized long getProbeFailureCount() {
+        return mProbeFailures;
+    }
+
+    /**
+     * Download the first PROBE_BYTES of a url and fold the throughput into
+     * the estimate of its host.
+     *
+     * @return the new estimate, or 0 if the probe failed
+     */
+    private double probe(String host, String url) {
+        if (host == null) {
+            return 0;
+        }
+        synchronized (this) {
+            mProbes++;
+        }
+        HttpURLConnection connection = null;
+        InputStream in = null;
+        try {
+            connection = (HttpURLConnection) new URL(url).openConnection();
+            connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+            connection.setReadTimeout(READ_TIMEOUT_MS);
+            connection.setRequestProperty("Range", "bytes=0-"
+                    + (PROBE_BYTES - 1));
+            int code = connection.getResponseCode();
+            if (code != HttpURLConnection.HTTP_PARTIAL
+                    && code != HttpURLConnection.HTTP_OK) {
+                Log.w(TAG, "Unable to probe " + url + ": " + code);
+                return probeFailed();
+            }
+            in = connection.getInputStream();
+            byte[] buffer = new byte[8192];
+            int total = 0;
+            // Timed from the first byte, so connection setup and server
+            // latency do not count against the throughput; the bytes of the
+            // first read arrived before that and are left out too.
+            int first = in.read(buffer);
+            long start = SystemClock.elapsedRealtime();
+            int n = first;
+            while (n != -1 && total < PROBE_BYTES) {
+                total += n;
+                n = in.read(buffer, 0,
+                        Math.min(buffer.length, PROBE_BYTES - total));
+            }
+            long elapsed = Math.max(1, SystemClock.elapsedRealtime() - start);
+            int timed = total - Math.max(0, first);
+            if (timed < buffer.length) {
+                // Too short to tell anything.
+                return probeFailed();
+            }
+            double sample = timed * 8 * 1000.0 / elapsed;
+            synchronized (this) {
+                Estimate estimate = mEstimates.get(host);
+                if (estimate == null) {
+                    estimate = new Estimate();
+                    estimate.bitsPerSecond = sample;
+                    mEstimates.put(host, estimate);
+                } else {
+                    estimate.bitsPerSecond += SAMPLE_WEIGHT
+                            * (sample - estimate.bitsPerSecond);
+                }
+                estimate.updatedAt = SystemClock.elapsedRealtime();
+                Log.d(TAG, "probe " + host + ": " + total + " bytes in "
+                        + elapsed + "ms, estimate "
+                        + (long) estimate.bitsPerSecond + "bps");
+                return estimate.bitsPerSecond;
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to probe " + url, e);
+            return probeFailed();
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // Ignore.
+                }
+            }
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    private synchronized double probeFailed() {
+        mProbeFailures++;
+        return 0;
+    }
+
+    private static String getHost(String url) {
+        try {
+            return new URL(url).getHost();
+        } catch (MalformedURLException e) {
+            return null;
+        }
+    }
+}
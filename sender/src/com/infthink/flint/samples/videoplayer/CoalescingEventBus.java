@@ -0,0 +1,110 @@
+package com.infthink.flint.samples.videoplayer;
+
+import android.os.Handler;
+
+/**
+ * Merges bursts of events into at most one delivery per event type and
+ * frame.
+ *
+ * Events carry no payload: a delivery reads the latest state when it runs,
+ * so any number of events of one type posted within a frame collapse into a
+ * single call. Events can be posted from any thread; deliveries run on the
+ * handler's thread.
+ */
+public class CoalescingEventBus {
+    public static final long FRAME_INTERVAL_MS = 16;
+
+    private final Handler mHandler;
+    private final Runnable[] mDeliveries;
+    private final long[] mReceived;
+    private final long[] mDelivered;
+    private final Runnable mFlushRunnable;
+    private int mPending;
+    private boolean mScheduled;
+
+    /**
+     * @param handler
+     *            thread to deliver on
+     * @param eventTypes
+     *            number of event types, at most 32; types are numbered from 0
+     */
+    public CoalescingEventBus(Handler handler, int eventTypes) {
+        if (eventTypes > Integer.SIZE) {
+            throw new IllegalArgumentException("too many event types: "
+                    + eventTypes);
+        }
+        mHandler = handler;
+        mDeliveries = new Runnable[eventTypes];
+        mReceived = new long[eventTypes];
+        mDelivered = new long[eventTypes];
+        mFlushRunnable = new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        };
+    }
+
+    /**
+     * @param type
+     * @param delivery
+     *            run once per frame in which events of the type were posted
+     */
+    public void setDelivery(int type, Runnable delivery) {
+        mDeliveries[type] = delivery;
+    }
+
+    public synchronized void post(int type) {
+        mReceived[type]++;
+        mPending |= 1 << type;
+        if (!mScheduled) {
+            mScheduled = true;
+            mHandler.postDelayed(mFlushRunnable, FRAME_INTERVAL_MS);
+        }
+    }
+
+    /**
+     * Drop the pending event of a type, e.g. when its source goes away.
+     *
+     * @param type
+     */
+    public synchronized void cancel(int type) {
+        mPending &= ~(1 << type);
+    }
+
+    public synchronized void cancelAll() {
+        mPending = 0;
+        mScheduled = false;
+        mHandler.removeCallbacks(mFlushRunnable);
+    }
+
+    /**
+     * Deliver the pending events now, in type order. Must be called on the
+     * handler's thread.
+     */
+    public void flush() {
+        int pending;
+        synchronized (this) {
+            pending = mPending;
+            mPending = 0;
+            mScheduled = false;
+            mHandler.removeCallbacks(mFlushRunnable);
+        }
+        for (int type = 0; pending != 0; type++, pending >>>= 1) {
+            if ((pending & 1) != 0 && mDeliveries[type] != null) {
+                synchronized (this) {
+                    mDelivered[type]++;
+                }
+                mDeliveries[type].run();
+            }
+        }
+    }
+
+    public synchronized long getReceivedCount(int type) {
+        return mReceived[type];
+    }
+
+    public synchronized long getDeliveredCount(int type) {
+        return mDelivered[type];
+    }
+}
@@ -0,0 +1,126 @@
+package com.infthink.flint.samples.videoplayer;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Round-trip latency histograms of receiver commands, one per operation.
+ */
+public class CommandLatencyStats {
+    public static final String OP_LOAD = "load";
+    public static final String OP_PLAY = "play";
+    public static final String OP_PAUSE = "pause";
+    public static final String OP_STOP = "stop";
+    public static final String OP_SEEK = "seek";
+    public static final String OP_STREAM_VOLUME = "stream_volume";
+    public static final String OP_STREAM_MUTE = "stream_mute";
+    public static final String OP_DEVICE_VOLUME = "device_volume";
+    public static final String OP_DEVICE_MUTE = "device_mute";
+    public static final String OP_LAUNCH_APPLICATION = "launch_application";
+    public static final String OP_JOIN_APPLICATION = "join_application";
+
+    /*
+     * Stages of FlintVideoManager.castMedia(), each measured from the end of
+     * the previous stage, plus the whole pipeline.
+     */
+    public static final String OP_CAST_CONNECT = "cast_connect";
+    public static final String OP_CAST_LAUNCH = "cast_launch";
+    public static final String OP_CAST_LOAD = "cast_load";
+    public static final String OP_CAST_TOTAL = "cast_total";
+
+    /*
+     * FlintSessionPool fan-out: the round trip of each device, kept apart
+     * from single-device commands, and the whole fan-out from the first send
+     * until the last device answered.
+     */
+    public static final String OP_FAN_OUT_LOAD = "fan_out_load";
+    public static final String OP_FAN_OUT_PLAY = "fan_out_play";
+    public static final String OP_FAN_OUT_PAUSE = "fan_out_pause";
+    public static final String OP_FAN_OUT_STOP = "fan_out_stop";
+    public static final String OP_FAN_OUT_SEEK = "fan_out_seek";
+    public static final String OP_FAN_OUT_TOTAL = "fan_out_total";
+
+    /*
+     * Time between queue items, from the receiver reporting one finished to
+     * it reporting the next playing.
+     */
+    public static final String OP_QUEUE_GAP = "queue_gap";
+
+    private final Map<String, LatencyHistogram> mHistograms = new TreeMap<String, LatencyHistogram>();
+
+    public CommandLatencyStats() {
+        String[] operations = { OP_LOAD, OP_PLAY, OP_PAUSE, OP_STOP, OP_SEEK,
+                OP_STREAM_VOLUME, OP_STREAM_MUTE, OP_DEVICE_VOLUME,
+                OP_DEVICE_MUTE, OP_LAUNCH_APPLICATION, OP_JOIN_APPLICATION,
+                OP_CAST_CONNECT, OP_CAST_LAUNCH, OP_CAST_LOAD, OP_CAST_TOTAL,
+                OP_FAN_OUT_LOAD, OP_FAN_OUT_PLAY, OP_FAN_OUT_PAUSE,
+                OP_FAN_OUT_STOP, OP_FAN_OUT_SEEK, OP_FAN_OUT_TOTAL,
+                OP_QUEUE_GAP };
+        for (String operation : operations) {
+            mHistograms.put(operation, new LatencyHistogram());
+        }
+    }
+
+    /**
+     * Record one round trip. Operations are created on first use; recording
+     * a known operation does not allocate.
+     *
+     * @param operation
+     * @param latencyMs
+     */
+    public void record(String operation, long latencyMs) {
+        getHistogram(operation).record(latencyMs);
+    }
+
+    public synchronized LatencyHistogram getHistogram(String operation) {
+        LatencyHistogram histogram = mHistograms.get(operation);
+        if (histogram == null) {
+            histogram = new LatencyHistogram();
+            mHistograms.put(operation, histogram);
+        }
+        return histogram;
+    }
+
+    /**
+     * @param operation
+     * @param percentile
+     *            between 0 and 100, e.g. 50, 95 or 99
+     * @return latency in ms, or 0 if nothing was recorded
+     */
+    public long getPercentile(String operation, double percentile) {
+        return getHistogram(operation).getValueAtPercentile(percentile);
+    }
+
+    /**
+     * Write one line per operation with count, p50, p95, p99 and max.
+     *
+     * @param file
+     * @throws IOException
+     */
+    public void dump(File file) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        sb.append("operation\tcount\tp50\tp95\tp99\tmax\n");
+        synchronized (this) {
+            for (Map.Entry<String, LatencyHistogram> entry : mHistograms
+                    .entrySet()) {
+                LatencyHistogram histogram = entry.getValue();
+                sb.append(entry.getKey()).append('\t')
+                        .append(histogram.getTotalCount()).append('\t')
+                        .append(histogram.getValueAtPercentile(50)).append('\t')
+                        .append(histogram.getValueAtPercentile(95)).append('\t')
+                        .append(histogram.getValueAtPercentile(99)).append('\t')
+                        .append(histogram.getMax()).append('\n');
+            }
+        }
+
+        FileWriter writer = new FileWriter(file);
+        try {
+            writer.write(sb.toString());
+        } finally {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.infthink.flint.samples.videoplayer;
+
+/**
+ * Decides how hard the media router should look for devices.
+ *
+ * Active scanning costs battery and multicast traffic, so it is only used
+ * while the user is picking a device, while a device picked from the cache
+ * is waited for, or when there is no device to offer at all. While a session is connected or the UI is not visible, discovery
+ * is turned off.
+ */
+public class DiscoveryScanPolicy {
+    public static final int SCAN_NONE = 0;
+    public static final int SCAN_PASSIVE = 1;
+    public static final int SCAN_ACTIVE = 2;
+
+    private boolean mStarted;
+    private boolean mChooserOpen;
+    private boolean mSelectionPending;
+    private boolean mDeviceKnown;
+    private boolean mSessionConnected;
+
+    public void setStarted(boolean started) {
+        mStarted = started;
+    }
+
+    public void setChooserOpen(boolean open) {
+        mChooserOpen = open;
+    }
+
+    /**
+     * @param pending
+     *            whether a device was selected whose route has not been
+     *            discovered yet
+     */
+    public void setSelectionPending(boolean pending) {
+        mSelectionPending = pending;
+    }
+
+    public void setDeviceKnown(boolean known) {
+        mDeviceKnown = known;
+    }
+
+    public void setSessionConnected(boolean connected) {
+        mSessionConnected = connected;
+    }
+
+    /**
+     * @return one of SCAN_NONE, SCAN_PASSIVE or SCAN_ACTIVE
+     */
+    public int getScanMode() {
+        if (!mStarted) {
+            return SCAN_NONE;
+        }
+        if (mChooserOpen || mSelectionPending) {
+            return SCAN_ACTIVE;
+        }
+        if (mSessionConnected) {
+            return SCAN_NONE;
+        }
+        return mDeviceKnown ? SCAN_PASSIVE : SCAN_ACTIVE;
+    }
+}
@@ -0,0 +1,129 @@
+package com.infthink.flint.samples.videoplayer;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import android.util.Log;
+
+/**
+ * Disk tier shared by ImageCache and SegmentCache.
+ *
+ * Files live in a directory under the SHA-1 of their key and are trimmed to a
+ * byte budget by last use. Files are written under a temporary name and
+ * renamed when complete; temporary files are never trimmed. Thread-safe.
+ */
+public class DiskLruDirectory {
+    private static final String TAG = DiskLruDirectory.class.getSimpleName();
+
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private final File mDirectory;
+    private final long mMaxBytes;
+
+    /**
+     * @param directory
+     *            e.g. a subdirectory of getCacheDir()
+     * @param maxBytes
+     */
+    public DiskLruDirectory(File directory, long maxBytes) {
+        mDirectory = directory;
+        mMaxBytes = maxBytes;
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            Log.w(TAG, "Unable to create " + mDirectory);
+        }
+    }
+
+    public File getDirectory() {
+        return mDirectory;
+    }
+
+    /**
+     * @param key
+     * @return where the file of a key lives, whether or not it exists
+     */
+    public File getFile(String key) {
+        return new File(mDirectory, hash(key));
+    }
+
+    /**
+     * @param key
+     * @return the file of a key, marked as used, or null if there is none
+     */
+    public File get(String key) {
+        File file = getFile(key);
+        if (!file.isFile()) {
+            return null;
+        }
+        file.setLastModified(System.currentTimeMillis());
+        return file;
+    }
+
+    /**
+     * @param file
+     *            the file that will be written
+     * @return a new, unique temporary file to write it under
+     * @throws IOException
+     */
+    public File createTempFile(File file) throws IOException {
+        return File.createTempFile(file.getName(), TMP_SUFFIX, mDirectory);
+    }
+
+    /**
+     * Delete the least recently used files until the directory fits the
+     * budget. Files still being written are left alone.
+     */
+    public synchronized void trim() {
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        long total = 0;
+        for (File f : files) {
+            total += f.length();
+        }
+        if (total <= mMaxBytes) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long l = lhs.lastModified();
+                long r = rhs.lastModified();
+                return l < r ? -1 : (l == r ? 0 : 1);
+            }
+        });
+        for (File f : files) {
+            if (total <= mMaxBytes) {
+                break;
+            }
+            if (f.getName().endsWith(TMP_SUFFIX)) {
+                continue;
+            }
+            long length = f.length();
+            if (f.delete()) {
+                total -= length;
+            }
+        }
+    }
+
+    static String hash(String key) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] bytes = digest.digest(key.getBytes("UTF-8"));
+            StringBuilder sb = new StringBuilder(bytes.length * 2);
+            for (byte b : bytes) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+                sb.append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
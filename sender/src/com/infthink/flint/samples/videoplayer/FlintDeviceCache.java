@@ -0,0 +1,251 @@
+package com.infthink.flint.samples.videoplayer;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.util.Log;
+
+/**
+ * Small on-disk cache of the Flint devices seen recently, keyed by device
+ * id, so they can be offered before route discovery has finished.
+ *
+ * The file holds one tab-separated line per device. A device that does not
+ * answer a reachability probe is kept but marked stale, since a TV that is
+ * switched off is usually back on its old address later; staleness is not
+ * persisted. All methods are
+ * thread-safe; load(), save() and isReachable() do I/O and should not run on
+ * the main thread.
+ */
+public class FlintDeviceCache {
+    private static final String TAG = FlintDeviceCache.class.getSimpleName();
+
+    public static final int MAX_ENTRIES = 16;
+
+    public static final class Entry {
+        public final String deviceId;
+        public final String friendlyName;
+        public final String host;
+        public final int port;
+        public final long lastSeen;
+        /** Did not answer the last reachability probe. */
+        public final boolean stale;
+
+        public Entry(String deviceId, String friendlyName, String host,
+                int port, long lastSeen) {
+            this(deviceId, friendlyName, host, port, lastSeen, false);
+        }
+
+        public Entry(String deviceId, String friendlyName, String host,
+                int port, long lastSeen, boolean stale) {
+            this.deviceId = deviceId;
+            this.friendlyName = friendlyName;
+            this.host = host;
+            this.port = port;
+            this.lastSeen = lastSeen;
+            this.stale = stale;
+        }
+
+        @Override
+        public String toString() {
+            return friendlyName + " (" + host + ":" + port + ")"
+                    + (stale ? " stale" : "");
+        }
+    }
+
+    private final File mFile;
+    private final Map<String, Entry> mEntries = new HashMap<String, Entry>();
+
+    public FlintDeviceCache(File file) {
+        mFile = file;
+    }
+
+    /**
+     * Read the file into the cache. Entries put since the cache was created
+     * are kept where they are newer than the file's.
+     */
+    public synchronized void load() {
+        if (!mFile.exists()) {
+            return;
+        }
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new FileReader(mFile));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t");
+                if (fields.length != 5) {
+                    continue;
+                }
+                try {
+                    Entry entry = new Entry(fields[0], fields[1], fields[2],
+                            Integer.parseInt(fields[3]),
+                            Long.parseLong(fields[4]));
+                    Entry current = mEntries.get(entry.deviceId);
+                    if (current == null || current.lastSeen < entry.lastSeen) {
+                        mEntries.put(entry.deviceId, entry);
+                    }
+                } catch (NumberFormatException e) {
+                    Log.w(TAG, "Skipping malformed entry: " + line);
+                }
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to read device cache", e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+        trim();
+    }
+
+    public void save() {
+        StringBuilder sb = new StringBuilder();
+        for (Entry entry : getEntries()) {
+            sb.append(clean(entry.deviceId)).append('\t')
+                    .append(clean(entry.friendlyName)).append('\t')
+                    .append(clean(entry.host)).append('\t').append(entry.port)
+                    .append('\t').append(entry.lastSeen).append('\n');
+        }
+        File tmp = new File(mFile.getPath() + ".tmp");
+        FileWriter writer = null;
+        try {
+            writer = new FileWriter(tmp);
+            writer.write(sb.toString());
+            writer.close();
+            writer = null;
+            if (!tmp.renameTo(mFile)) {
+                Log.w(TAG, "Unable to replace " + mFile);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to write device cache", e);
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Add or refresh a device, evicting the least recently seen one when
+     * the cache is full.
+     *
+     * @param entry
+     */
+    public synchronized void put(Entry entry) {
+        mEntries.put(entry.deviceId, entry);
+        trim();
+    }
+
+    /**
+     * Mark a device as answering or not on its cached address. Does nothing
+     * if the device was seen again since the probed entry was read.
+     *
+     * @param probed
+     *            the entry whose address was probed
+     * @param stale
+     * @return true if the mark changed
+     */
+    public synchronized boolean setStale(Entry probed, boolean stale) {
+        Entry entry = mEntries.get(probed.deviceId);
+        if (entry == null || entry.lastSeen != probed.lastSeen
+                || entry.stale == stale) {
+            return false;
+        }
+        mEntries.put(entry.deviceId, new Entry(entry.deviceId, entry.friendlyName,
+                entry.host, entry.port, entry.lastSeen, stale));
+        return true;
+    }
+
+    public synchronized void remove(String deviceId) {
+        mEntries.remove(deviceId);
+    }
+
+    public synchronized boolean isEmpty() {
+        return mEntries.isEmpty();
+    }
+
+    public synchronized Entry get(String deviceId) {
+        return mEntries.get(deviceId);
+    }
+
+    /**
+     * @return the cached devices, reachable ones first, then most recently
+     *         seen first
+     */
+    public synchronized List<Entry> getEntries() {
+        List<Entry> entries = new ArrayList<Entry>(mEntries.values());
+        Collections.sort(entries, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry lhs, Entry rhs) {
+                if (lhs.stale != rhs.stale) {
+                    return lhs.stale ? 1 : -1;
+                }
+                return lhs.lastSeen < rhs.lastSeen ? 1
+                        : (lhs.lastSeen == rhs.lastSeen ? 0 : -1);
+            }
+        });
+        return entries;
+    }
+
+    /**
+     * Check that something still accepts connections at the device address.
+     *
+     * @param entry
+     * @param timeoutMs
+     * @return
+     */
+    public static boolean isReachable(Entry entry, int timeoutMs) {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(entry.host, entry.port),
+                    timeoutMs);
+            return true;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    /*
+     * Evict the least recently seen devices beyond MAX_ENTRIES.
+     */
+    private void trim() {
+        while (mEntries.size() > MAX_ENTRIES) {
+            Entry oldest = null;
+            for (Entry e : mEntries.values()) {
+                if (oldest == null || e.lastSeen < oldest.lastSeen) {
+                    oldest = e;
+                }
+            }
+            mEntries.remove(oldest.deviceId);
+        }
+    }
+
+    private static String clean(String value) {
+        if (value == null) {
+            return "";
+        }
+        return value.replace('\t', ' ').replace('\n', ' ');
+    }
+}
@@ -0,0 +1,32 @@
+package com.infthink.flint.samples.videoplayer;
+
+import android.support.v7.app.MediaRouteChooserDialogFragment;
+
+/**
+ * Route chooser dialog that tells its activity when it is shown and hidden,
+ * so discovery can scan actively only while the user is choosing.
+ */
+public class FlintRouteChooserDialogFragment extends
+        MediaRouteChooserDialogFragment {
+    public interface Listener {
+        void onRouteChooserVisibilityChanged(boolean visible);
+    }
+
+    @Override
+    public void onStart() {
+        super.onStart();
+        notifyVisibility(true);
+    }
+
+    @Override
+    public void onStop() {
+        notifyVisibility(false);
+        super.onStop();
+    }
+
+    private void notifyVisibility(boolean visible) {
+        if (getActivity() instanceof Listener) {
+            ((Listener) getActivity()).onRouteChooserVisibilityChanged(visible);
+        }
+    }
+}
@@ -0,0 +1,635 @@
+package com.infthink.flint.samples.videoplayer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import tv.matchstick.flint.ConnectionResult;
+import tv.matchstick.flint.Flint;
+import tv.matchstick.flint.Flint.ApplicationConnectionResult;
+import tv.matchstick.flint.FlintDevice;
+import tv.matchstick.flint.FlintManager;
+import tv.matchstick.flint.MediaInfo;
+import tv.matchstick.flint.PendingResult;
+import tv.matchstick.flint.RemoteMediaPlayer;
+import tv.matchstick.flint.RemoteMediaPlayer.MediaChannelResult;
+import tv.matchstick.flint.ResultCallback;
+import android.content.Context;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Keeps connections to several receivers at once and sends media commands to
+ * all of them, or to a named group, in one call.
+ *
+ * Every device gets its own FlintManager and RemoteMediaPlayer and is driven
+ * through connect, launch (or join) and attach on its own. A fan-out only
+ * puts one message per device on the wire and returns; the completions are
+ * gathered as they arrive and reported together, so the time to reach all
+ * devices is the slowest round trip rather than the sum of them. All methods
+ * must be called on the main thread, and all callbacks run on it.
+ */
+public class FlintSessionPool {
+    private static final String TAG = FlintSessionPool.class.getSimpleName();
+
+    public static final int STATE_CONNECTING = 0;
+    public static final int STATE_LAUNCHING = 1;
+    public static final int STATE_READY = 2;
+    public static final int STATE_SUSPENDED = 3;
+    public static final int STATE_FAILED = 4;
+    public static final int STATE_DISCONNECTED = 5;
+
+    /**
+     * A fan-out reports the devices that have not answered after this long
+     * as timed out.
+     */
+    public static final long FAN_OUT_TIMEOUT_MS = 10000;
+
+    public interface Listener {
+        void onSessionStateChanged(Session session);
+    }
+
+    /**
+     * Sends one command to one session.
+     */
+    public interface SessionCommand {
+        /**
+         * @param session
+         *            a session in STATE_READY
+         * @return the pending result, or null if nothing was sent
+         */
+        PendingResult<MediaChannelResult> send(Session session);
+    }
+
+    public interface FanOutCallback {
+        void onFanOutCompleted(FanOutResult result);
+    }
+
+    /**
+     * Outcome of one fan-out.
+     */
+    public static final class FanOutResult {
+        public final String operation;
+        /** Devices the command was put on the wire for. */
+        public final int sent;
+        public final int succeeded;
+        public final int failed;
+        /** Devices that did not answer within FAN_OUT_TIMEOUT_MS. */
+        public final int timedOut;
+        /** Devices of the group that were not ready. */
+        public final int skipped;
+        /** Time spent putting the command on the wire for all devices. */
+        public final long issueMs;
+        /** Time until the last device answered. */
+        public final long completionMs;
+
+        FanOutResult(String operation, int sent, int succeeded, int failed,
+                int timedOut, int skipped, long issueMs, long completionMs) {
+            this.operation = operation;
+            this.sent = sent;
+            this.succeeded = succeeded;
+            this.failed = failed;
+            this.timedOut = timedOut;
+            this.skipped = skipped;
+            this.issueMs = issueMs;
+            this.completionMs = completionMs;
+        }
+
+        @Override
+        public String toString() {
+            return operation + ": sent=" + sent + " ok=" + succeeded
+                    + " failed=" + failed + " timedOut=" + timedOut
+                    + " skipped=" + skipped + " issue=" + issueMs
+                    + "ms completion=" + completionMs + "ms";
+        }
+    }
+
+    /**
+     * Connection to one receiver.
+     */
+    public final class Session {
+        private final FlintDevice mDevice;
+        private final String mDeviceId;
+        private String mGroup;
+        private int mState = STATE_DISCONNECTED;
+        /*
+         * Bumped by every connect(), so callbacks of a FlintManager that was
+         * replaced are ignored.
+         */
+        private int mGeneration;
+        private FlintManager mApiClient;
+        private RemoteMediaPlayer mMediaPlayer;
+
+        Session(FlintDevice device, String group) {
+            mDevice = device;
+            mDeviceId = device.getDeviceId();
+            mGroup = group;
+        }
+
+        public FlintDevice getDevice() {
+            return mDevice;
+        }
+
+        public String getDeviceId() {
+            return mDeviceId;
+        }
+
+        public String getGroup() {
+            return mGroup;
+        }
+
+        public int getState() {
+            return mState;
+        }
+
+        public boolean isReady() {
+            return mState == STATE_READY;
+        }
+
+        public FlintManager getApiClient() {
+            return mApiClient;
+        }
+
+        /**
+         * @return the media channel, or null unless the session is ready
+         */
+        public RemoteMediaPlayer getMediaPlayer() {
+            return mMediaPlayer;
+        }
+
+        /*
+         * @return whether a callback of the given connection is still wanted
+         */
+        private boolean isCurrent(int generation) {
+            return mSessions.get(mDeviceId) == this
+                    && mGeneration == generation;
+        }
+
+        private void connect() {
+            final int generation = ++mGeneration;
+            setState(STATE_CONNECTING);
+            try {
+                Flint.FlintOptions.Builder apiOptionsBuilder = Flint.FlintOptions
+                        .builder(mDevice, new Flint.Listener() {
+                            @Override
+                            public void onApplicationDisconnected(
+                                    int statusCode) {
+                                if (!isCurrent(generation)) {
+                                    return;
+                                }
+                                Log.d(TAG, mDeviceId
+                                        + ": application disconnected "
+                                        + statusCode);
+                                detachMediaPlayer();
+                                setState(STATE_FAILED);
+                            }
+                        });
+                mApiClient = new FlintManager.Builder(mContext)
+                        .addApi(Flint.API, apiOptionsBuilder.build())
+                        .addConnectionCallbacks(
+                                new SessionCallbacks(this, generation))
+                        .build();
+                mApiClient.connect();
+            } catch (IllegalStateException e) {
+                Log.w(TAG, mDeviceId + ": error while creating a controller",
+                        e);
+                setState(STATE_FAILED);
+            }
+        }
+
+        private void launch() {
+            final int generation = mGeneration;
+            setState(STATE_LAUNCHING);
+            // Joins the application if it is already running.
+            Flint.FlintApi.launchApplication(mApiClient, mAppUrl, false)
+                    .setResultCallback(
+                            new ResultCallback<ApplicationConnectionResult>() {
+                                @Override
+                                public void onResult(
+                                        ApplicationConnectionResult result) {
+                                    if (!isCurrent(generation)) {
+                                        return;
+                                    }
+                                    if (result.getStatus().isSuccess()) {
+                                        attachMediaPlayer();
+                                    } else {
+                                        Log.w(TAG, mDeviceId
+                                                + ": unable to launch: "
+                                                + result.getStatus()
+                                                        .getStatusCode());
+                                        setState(STATE_FAILED);
+                                    }
+                                }
+                            });
+        }
+
+        private void attachMediaPlayer() {
+            mMediaPlayer = new RemoteMediaPlayer();
+            try {
+                Flint.FlintApi.setMessageReceivedCallbacks(mApiClient,
+                        mMediaPlayer.getNamespace(), mMediaPlayer);
+            } catch (IOException e) {
+                Log.w(TAG, mDeviceId + ": unable to attach media channel", e);
+                mMediaPlayer = null;
+                setState(STATE_FAILED);
+                return;
+            }
+            setState(STATE_READY);
+        }
+
+        private void detachMediaPlayer() {
+            if (mMediaPlayer != null && mApiClient != null) {
+                try {
+                    Flint.FlintApi.removeMessageReceivedCallbacks(mApiClient,
+                            mMediaPlayer.getNamespace());
+                } catch (IOException e) {
+                    Log.w(TAG, mDeviceId + ": unable to detach media channel",
+                            e);
+                }
+            }
+            mMediaPlayer = null;
+        }
+
+        private void disconnect() {
+            detachMediaPlayer();
+            if (mApiClient != null
+                    && (mApiClient.isConnected() || mApiClient.isConnecting())) {
+                mApiClient.disconnect();
+            }
+            mApiClient = null;
+            setState(STATE_DISCONNECTED);
+        }
+
+        private void setState(int state) {
+            if (mState == state) {
+                return;
+            }
+            mState = state;
+            if (mListener != null) {
+                mListener.onSessionStateChanged(this);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return mDeviceId + " [" + mGroup + "] state=" + mState;
+        }
+    }
+
+    /*
+     * FlintManager delivers these on the main thread, where the pool runs.
+     */
+    private final class SessionCallbacks implements
+            FlintManager.ConnectionCallbacks {
+        private final Session mSession;
+        private final int mGeneration;
+
+        SessionCallbacks(Session session, int generation) {
+            mSession = session;
+            mGeneration = generation;
+        }
+
+        @Override
+        public void onConnected(Bundle connectionHint) {
+            if (!mSession.isCurrent(mGeneration)) {
+                return;
+            }
+            if (mSession.mMediaPlayer != null) {
+                mSession.setState(STATE_READY);
+            } else {
+                mSession.launch();
+            }
+        }
+
+        @Override
+        public void onConnectionSuspended(int cause) {
+            if (mSession.isCurrent(mGeneration)) {
+                mSession.setState(STATE_SUSPENDED);
+            }
+        }
+
+        @Override
+        public void onConnectionFailed(ConnectionResult result) {
+            if (mSession.isCurrent(mGeneration)) {
+                mSession.detachMediaPlayer();
+                mSession.setState(STATE_FAILED);
+            }
+        }
+    }
+
+    /**
+     * Collects the completions of one fan-out.
+     */
+    private final class FanOut implements Runnable {
+        private final String mOperation;
+        private final FanOutCallback mCallback;
+        private final long mStartTime;
+        private int mSent;
+        private int mSkipped;
+        private int mSucceeded;
+        private int mFailed;
+        private long mIssueMs;
+        private boolean mDone;
+
+        FanOut(String operation, FanOutCallback callback) {
+            mOperation = operation;
+            mCallback = callback;
+            mStartTime = SystemClock.elapsedRealtime();
+            mIssueMs = -1;
+        }
+
+        ResultCallback<MediaChannelResult> newCallback() {
+            mSent++;
+            final long sentAt = SystemClock.elapsedRealtime();
+            return new ResultCallback<MediaChannelResult>() {
+                @Override
+                public void onResult(MediaChannelResult result) {
+                    if (mDone) {
+                        return;
+                    }
+                    if (mLatencyStats != null) {
+                        mLatencyStats.record(mOperation,
+                                SystemClock.elapsedRealtime() - sentAt);
+                    }
+                    if (result.getStatus().isSuccess()) {
+                        mSucceeded++;
+                    } else {
+                        mFailed++;
+                    }
+                    finishIfComplete();
+                }
+            };
+        }
+
+        void issued(int skipped) {
+            mSkipped = skipped;
+            mIssueMs = SystemClock.elapsedRealtime() - mStartTime;
+            if (!finishIfComplete()) {
+                mHandler.postDelayed(this, FAN_OUT_TIMEOUT_MS);
+            }
+        }
+
+        private boolean finishIfComplete() {
+            // Results can arrive synchronously while commands are issued.
+            if (mIssueMs < 0 || mSucceeded + mFailed < mSent) {
+                return false;
+            }
+            finish();
+            return true;
+        }
+
+        @Override
+        public void run() {
+            if (!mDone) {
+                Log.w(TAG, mOperation + ": "
+                        + (mSent - mSucceeded - mFailed) + " devices timed out");
+                finish();
+            }
+        }
+
+        private void finish() {
+            mDone = true;
+            mHandler.removeCallbacks(this);
+            long completionMs = SystemClock.elapsedRealtime() - mStartTime;
+            if (mLatencyStats != null) {
+                mLatencyStats.record(CommandLatencyStats.OP_FAN_OUT_TOTAL,
+                        completionMs);
+            }
+            if (mCallback != null) {
+                mCallback.onFanOutCompleted(new FanOutResult(mOperation,
+                        mSent, mSucceeded, mFailed, mSent - mSucceeded
+                                - mFailed, mSkipped, mIssueMs, completionMs));
+            }
+        }
+    }
+
+    private final Context mContext;
+    private final String mAppUrl;
+    private final CommandLatencyStats mLatencyStats;
+    private final Handler mHandler;
+    private final Map<String, Session> mSessions = new LinkedHashMap<String, Session>();
+    private Listener mListener;
+
+    /**
+     * @param context
+     * @param appUrl
+     *            receiver application to launch or join on every device
+     * @param latencyStats
+     *            receives per-device round trips under the operation name,
+     *            e.g. OP_FAN_OUT_LOAD, and whole fan-outs under
+     *            OP_FAN_OUT_TOTAL, may be null
+     */
+    public FlintSessionPool(Context context, String appUrl,
+            CommandLatencyStats latencyStats) {
+        mContext = context;
+        mAppUrl = appUrl;
+        mLatencyStats = latencyStats;
+        mHandler = new Handler(Looper.getMainLooper());
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Connect to a device and launch the receiver application on it.
+     *
+     * @param device
+     * @param group
+     *            name of the group the device belongs to, may be null
+     * @return the session, or the existing one if the device is in the pool
+     */
+    public Session addDevice(FlintDevice device, String group) {
+        Session session = mSessions.get(device.getDeviceId());
+        if (session != null) {
+            session.mGroup = group;
+            return session;
+        }
+        session = new Session(device, group);
+        mSessions.put(session.mDeviceId, session);
+        session.connect();
+        return session;
+    }
+
+    /**
+     * @param deviceId
+     * @return true if the device was in the pool
+     */
+    public boolean removeDevice(String deviceId) {
+        Session session = mSessions.remove(deviceId);
+        if (session == null) {
+            return false;
+        }
+        session.disconnect();
+        return true;
+    }
+
+    /**
+     * Reconnect the sessions that failed or were suspended.
+     */
+    public void reconnect() {
+        for (Session session : mSessions.values()) {
+            if (session.mState == STATE_FAILED
+                    || session.mState == STATE_SUSPENDED) {
+                session.disconnect();
+                session.connect();
+            }
+        }
+    }
+
+    public void release() {
+        List<Session> sessions = new ArrayList<Session>(mSessions.values());
+        mSessions.clear();
+        for (Session session : sessions) {
+            session.disconnect();
+        }
+    }
+
+    public int size() {
+        return mSessions.size();
+    }
+
+    public Session getSession(String deviceId) {
+        return mSessions.get(deviceId);
+    }
+
+    public List<Session> getSessions() {
+        return Collections.unmodifiableList(new ArrayList<Session>(mSessions
+                .values()));
+    }
+
+    /**
+     * @param group
+     *            a group name, or null for every session
+     * @return the sessions of the group
+     */
+    public List<Session> getSessions(String group) {
+        List<Session> sessions = new ArrayList<Session>();
+        for (Session session : mSessions.values()) {
+            if (group == null || group.equals(session.mGroup)) {
+                sessions.add(session);
+            }
+        }
+        return sessions;
+    }
+
+    /**
+     * @return number of sessions per group
+     */
+    public Map<String, Integer> getGroups() {
+        Map<String, Integer> groups = new HashMap<String, Integer>();
+        for (Session session : mSessions.values()) {
+            Integer count = groups.get(session.mGroup);
+            groups.put(session.mGroup, count == null ? 1 : count + 1);
+        }
+        return groups;
+    }
+
+    public void load(String group, final MediaInfo mediaInfo,
+            final boolean autoPlay, FanOutCallback callback) {
+        fanOut(group, CommandLatencyStats.OP_FAN_OUT_LOAD, new SessionCommand() {
+            @Override
+            public PendingResult<MediaChannelResult> send(Session session) {
+                return session.mMediaPlayer.load(session.mApiClient,
+                        mediaInfo, autoPlay);
+            }
+        }, callback);
+    }
+
+    public void play(String group, FanOutCallback callback) {
+        fanOut(group, CommandLatencyStats.OP_FAN_OUT_PLAY, new SessionCommand() {
+            @Override
+            public PendingResult<MediaChannelResult> send(Session session) {
+                return session.mMediaPlayer.play(session.mApiClient);
+            }
+        }, callback);
+    }
+
+    public void pause(String group, FanOutCallback callback) {
+        fanOut(group, CommandLatencyStats.OP_FAN_OUT_PAUSE, new SessionCommand() {
+            @Override
+            public PendingResult<MediaChannelResult> send(Session session) {
+                return session.mMediaPlayer.pause(session.mApiClient);
+            }
+        }, callback);
+    }
+
+    public void stop(String group, FanOutCallback callback) {
+        fanOut(group, CommandLatencyStats.OP_FAN_OUT_STOP, new SessionCommand() {
+            @Override
+            public PendingResult<MediaChannelResult> send(Session session) {
+                return session.mMediaPlayer.stop(session.mApiClient);
+            }
+        }, callback);
+    }
+
+    /**
+     * @param group
+     * @param position
+     *            in ms
+     * @param resumeState
+     *            one of the RemoteMediaPlayer.RESUME_STATE_* constants
+     * @param callback
+     */
+    public void seek(String group, final long position, final int resumeState,
+            FanOutCallback callback) {
+        fanOut(group, CommandLatencyStats.OP_FAN_OUT_SEEK, new SessionCommand() {
+            @Override
+            public PendingResult<MediaChannelResult> send(Session session) {
+                return session.mMediaPlayer.seek(session.mApiClient, position,
+                        resumeState);
+            }
+        }, callback);
+    }
+
+    /**
+     * Send a command to every ready session of a group without waiting for
+     * any of them, then report once all have answered or FAN_OUT_TIMEOUT_MS
+     * has passed.
+     *
+     * @param group
+     *            a group name, or null for every session
+     * @param operation
+     *            name the round trips are recorded under; use a name of its
+     *            own, such as OP_FAN_OUT_LOAD, rather than that of the
+     *            single-device command
+     * @param command
+     * @param callback
+     *            may be null
+     */
+    public void fanOut(String group, String operation, SessionCommand command,
+            FanOutCallback callback) {
+        FanOut fanOut = new FanOut(operation, callback);
+        int skipped = 0;
+        for (Session session : mSessions.values()) {
+            if (group != null && !group.equals(session.mGroup)) {
+                continue;
+            }
+            if (!session.isReady()) {
+                skipped++;
+                continue;
+            }
+            PendingResult<MediaChannelResult> result;
+            try {
+                result = command.send(session);
+            } catch (IllegalStateException e) {
+                Log.w(TAG, session.mDeviceId + ": unable to send " + operation,
+                        e);
+                result = null;
+            }
+            if (result == null) {
+                skipped++;
+                continue;
+            }
+            result.setResultCallback(fanOut.newCallback());
+        }
+        fanOut.issued(skipped);
+    }
+}
@@ -1,5 +1,7 @@
 package com.infthink.flint.samples.videoplayer;
 
+import java.util.List;
+
 import android.net.Uri;
 
 public interface FlintStatusChangeListener {
@@ -13,10 +15,13 @@ public interface FlintStatusChangeListener {
     void onNoLongerRunning(boolean isRunning);
     void onConnectionSuspended();
     void onMediaStatusUpdated();
+    void onMediaPositionUpdated(long position, long duration);
     void onMediaMetadataUpdated(String title, String artist, Uri imageUrl);
     void onApplicationConnectionResult(String applicationStatus);
     void onLeaveApplication();
     void onStopApplication();
     void onMediaSeekEnd();
     void onMediaVolumeEnd();
+    void onKnownDevicesUpdated(List<FlintDeviceCache.Entry> devices);
+    void onPlaybackQualityUpdated(PlaybackQualityCollector.DeviceQuality quality);
 }
@@ -1,10 +1,25 @@
 package com.infthink.flint.samples.videoplayer;
 
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.infthink.flint.samples.videoplayer.R;
 
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
 import tv.matchstick.flint.ApplicationMetadata;
 import tv.matchstick.flint.ConnectionResult;
 import tv.matchstick.flint.Flint;
@@ -15,6 +30,7 @@ import tv.matchstick.flint.FlintStatusCodes;
 import tv.matchstick.flint.MediaInfo;
 import tv.matchstick.flint.MediaMetadata;
 import tv.matchstick.flint.MediaStatus;
+import tv.matchstick.flint.PendingResult;
 import tv.matchstick.flint.RemoteMediaPlayer;
 import tv.matchstick.flint.ResultCallback;
 import tv.matchstick.flint.Status;
@@ -22,16 +38,22 @@ import tv.matchstick.flint.Flint.ApplicationConnectionResult;
 import tv.matchstick.flint.RemoteMediaPlayer.MediaChannelResult;
 import tv.matchstick.flint.images.WebImage;
 import android.content.Context;
+import android.content.res.XmlResourceParser;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.support.v4.view.MenuItemCompat;
 import android.support.v7.app.MediaRouteActionProvider;
+import android.support.v7.app.MediaRouteChooserDialogFragment;
+import android.support.v7.app.MediaRouteDialogFactory;
 import android.support.v7.media.MediaRouteSelector;
 import android.support.v7.media.MediaRouter;
 import android.support.v7.media.MediaRouter.RouteInfo;
 import android.util.Log;
+import android.util.Xml;
 import android.view.Menu;
 import android.view.MenuItem;
 
@@ -41,8 +63,86 @@ public class FlintVideoManager {
     public static final double VOLUME_INCREMENT = 0.05;
     public static final double MAX_VOLUME_LEVEL = 20;
 
+    /**
+     * Interval of the fixed refresh poll the position interpolator replaces,
+     * used to count the wakeups it saves.
+     */
+    public static final long POLL_INTERVAL_MS = 1000;
+
+    /**
+     * Lower bound of the interval between live scrub seeks. The actual
+     * interval follows the measured seek round-trip time.
+     */
+    public static final long MIN_SCRUB_INTERVAL_MS = 100;
+    private static final long INITIAL_SEEK_ROUND_TRIP_MS = 250;
+
+    private static final long RECONNECT_INITIAL_DELAY_MS = 500;
+    private static final long RECONNECT_MAX_DELAY_MS = 8000;
+    private static final int RECONNECT_MAX_ATTEMPTS = 8;
+
+    /*
+     * castMedia() gives up if no device is connected within this time, e.g.
+     * when the cached device it waits for never shows up.
+     */
+    private static final long CAST_CONNECT_TIMEOUT_MS = 15000;
+
+    private static final String DEVICE_CACHE_FILE = "flint_devices";
+    private static final int DEVICE_PROBE_TIMEOUT_MS = 1500;
+    /* Discovery reports a device many times; its cache entry is saved once. */
+    private static final long DEVICE_CACHE_SAVE_DELAY_MS = 2000;
+
+    private static final int CATALOG_BATCH_SIZE = 500;
+
+    /*
+     * Event types of the media event bus.
+     */
+    public static final int MEDIA_EVENT_STATUS = 0;
+    public static final int MEDIA_EVENT_METADATA = 1;
+    private static final int MEDIA_EVENT_TYPES = 2;
+
+    /*
+     * How long before the end of a queue item the next one is prepared.
+     */
+    private static final long QUEUE_PRELOAD_LEAD_MS = 10000;
+
+    /*
+     * A rendition that stalls this many times within the window is replaced
+     * by a lower one.
+     */
+    private static final int STALLS_BEFORE_DOWNGRADE = 2;
+    private static final long STALL_WINDOW_MS = 30000;
+
+    /*
+     * Namespace on which the receiver accepts the next queue item to
+     * preload, see receiver/index.html.
+     */
+    private static final String PRELOAD_NAMESPACE = "urn:flint:com.infthink.flint.samples.videoplayer.preload";
+
+    /*
+     * Namespace on which the receiver learns the content type of a manifest
+     * before it is loaded, so that it plays it with adaptive streaming, see
+     * receiver/adaptive.js.
+     */
+    private static final String STREAM_NAMESPACE = "urn:flint:com.infthink.flint.samples.videoplayer.stream";
+    /*
+     * Namespace on which the receiver reports playback quality, see
+     * receiver/index.html.
+     */
+    private static final String TELEMETRY_NAMESPACE = "urn:flint:com.infthink.flint.samples.videoplayer.telemetry";
+
+    private static final String[] MANIFEST_CONTENT_TYPES = {
+            "application/x-mpegurl", "application/vnd.apple.mpegurl",
+            "audio/mpegurl", "application/dash+xml" };
+
+    private static final String IMAGE_CACHE_DIR = "images";
+    private static final long IMAGE_DISK_CACHE_BYTES = 10 * 1024 * 1024;
+    private static final String SEGMENT_CACHE_DIR = "segments";
+    private static final long SEGMENT_DISK_CACHE_BYTES = 200 * 1024 * 1024;
+
     private Context mContext;
     private Handler mHandler;
+    private HandlerThread mIoThread;
+    private Handler mIoHandler;
     private String mApplicationId;
 
     private FlintStatusChangeListener mStatusChangeListener;
@@ -50,21 +150,89 @@ public class FlintVideoManager {
     private MediaRouter mMediaRouter;
     private MediaRouteSelector mMediaRouteSelector;
     private FlintMediaRouterCallback mMediaRouterCallback;
+    private DiscoveryScanPolicy mScanPolicy;
+    private int mScanMode = -1;
     private FlintDevice mSelectedDevice;
+    private FlintDeviceCache mDeviceCache;
+    private ExecutorService mDeviceProbeExecutor;
+    private Runnable mDeviceCacheSaveRunnable;
+    private volatile boolean mDeviceCacheDirty;
+    private String mPendingDeviceId;
     private FlintManager mApiClient;
     private FlintListener mFlintListener;
     private ConnectionCallbacks mConnectionCallbacks;
 
     private MediaInfo mMediaInfo;
+    private MediaCatalog mMediaCatalog;
+    private MediaQueue mMediaQueue;
+    private boolean mQueueActive;
+    private long mQueueItemEndedAt;
+    /* A queue item load was sent and its result has not arrived yet. */
+    private boolean mQueueLoadPending;
+    private int mQueueErrors;
+    private long mLastQueueGapMs = -1;
+    private MediaInfo mPreparedQueueItem;
+    private Runnable mQueuePreloadRunnable;
+    private ImageCache mImageCache;
+    private BitrateSelector mBitrateSelector;
+    private PlaybackQualityCollector mQualityCollector;
+    private LocalMediaServer mLocalMediaServer;
+    private String mLocalMediaPath;
+    private SegmentCache mSegmentCache;
+    /* Catalog entry and rendition loaded by loadMedia(entry), if any. */
+    private MediaCatalogEntry mAdaptiveEntry;
+    private MediaRendition mAdaptiveRendition;
+    private int mAdaptiveLoadGeneration;
+    private int mLastPlayerState;
+    private final long[] mStallTimes = new long[STALLS_BEFORE_DOWNGRADE];
+    private int mStallCount;
     private RemoteMediaPlayer mMediaPlayer;
+    private CoalescingEventBus mMediaEventBus;
     private ApplicationMetadata mAppMetadata;
 
     private boolean mWaitingForReconnect;
+    private int mReconnectAttempts;
+    private Runnable mReconnectRunnable;
+
+    /*
+     * State of the media session kept across a connection suspension, shown
+     * until the receiver answers with a fresh status.
+     */
+    private MediaInfo mCachedMediaInfo;
+    private MediaStatus mCachedMediaStatus;
+    private boolean mResumingSession;
+
+    private MediaCommandDispatcher mCommandDispatcher;
+
+    private MediaInfo mPendingCastMedia;
+    private boolean mCastConnecting;
+    private boolean mCastLaunching;
+    private long mCastStartTime;
+    private long mCastStageStartTime;
+    private Runnable mCastTimeoutRunnable;
+    private CommandLatencyStats mLatencyStats;
+
+    private long mSeekRoundTripMs = INITIAL_SEEK_ROUND_TRIP_MS;
+    private long mLastScrubSeekTime;
+    private long mPendingScrubPosition = -1;
+    private Runnable mScrubRunnable;
+
+    private MediaPositionInterpolator mPositionInterpolator;
+    private Runnable mPositionRunnable;
+    private boolean mPositionUpdatesEnabled;
+    private long mLastPositionSecond = -1;
+    private long mLastDurationSecond = -1;
+    private long mPositionWakeups;
+    private long mTrackingSince;
+    private long mTrackingTime;
 
     public FlintVideoManager(Context context, String applicationId,
             FlintStatusChangeListener listener) {
         mContext = context;
         mHandler = new Handler(Looper.getMainLooper());
+        mIoThread = new HandlerThread(TAG + "-io");
+        mIoThread.start();
+        mIoHandler = new Handler(mIoThread.getLooper());
         mApplicationId = applicationId;
         mStatusChangeListener = listener;
 
@@ -76,11 +244,99 @@ public class FlintVideoManager {
                                 .categoryForFlint(mApplicationId)).build();
 
         mMediaRouterCallback = new FlintMediaRouterCallback();
-        addRouterCallback();
+        mScanPolicy = new DiscoveryScanPolicy();
+        loadDeviceCache();
+        updateScanMode();
 
         mConnectionCallbacks = new ConnectionCallbacks();
+        mCastTimeoutRunnable = new Runnable() {
+            @Override
+            public void run() {
+                if (mPendingCastMedia != null && !isDeviceConnected()) {
+                    Log.w(TAG, "castMedia: no device connected after "
+                            + CAST_CONNECT_TIMEOUT_MS + "ms");
+                    setPendingDeviceId(null);
+                    cancelCast();
+                }
+            }
+        };
+        mReconnectRunnable = new Runnable() {
+            @Override
+            public void run() {
+                if (mApiClient == null || !mWaitingForReconnect) {
+                    return;
+                }
+                if (!mApiClient.isConnected()) {
+                    Log.d(TAG, "reconnect attempt " + mReconnectAttempts);
+                    mApiClient.connect();
+                }
+                scheduleReconnect();
+            }
+        };
 
         mFlintListener = new FlintListener();
+
+        mMediaEventBus = new CoalescingEventBus(mHandler, MEDIA_EVENT_TYPES);
+        mMediaEventBus.setDelivery(MEDIA_EVENT_STATUS, new Runnable() {
+            @Override
+            public void run() {
+                if (mMediaPlayer == null) {
+                    return;
+                }
+                clearSessionCache();
+                onMediaStatusChanged();
+                mStatusChangeListener.onMediaStatusUpdated();
+            }
+        });
+        mMediaEventBus.setDelivery(MEDIA_EVENT_METADATA, new Runnable() {
+            @Override
+            public void run() {
+                if (mMediaPlayer == null) {
+                    return;
+                }
+                MediaInfo mediaInfo = mMediaPlayer.getMediaInfo();
+                if (mediaInfo != null) {
+                    notifyMediaMetadata(mediaInfo);
+                }
+            }
+        });
+
+        mLatencyStats = new CommandLatencyStats();
+        mCommandDispatcher = new MediaCommandDispatcher(mLatencyStats);
+        mMediaCatalog = new MediaCatalog();
+        mMediaQueue = new MediaQueue();
+        mQueuePreloadRunnable = new Runnable() {
+            @Override
+            public void run() {
+                prepareNextQueueItem();
+            }
+        };
+        mImageCache = new ImageCache(new File(context.getCacheDir(),
+                IMAGE_CACHE_DIR),
+                (int) (Runtime.getRuntime().maxMemory() / 8),
+                IMAGE_DISK_CACHE_BYTES);
+        mBitrateSelector = new BitrateSelector();
+        mQualityCollector = new PlaybackQualityCollector();
+        mScrubRunnable = new Runnable() {
+            @Override
+            public void run() {
+                long position = mPendingScrubPosition;
+                mPendingScrubPosition = -1;
+                if (position >= 0) {
+                    scrubMedia(position);
+                }
+            }
+        };
+
+        mPositionInterpolator = new MediaPositionInterpolator();
+        mPositionRunnable = new Runnable() {
+            @Override
+            public void run() {
+                mPositionWakeups++;
+                dispatchPosition(false);
+                schedulePositionUpdate();
+            }
+        };
     }
 
     private String getAppUrl() {
@@ -99,16 +355,261 @@ public class FlintVideoManager {
         MediaRouteActionProvider mediaRouteActionProvider = (MediaRouteActionProvider) MenuItemCompat
                 .getActionProvider(mediaRouteMenuItem);
         mediaRouteActionProvider.setRouteSelector(mMediaRouteSelector);
+        mediaRouteActionProvider
+                .setDialogFactory(new MediaRouteDialogFactory() {
+                    @Override
+                    public MediaRouteChooserDialogFragment onCreateChooserDialogFragment() {
+                        return new FlintRouteChooserDialogFragment();
+                    }
+                });
         return mediaRouteMenuItem;
     }
 
-    private void addRouterCallback() {
+    /**
+     * Re-register the router callback with the discovery flags the scan
+     * policy asks for. The callback stays registered even when not scanning
+     * so route unselection is still reported.
+     */
+    private void updateScanMode() {
+        mScanPolicy.setDeviceKnown(!mDeviceCache.isEmpty());
+        mScanPolicy.setSessionConnected(isDeviceConnected());
+        int mode = mScanPolicy.getScanMode();
+        if (mode == mScanMode) {
+            return;
+        }
+        Log.d(TAG, "discovery scan mode " + mScanMode + " -> " + mode);
+        mScanMode = mode;
+
+        int flags = 0;
+        if (mode == DiscoveryScanPolicy.SCAN_ACTIVE) {
+            flags = MediaRouter.CALLBACK_FLAG_REQUEST_DISCOVERY
+                    | MediaRouter.CALLBACK_FLAG_PERFORM_ACTIVE_SCAN;
+        } else if (mode == DiscoveryScanPolicy.SCAN_PASSIVE) {
+            flags = MediaRouter.CALLBACK_FLAG_REQUEST_DISCOVERY;
+        }
+        // addCallback() only ever adds flags to a registered callback.
+        mMediaRouter.removeCallback(mMediaRouterCallback);
         mMediaRouter.addCallback(mMediaRouteSelector, mMediaRouterCallback,
-                MediaRouter.CALLBACK_FLAG_PERFORM_ACTIVE_SCAN);
+                flags);
+    }
+
+    /**
+     * Call from the activity's onStart().
+     */
+    public void onStart() {
+        mScanPolicy.setStarted(true);
+        updateScanMode();
+        setPositionUpdatesEnabled(true);
+    }
+
+    /**
+     * Call from the activity's onStop().
+     */
+    public void onStop() {
+        mScanPolicy.setStarted(false);
+        updateScanMode();
+        setPositionUpdatesEnabled(false);
+    }
+
+    /**
+     * Tell the manager whether the route chooser dialog is showing.
+     * 
+     * @param open
+     */
+    public void setRouteChooserOpen(boolean open) {
+        mScanPolicy.setChooserOpen(open);
+        updateScanMode();
     }
 
     public void destroy() {
         mMediaRouter.removeCallback(mMediaRouterCallback);
+        mScanMode = -1;
+        setPositionUpdatesEnabled(false);
+        mCommandDispatcher.quit();
+        mDeviceProbeExecutor.shutdownNow();
+        // Write a pending device cache save before the I/O thread quits.
+        mIoHandler.removeCallbacks(mDeviceCacheSaveRunnable);
+        mIoHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mDeviceCacheDirty) {
+                    mDeviceCacheDirty = false;
+                    mDeviceCache.save();
+                }
+                mIoThread.quit();
+            }
+        });
+        mImageCache.shutdown();
+        mMediaEventBus.cancelAll();
+        if (mLocalMediaServer != null) {
+            mLocalMediaServer.stop();
+        }
+    }
+
+    /**
+     * Create a pool for controlling several receivers at once. Its round
+     * trips are recorded in the latency stats of this manager.
+     * 
+     * @return
+     */
+    public FlintSessionPool createSessionPool() {
+        return new FlintSessionPool(mContext, getAppUrl(), mLatencyStats);
+    }
+
+    /**
+     * Bus merging the receiver's status and metadata messages into at most
+     * one UI update per frame; see its received and delivered counts.
+     * 
+     * @return
+     */
+    public CoalescingEventBus getMediaEventBus() {
+        return mMediaEventBus;
+    }
+
+    public MediaCommandDispatcher getCommandDispatcher() {
+        return mCommandDispatcher;
+    }
+
+    public CommandLatencyStats getLatencyStats() {
+        return mLatencyStats;
+    }
+
+    /**
+     * Round-trip latency of a receiver operation.
+     * 
+     * @param operation
+     *            one of the CommandLatencyStats.OP_* constants
+     * @param percentile
+     *            between 0 and 100, e.g. 50, 95 or 99
+     * @return latency in ms, or 0 if the operation was never answered
+     */
+    public long getLatencyPercentile(String operation, double percentile) {
+        return mLatencyStats.getPercentile(operation, percentile);
+    }
+
+    /**
+     * Write the latency percentiles of all operations to a file.
+     * 
+     * @param file
+     * @return true on success
+     */
+    public boolean dumpLatencyStats(File file) {
+        try {
+            mLatencyStats.dump(file);
+            return true;
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to write latency stats to " + file, e);
+            return false;
+        }
+    }
+
+    /**
+     * Enable or disable position updates to the listener, e.g. while the UI
+     * is in the background. Nothing is scheduled while disabled.
+     * 
+     * @param enabled
+     */
+    public void setPositionUpdatesEnabled(boolean enabled) {
+        if (mPositionUpdatesEnabled == enabled) {
+            return;
+        }
+        mPositionUpdatesEnabled = enabled;
+        if (enabled) {
+            dispatchPosition(true);
+            schedulePositionUpdate();
+        } else {
+            mHandler.removeCallbacks(mPositionRunnable);
+            stopTrackingClock();
+        }
+    }
+
+    /**
+     * Number of wakeups a fixed 1-second refresh poll would have made while
+     * media was attached, minus the wakeups the interpolator actually made.
+     * 
+     * @return
+     */
+    public long getRefreshTicksAvoided() {
+        long trackingTime = mTrackingTime;
+        if (mTrackingSince != 0) {
+            trackingTime += SystemClock.elapsedRealtime() - mTrackingSince;
+        }
+        return Math.max(0, trackingTime / POLL_INTERVAL_MS - mPositionWakeups);
+    }
+
+    private void onMediaStatusChanged() {
+        MediaStatus status = getMediaStatus();
+        if (status == null) {
+            mPositionInterpolator.reset();
+        } else {
+            // A cached status is stale, so hold its position still until
+            // the receiver reports again.
+            boolean playing = !mResumingSession
+                    && status.getPlayerState() == MediaStatus.PLAYER_STATE_PLAYING;
+            long duration = mMediaPlayer.getStreamDuration();
+            if (duration <= 0 && status.getMediaInfo() != null) {
+                duration = status.getMediaInfo().getStreamDuration();
+            }
+            mPositionInterpolator.update(status.getStreamPosition(),
+                    status.getPlaybackRate(), playing, duration,
+                    SystemClock.elapsedRealtime());
+        }
+        dispatchPosition(true);
+        schedulePositionUpdate();
+        updateQueue(status);
+        checkStalls(status);
+    }
+
+    private void dispatchPosition(boolean force) {
+        if (!mPositionUpdatesEnabled || mMediaPlayer == null) {
+            return;
+        }
+        long position = mPositionInterpolator.getPosition(SystemClock
+                .elapsedRealtime());
+        long duration = mPositionInterpolator.getDuration();
+        long positionSecond = position / 1000;
+        long durationSecond = duration / 1000;
+        if (!force && positionSecond == mLastPositionSecond
+                && durationSecond == mLastDurationSecond) {
+            return;
+        }
+        mLastPositionSecond = positionSecond;
+        mLastDurationSecond = durationSecond;
+        mStatusChangeListener.onMediaPositionUpdated(position, duration);
+    }
+
+    private void schedulePositionUpdate() {
+        mHandler.removeCallbacks(mPositionRunnable);
+        if (!mPositionUpdatesEnabled || mMediaPlayer == null) {
+            return;
+        }
+        startTrackingClock();
+        long delay = mPositionInterpolator.getDelayToNextChange(SystemClock
+                .elapsedRealtime());
+        if (delay >= 0) {
+            mHandler.postDelayed(mPositionRunnable, delay);
+        }
+    }
+
+    private void stopPositionUpdates() {
+        mHandler.removeCallbacks(mPositionRunnable);
+        mPositionInterpolator.reset();
+        mLastPositionSecond = -1;
+        mLastDurationSecond = -1;
+        stopTrackingClock();
+    }
+
+    private void startTrackingClock() {
+        if (mTrackingSince == 0) {
+            mTrackingSince = SystemClock.elapsedRealtime();
+        }
+    }
+
+    private void stopTrackingClock() {
+        if (mTrackingSince != 0) {
+            mTrackingTime += SystemClock.elapsedRealtime() - mTrackingSince;
+            mTrackingSince = 0;
+        }
     }
 
     /**
@@ -124,9 +625,21 @@ public class FlintVideoManager {
         public void onRouteSelected(MediaRouter router, RouteInfo route) {
             Log.d(TAG, "onRouteSelected: route=" + route);
             FlintDevice device = FlintDevice.getFromBundle(route.getExtras());
+            setPendingDeviceId(null);
+            rememberDevice(device);
             onDeviceSelected(device);
         }
 
+        @Override
+        public void onRouteAdded(MediaRouter router, RouteInfo route) {
+            onRouteDiscovered(route);
+        }
+
+        @Override
+        public void onRouteChanged(MediaRouter router, RouteInfo route) {
+            onRouteDiscovered(route);
+        }
+
         @Override
         public void onRouteUnselected(MediaRouter router, RouteInfo route) {
             Log.d(TAG, "onRouteUnselected: route=" + route);
@@ -135,6 +648,143 @@ public class FlintVideoManager {
         }
     }
 
+    /**
+     * Load the cached devices and report them right away, then mark the ones
+     * that no longer answer on their last known address as stale. The
+     * probes run in parallel on their own threads, so a cache full of
+     * switched-off TVs neither takes the sum of their timeouts nor holds up
+     * other I/O.
+     */
+    private void loadDeviceCache() {
+        mDeviceCache = new FlintDeviceCache(new File(mContext.getFilesDir(),
+                DEVICE_CACHE_FILE));
+        mDeviceProbeExecutor = Executors.newCachedThreadPool();
+        mDeviceCacheSaveRunnable = new Runnable() {
+            @Override
+            public void run() {
+                mDeviceCacheDirty = false;
+                mDeviceCache.save();
+                notifyKnownDevices();
+            }
+        };
+        mIoHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mDeviceCache.load();
+                notifyKnownDevices();
+                probeKnownDevices();
+            }
+        });
+    }
+
+    private void probeKnownDevices() {
+        List<FlintDeviceCache.Entry> entries = mDeviceCache.getEntries();
+        final AtomicInteger remaining = new AtomicInteger(entries.size());
+        final AtomicBoolean changed = new AtomicBoolean();
+        for (final FlintDeviceCache.Entry entry : entries) {
+            mDeviceProbeExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    boolean reachable = FlintDeviceCache.isReachable(entry,
+                            DEVICE_PROBE_TIMEOUT_MS);
+                    if (!reachable) {
+                        Log.d(TAG, "cached device not reachable: " + entry);
+                    }
+                    if (mDeviceCache.setStale(entry, !reachable)) {
+                        changed.set(true);
+                    }
+                    if (remaining.decrementAndGet() == 0 && changed.get()) {
+                        notifyKnownDevices();
+                    }
+                }
+            });
+        }
+    }
+
+    private void notifyKnownDevices() {
+        final List<FlintDeviceCache.Entry> entries = mDeviceCache.getEntries();
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                updateScanMode();
+                mStatusChangeListener.onKnownDevicesUpdated(entries);
+            }
+        });
+    }
+
+    private void onRouteDiscovered(RouteInfo route) {
+        if (!route.matchesSelector(mMediaRouteSelector)) {
+            return;
+        }
+        FlintDevice device = FlintDevice.getFromBundle(route.getExtras());
+        if (device == null) {
+            return;
+        }
+        rememberDevice(device);
+        if (device.getDeviceId().equals(mPendingDeviceId)) {
+            Log.d(TAG, "selecting cached device " + mPendingDeviceId);
+            setPendingDeviceId(null);
+            mMediaRouter.selectRoute(route);
+        }
+    }
+
+    private void rememberDevice(FlintDevice device) {
+        if (device == null || device.getDeviceId() == null) {
+            return;
+        }
+        InetAddress address = device.getIpAddress();
+        if (address == null) {
+            return;
+        }
+        mDeviceCache.put(new FlintDeviceCache.Entry(device.getDeviceId(),
+                device.getFriendlyName(), address.getHostAddress(), device
+                        .getServicePort(), System.currentTimeMillis()));
+        mDeviceCacheDirty = true;
+        mIoHandler.removeCallbacks(mDeviceCacheSaveRunnable);
+        mIoHandler.postDelayed(mDeviceCacheSaveRunnable,
+                DEVICE_CACHE_SAVE_DELAY_MS);
+    }
+
+    /**
+     * Devices seen in earlier sessions, most recent first.
+     * 
+     * @return
+     */
+    public List<FlintDeviceCache.Entry> getKnownDevices() {
+        return mDeviceCache.getEntries();
+    }
+
+    /**
+     * Select a device from the cache. If discovery has not found its route
+     * yet, it is selected as soon as it shows up.
+     * 
+     * @param deviceId
+     */
+    public void selectKnownDevice(String deviceId) {
+        for (RouteInfo route : mMediaRouter.getRoutes()) {
+            if (!route.matchesSelector(mMediaRouteSelector)) {
+                continue;
+            }
+            FlintDevice device = FlintDevice.getFromBundle(route.getExtras());
+            if (device != null && deviceId.equals(device.getDeviceId())) {
+                setPendingDeviceId(null);
+                mMediaRouter.selectRoute(route);
+                return;
+            }
+        }
+        setPendingDeviceId(deviceId);
+    }
+
+    /*
+     * Discovery scans actively while a device is waited for, so that it is
+     * found in seconds rather than whenever passive discovery gets to it.
+     */
+    private void setPendingDeviceId(String deviceId) {
+        mPendingDeviceId = deviceId;
+        mScanPolicy.setSelectionPending(deviceId != null);
+        updateScanMode();
+    }
+
     /**
      * Connect select device
      * 
@@ -163,11 +813,15 @@ public class FlintVideoManager {
         mSelectedDevice = device;
 
         if (mSelectedDevice == null) {
+            cancelCast();
+            cancelReconnect();
+            clearSessionCache();
             detachMediaPlayer();
             leaveApplication();
             if ((mApiClient != null) && mApiClient.isConnected()) {
                 mApiClient.disconnect();
             }
+            updateScanMode();
         } else {
             Log.d(TAG, "acquiring controller for " + mSelectedDevice);
             try {
@@ -201,9 +855,15 @@ public class FlintVideoManager {
                 @Override
                 public void run() {
                     mWaitingForReconnect = true;
+                    if (mMediaPlayer != null) {
+                        mCachedMediaInfo = mMediaPlayer.getMediaInfo();
+                        mCachedMediaStatus = mMediaPlayer.getMediaStatus();
+                    }
                     detachMediaPlayer();
+                    mReconnectAttempts = 0;
+                    scheduleReconnect();
+                    updateScanMode();
                     mStatusChangeListener.onConnectionSuspended();
-
                 }
             });
         }
@@ -222,28 +882,97 @@ public class FlintVideoManager {
 
             if (mWaitingForReconnect) {
                 mWaitingForReconnect = false;
+                cancelReconnect();
                 if ((connectionHint != null)
                         && connectionHint
                                 .getBoolean(Flint.EXTRA_APP_NO_LONGER_RUNNING)) {
                     Log.d(TAG, "App  is no longer running");
+                    clearSessionCache();
                     detachMediaPlayer();
                     mAppMetadata = null;
                     mStatusChangeListener.onNoLongerRunning(false);
                 } else {
                     attachMediaPlayer();
+                    resumeCachedSession();
                     requestMediaStatus();
                     mStatusChangeListener.onNoLongerRunning(true);
                 }
             }
 
+            updateScanMode();
             mStatusChangeListener.onConnected();
+            advanceCastPipeline();
         }
 
         @Override
         public void onConnectionFailed(ConnectionResult result) {
             Log.d(TAG, "onConnectionFailed");
+            if (mWaitingForReconnect) {
+                // The reconnect loop retries until it runs out of attempts.
+                return;
+            }
+            cancelCast();
+            updateScanMode();
+            mStatusChangeListener.onConnectionFailed();
+        }
+    }
+
+    /**
+     * Check the connection again after an exponentially growing delay, and
+     * give up after RECONNECT_MAX_ATTEMPTS.
+     */
+    private void scheduleReconnect() {
+        mHandler.removeCallbacks(mReconnectRunnable);
+        if (mReconnectAttempts >= RECONNECT_MAX_ATTEMPTS) {
+            Log.d(TAG, "giving up reconnecting");
+            mWaitingForReconnect = false;
+            mReconnectAttempts = 0;
+            clearSessionCache();
+            detachMediaPlayer();
+            mAppMetadata = null;
+            if (mApiClient != null) {
+                // Not connected, so setSelectedDevice(null) would leave the
+                // client retrying on its own.
+                mApiClient.disconnect();
+            }
             mStatusChangeListener.onConnectionFailed();
+            // Resets the selected device through onRouteUnselected().
+            mMediaRouter.selectRoute(mMediaRouter.getDefaultRoute());
+            updateScanMode();
+            return;
+        }
+        long delay = Math.min(RECONNECT_MAX_DELAY_MS,
+                RECONNECT_INITIAL_DELAY_MS << mReconnectAttempts);
+        mReconnectAttempts++;
+        mHandler.postDelayed(mReconnectRunnable, delay);
+    }
+
+    private void cancelReconnect() {
+        mHandler.removeCallbacks(mReconnectRunnable);
+        mReconnectAttempts = 0;
+    }
+
+    /**
+     * Show the media session cached at suspension time right away; the fresh
+     * status requested from the receiver replaces it when it arrives.
+     */
+    private void resumeCachedSession() {
+        if (mCachedMediaStatus == null) {
+            clearSessionCache();
+            return;
+        }
+        mResumingSession = true;
+        if (mCachedMediaInfo != null) {
+            notifyMediaMetadata(mCachedMediaInfo);
         }
+        onMediaStatusChanged();
+        mStatusChangeListener.onMediaStatusUpdated();
+    }
+
+    private void clearSessionCache() {
+        mResumingSession = false;
+        mCachedMediaInfo = null;
+        mCachedMediaStatus = null;
     }
 
     /**
@@ -296,7 +1025,102 @@ public class FlintVideoManager {
 
         Flint.FlintApi.launchApplication(mApiClient, getAppUrl(), true)
                 .setResultCallback(
-                        new ApplicationConnectionResultCallback("LaunchApp"));
+                        new ApplicationConnectionResultCallback("LaunchApp",
+                                CommandLatencyStats.OP_LAUNCH_APPLICATION));
+    }
+
+    /**
+     * Fling a media in one step: connect to the selected (or last known)
+     * device, launch or join the receiver application, attach the media
+     * channel and load the media, each stage starting as soon as the previous
+     * one completes. Stage durations are recorded in the latency stats under
+     * the CommandLatencyStats.OP_CAST_* operations when the load succeeds.
+     * Gives up if no device connects within CAST_CONNECT_TIMEOUT_MS.
+     * 
+     * @param mediaInfo
+     */
+    public void castMedia(MediaInfo mediaInfo) {
+        mHandler.removeCallbacks(mCastTimeoutRunnable);
+        mPendingCastMedia = mediaInfo;
+        mCastConnecting = false;
+        mCastLaunching = false;
+        mCastStartTime = SystemClock.elapsedRealtime();
+        mCastStageStartTime = mCastStartTime;
+        advanceCastPipeline();
+    }
+
+    private void advanceCastPipeline() {
+        if (mPendingCastMedia == null) {
+            return;
+        }
+
+        if (!isDeviceConnected()) {
+            if (mSelectedDevice == null && mPendingDeviceId == null) {
+                List<FlintDeviceCache.Entry> devices = getKnownDevices();
+                if (devices.isEmpty()) {
+                    Log.w(TAG, "castMedia: no device to connect to");
+                    mPendingCastMedia = null;
+                    return;
+                }
+                selectKnownDevice(devices.get(0).deviceId);
+            }
+            if (!mCastConnecting) {
+                mCastConnecting = true;
+                mHandler.postDelayed(mCastTimeoutRunnable,
+                        CAST_CONNECT_TIMEOUT_MS);
+            }
+            // Continues from onConnected().
+            return;
+        }
+        if (mCastConnecting) {
+            mCastConnecting = false;
+            mHandler.removeCallbacks(mCastTimeoutRunnable);
+            recordCastStage(CommandLatencyStats.OP_CAST_CONNECT);
+        }
+
+        if (!isAppConnected() || mMediaPlayer == null) {
+            if (!mCastLaunching) {
+                mCastLaunching = true;
+                mCastStageStartTime = SystemClock.elapsedRealtime();
+                // Joins the application if it is already running.
+                Flint.FlintApi.launchApplication(mApiClient, getAppUrl(),
+                        false).setResultCallback(
+                        new ApplicationConnectionResultCallback("CastMedia",
+                                CommandLatencyStats.OP_LAUNCH_APPLICATION));
+            }
+            // Continues from ApplicationConnectionResultCallback.
+            return;
+        }
+
+        if (mCastLaunching) {
+            recordCastStage(CommandLatencyStats.OP_CAST_LAUNCH);
+        }
+        MediaInfo mediaInfo = mPendingCastMedia;
+        mPendingCastMedia = null;
+        mCastLaunching = false;
+        submitLoad(mediaInfo, true, new MediaResultCallback(
+                mContext.getString(R.string.mediaop_load)) {
+            @Override
+            protected void onSucceeded() {
+                // Failed loads would skew the percentiles.
+                recordCastStage(CommandLatencyStats.OP_CAST_LOAD);
+                mLatencyStats.record(CommandLatencyStats.OP_CAST_TOTAL,
+                        SystemClock.elapsedRealtime() - mCastStartTime);
+            }
+        });
+    }
+
+    private void recordCastStage(String operation) {
+        long now = SystemClock.elapsedRealtime();
+        mLatencyStats.record(operation, now - mCastStageStartTime);
+        mCastStageStartTime = now;
+    }
+
+    private void cancelCast() {
+        mHandler.removeCallbacks(mCastTimeoutRunnable);
+        mPendingCastMedia = null;
+        mCastConnecting = false;
+        mCastLaunching = false;
     }
 
     /**
@@ -310,7 +1134,8 @@ public class FlintVideoManager {
         Flint.FlintApi.joinApplication(mApiClient, getAppUrl())
                 .setResultCallback(
                         new ApplicationConnectionResultCallback(
-                                "JoinApplication"));
+                                "JoinApplication",
+                                CommandLatencyStats.OP_JOIN_APPLICATION));
     }
 
     /**
@@ -371,8 +1196,7 @@ public class FlintVideoManager {
 
                     @Override
                     public void onStatusUpdated() {
-                        Log.d(TAG, "MediaControlChannel.onStatusUpdated");
-                        mStatusChangeListener.onMediaStatusUpdated();
+                        mMediaEventBus.post(MEDIA_EVENT_STATUS);
                     }
                 });
 
@@ -380,34 +1204,7 @@ public class FlintVideoManager {
                 .setOnMetadataUpdatedListener(new RemoteMediaPlayer.OnMetadataUpdatedListener() {
                     @Override
                     public void onMetadataUpdated() {
-                        Log.d(TAG, "MediaControlChannel.onMetadataUpdated");
-                        String title = null;
-                        String artist = null;
-                        Uri imageUrl = null;
-
-                        MediaInfo mediaInfo = mMediaPlayer.getMediaInfo();
-                        if (mediaInfo != null) {
-                            MediaMetadata metadata = mediaInfo.getMetadata();
-                            if (metadata != null) {
-                                title = metadata
-                                        .getString(MediaMetadata.KEY_TITLE);
-
-                                artist = metadata
-                                        .getString(MediaMetadata.KEY_ARTIST);
-                                if (artist == null) {
-                                    artist = metadata
-                                            .getString(MediaMetadata.KEY_STUDIO);
-                                }
-
-                                List<WebImage> images = metadata.getImages();
-                                if ((images != null) && !images.isEmpty()) {
-                                    WebImage image = images.get(0);
-                                    imageUrl = image.getUrl();
-                                }
-                            }
-                            mStatusChangeListener.onMediaMetadataUpdated(title,
-                                    artist, imageUrl);
-                        }
+                        mMediaEventBus.post(MEDIA_EVENT_METADATA);
                     }
                 });
 
@@ -415,11 +1212,71 @@ public class FlintVideoManager {
             Flint.FlintApi.setMessageReceivedCallbacks(mApiClient,
                     mMediaPlayer.getNamespace(), mMediaPlayer);
         } catch (IOException e) {
-            Log.w(TAG, "Exception while launching application", e);
+            Log.w(TAG, "Exception while attaching media player", e);
+        }
+        try {
+            Flint.FlintApi.setMessageReceivedCallbacks(mApiClient,
+                    TELEMETRY_NAMESPACE, new Flint.MessageReceivedCallback() {
+                        @Override
+                        public void onMessageReceived(FlintDevice device,
+                                String namespace, String message) {
+                            onTelemetryReceived(device, message);
+                        }
+                    });
+        } catch (IOException e) {
+            Log.w(TAG, "Exception while registering telemetry callback", e);
         }
     }
 
-    private void detachMediaPlayer() {
+    private void onTelemetryReceived(FlintDevice device, String message) {
+        if (device == null) {
+            device = mSelectedDevice;
+        }
+        if (device == null) {
+            return;
+        }
+        final PlaybackQualityCollector.DeviceQuality quality = mQualityCollector
+                .onMessage(device.getDeviceId(), device.getFriendlyName(),
+                        message);
+        if (quality == null) {
+            return;
+        }
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mStatusChangeListener.onPlaybackQualityUpdated(quality);
+            }
+        });
+    }
+
+    public PlaybackQualityCollector getPlaybackQualityCollector() {
+        return mQualityCollector;
+    }
+
+    private void notifyMediaMetadata(MediaInfo mediaInfo) {
+        String title = null;
+        String artist = null;
+        Uri imageUrl = null;
+
+        MediaMetadata metadata = mediaInfo.getMetadata();
+        if (metadata != null) {
+            title = metadata.getString(MediaMetadata.KEY_TITLE);
+
+            artist = metadata.getString(MediaMetadata.KEY_ARTIST);
+            if (artist == null) {
+                artist = metadata.getString(MediaMetadata.KEY_STUDIO);
+            }
+
+            List<WebImage> images = metadata.getImages();
+            if ((images != null) && !images.isEmpty()) {
+                WebImage image = images.get(0);
+                imageUrl = image.getUrl();
+            }
+        }
+        mStatusChangeListener.onMediaMetadataUpdated(title, artist, imageUrl);
+    }
+
+    private void detachMediaPlayer() {
         if ((mMediaPlayer != null) && (mApiClient != null)) {
             try {
                 Flint.FlintApi.removeMessageReceivedCallbacks(mApiClient,
@@ -427,8 +1284,316 @@ public class FlintVideoManager {
             } catch (IOException e) {
                 Log.w(TAG, "Exception while detaching media player", e);
             }
+            try {
+                Flint.FlintApi.removeMessageReceivedCallbacks(mApiClient,
+                        TELEMETRY_NAMESPACE);
+            } catch (IOException e) {
+                Log.w(TAG, "Exception while removing telemetry callback", e);
+            }
         }
         mMediaPlayer = null;
+        clearAdaptiveMedia();
+        mMediaEventBus.cancelAll();
+        mHandler.removeCallbacks(mQueuePreloadRunnable);
+        cancelScrub();
+        stopPositionUpdates();
+    }
+
+    public MediaCatalog getMediaCatalog() {
+        return mMediaCatalog;
+    }
+
+    public ImageCache getImageCache() {
+        return mImageCache;
+    }
+
+    /**
+     * Warm the image cache with the posters of a page of the catalog, so
+     * they show without a network round trip when the page is displayed.
+     * 
+     * @param offset
+     * @param count
+     */
+    public void prefetchCatalogImages(int offset, int count) {
+        for (MediaCatalogEntry entry : mMediaCatalog.getPage(offset, count)) {
+            if (entry.imageUrl != null) {
+                mImageCache.prefetch(entry.imageUrl);
+            }
+        }
+    }
+
+    /**
+     * Append a catalog from an XML resource such as R.xml.media. Parsing
+     * happens on the I/O thread; entries are available as they are read.
+     * 
+     * @param xmlResId
+     */
+    public void loadCatalog(final int xmlResId) {
+        mIoHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                XmlResourceParser parser = mContext.getResources().getXml(
+                        xmlResId);
+                try {
+                    parseCatalog(parser);
+                } finally {
+                    parser.close();
+                }
+            }
+        });
+    }
+
+    /**
+     * Append a catalog from a file in the same format as res/xml/media.xml.
+     * 
+     * @param file
+     */
+    public void loadCatalog(final File file) {
+        mIoHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                InputStream in = null;
+                try {
+                    in = new BufferedInputStream(new FileInputStream(file));
+                    XmlPullParser parser = Xml.newPullParser();
+                    parser.setInput(in, "UTF-8");
+                    parseCatalog(parser);
+                } catch (IOException e) {
+                    Log.w(TAG, "Unable to read catalog " + file, e);
+                } catch (XmlPullParserException e) {
+                    Log.w(TAG, "Unable to parse catalog " + file, e);
+                } finally {
+                    if (in != null) {
+                        try {
+                            in.close();
+                        } catch (IOException e) {
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    private void parseCatalog(XmlPullParser parser) {
+        try {
+            int added = mMediaCatalog.parse(parser,
+                    new MediaCatalog.ParseListener() {
+                        @Override
+                        public void onEntriesParsed(int total) {
+                            Log.d(TAG, "catalog entries: " + total);
+                        }
+                    }, CATALOG_BATCH_SIZE);
+            Log.d(TAG, "catalog loaded, " + added + " entries added");
+        } catch (XmlPullParserException e) {
+            Log.w(TAG, "Unable to parse catalog", e);
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to read catalog", e);
+        }
+    }
+
+    /**
+     * Flint a catalog entry to the receiver. If the entry has renditions,
+     * the throughput to its host is measured first and the best rendition
+     * for it is loaded; should that one keep stalling, a lower one takes
+     * over at the same position.
+     * 
+     * @param entry
+     * @param autoPlay
+     */
+    public void loadMedia(final MediaCatalogEntry entry, final boolean autoPlay) {
+        if (mAppMetadata == null || mMediaPlayer == null) {
+            return;
+        }
+        Log.d(TAG, "playMedia: " + entry);
+        clearAdaptiveMedia();
+        if (entry.renditions.isEmpty()) {
+            submitLoad(entry.toMediaInfo(), autoPlay, new MediaResultCallback(
+                    mContext.getString(R.string.mediaop_load)));
+            return;
+        }
+
+        final int generation = mAdaptiveLoadGeneration;
+        mIoHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                final MediaRendition rendition = mBitrateSelector
+                        .select(entry);
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        // Another load or a disconnect came first.
+                        if (generation != mAdaptiveLoadGeneration
+                                || mMediaPlayer == null) {
+                            return;
+                        }
+                        mAdaptiveEntry = entry;
+                        mAdaptiveRendition = rendition;
+                        submitLoad(entry.toMediaInfo(rendition), autoPlay, 0,
+                                new MediaResultCallback(mContext
+                                        .getString(R.string.mediaop_load)));
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Flint a file stored on this device. It is served to the receiver by
+     * an embedded HTTP server on this device's LAN address.
+     * 
+     * @param file
+     * @param contentType
+     * @param title
+     * @param autoPlay
+     */
+    public void loadLocalMedia(File file, String contentType, String title,
+            boolean autoPlay) {
+        loadLocalMedia(file, contentType, title, autoPlay, false);
+    }
+
+    /**
+     * Flint a file stored on this device, optionally as HLS segmented on
+     * demand. Segmenting an MP4 file lets a seek fetch one short segment
+     * instead of ranges of the whole file; segments are cached on disk.
+     * 
+     * @param file
+     * @param contentType
+     * @param title
+     * @param autoPlay
+     * @param segmented
+     *            serve an MP4 file as HLS with fragmented MP4 segments
+     */
+    public void loadLocalMedia(File file, String contentType, String title,
+            boolean autoPlay, boolean segmented) {
+        if (mAppMetadata == null || mMediaPlayer == null) {
+            return;
+        }
+        if (mLocalMediaServer == null) {
+            mLocalMediaServer = new LocalMediaServer();
+        }
+        try {
+            mLocalMediaServer.start(0);
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to start the local media server", e);
+            return;
+        }
+        // Only the file being played stays reachable.
+        if (mLocalMediaPath != null) {
+            mLocalMediaServer.unpublish(mLocalMediaPath);
+        }
+        String loadContentType = contentType;
+        if (segmented && contentType.endsWith("/mp4")) {
+            if (mSegmentCache == null) {
+                mSegmentCache = new SegmentCache(new File(
+                        mContext.getCacheDir(), SEGMENT_CACHE_DIR),
+                        SEGMENT_DISK_CACHE_BYTES);
+            }
+            mLocalMediaPath = mLocalMediaServer.publishSegmented(file,
+                    mSegmentCache, Mp4Segmenter.DEFAULT_SEGMENT_SECONDS);
+            loadContentType = SegmentedMedia
+                    .getContentType(SegmentedMedia.MASTER_PLAYLIST);
+        } else {
+            mLocalMediaPath = mLocalMediaServer.publish(file, contentType);
+        }
+        String url = mLocalMediaServer.getUrl(mLocalMediaPath);
+        if (url == null) {
+            Log.w(TAG, "No LAN address to serve " + file + " on");
+            return;
+        }
+
+        int mediaType = contentType.startsWith("audio/") ? MediaMetadata.MEDIA_TYPE_MUSIC_TRACK
+                : MediaMetadata.MEDIA_TYPE_MOVIE;
+        MediaMetadata metadata = new MediaMetadata(mediaType);
+        metadata.putString(MediaMetadata.KEY_TITLE, title);
+        MediaInfo mediaInfo = new MediaInfo.Builder(url)
+                .setStreamType(MediaInfo.STREAM_TYPE_BUFFERED)
+                .setContentType(loadContentType).setMetadata(metadata)
+                .build();
+        Log.d(TAG, "playMedia: " + file + " as " + url);
+        clearAdaptiveMedia();
+        submitLoad(mediaInfo, autoPlay, new MediaResultCallback(
+                mContext.getString(R.string.mediaop_load)));
+    }
+
+    public LocalMediaServer getLocalMediaServer() {
+        return mLocalMediaServer;
+    }
+
+    /**
+     * @return the cache of segments of local media, or null if none was
+     *         segmented yet
+     */
+    public SegmentCache getSegmentCache() {
+        return mSegmentCache;
+    }
+
+    public BitrateSelector getBitrateSelector() {
+        return mBitrateSelector;
+    }
+
+    /**
+     * @return the rendition being played, or null if the media was not
+     *         loaded from a catalog entry with renditions
+     */
+    public MediaRendition getCurrentRendition() {
+        return mAdaptiveRendition;
+    }
+
+    private void clearAdaptiveMedia() {
+        mAdaptiveLoadGeneration++;
+        mAdaptiveEntry = null;
+        mAdaptiveRendition = null;
+        mStallCount = 0;
+        mLastPlayerState = MediaStatus.PLAYER_STATE_UNKNOWN;
+    }
+
+    /**
+     * Count the stalls of the current rendition, i.e. the receiver going from
+     * playing to buffering, and switch to a lower rendition when they repeat.
+     * 
+     * @param status
+     */
+    private void checkStalls(MediaStatus status) {
+        if (mAdaptiveRendition == null || status == null || mResumingSession) {
+            return;
+        }
+        int playerState = status.getPlayerState();
+        boolean stalled = playerState == MediaStatus.PLAYER_STATE_BUFFERING
+                && mLastPlayerState == MediaStatus.PLAYER_STATE_PLAYING;
+        mLastPlayerState = playerState;
+        if (!stalled) {
+            return;
+        }
+
+        long now = SystemClock.elapsedRealtime();
+        mStallTimes[mStallCount % STALLS_BEFORE_DOWNGRADE] = now;
+        mStallCount++;
+        // The oldest of the last STALLS_BEFORE_DOWNGRADE stalls.
+        long oldest = mStallTimes[mStallCount % STALLS_BEFORE_DOWNGRADE];
+        if (mStallCount < STALLS_BEFORE_DOWNGRADE
+                || now - oldest > STALL_WINDOW_MS) {
+            return;
+        }
+
+        MediaCatalogEntry entry = mAdaptiveEntry;
+        MediaRendition current = mAdaptiveRendition;
+        mBitrateSelector.onStalled(current);
+        MediaRendition lower = entry.selectRendition(current.bitrate - 1);
+        if (lower == null || lower.bitrate >= current.bitrate) {
+            Log.d(TAG, "stalling on the lowest rendition " + current);
+            mStallCount = 0;
+            return;
+        }
+        long position = mPositionInterpolator.getPosition(now);
+        Log.d(TAG, mStallCount + " stalls on " + current + ", switching to "
+                + lower + " at " + position + "ms");
+        clearAdaptiveMedia();
+        mAdaptiveEntry = entry;
+        mAdaptiveRendition = lower;
+        mLastPlayerState = playerState;
+        submitLoad(entry.toMediaInfo(lower), true, Math.max(0, position),
+                new MediaResultCallback(mContext
+                        .getString(R.string.mediaop_load)));
     }
 
     /**
@@ -458,110 +1623,439 @@ public class FlintVideoManager {
             return;
         }
 
-        mMediaPlayer.load(mApiClient, mMediaInfo, autoPlay).setResultCallback(
-                new MediaResultCallback(mContext
-                        .getString(R.string.mediaop_load)));
+        clearAdaptiveMedia();
+        submitLoad(mMediaInfo, autoPlay, new MediaResultCallback(
+                mContext.getString(R.string.mediaop_load)));
+    }
+
+    public MediaQueue getMediaQueue() {
+        return mMediaQueue;
+    }
+
+    /**
+     * Play the queue from an item. Each item is loaded as soon as the
+     * receiver reports the previous one finished, until the queue runs out
+     * or stopQueue() is called.
+     * 
+     * @param index
+     *            list position in the queue
+     */
+    public void playQueue(int index) {
+        if (mMediaPlayer == null || index < 0 || index >= mMediaQueue.size()) {
+            return;
+        }
+        mQueueActive = true;
+        mQueueItemEndedAt = 0;
+        mQueueErrors = 0;
+        loadQueueItem(mMediaQueue.setCurrentIndex(index));
+    }
+
+    /**
+     * Stop advancing through the queue; the current item keeps playing.
+     */
+    public void stopQueue() {
+        mQueueActive = false;
+        mQueueItemEndedAt = 0;
+        mHandler.removeCallbacks(mQueuePreloadRunnable);
+        if (mPreparedQueueItem != null) {
+            mPreparedQueueItem = null;
+            sendMediaMessage(PRELOAD_NAMESPACE, "CLEAR", null);
+        }
+    }
+
+    public boolean isQueueActive() {
+        return mQueueActive;
+    }
+
+    /**
+     * @return time from the receiver reporting an item finished to it
+     *         reporting the next one playing, in ms, or -1 if no item has
+     *         followed another yet
+     */
+    public long getLastQueueGap() {
+        return mLastQueueGapMs;
+    }
+
+    private void loadQueueItem(MediaInfo mediaInfo) {
+        Log.d(TAG, "queue: loading item " + mMediaQueue.getCurrentIndex());
+        mPreparedQueueItem = null;
+        mQueueLoadPending = true;
+        clearAdaptiveMedia();
+        submitLoad(mediaInfo, true, new MediaResultCallback(
+                mContext.getString(R.string.mediaop_load)) {
+            @Override
+            public void onResult(MediaChannelResult result) {
+                super.onResult(result);
+                mQueueLoadPending = false;
+                if (!result.getStatus().isSuccess()) {
+                    stopQueue();
+                }
+            }
+        });
+    }
+
+    /**
+     * Advance the queue when the receiver reports the current item finished,
+     * and measure the gap until the next one plays. An item that fails to
+     * play is skipped, until every item of the queue has failed in a row.
+     * 
+     * @param status
+     */
+    private void updateQueue(MediaStatus status) {
+        mHandler.removeCallbacks(mQueuePreloadRunnable);
+        if (!mQueueActive || status == null || mResumingSession) {
+            return;
+        }
+
+        long now = SystemClock.elapsedRealtime();
+        int playerState = status.getPlayerState();
+        if (playerState == MediaStatus.PLAYER_STATE_IDLE) {
+            // Until the load is answered, idle statuses are about the item
+            // before it.
+            if (mQueueLoadPending) {
+                return;
+            }
+            int idleReason = status.getIdleReason();
+            if (idleReason == MediaStatus.IDLE_REASON_FINISHED) {
+                if (mQueueItemEndedAt == 0) {
+                    advanceQueue(now);
+                }
+                return;
+            }
+            // The loaded item did not get to play.
+            mQueueItemEndedAt = 0;
+            if (idleReason == MediaStatus.IDLE_REASON_ERROR) {
+                if (++mQueueErrors >= mMediaQueue.size()) {
+                    Log.w(TAG, "queue: every item failed");
+                    stopQueue();
+                    return;
+                }
+                Log.w(TAG, "queue: skipping item "
+                        + mMediaQueue.getCurrentIndex() + " after an error");
+                advanceQueue(0);
+            }
+        } else if (playerState == MediaStatus.PLAYER_STATE_PLAYING) {
+            mQueueErrors = 0;
+            if (mQueueItemEndedAt != 0) {
+                mLastQueueGapMs = now - mQueueItemEndedAt;
+                mQueueItemEndedAt = 0;
+                mLatencyStats.record(CommandLatencyStats.OP_QUEUE_GAP,
+                        mLastQueueGapMs);
+                Log.d(TAG, "queue: gap between items " + mLastQueueGapMs
+                        + "ms");
+            }
+            long duration = mPositionInterpolator.getDuration();
+            if (duration > 0) {
+                long remaining = duration
+                        - mPositionInterpolator.getPosition(now);
+                mHandler.postDelayed(mQueuePreloadRunnable,
+                        Math.max(0, remaining - QUEUE_PRELOAD_LEAD_MS));
+            }
+        }
+    }
+
+    /*
+     * @param endedAt when the current item finished, 0 to not measure the
+     *        gap to the next one
+     */
+    private void advanceQueue(long endedAt) {
+        MediaInfo next = mMediaQueue.advance();
+        if (next == null) {
+            Log.d(TAG, "queue: finished");
+            stopQueue();
+            return;
+        }
+        mQueueItemEndedAt = endedAt;
+        loadQueueItem(next);
+    }
+
+    /**
+     * Get the next item ready ahead of the end of the current one: the
+     * receiver is told to buffer it, and its poster is downloaded into the
+     * disk tier of the image cache so showing it needs no download.
+     */
+    private void prepareNextQueueItem() {
+        MediaInfo next = mMediaQueue.peekNext();
+        if (!mQueueActive || next == null || next == mPreparedQueueItem) {
+            return;
+        }
+        mPreparedQueueItem = next;
+        sendMediaMessage(PRELOAD_NAMESPACE, "NEXT", next);
+        MediaMetadata metadata = next.getMetadata();
+        if (metadata != null && metadata.getImages() != null
+                && !metadata.getImages().isEmpty()) {
+            // Only the disk tier: the activity decodes it at its own size.
+            mImageCache.prefetch(metadata.getImages().get(0).getUrl()
+                    .toString());
+        }
+    }
+
+    private void sendMediaMessage(final String namespace, String type,
+            MediaInfo mediaInfo) {
+        if (!isAppConnected() || !mApiClient.isConnected()) {
+            return;
+        }
+        JSONObject message = new JSONObject();
+        try {
+            message.put("type", type);
+            if (mediaInfo != null) {
+                message.put("url", mediaInfo.getContentId());
+                message.put("contentType", mediaInfo.getContentType());
+            }
+        } catch (JSONException e) {
+            Log.w(TAG, "Unable to build message for " + namespace, e);
+            return;
+        }
+        Flint.FlintApi.sendMessage(mApiClient, namespace,
+                message.toString()).setResultCallback(
+                new ResultCallback<Status>() {
+                    @Override
+                    public void onResult(Status status) {
+                        if (!status.isSuccess()) {
+                            Log.w(TAG, "message to " + namespace
+                                    + " failed: " + status.getStatusCode());
+                        }
+                    }
+                });
+    }
+
+    private void submitLoad(MediaInfo mediaInfo, boolean autoPlay,
+            MediaResultCallback callback) {
+        submitLoad(mediaInfo, autoPlay, 0, callback);
+    }
+
+    private void submitLoad(final MediaInfo mediaInfo, final boolean autoPlay,
+            final long position, MediaResultCallback callback) {
+        final RemoteMediaPlayer player = mMediaPlayer;
+        final FlintManager apiClient = mApiClient;
+        // Sent from here, on the main thread, so it reads the connection
+        // state safely; it still goes out before the load.
+        if (isManifest(mediaInfo)) {
+            sendMediaMessage(STREAM_NAMESPACE, "CONTENT_TYPE", mediaInfo);
+        }
+        mCommandDispatcher.submit(new MediaCommandDispatcher.Command(
+                MediaCommandDispatcher.KEY_LOAD, callback) {
+            @Override
+            protected PendingResult<MediaChannelResult> send() {
+                return player.load(apiClient, mediaInfo, autoPlay, position);
+            }
+        });
+    }
+
+    /**
+     * @param mediaInfo
+     * @return true if the content is an HLS playlist or a DASH manifest
+     */
+    private static boolean isManifest(MediaInfo mediaInfo) {
+        String contentType = mediaInfo.getContentType();
+        if (contentType == null) {
+            return false;
+        }
+        contentType = contentType.toLowerCase(Locale.US);
+        for (String manifestType : MANIFEST_CONTENT_TYPES) {
+            if (contentType.startsWith(manifestType)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     public void playMedia() {
         if (mMediaPlayer == null) {
             return;
         }
-        mMediaPlayer.play(mApiClient).setResultCallback(
-                new MediaResultCallback(mContext
-                        .getString(R.string.mediaop_play)));
+        final RemoteMediaPlayer player = mMediaPlayer;
+        final FlintManager apiClient = mApiClient;
+        mCommandDispatcher.submit(new MediaCommandDispatcher.Command(
+                MediaCommandDispatcher.KEY_PLAYBACK,
+                CommandLatencyStats.OP_PLAY, new MediaResultCallback(
+                        mContext.getString(R.string.mediaop_play))) {
+            @Override
+            protected PendingResult<MediaChannelResult> send() {
+                return player.play(apiClient);
+            }
+        });
     }
 
     public void pauseMedia() {
         if (mMediaPlayer == null) {
             return;
         }
-        mMediaPlayer.pause(mApiClient).setResultCallback(
-                new MediaResultCallback(mContext
-                        .getString(R.string.mediaop_pause)));
+        final RemoteMediaPlayer player = mMediaPlayer;
+        final FlintManager apiClient = mApiClient;
+        mCommandDispatcher.submit(new MediaCommandDispatcher.Command(
+                MediaCommandDispatcher.KEY_PLAYBACK,
+                CommandLatencyStats.OP_PAUSE, new MediaResultCallback(
+                        mContext.getString(R.string.mediaop_pause))) {
+            @Override
+            protected PendingResult<MediaChannelResult> send() {
+                return player.pause(apiClient);
+            }
+        });
     }
 
     public void stopMedia() {
         if (mMediaPlayer == null) {
             return;
         }
-        mMediaPlayer.stop(mApiClient).setResultCallback(
-                new MediaResultCallback(mContext
-                        .getString(R.string.mediaop_stop)));
-
+        final RemoteMediaPlayer player = mMediaPlayer;
+        final FlintManager apiClient = mApiClient;
+        mCommandDispatcher.submit(new MediaCommandDispatcher.Command(
+                MediaCommandDispatcher.KEY_STOP, new MediaResultCallback(
+                        mContext.getString(R.string.mediaop_stop))) {
+            @Override
+            protected PendingResult<MediaChannelResult> send() {
+                return player.stop(apiClient);
+            }
+        });
     }
 
     public void seekMedia(long position, int resumeState) {
         if (mMediaPlayer == null) {
             return;
         }
-        mMediaPlayer.seek(mApiClient, position, resumeState).setResultCallback(
-                new MediaResultCallback(mContext
-                        .getString(R.string.mediaop_seek)) {
+        cancelScrub();
+        submitSeek(position, resumeState, false);
+    }
+
+    /**
+     * Seek while the user is still dragging the seek bar. Seeks are rate
+     * limited to one per measured seek round trip; the position of a
+     * throttled call is sent when the interval expires. A following
+     * seekMedia() cancels anything still pending, so the release wins.
+     * 
+     * @param position
+     */
+    public void scrubMedia(long position) {
+        if (mMediaPlayer == null) {
+            return;
+        }
+        long now = SystemClock.elapsedRealtime();
+        long wait = mLastScrubSeekTime + getScrubInterval() - now;
+        if (wait > 0) {
+            if (mPendingScrubPosition < 0) {
+                mHandler.postDelayed(mScrubRunnable, wait);
+            }
+            mPendingScrubPosition = position;
+            return;
+        }
+        mLastScrubSeekTime = now;
+        submitSeek(position, RemoteMediaPlayer.RESUME_STATE_UNCHANGED, true);
+    }
+
+    /**
+     * Current minimum interval between live scrub seeks.
+     * 
+     * @return
+     */
+    public long getScrubInterval() {
+        return Math.max(MIN_SCRUB_INTERVAL_MS, mSeekRoundTripMs);
+    }
+
+    private void cancelScrub() {
+        mHandler.removeCallbacks(mScrubRunnable);
+        mPendingScrubPosition = -1;
+    }
+
+    private void submitSeek(final long position, final int resumeState,
+            final boolean scrub) {
+        final RemoteMediaPlayer player = mMediaPlayer;
+        final FlintManager apiClient = mApiClient;
+        mCommandDispatcher.submit(new MediaCommandDispatcher.Command(
+                MediaCommandDispatcher.KEY_SEEK, new MediaResultCallback(
+                        mContext.getString(R.string.mediaop_seek)) {
                     @Override
                     protected void onFinished() {
-                        mStatusChangeListener.onMediaSeekEnd();
+                        if (!scrub) {
+                            mStatusChangeListener.onMediaSeekEnd();
+                        }
                     }
-                });
+                }) {
+            @Override
+            protected PendingResult<MediaChannelResult> send() {
+                return player.seek(apiClient, position, resumeState);
+            }
+
+            @Override
+            protected void onCompleted(MediaChannelResult result,
+                    long roundTripMs) {
+                // Exponentially weighted average, 1/4 weight to the new sample.
+                mSeekRoundTripMs += (roundTripMs - mSeekRoundTripMs) / 4;
+            }
+        });
     }
 
     public void setDeviceVolume(int volume) {
         if (!mApiClient.isConnected()) {
             return;
         }
-        try {
-            Flint.FlintApi.setVolume(mApiClient, volume / MAX_VOLUME_LEVEL);
-        } catch (IOException e) {
-            Log.w(TAG, "Unable to change volume");
-        } catch (IllegalStateException e) {
-            e.printStackTrace();
-        }
+        final FlintManager apiClient = mApiClient;
+        final double level = volume / MAX_VOLUME_LEVEL;
+        mCommandDispatcher.submit(new MediaCommandDispatcher.Command(
+                MediaCommandDispatcher.KEY_DEVICE_VOLUME, null) {
+            @Override
+            protected PendingResult<MediaChannelResult> send()
+                    throws IOException {
+                Flint.FlintApi.setVolume(apiClient, level);
+                return null;
+            }
+        });
     }
 
-    public void setDeviceMute(boolean on) {
+    public void setDeviceMute(final boolean on) {
         if (!mApiClient.isConnected()) {
             return;
         }
-        try {
-            Flint.FlintApi.setMute(mApiClient, on);
-        } catch (IOException e) {
-            Log.w(TAG, "Unable to toggle mute");
-        } catch (IllegalStateException e) {
-            e.printStackTrace();
-        }
+        final FlintManager apiClient = mApiClient;
+        mCommandDispatcher.submit(new MediaCommandDispatcher.Command(
+                MediaCommandDispatcher.KEY_DEVICE_MUTE, null) {
+            @Override
+            protected PendingResult<MediaChannelResult> send()
+                    throws IOException {
+                Flint.FlintApi.setMute(apiClient, on);
+                return null;
+            }
+        });
     }
 
     public void setMediaVolume(int volume) {
         if (mMediaPlayer == null) {
             return;
         }
-        try {
-            mMediaPlayer
-                    .setStreamVolume(mApiClient, volume / MAX_VOLUME_LEVEL)
-                    .setResultCallback(
-                            new MediaResultCallback(
-                                    mContext.getString(R.string.mediaop_set_stream_volume)));
-        } catch (IllegalStateException e) {
-            e.printStackTrace();
-        }
+        final RemoteMediaPlayer player = mMediaPlayer;
+        final FlintManager apiClient = mApiClient;
+        final double level = volume / MAX_VOLUME_LEVEL;
+        mCommandDispatcher.submit(new MediaCommandDispatcher.Command(
+                MediaCommandDispatcher.KEY_STREAM_VOLUME,
+                new MediaResultCallback(mContext
+                        .getString(R.string.mediaop_set_stream_volume))) {
+            @Override
+            protected PendingResult<MediaChannelResult> send() {
+                return player.setStreamVolume(apiClient, level);
+            }
+        });
     }
 
-    public void setMediaMute(boolean on) {
+    public void setMediaMute(final boolean on) {
         if (mMediaPlayer == null) {
             return;
         }
-        try {
-            mMediaPlayer.setStreamMute(mApiClient, on).setResultCallback(
-                    new MediaResultCallback(mContext
-                            .getString(R.string.mediaop_toggle_stream_mute)) {
-                        @Override
-                        protected void onFinished() {
-                            mStatusChangeListener.onMediaVolumeEnd();
-                        }
-                    });
-        } catch (IllegalStateException e) {
-            e.printStackTrace();
-        }
+        final RemoteMediaPlayer player = mMediaPlayer;
+        final FlintManager apiClient = mApiClient;
+        mCommandDispatcher.submit(new MediaCommandDispatcher.Command(
+                MediaCommandDispatcher.KEY_STREAM_MUTE,
+                new MediaResultCallback(mContext
+                        .getString(R.string.mediaop_toggle_stream_mute)) {
+                    @Override
+                    protected void onFinished() {
+                        mStatusChangeListener.onMediaVolumeEnd();
+                    }
+                }) {
+            @Override
+            protected PendingResult<MediaChannelResult> send() {
+                return player.setStreamMute(apiClient, on);
+            }
+        });
     }
 
     private void requestMediaStatus() {
@@ -587,13 +2081,20 @@ public class FlintVideoManager {
     private final class ApplicationConnectionResultCallback implements
             ResultCallback<Flint.ApplicationConnectionResult> {
         private final String mClassTag;
+        private final String mOperation;
+        private final long mStartTime;
 
-        public ApplicationConnectionResultCallback(String suffix) {
+        public ApplicationConnectionResultCallback(String suffix,
+                String operation) {
             mClassTag = TAG + "_" + suffix;
+            mOperation = operation;
+            mStartTime = SystemClock.elapsedRealtime();
         }
 
         @Override
         public void onResult(ApplicationConnectionResult result) {
+            mLatencyStats.record(mOperation, SystemClock.elapsedRealtime()
+                    - mStartTime);
             Status status = result.getStatus();
             Log.d(mClassTag,
                     "ApplicationConnectionResultCallback.onResult: statusCode"
@@ -608,6 +2109,10 @@ public class FlintVideoManager {
                 requestMediaStatus();
                 mStatusChangeListener
                         .onApplicationConnectionResult(applicationStatus);
+                advanceCastPipeline();
+            } else if (mCastLaunching) {
+                Log.w(TAG, "castMedia: unable to launch receiver application");
+                cancelCast();
             }
         }
     }
@@ -626,10 +2131,15 @@ public class FlintVideoManager {
             if (!status.isSuccess()) {
                 Log.w(TAG,
                         mOperationName + " failed: " + status.getStatusCode());
+            } else {
+                onSucceeded();
             }
             onFinished();
         }
 
+        protected void onSucceeded() {
+        }
+
         protected void onFinished() {
         }
     }
@@ -649,19 +2159,25 @@ public class FlintVideoManager {
 
     public long getMediaCurrentTime() {
         if (mMediaPlayer != null)
-            return mMediaPlayer.getApproximateStreamPosition();
+            return mPositionInterpolator.getPosition(SystemClock
+                    .elapsedRealtime());
         return 0;
     }
 
     public long getMediaDuration() {
         if (mMediaPlayer != null)
-            return mMediaPlayer.getStreamDuration();
+            return mPositionInterpolator.getDuration();
         return 0;
     }
 
     public MediaStatus getMediaStatus() {
-        if (this.mMediaPlayer != null)
-            return this.mMediaPlayer.getMediaStatus();
+        if (this.mMediaPlayer != null) {
+            MediaStatus status = this.mMediaPlayer.getMediaStatus();
+            if (status == null && mResumingSession) {
+                return mCachedMediaStatus;
+            }
+            return status;
+        }
         return null;
     }
 }
@@ -0,0 +1,362 @@
+package com.infthink.flint.samples.videoplayer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+
+/**
+ * Two-tier cache for poster and thumbnail images.
+ *
+ * Decoded bitmaps live in a memory LRU bounded by bytes. Downloaded files
+ * live in a disk directory under the SHA-1 of their URL, trimmed to a byte
+ * budget by last use. Concurrent requests for the same image and size share
+ * one decode, and requests for the same URL at any size share one download.
+ * Bitmaps are downsampled to the requested size.
+ */
+public class ImageCache {
+    private static final String TAG = ImageCache.class.getSimpleName();
+
+    private static final int FETCH_THREADS = 2;
+    private static final int CONNECT_TIMEOUT_MS = 10000;
+    private static final int READ_TIMEOUT_MS = 15000;
+    /* Downloads of one URL hold the same lock, so only one runs at a time. */
+    private static final int DOWNLOAD_LOCKS = 16;
+
+    /**
+     * Receives the image on the main thread; bitmap is null on failure.
+     */
+    public interface Callback {
+        void onImageLoaded(String url, Bitmap bitmap);
+    }
+
+    private static final class CachedImage {
+        final Bitmap bitmap;
+        final long encodedSize;
+
+        CachedImage(Bitmap bitmap, long encodedSize) {
+            this.bitmap = bitmap;
+            this.encodedSize = encodedSize;
+        }
+    }
+
+    private final DiskLruDirectory mDisk;
+    private final LruCache<String, CachedImage> mMemoryCache;
+    private final Map<String, List<Callback>> mPending = new HashMap<String, List<Callback>>();
+    private final ExecutorService mExecutor;
+    private final Handler mHandler;
+    private final Object[] mDownloadLocks = new Object[DOWNLOAD_LOCKS];
+
+    private long mRequests;
+    private long mMemoryHits;
+    private long mDiskHits;
+    private long mDownloads;
+    private long mSharedRequests;
+    private long mBytesDownloaded;
+    private long mBytesSaved;
+
+    /**
+     * @param directory
+     *            disk tier location, e.g. a subdirectory of getCacheDir()
+     * @param maxMemoryBytes
+     *            budget for decoded bitmaps
+     * @param maxDiskBytes
+     *            budget for downloaded files
+     */
+    public ImageCache(File directory, int maxMemoryBytes, long maxDiskBytes) {
+        mDisk = new DiskLruDirectory(directory, maxDiskBytes);
+        mMemoryCache = new LruCache<String, CachedImage>(maxMemoryBytes) {
+            @Override
+            protected int sizeOf(String key, CachedImage value) {
+                return value.bitmap.getRowBytes() * value.bitmap.getHeight();
+            }
+        };
+        mExecutor = Executors.newFixedThreadPool(FETCH_THREADS);
+        for (int i = 0; i < DOWNLOAD_LOCKS; i++) {
+            mDownloadLocks[i] = new Object();
+        }
+        mHandler = new Handler(Looper.getMainLooper());
+    }
+
+    /**
+     * Load an image scaled down to at least the given size. Must be called
+     * on the main thread.
+     *
+     * @param url
+     * @param width
+     *            target width in pixels, 0 for the original size
+     * @param height
+     *            target height in pixels, 0 for the original size
+     * @param callback
+     */
+    public void load(final String url, final int width, final int height,
+            Callback callback) {
+        final String key = url + "#" + width + "x" + height;
+        CachedImage cached;
+        synchronized (this) {
+            mRequests++;
+            cached = mMemoryCache.get(key);
+            if (cached != null) {
+                mMemoryHits++;
+                mBytesSaved += cached.encodedSize;
+            }
+        }
+        if (cached != null) {
+            // Outside the lock, so the callback may call back in.
+            callback.onImageLoaded(url, cached.bitmap);
+            return;
+        }
+        synchronized (this) {
+            List<Callback> waiting = mPending.get(key);
+            if (waiting != null) {
+                mSharedRequests++;
+                waiting.add(callback);
+                return;
+            }
+            waiting = new ArrayList<Callback>();
+            waiting.add(callback);
+            mPending.put(key, waiting);
+        }
+
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                CachedImage image = fetch(url, width, height);
+                final List<Callback> callbacks;
+                synchronized (ImageCache.this) {
+                    callbacks = mPending.remove(key);
+                    if (image != null) {
+                        mMemoryCache.put(key, image);
+                        // Requests that joined were spared the fetch too.
+                        mBytesSaved += (callbacks.size() - 1)
+                                * image.encodedSize;
+                    }
+                }
+                final Bitmap bitmap = image != null ? image.bitmap : null;
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (Callback callback : callbacks) {
+                            callback.onImageLoaded(url, bitmap);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Download an image into the disk tier without decoding it, so a later
+     * load() at any size skips the download. Prefetches are not requests:
+     * they count towards downloads and bytes downloaded only.
+     *
+     * @param url
+     */
+    public void prefetch(final String url) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                fetchToDisk(url, mDisk.getFile(url), false);
+            }
+        });
+    }
+
+    public synchronized void clearMemory() {
+        mMemoryCache.evictAll();
+    }
+
+    public void shutdown() {
+        mExecutor.shutdownNow();
+    }
+
+    public synchronized long getRequestCount() {
+        return mRequests;
+    }
+
+    public synchronized long getMemoryHitCount() {
+        return mMemoryHits;
+    }
+
+    public synchronized long getDiskHitCount() {
+        return mDiskHits;
+    }
+
+    public synchronized long getDownloadCount() {
+        return mDownloads;
+    }
+
+    /**
+     * Requests that joined a fetch already in progress.
+     *
+     * @return
+     */
+    public synchronized long getSharedRequestCount() {
+        return mSharedRequests;
+    }
+
+    /**
+     * Fraction of requests served from memory, from disk or by joining a
+     * fetch in progress.
+     *
+     * @return
+     */
+    public synchronized double getHitRate() {
+        if (mRequests == 0) {
+            return 0;
+        }
+        return (double) (mMemoryHits + mDiskHits + mSharedRequests)
+                / mRequests;
+    }
+
+    public synchronized long getBytesDownloaded() {
+        return mBytesDownloaded;
+    }
+
+    /**
+     * Bytes that would have been downloaded without the cache.
+     *
+     * @return
+     */
+    public synchronized long getBytesSaved() {
+        return mBytesSaved;
+    }
+
+    private CachedImage fetch(String url, int width, int height) {
+        File file = mDisk.getFile(url);
+        if (!fetchToDisk(url, file, true)) {
+            return null;
+        }
+
+        Bitmap bitmap = decode(file, width, height);
+        if (bitmap == null) {
+            Log.w(TAG, "Unable to decode " + url);
+            file.delete();
+            return null;
+        }
+        return new CachedImage(bitmap, file.length());
+    }
+
+    /*
+     * Make sure the file of a URL is on disk, downloading it unless another
+     * request for the URL, at whatever size, already did. A disk hit is
+     * counted only for requests, not for prefetches.
+     */
+    private boolean fetchToDisk(String url, File file, boolean request) {
+        synchronized (mDownloadLocks[(url.hashCode() & 0x7fffffff)
+                % DOWNLOAD_LOCKS]) {
+            if (file.exists()) {
+                if (request) {
+                    synchronized (this) {
+                        mDiskHits++;
+                        mBytesSaved += file.length();
+                    }
+                }
+                file.setLastModified(System.currentTimeMillis());
+                return true;
+            }
+            if (!download(url, file)) {
+                return false;
+            }
+        }
+        mDisk.trim();
+        return true;
+    }
+
+    private boolean download(String url, File file) {
+        File tmp;
+        try {
+            tmp = mDisk.createTempFile(file);
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to create a file in " + mDisk.getDirectory(), e);
+            return false;
+        }
+        HttpURLConnection connection = null;
+        InputStream in = null;
+        OutputStream out = null;
+        try {
+            connection = (HttpURLConnection) new URL(url).openConnection();
+            connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+            connection.setReadTimeout(READ_TIMEOUT_MS);
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                Log.w(TAG, "Unable to fetch " + url + ": "
+                        + connection.getResponseCode());
+                return false;
+            }
+            in = connection.getInputStream();
+            out = new FileOutputStream(tmp);
+            byte[] buffer = new byte[8192];
+            long total = 0;
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+                total += n;
+            }
+            out.close();
+            out = null;
+            if (!tmp.renameTo(file)) {
+                Log.w(TAG, "Unable to store " + file);
+                return false;
+            }
+            synchronized (this) {
+                mDownloads++;
+                mBytesDownloaded += total;
+            }
+            return true;
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to fetch " + url, e);
+            return false;
+        } finally {
+            closeQuietly(in);
+            closeQuietly(out);
+            if (connection != null) {
+                connection.disconnect();
+            }
+            tmp.delete();
+        }
+    }
+
+    private static Bitmap decode(File file, int width, int height) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getPath(), options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+
+        int sampleSize = 1;
+        if (width > 0 && height > 0) {
+            while (options.outWidth / (sampleSize * 2) >= width
+                    && options.outHeight / (sampleSize * 2) >= height) {
+                sampleSize *= 2;
+            }
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        return BitmapFactory.decodeFile(file.getPath(), options);
+    }
+
+    private static void closeQuietly(java.io.Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+}
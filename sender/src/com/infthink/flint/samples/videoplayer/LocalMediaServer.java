@@ -0,0 +1,777 @@
+package com.infthink.flint.samples.videoplayer;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * HTTP server that lets receivers on the LAN play files stored on this
+ * device.
+ *
+ * Only files that were published are served, each under an unguessable
+ * path. GET and HEAD are supported, with single byte ranges so the receiver
+ * can seek, and keep-alive connections. One thread multiplexes all
+ * connections with a Selector. Bodies are sent with FileChannel.transferTo,
+ * which lets the kernel copy file pages straight to the socket. Each
+ * connection sends at most MAX_WRITE_PER_TURN before the others get their
+ * turn, so one receiver cannot starve the rest.
+ *
+ * MP4 files can also be published segmented, as HLS generated on demand by
+ * SegmentedMedia. Resources that are not cached yet are generated on worker
+ * threads, so the selector thread never waits for the disk-heavy remux, and
+ * the segment after the one requested is generated ahead of playback.
+ */
+public class LocalMediaServer {
+    private static final String TAG = LocalMediaServer.class.getSimpleName();
+
+    private static final String PATH_PREFIX = "/media/";
+    private static final int HEADER_LIMIT = 8192;
+    private static final long TRANSFER_CHUNK = 256 * 1024;
+    private static final long MAX_WRITE_PER_TURN = 1024 * 1024;
+    private static final long IDLE_TIMEOUT_MS = 30000;
+    private static final long SELECT_TIMEOUT_MS = 1000;
+    private static final int GENERATOR_THREADS = 2;
+    private static final long GENERATOR_STOP_TIMEOUT_MS = 1000;
+    private static final String CRLF = "\r\n";
+
+    private static final class Published {
+        final File file;
+        final String contentType;
+        /* Non-null if published segmented, under a directory path. */
+        final SegmentedMedia segmented;
+
+        Published(File file, String contentType, SegmentedMedia segmented) {
+            this.file = file;
+            this.contentType = contentType;
+            this.segmented = segmented;
+        }
+    }
+
+    /*
+     * One client connection, reading a request or writing a response.
+     */
+    private static final class Connection {
+        final SocketChannel channel;
+        final ByteBuffer request = ByteBuffer.allocate(HEADER_LIMIT);
+        ByteBuffer header;
+        RandomAccessFile file;
+        long position;
+        long remaining;
+        boolean keepAlive;
+        long lastActive;
+        /* Waiting for a resource to be generated. */
+        boolean pending;
+        boolean closed;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        void closeFile() {
+            if (file != null) {
+                try {
+                    file.close();
+                } catch (IOException e) {
+                    // Ignore.
+                }
+                file = null;
+            }
+        }
+    }
+
+    private final Map<String, Published> mPublished = Collections
+            .synchronizedMap(new HashMap<String, Published>());
+    private final AtomicLong mConnections = new AtomicLong();
+    private final AtomicLong mRequests = new AtomicLong();
+    private final AtomicLong mBytesSent = new AtomicLong();
+    private final AtomicLong mActiveConnections = new AtomicLong();
+    /* Work handed to the selector thread by the generator threads. */
+    private final ConcurrentLinkedQueue<Runnable> mSelectorTasks = new ConcurrentLinkedQueue<Runnable>();
+
+    private Selector mSelector;
+    private ExecutorService mGenerators;
+    private ServerSocketChannel mServerChannel;
+    private Thread mThread;
+    private volatile boolean mRunning;
+    private int mPort;
+
+    /**
+     * Start listening. Does nothing if already started.
+     *
+     * @param port
+     *            0 for any free port
+     * @throws IOException
+     */
+    public synchronized void start(int port) throws IOException {
+        if (mRunning) {
+            return;
+        }
+        mSelector = Selector.open();
+        mServerChannel = ServerSocketChannel.open();
+        try {
+            mServerChannel.socket().setReuseAddress(true);
+            mServerChannel.socket().bind(new InetSocketAddress(port));
+            mServerChannel.configureBlocking(false);
+            mServerChannel.register(mSelector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            mServerChannel.close();
+            mSelector.close();
+            throw e;
+        }
+        mPort = mServerChannel.socket().getLocalPort();
+        mGenerators = Executors.newFixedThreadPool(GENERATOR_THREADS);
+        mRunning = true;
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                serve();
+            }
+        }, TAG);
+        mThread.start();
+        Log.d(TAG, "listening on port " + mPort);
+    }
+
+    public synchronized void stop() {
+        if (!mRunning) {
+            return;
+        }
+        mRunning = false;
+        mSelector.wakeup();
+        try {
+            mThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        mThread = null;
+        mGenerators.shutdownNow();
+        try {
+            mGenerators.awaitTermination(GENERATOR_STOP_TIMEOUT_MS,
+                    TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        mGenerators = null;
+        // Every connection is closed by now, so this only releases the files
+        // the tasks hold.
+        Runnable task;
+        while ((task = mSelectorTasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    public boolean isRunning() {
+        return mRunning;
+    }
+
+    public int getPort() {
+        return mPort;
+    }
+
+    /**
+     * Make a file available.
+     *
+     * @param file
+     * @param contentType
+     * @return its path on the server
+     */
+    public String publish(File file, String contentType) {
+        String name;
+        try {
+            name = URLEncoder.encode(file.getName(), "UTF-8").replace("+",
+                    "%20");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+        String path = PATH_PREFIX + UUID.randomUUID().toString() + "/" + name;
+        mPublished.put(path, new Published(file, contentType, null));
+        return path;
+    }
+
+    /**
+     * Make an MP4 file available as HLS, segmented on demand.
+     *
+     * @param file
+     * @param cache
+     *            where generated resources are kept
+     * @param segmentSeconds
+     *            target segment duration
+     * @return the path of its master playlist on the server
+     */
+    public String publishSegmented(File file, SegmentCache cache,
+            double segmentSeconds) {
+        String directory = PATH_PREFIX + UUID.randomUUID().toString() + "/";
+        mPublished.put(directory, new Published(file, null,
+                new SegmentedMedia(file, cache, segmentSeconds)));
+        return directory + SegmentedMedia.MASTER_PLAYLIST;
+    }
+
+    /**
+     * @param path
+     *            returned by publish() or publishSegmented()
+     */
+    public void unpublish(String path) {
+        Published published = mPublished.remove(path);
+        if (published == null) {
+            published = mPublished.remove(path.substring(0,
+                    path.lastIndexOf('/') + 1));
+        }
+        if (published != null && published.segmented != null) {
+            published.segmented.close();
+        }
+    }
+
+    /**
+     * @param path
+     *            returned by publish()
+     * @return the URL of the path for other devices on the LAN, or null if
+     *         this device has no LAN address
+     */
+    public String getUrl(String path) {
+        InetAddress address = getLanAddress();
+        if (address == null) {
+            return null;
+        }
+        return "http://" + address.getHostAddress() + ":" + mPort + path;
+    }
+
+    /**
+     * @return a site-local IPv4 address of this device, preferring Wi-Fi,
+     *         or null
+     */
+    public static InetAddress getLanAddress() {
+        InetAddress found = null;
+        try {
+            for (NetworkInterface networkInterface : Collections
+                    .list(NetworkInterface.getNetworkInterfaces())) {
+                if (!networkInterface.isUp() || networkInterface.isLoopback()) {
+                    continue;
+                }
+                for (InetAddress address : Collections.list(networkInterface
+                        .getInetAddresses())) {
+                    if (!(address instanceof Inet4Address)
+                            || !address.isSiteLocalAddress()) {
+                        continue;
+                    }
+                    if (networkInterface.getName().startsWith("wlan")) {
+                        return address;
+                    }
+                    if (found == null) {
+                        found = address;
+                    }
+                }
+            }
+        } catch (SocketException e) {
+            Log.w(TAG, "Unable to list network interfaces", e);
+        }
+        return found;
+    }
+
+    public long getConnectionCount() {
+        return mConnections.get();
+    }
+
+    public long getActiveConnectionCount() {
+        return mActiveConnections.get();
+    }
+
+    public long getRequestCount() {
+        return mRequests.get();
+    }
+
+    public long getBytesSent() {
+        return mBytesSent.get();
+    }
+
+    private void serve() {
+        try {
+            while (mRunning) {
+                mSelector.select(SELECT_TIMEOUT_MS);
+                Runnable task;
+                while ((task = mSelectorTasks.poll()) != null) {
+                    task.run();
+                }
+                Iterator<SelectionKey> keys = mSelector.selectedKeys()
+                        .iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    Connection connection = (Connection) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            onReadable(key, connection);
+                        } else if (key.isWritable()) {
+                            onWritable(key, connection);
+                        }
+                    } catch (IOException e) {
+                        // Usually the receiver dropping a connection it no
+                        // longer needs, e.g. after a seek.
+                        close(key, connection);
+                    }
+                }
+                closeIdle();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Server failed", e);
+        } finally {
+            for (SelectionKey key : mSelector.keys()) {
+                if (key.attachment() instanceof Connection) {
+                    close(key, (Connection) key.attachment());
+                }
+            }
+            try {
+                mServerChannel.close();
+                mSelector.close();
+            } catch (IOException e) {
+                // Ignore.
+            }
+            mRunning = false;
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = mServerChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            Connection connection = new Connection(channel);
+            connection.lastActive = SystemClock.elapsedRealtime();
+            channel.register(mSelector, SelectionKey.OP_READ, connection);
+            mConnections.incrementAndGet();
+            mActiveConnections.incrementAndGet();
+        }
+    }
+
+    private void onReadable(SelectionKey key, Connection connection)
+            throws IOException {
+        int n = connection.channel.read(connection.request);
+        if (n < 0) {
+            close(key, connection);
+            return;
+        }
+        connection.lastActive = SystemClock.elapsedRealtime();
+        processRequest(key, connection);
+    }
+
+    /*
+     * Start the response to the buffered request if it is complete.
+     */
+    private void processRequest(SelectionKey key, Connection connection)
+            throws IOException {
+        ByteBuffer request = connection.request;
+        int end = findHeaderEnd(request);
+        if (end < 0) {
+            if (!request.hasRemaining()) {
+                respondError(key, connection, 431,
+                        "Request Header Fields Too Large", false);
+            }
+            return;
+        }
+        String header = new String(request.array(), 0, end, "ISO-8859-1");
+        // Keep what follows, the start of a pipelined request.
+        request.flip();
+        request.position(end + 4);
+        request.compact();
+        handleRequest(key, connection, header);
+    }
+
+    private static int findHeaderEnd(ByteBuffer buffer) {
+        byte[] bytes = buffer.array();
+        for (int i = 0; i + 3 < buffer.position(); i++) {
+            if (bytes[i] == '\r' && bytes[i + 1] == '\n'
+                    && bytes[i + 2] == '\r' && bytes[i + 3] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void handleRequest(SelectionKey key, Connection connection,
+            String header) throws IOException {
+        mRequests.incrementAndGet();
+        String[] lines = header.split(CRLF);
+        String[] requestLine = lines[0].split(" ");
+        if (requestLine.length != 3) {
+            respondError(key, connection, 400, "Bad Request", false);
+            return;
+        }
+        Map<String, String> headers = new HashMap<String, String>();
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            if (colon > 0) {
+                headers.put(lines[i].substring(0, colon).trim()
+                        .toLowerCase(Locale.US), lines[i].substring(colon + 1)
+                        .trim());
+            }
+        }
+        String connectionHeader = headers.get("connection");
+        boolean keepAlive = "HTTP/1.1".equals(requestLine[2]) ? !"close"
+                .equalsIgnoreCase(connectionHeader) : "keep-alive"
+                .equalsIgnoreCase(connectionHeader);
+
+        String method = requestLine[0];
+        boolean head = "HEAD".equals(method);
+        if (!head && !"GET".equals(method)) {
+            respondError(key, connection, 405, "Method Not Allowed", keepAlive);
+            return;
+        }
+        String path = requestLine[1];
+        int query = path.indexOf('?');
+        if (query >= 0) {
+            path = path.substring(0, query);
+        }
+        String range = headers.get("range");
+        Published published = mPublished.get(path);
+        if (published == null) {
+            int slash = path.lastIndexOf('/');
+            published = mPublished.get(path.substring(0, slash + 1));
+            if (published != null && published.segmented != null) {
+                sendResource(key, connection, published.segmented,
+                        path.substring(slash + 1), range, head, keepAlive);
+                return;
+            }
+        }
+        if (published == null || published.segmented != null
+                || !published.file.isFile()) {
+            respondError(key, connection, 404, "Not Found", keepAlive);
+            return;
+        }
+        sendFile(key, connection, published.file, published.contentType,
+                range, head, keepAlive);
+    }
+
+    /*
+     * Send a resource of segmented media, generating it first if needed.
+     */
+    private void sendResource(final SelectionKey key,
+            final Connection connection, final SegmentedMedia segmented,
+            final String name, final String range, final boolean head,
+            final boolean keepAlive) throws IOException {
+        RandomAccessFile cached = segmented.openCachedResource(name);
+        if (cached != null) {
+            sendFile(key, connection, cached,
+                    SegmentedMedia.getContentType(name), range, head,
+                    keepAlive);
+            return;
+        }
+        // Stop reading until the response starts.
+        connection.pending = true;
+        key.interestOps(0);
+        mGenerators.execute(new Runnable() {
+            @Override
+            public void run() {
+                RandomAccessFile generated = null;
+                int code = 500;
+                try {
+                    generated = segmented.openResource(name);
+                } catch (FileNotFoundException e) {
+                    code = 404;
+                } catch (IOException e) {
+                    Log.w(TAG, "Unable to generate " + name, e);
+                }
+                final RandomAccessFile file = generated;
+                final int errorCode = code;
+                mSelectorTasks.add(new Runnable() {
+                    @Override
+                    public void run() {
+                        connection.pending = false;
+                        if (connection.closed) {
+                            closeQuietly(file);
+                            return;
+                        }
+                        connection.lastActive = SystemClock.elapsedRealtime();
+                        try {
+                            if (file != null) {
+                                sendFile(key, connection, file,
+                                        SegmentedMedia.getContentType(name),
+                                        range, head, keepAlive);
+                            } else if (errorCode == 404) {
+                                respondError(key, connection, 404,
+                                        "Not Found", keepAlive);
+                            } else {
+                                respondError(key, connection, 500,
+                                        "Internal Server Error", false);
+                            }
+                        } catch (IOException e) {
+                            close(key, connection);
+                        }
+                    }
+                });
+                mSelector.wakeup();
+                if (file != null) {
+                    prefetch(segmented, segmented.getNextSegment(name));
+                }
+            }
+        });
+    }
+
+    /*
+     * Generate a resource before it is asked for. Called on a generator
+     * thread.
+     */
+    private void prefetch(SegmentedMedia segmented, String name) {
+        if (name == null || segmented.isClosed() || segmented.isCached(name)) {
+            return;
+        }
+        try {
+            closeQuietly(segmented.openResource(name));
+        } catch (FileNotFoundException e) {
+            // Unpublished meanwhile.
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to generate " + name, e);
+        }
+    }
+
+    /*
+     * @return the file opened for reading, or null if it is null or gone
+     */
+    private static RandomAccessFile open(File file) {
+        if (file == null) {
+            return null;
+        }
+        try {
+            return new RandomAccessFile(file, "r");
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+    }
+
+    private static void closeQuietly(RandomAccessFile file) {
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException e) {
+                // Ignore.
+            }
+        }
+    }
+
+    private void sendFile(SelectionKey key, Connection connection,
+            File source, String contentType, String range, boolean head,
+            boolean keepAlive) throws IOException {
+        RandomAccessFile file = open(source);
+        if (file == null) {
+            respondError(key, connection, 404, "Not Found", keepAlive);
+            return;
+        }
+        sendFile(key, connection, file, contentType, range, head, keepAlive);
+    }
+
+    /*
+     * Respond with an open file, which the connection then owns.
+     */
+    private void sendFile(SelectionKey key, Connection connection,
+            RandomAccessFile file, String contentType, String range,
+            boolean head, boolean keepAlive) throws IOException {
+        long length = file.length();
+        long start = 0;
+        long end = length - 1;
+        boolean partial = false;
+        if (range != null) {
+            long[] parsed = parseRange(range, length);
+            if (parsed == null) {
+                file.close();
+                connection.keepAlive = keepAlive;
+                respond(key, connection, "416 Range Not Satisfiable",
+                        "Content-Range: bytes */" + length + CRLF
+                                + "Content-Length: 0" + CRLF);
+                return;
+            }
+            if (parsed.length == 2) {
+                start = parsed[0];
+                end = parsed[1];
+                partial = true;
+            }
+        }
+
+        long count = length > 0 ? end - start + 1 : 0;
+        StringBuilder fields = new StringBuilder();
+        fields.append("Content-Type: ").append(contentType)
+                .append(CRLF);
+        fields.append("Content-Length: ").append(count).append(CRLF);
+        if (partial) {
+            fields.append("Content-Range: bytes ").append(start).append('-')
+                    .append(end).append('/').append(length).append(CRLF);
+        }
+        connection.keepAlive = keepAlive;
+        if (head || count == 0) {
+            file.close();
+        } else {
+            connection.file = file;
+            connection.position = start;
+            connection.remaining = count;
+        }
+        respond(key, connection, partial ? "206 Partial Content" : "200 OK",
+                fields.toString());
+    }
+
+    /**
+     * Parse a Range header. Only single byte ranges are honored; anything
+     * else is answered with the whole file.
+     *
+     * @return {start, end} of the range, an empty array to send the whole
+     *         file, or null if the range cannot be satisfied
+     */
+    static long[] parseRange(String range, long length) {
+        if (!range.startsWith("bytes=") || range.indexOf(',') >= 0) {
+            return new long[0];
+        }
+        String spec = range.substring(6).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return new long[0];
+        }
+        try {
+            long start;
+            long end;
+            if (dash == 0) {
+                // The last n bytes.
+                long suffix = Long.parseLong(spec.substring(1));
+                if (suffix <= 0) {
+                    return null;
+                }
+                start = Math.max(0, length - suffix);
+                end = length - 1;
+            } else {
+                start = Long.parseLong(spec.substring(0, dash));
+                end = dash == spec.length() - 1 ? length - 1 : Math.min(
+                        Long.parseLong(spec.substring(dash + 1)), length - 1);
+            }
+            if (start >= length || start > end) {
+                return null;
+            }
+            return new long[] { start, end };
+        } catch (NumberFormatException e) {
+            return new long[0];
+        }
+    }
+
+    private void respondError(SelectionKey key, Connection connection,
+            int code, String reason, boolean keepAlive) throws IOException {
+        String body = code + " " + reason + "\n";
+        connection.keepAlive = keepAlive;
+        respond(key, connection, code + " " + reason,
+                "Content-Type: text/plain" + CRLF + "Content-Length: "
+                        + body.length() + CRLF, body);
+    }
+
+    private void respond(SelectionKey key, Connection connection,
+            String status, String fields) throws IOException {
+        respond(key, connection, status, fields, "");
+    }
+
+    private void respond(SelectionKey key, Connection connection,
+            String status, String fields, String body) throws IOException {
+        // Media elements and Media Source Extensions fetch across origins.
+        String header = "HTTP/1.1 " + status + CRLF + fields
+                + "Accept-Ranges: bytes" + CRLF
+                + "Access-Control-Allow-Origin: *" + CRLF + "Connection: "
+                + (connection.keepAlive ? "keep-alive" : "close") + CRLF
+                + CRLF + body;
+        connection.header = ByteBuffer.wrap(header.getBytes("ISO-8859-1"));
+        key.interestOps(SelectionKey.OP_WRITE);
+        onWritable(key, connection);
+    }
+
+    private void onWritable(SelectionKey key, Connection connection)
+            throws IOException {
+        SocketChannel channel = connection.channel;
+        if (connection.header.hasRemaining()) {
+            channel.write(connection.header);
+            if (connection.header.hasRemaining()) {
+                return;
+            }
+        }
+        long written = 0;
+        while (connection.remaining > 0 && written < MAX_WRITE_PER_TURN) {
+            long n = connection.file.getChannel().transferTo(
+                    connection.position,
+                    Math.min(connection.remaining, TRANSFER_CHUNK), channel);
+            if (n <= 0) {
+                // The socket buffer is full.
+                break;
+            }
+            connection.position += n;
+            connection.remaining -= n;
+            written += n;
+        }
+        if (written > 0) {
+            mBytesSent.addAndGet(written);
+            connection.lastActive = SystemClock.elapsedRealtime();
+        }
+        if (connection.remaining > 0) {
+            return;
+        }
+
+        connection.closeFile();
+        connection.header = null;
+        if (!connection.keepAlive) {
+            close(key, connection);
+            return;
+        }
+        key.interestOps(SelectionKey.OP_READ);
+        if (connection.request.position() > 0) {
+            processRequest(key, connection);
+        }
+    }
+
+    private void closeIdle() {
+        long now = SystemClock.elapsedRealtime();
+        for (SelectionKey key : mSelector.keys()) {
+            Object attachment = key.attachment();
+            if (attachment instanceof Connection
+                    && !((Connection) attachment).pending
+                    && now - ((Connection) attachment).lastActive > IDLE_TIMEOUT_MS) {
+                close(key, (Connection) attachment);
+            }
+        }
+    }
+
+    private void close(SelectionKey key, Connection connection) {
+        if (connection.closed) {
+            return;
+        }
+        connection.closed = true;
+        key.cancel();
+        connection.closeFile();
+        try {
+            connection.channel.close();
+        } catch (IOException e) {
+            // Ignore.
+        }
+        mActiveConnections.decrementAndGet();
+    }
+}
@@ -0,0 +1,305 @@
+package com.infthink.flint.samples.videoplayer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+/**
+ * Media catalog read from a &lt;medias&gt; document such as res/xml/media.xml.
+ *
+ * The document is pull-parsed one element at a time, so no DOM is built and
+ * entries become visible while a large file is still being read. Repeated
+ * attribute values (types, mime types, studios) share one String instance.
+ * Entries are kept searchable in a MediaLibraryIndex as they are added and
+ * removed. A removed entry only leaves a hole in the list; the holes are
+ * closed in one pass before the list is next read by position, so removing
+ * many entries costs one pass rather than one per entry. All methods are
+ * thread-safe.
+ */
+public class MediaCatalog {
+    private static final String TAG_MEDIA = "media";
+    private static final String TAG_RENDITION = "rendition";
+
+    private static final String ATTR_TITLE = "title";
+    private static final String ATTR_TYPE = "type";
+    private static final String ATTR_MIME_TYPE = "mimeType";
+    private static final String ATTR_URL = "url";
+    private static final String ATTR_IMAGE_URL = "imageUrl";
+    private static final String ATTR_STUDIO = "studio";
+    private static final String ATTR_BITRATE = "bitrate";
+    private static final String ATTR_HEIGHT = "height";
+
+    /**
+     * Receives progress while a document is parsed, on the parsing thread.
+     */
+    public interface ParseListener {
+        void onEntriesParsed(int total);
+    }
+
+    /* Holds null where an entry was removed until compact() runs. */
+    private final List<MediaCatalogEntry> mEntries = new ArrayList<MediaCatalogEntry>();
+    private final Map<MediaCatalogEntry, Integer> mSlots = new IdentityHashMap<MediaCatalogEntry, Integer>();
+    private int mHoles;
+    private final Map<String, MediaCatalogEntry> mByTitle = new HashMap<String, MediaCatalogEntry>();
+    private final MediaLibraryIndex mIndex = new MediaLibraryIndex();
+    private final Map<String, String> mStringPool = new HashMap<String, String>();
+
+    /**
+     * Append the &lt;media&gt; elements of a document to the catalog.
+     *
+     * @param parser
+     *            positioned at the start of the document
+     * @param listener
+     *            notified every batchSize entries and at the end, may be null
+     * @param batchSize
+     * @return number of entries added
+     * @throws XmlPullParserException
+     * @throws IOException
+     */
+    public int parse(XmlPullParser parser, ParseListener listener,
+            int batchSize) throws XmlPullParserException, IOException {
+        int added = 0;
+        int eventType = parser.getEventType();
+        while (eventType != XmlPullParser.END_DOCUMENT) {
+            if (eventType == XmlPullParser.START_TAG
+                    && TAG_MEDIA.equals(parser.getName())) {
+                MediaCatalogEntry entry = readEntry(parser);
+                if (entry != null) {
+                    int total = add(entry);
+                    added++;
+                    if (listener != null && batchSize > 0
+                            && added % batchSize == 0) {
+                        listener.onEntriesParsed(total);
+                    }
+                }
+            }
+            eventType = parser.next();
+        }
+        if (listener != null) {
+            listener.onEntriesParsed(size());
+        }
+        return added;
+    }
+
+    /**
+     * Read a &lt;media&gt; element and its &lt;rendition&gt; children,
+     * leaving the parser on its end tag.
+     */
+    private MediaCatalogEntry readEntry(XmlPullParser parser)
+            throws XmlPullParserException, IOException {
+        String title = parser.getAttributeValue(null, ATTR_TITLE);
+        String type = parser.getAttributeValue(null, ATTR_TYPE);
+        String mimeType = parser.getAttributeValue(null, ATTR_MIME_TYPE);
+        String url = parser.getAttributeValue(null, ATTR_URL);
+        String imageUrl = parser.getAttributeValue(null, ATTR_IMAGE_URL);
+        String studio = parser.getAttributeValue(null, ATTR_STUDIO);
+
+        List<MediaRendition> renditions = null;
+        int depth = parser.getDepth();
+        int eventType = parser.next();
+        while (eventType != XmlPullParser.END_DOCUMENT
+                && !(eventType == XmlPullParser.END_TAG
+                        && parser.getDepth() == depth)) {
+            if (eventType == XmlPullParser.START_TAG
+                    && TAG_RENDITION.equals(parser.getName())) {
+                MediaRendition rendition = readRendition(parser);
+                if (rendition != null) {
+                    if (renditions == null) {
+                        renditions = new ArrayList<MediaRendition>(4);
+                    }
+                    renditions.add(rendition);
+                }
+            }
+            eventType = parser.next();
+        }
+
+        if (url == null && renditions != null) {
+            // The highest rendition is the default.
+            MediaRendition highest = renditions.get(0);
+            for (MediaRendition rendition : renditions) {
+                if (rendition.bitrate > highest.bitrate) {
+                    highest = rendition;
+                }
+            }
+            url = highest.url;
+        }
+        if (url == null) {
+            return null;
+        }
+        synchronized (this) {
+            return new MediaCatalogEntry(title, pool(type), pool(mimeType),
+                    url, imageUrl, pool(studio), renditions);
+        }
+    }
+
+    private static MediaRendition readRendition(XmlPullParser parser) {
+        String url = parser.getAttributeValue(null, ATTR_URL);
+        if (url == null) {
+            return null;
+        }
+        return new MediaRendition(url, parseLong(parser.getAttributeValue(
+                null, ATTR_BITRATE)), (int) parseLong(parser
+                .getAttributeValue(null, ATTR_HEIGHT)));
+    }
+
+    private static long parseLong(String value) {
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private String pool(String value) {
+        if (value == null) {
+            return null;
+        }
+        String pooled = mStringPool.get(value);
+        if (pooled == null) {
+            mStringPool.put(value, value);
+            pooled = value;
+        }
+        return pooled;
+    }
+
+    /**
+     * @param entry
+     * @return the new size of the catalog
+     */
+    public synchronized int add(MediaCatalogEntry entry) {
+        mSlots.put(entry, mEntries.size());
+        mEntries.add(entry);
+        if (entry.title != null) {
+            mByTitle.put(entry.title.toLowerCase(Locale.US), entry);
+        }
+        mIndex.add(entry);
+        return size();
+    }
+
+    /**
+     * @param entry
+     * @return true if the entry was in the catalog
+     */
+    public synchronized boolean remove(MediaCatalogEntry entry) {
+        if (!mIndex.remove(entry)) {
+            return false;
+        }
+        mEntries.set(mSlots.remove(entry), null);
+        mHoles++;
+        if (entry.title != null) {
+            String key = entry.title.toLowerCase(Locale.US);
+            if (mByTitle.get(key) == entry) {
+                mByTitle.remove(key);
+            }
+        }
+        return true;
+    }
+
+    public synchronized void clear() {
+        mEntries.clear();
+        mSlots.clear();
+        mHoles = 0;
+        mByTitle.clear();
+        mIndex.clear();
+        mStringPool.clear();
+    }
+
+    public synchronized int size() {
+        return mEntries.size() - mHoles;
+    }
+
+    public synchronized MediaCatalogEntry get(int index) {
+        compact();
+        return mEntries.get(index);
+    }
+
+    /**
+     * @param offset
+     * @param count
+     * @return up to count entries starting at offset, in document order
+     */
+    public synchronized List<MediaCatalogEntry> getPage(int offset, int count) {
+        compact();
+        if (offset < 0 || offset >= mEntries.size() || count <= 0) {
+            return Collections.emptyList();
+        }
+        int end = Math.min(mEntries.size(), offset + count);
+        return new ArrayList<MediaCatalogEntry>(mEntries.subList(offset, end));
+    }
+
+    /**
+     * @param title
+     *            case-insensitive exact title
+     * @return the entry, or null
+     */
+    public synchronized MediaCatalogEntry findByTitle(String title) {
+        return mByTitle.get(title.toLowerCase(Locale.US));
+    }
+
+    /**
+     * @param type
+     *            e.g. MediaCatalogEntry.TYPE_MOVIE
+     * @return entries of that type, in document order
+     */
+    public synchronized List<MediaCatalogEntry> getByType(String type) {
+        return mIndex.search(null, type, null, null, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Search the catalog, see MediaLibraryIndex.search().
+     *
+     * @param titlePrefix
+     * @param type
+     * @param mimeType
+     * @param studio
+     * @param limit
+     * @return
+     */
+    public synchronized List<MediaCatalogEntry> search(String titlePrefix,
+            String type, String mimeType, String studio, int limit) {
+        return mIndex.search(titlePrefix, type, mimeType, studio, limit);
+    }
+
+    public synchronized Map<String, Integer> getStudioFacets() {
+        return mIndex.getStudioFacets();
+    }
+
+    public synchronized Map<String, Integer> getTypeFacets() {
+        return mIndex.getTypeFacets();
+    }
+
+    public synchronized Map<String, Integer> getMimeTypeFacets() {
+        return mIndex.getMimeTypeFacets();
+    }
+
+    /*
+     * Close the holes left by remove(), keeping document order.
+     */
+    private void compact() {
+        if (mHoles == 0) {
+            return;
+        }
+        int n = 0;
+        for (int i = 0; i < mEntries.size(); i++) {
+            MediaCatalogEntry entry = mEntries.get(i);
+            if (entry != null) {
+                mEntries.set(n, entry);
+                mSlots.put(entry, n);
+                n++;
+            }
+        }
+        mEntries.subList(n, mEntries.size()).clear();
+        mHoles = 0;
+    }
+}
@@ -0,0 +1,120 @@
+package com.infthink.flint.samples.videoplayer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import tv.matchstick.flint.MediaInfo;
+import tv.matchstick.flint.MediaMetadata;
+import tv.matchstick.flint.images.WebImage;
+import android.net.Uri;
+
+/**
+ * One &lt;media&gt; element of a catalog. Only the attribute strings are kept;
+ * the MediaInfo is built when the entry is actually flung. An entry may list
+ * &lt;rendition&gt; children, encodings of the same media at different
+ * bitrates; url is then the one to use when no choice is made.
+ */
+public final class MediaCatalogEntry {
+    public static final String TYPE_MOVIE = "movie";
+    public static final String TYPE_MUSIC = "music";
+    public static final String TYPE_PHOTO = "photo";
+
+    public final String title;
+    public final String type;
+    public final String mimeType;
+    public final String url;
+    public final String imageUrl;
+    public final String studio;
+    /** Highest bitrate first; empty if the entry has a single url. */
+    public final List<MediaRendition> renditions;
+
+    public MediaCatalogEntry(String title, String type, String mimeType,
+            String url, String imageUrl, String studio) {
+        this(title, type, mimeType, url, imageUrl, studio, null);
+    }
+
+    public MediaCatalogEntry(String title, String type, String mimeType,
+            String url, String imageUrl, String studio,
+            List<MediaRendition> renditions) {
+        this.title = title;
+        this.type = type;
+        this.mimeType = mimeType;
+        this.url = url;
+        this.imageUrl = imageUrl;
+        this.studio = studio;
+        if (renditions == null || renditions.isEmpty()) {
+            this.renditions = Collections.emptyList();
+        } else {
+            List<MediaRendition> sorted = new ArrayList<MediaRendition>(
+                    renditions);
+            Collections.sort(sorted, new Comparator<MediaRendition>() {
+                @Override
+                public int compare(MediaRendition lhs, MediaRendition rhs) {
+                    return lhs.bitrate > rhs.bitrate ? -1
+                            : (lhs.bitrate == rhs.bitrate ? 0 : 1);
+                }
+            });
+            this.renditions = Collections.unmodifiableList(sorted);
+        }
+    }
+
+    /**
+     * @param maxBitrate
+     *            in bits per second
+     * @return the highest rendition within maxBitrate, the lowest one if
+     *         none is, or null if the entry has no renditions
+     */
+    public MediaRendition selectRendition(long maxBitrate) {
+        if (renditions.isEmpty()) {
+            return null;
+        }
+        for (MediaRendition rendition : renditions) {
+            if (rendition.bitrate <= maxBitrate) {
+                return rendition;
+            }
+        }
+        return renditions.get(renditions.size() - 1);
+    }
+
+    public MediaInfo toMediaInfo() {
+        return toMediaInfo(url);
+    }
+
+    public MediaInfo toMediaInfo(MediaRendition rendition) {
+        return toMediaInfo(rendition != null ? rendition.url : url);
+    }
+
+    private MediaInfo toMediaInfo(String contentUrl) {
+        MediaMetadata metadata = new MediaMetadata(getMediaType());
+        if (title != null) {
+            metadata.putString(MediaMetadata.KEY_TITLE, title);
+        }
+        if (studio != null) {
+            metadata.putString(MediaMetadata.KEY_STUDIO, studio);
+        }
+        if (imageUrl != null) {
+            metadata.addImage(new WebImage(Uri.parse(imageUrl)));
+        }
+        return new MediaInfo.Builder(contentUrl)
+                .setStreamType(MediaInfo.STREAM_TYPE_BUFFERED)
+                .setContentType(mimeType).setMetadata(metadata).build();
+    }
+
+    private int getMediaType() {
+        if (TYPE_MOVIE.equals(type)) {
+            return MediaMetadata.MEDIA_TYPE_MOVIE;
+        } else if (TYPE_MUSIC.equals(type)) {
+            return MediaMetadata.MEDIA_TYPE_MUSIC_TRACK;
+        } else if (TYPE_PHOTO.equals(type)) {
+            return MediaMetadata.MEDIA_TYPE_PHOTO;
+        }
+        return MediaMetadata.MEDIA_TYPE_GENERIC;
+    }
+
+    @Override
+    public String toString() {
+        return title + " [" + type + ", " + mimeType + "] " + url;
+    }
+}
@@ -0,0 +1,337 @@
+package com.infthink.flint.samples.videoplayer;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Set;
+
+import tv.matchstick.flint.PendingResult;
+import tv.matchstick.flint.RemoteMediaPlayer;
+import tv.matchstick.flint.ResultCallback;
+import tv.matchstick.flint.Status;
+import tv.matchstick.flint.RemoteMediaPlayer.MediaChannelResult;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Sends media commands to the receiver from a single background thread.
+ *
+ * Commands carry a coalescing key. A queued command is dropped when a newer
+ * command with the same key is submitted, and only one command per key is
+ * on the wire at a time, so dragging a volume bar sends at most the value in
+ * flight plus the last value. A command still unanswered after
+ * COMMAND_TIMEOUT_MS gives up its key, so a result that never comes does not
+ * hold back later commands. Results are delivered on the main thread; a
+ * command that could not be sent gets STATUS_FAILED and one that timed out
+ * STATUS_TIMED_OUT.
+ */
+public class MediaCommandDispatcher {
+    private static final String TAG = MediaCommandDispatcher.class
+            .getSimpleName();
+
+    /**
+     * Longer than the SDK's own command timeout, so this only catches
+     * results that are never delivered at all.
+     */
+    public static final long COMMAND_TIMEOUT_MS = 15000;
+
+    public static final String KEY_LOAD = "load";
+    public static final String KEY_PLAYBACK = "playback";
+    public static final String KEY_STOP = "stop";
+    public static final String KEY_SEEK = "seek";
+    public static final String KEY_STREAM_VOLUME = "stream_volume";
+    public static final String KEY_STREAM_MUTE = "stream_mute";
+    public static final String KEY_DEVICE_VOLUME = "device_volume";
+    public static final String KEY_DEVICE_MUTE = "device_mute";
+
+    /**
+     * A command to send to the receiver.
+     */
+    public static abstract class Command {
+        private final String mKey;
+        private final String mOperation;
+        private final ResultCallback<MediaChannelResult> mCallback;
+        private long mSentAt;
+        /* Guarded by the dispatcher. */
+        private boolean mDone;
+        private Runnable mTimeoutRunnable;
+
+        /**
+         * @param key
+         *            coalescing key, one of the KEY_* constants
+         * @param callback
+         *            receives the result on the main thread, may be null
+         */
+        public Command(String key, ResultCallback<MediaChannelResult> callback) {
+            this(key, key, callback);
+        }
+
+        /**
+         * @param key
+         *            coalescing key, one of the KEY_* constants
+         * @param operation
+         *            name the round trip is recorded under, one of the
+         *            CommandLatencyStats.OP_* constants
+         * @param callback
+         *            receives the result on the main thread, may be null
+         */
+        public Command(String key, String operation,
+                ResultCallback<MediaChannelResult> callback) {
+            mKey = key;
+            mOperation = operation;
+            mCallback = callback;
+        }
+
+        public String getKey() {
+            return mKey;
+        }
+
+        public String getOperation() {
+            return mOperation;
+        }
+
+        /**
+         * Send the command. Runs on the dispatcher thread.
+         *
+         * @return the pending result to wait for, or null if the command
+         *         completed synchronously
+         * @throws IOException
+         */
+        protected abstract PendingResult<MediaChannelResult> send()
+                throws IOException;
+
+        /**
+         * Called on the main thread before the result callback, for results
+         * the receiver answered with.
+         *
+         * @param result
+         * @param roundTripMs
+         *            time from send() to the receiver's answer
+         */
+        protected void onCompleted(MediaChannelResult result, long roundTripMs) {
+        }
+    }
+
+    /**
+     * Result of a command the receiver never answered.
+     */
+    private static final class FailedResult implements MediaChannelResult {
+        private final Status mStatus;
+
+        FailedResult(int statusCode) {
+            mStatus = new Status(statusCode);
+        }
+
+        @Override
+        public Status getStatus() {
+            return mStatus;
+        }
+    }
+
+    private final HandlerThread mThread;
+    private final Handler mHandler;
+    private final Handler mCallbackHandler;
+    private final LinkedList<Command> mQueue = new LinkedList<Command>();
+    private final Set<String> mInFlight = new HashSet<String>();
+    private final Runnable mDrainRunnable;
+    private final CommandLatencyStats mLatencyStats;
+
+    private long mSubmittedCount;
+    private long mSupersededCount;
+
+    /**
+     * @param latencyStats
+     *            receives the round trip of every answered command, may be
+     *            null
+     */
+    public MediaCommandDispatcher(CommandLatencyStats latencyStats) {
+        mLatencyStats = latencyStats;
+        mThread = new HandlerThread(TAG);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+        mCallbackHandler = new Handler(Looper.getMainLooper());
+        mDrainRunnable = new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        };
+    }
+
+    /**
+     * Queue a command, replacing any queued command with the same key.
+     *
+     * @param command
+     */
+    public void submit(Command command) {
+        synchronized (this) {
+            Iterator<Command> it = mQueue.iterator();
+            while (it.hasNext()) {
+                if (it.next().getKey().equals(command.getKey())) {
+                    it.remove();
+                    mSupersededCount++;
+                }
+            }
+            mQueue.add(command);
+            mSubmittedCount++;
+        }
+        mHandler.post(mDrainRunnable);
+    }
+
+    /**
+     * Drop all queued commands and stop the dispatcher thread.
+     */
+    public void quit() {
+        synchronized (this) {
+            mQueue.clear();
+            mInFlight.clear();
+        }
+        mThread.quit();
+    }
+
+    public synchronized long getSubmittedCount() {
+        return mSubmittedCount;
+    }
+
+    /**
+     * Number of commands that were replaced before they were sent.
+     *
+     * @return
+     */
+    public synchronized long getSupersededCount() {
+        return mSupersededCount;
+    }
+
+    private void drain() {
+        while (true) {
+            final Command command;
+            synchronized (this) {
+                command = pollSendable();
+                if (command == null) {
+                    return;
+                }
+                mInFlight.add(command.getKey());
+            }
+
+            PendingResult<MediaChannelResult> pendingResult = null;
+            boolean failed = false;
+            try {
+                command.mSentAt = SystemClock.elapsedRealtime();
+                pendingResult = command.send();
+            } catch (IOException e) {
+                Log.w(TAG, "Unable to send " + command.getKey(), e);
+                failed = true;
+            } catch (IllegalStateException e) {
+                Log.w(TAG, "Unable to send " + command.getKey(), e);
+                failed = true;
+            }
+
+            if (failed) {
+                fail(command, RemoteMediaPlayer.STATUS_FAILED);
+            } else if (pendingResult == null) {
+                if (mLatencyStats != null) {
+                    mLatencyStats.record(command.getOperation(),
+                            SystemClock.elapsedRealtime() - command.mSentAt);
+                }
+                complete(command, null);
+            } else {
+                Runnable timeout = new Runnable() {
+                    @Override
+                    public void run() {
+                        Log.w(TAG, "No result for " + command.getKey()
+                                + " after " + COMMAND_TIMEOUT_MS + "ms");
+                        fail(command, RemoteMediaPlayer.STATUS_TIMED_OUT);
+                    }
+                };
+                synchronized (this) {
+                    command.mTimeoutRunnable = timeout;
+                }
+                mHandler.postDelayed(timeout, COMMAND_TIMEOUT_MS);
+                pendingResult
+                        .setResultCallback(new ResultCallback<MediaChannelResult>() {
+                            @Override
+                            public void onResult(MediaChannelResult result) {
+                                complete(command, result);
+                            }
+                        });
+            }
+        }
+    }
+
+    private Command pollSendable() {
+        Iterator<Command> it = mQueue.iterator();
+        while (it.hasNext()) {
+            Command command = it.next();
+            if (!mInFlight.contains(command.getKey())) {
+                it.remove();
+                return command;
+            }
+        }
+        return null;
+    }
+
+    private void complete(final Command command, final MediaChannelResult result) {
+        if (!release(command)) {
+            // Answered after its timeout; the key has moved on.
+            return;
+        }
+        if (result != null) {
+            final long roundTripMs = SystemClock.elapsedRealtime()
+                    - command.mSentAt;
+            if (mLatencyStats != null) {
+                mLatencyStats.record(command.getOperation(), roundTripMs);
+            }
+            mCallbackHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    command.onCompleted(result, roundTripMs);
+                    if (command.mCallback != null) {
+                        command.mCallback.onResult(result);
+                    }
+                }
+            });
+        }
+        mHandler.post(mDrainRunnable);
+    }
+
+    private void fail(final Command command, int statusCode) {
+        if (!release(command)) {
+            return;
+        }
+        if (command.mCallback != null) {
+            final MediaChannelResult result = new FailedResult(statusCode);
+            mCallbackHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    command.mCallback.onResult(result);
+                }
+            });
+        }
+        mHandler.post(mDrainRunnable);
+    }
+
+    /*
+     * Take a command off the wire, once.
+     *
+     * @return false if it already was
+     */
+    private boolean release(Command command) {
+        Runnable timeout;
+        synchronized (this) {
+            if (command.mDone) {
+                return false;
+            }
+            command.mDone = true;
+            mInFlight.remove(command.getKey());
+            timeout = command.mTimeoutRunnable;
+        }
+        if (timeout != null) {
+            mHandler.removeCallbacks(timeout);
+        }
+        return true;
+    }
+}
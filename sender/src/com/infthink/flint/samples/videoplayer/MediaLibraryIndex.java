@@ -0,0 +1,446 @@
+package com.infthink.flint.samples.videoplayer;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Search index over catalog entries.
+ *
+ * Every word of a title is put in a prefix trie, so "buck" and "big b" both
+ * find "Big Buck Bunny". Entries are also bucketed by type, mime type and
+ * studio. Entries can be added and removed one at a time; nothing is ever
+ * rebuilt. Every trie node counts the entries below it, so a query walks
+ * whichever candidates are fewest: the entries under its last, partial word,
+ * the entries of one of its whole words, or a filter bucket. Not
+ * thread-safe; MediaCatalog serializes access.
+ */
+public class MediaLibraryIndex {
+    private static final class Node {
+        char[] keys = new char[0];
+        Node[] children = new Node[0];
+        List<MediaCatalogEntry> entries;
+        /* Entries at this node and below, once per title word. */
+        int count;
+
+        Node child(char c) {
+            int i = indexOf(c);
+            return i >= 0 ? children[i] : null;
+        }
+
+        Node getOrAddChild(char c) {
+            int i = indexOf(c);
+            if (i >= 0) {
+                return children[i];
+            }
+            int insert = -(i + 1);
+            char[] newKeys = new char[keys.length + 1];
+            Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(keys, 0, newKeys, 0, insert);
+            System.arraycopy(children, 0, newChildren, 0, insert);
+            System.arraycopy(keys, insert, newKeys, insert + 1, keys.length
+                    - insert);
+            System.arraycopy(children, insert, newChildren, insert + 1,
+                    children.length - insert);
+            Node node = new Node();
+            newKeys[insert] = c;
+            newChildren[insert] = node;
+            keys = newKeys;
+            children = newChildren;
+            return node;
+        }
+
+        void removeChild(char c) {
+            int i = indexOf(c);
+            if (i < 0) {
+                return;
+            }
+            char[] newKeys = new char[keys.length - 1];
+            Node[] newChildren = new Node[children.length - 1];
+            System.arraycopy(keys, 0, newKeys, 0, i);
+            System.arraycopy(children, 0, newChildren, 0, i);
+            System.arraycopy(keys, i + 1, newKeys, i, keys.length - i - 1);
+            System.arraycopy(children, i + 1, newChildren, i, children.length
+                    - i - 1);
+            keys = newKeys;
+            children = newChildren;
+        }
+
+        boolean isEmpty() {
+            return keys.length == 0 && (entries == null || entries.isEmpty());
+        }
+
+        private int indexOf(char c) {
+            int low = 0;
+            int high = keys.length - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (keys[mid] < c) {
+                    low = mid + 1;
+                } else if (keys[mid] > c) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -(low + 1);
+        }
+    }
+
+    private final Node mRoot = new Node();
+    private final Set<MediaCatalogEntry> mAll = new LinkedHashSet<MediaCatalogEntry>();
+    private final Map<String, Set<MediaCatalogEntry>> mByType = new HashMap<String, Set<MediaCatalogEntry>>();
+    private final Map<String, Set<MediaCatalogEntry>> mByMimeType = new HashMap<String, Set<MediaCatalogEntry>>();
+    private final Map<String, Set<MediaCatalogEntry>> mByStudio = new HashMap<String, Set<MediaCatalogEntry>>();
+
+    public void add(MediaCatalogEntry entry) {
+        if (!mAll.add(entry)) {
+            return;
+        }
+        for (String word : words(entry.title)) {
+            Node node = mRoot;
+            node.count++;
+            for (int i = 0; i < word.length(); i++) {
+                node = node.getOrAddChild(word.charAt(i));
+                node.count++;
+            }
+            if (node.entries == null) {
+                node.entries = new ArrayList<MediaCatalogEntry>(1);
+            }
+            node.entries.add(entry);
+        }
+        addToBucket(mByType, entry.type, entry);
+        addToBucket(mByMimeType, entry.mimeType, entry);
+        addToBucket(mByStudio, entry.studio, entry);
+    }
+
+    /**
+     * @param entry
+     * @return true if the entry was in the index
+     */
+    public boolean remove(MediaCatalogEntry entry) {
+        if (!mAll.remove(entry)) {
+            return false;
+        }
+        for (String word : words(entry.title)) {
+            removeWord(mRoot, word, 0, entry);
+        }
+        removeFromBucket(mByType, entry.type, entry);
+        removeFromBucket(mByMimeType, entry.mimeType, entry);
+        removeFromBucket(mByStudio, entry.studio, entry);
+        return true;
+    }
+
+    public void clear() {
+        mRoot.keys = new char[0];
+        mRoot.children = new Node[0];
+        mRoot.entries = null;
+        mRoot.count = 0;
+        mAll.clear();
+        mByType.clear();
+        mByMimeType.clear();
+        mByStudio.clear();
+    }
+
+    public int size() {
+        return mAll.size();
+    }
+
+    /**
+     * Find entries matching all given criteria.
+     *
+     * @param titlePrefix
+     *            prefix of any title word, or several words where the last
+     *            one may be partial; null or empty matches everything
+     * @param type
+     *            exact type, or null for any
+     * @param mimeType
+     *            exact mime type, or null for any
+     * @param studio
+     *            exact studio, or null for any
+     * @param limit
+     *            maximum number of results
+     * @return matching entries
+     */
+    public List<MediaCatalogEntry> search(String titlePrefix, String type,
+            String mimeType, String studio, int limit) {
+        List<MediaCatalogEntry> results = new ArrayList<MediaCatalogEntry>();
+        if (limit <= 0) {
+            return results;
+        }
+
+        List<String> queryWords = words(titlePrefix);
+        if (queryWords.isEmpty()) {
+            Set<MediaCatalogEntry> candidates = smallestBucket(type, mimeType,
+                    studio);
+            if (candidates == null) {
+                return results;
+            }
+            for (MediaCatalogEntry entry : candidates) {
+                if (matches(entry, type, mimeType, studio)) {
+                    results.add(entry);
+                    if (results.size() >= limit) {
+                        break;
+                    }
+                }
+            }
+            return results;
+        }
+
+        // Candidates are the entries under the last (possibly partial)
+        // word, the entries of any whole word or a filter bucket; walk the
+        // fewest and check the rest against each candidate.
+        String last = queryWords.get(queryWords.size() - 1);
+        Node node = find(last);
+        if (node == null) {
+            return results;
+        }
+        Collection<MediaCatalogEntry> candidates = null;
+        int candidateCount = node.count;
+        for (int i = 0; i < queryWords.size() - 1; i++) {
+            Node word = find(queryWords.get(i));
+            if (word == null || word.entries == null
+                    || word.entries.isEmpty()) {
+                return results;
+            }
+            if (word.entries.size() < candidateCount) {
+                candidates = word.entries;
+                candidateCount = word.entries.size();
+            }
+        }
+        if (type != null || mimeType != null || studio != null) {
+            Set<MediaCatalogEntry> bucket = smallestBucket(type, mimeType,
+                    studio);
+            if (bucket == null) {
+                return results;
+            }
+            if (bucket.size() < candidateCount) {
+                candidates = bucket;
+            }
+        }
+
+        Map<MediaCatalogEntry, Boolean> seen = new IdentityHashMap<MediaCatalogEntry, Boolean>();
+        if (candidates == null) {
+            collect(node, queryWords, type, mimeType, studio, limit, seen,
+                    results);
+            return results;
+        }
+        for (MediaCatalogEntry entry : candidates) {
+            if (seen.put(entry, Boolean.TRUE) == null
+                    && matches(entry, type, mimeType, studio)
+                    && containsWords(entry, queryWords, true)) {
+                results.add(entry);
+                if (results.size() >= limit) {
+                    break;
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Number of entries per studio.
+     *
+     * @return studio to count, sorted by studio
+     */
+    public Map<String, Integer> getStudioFacets() {
+        return facets(mByStudio);
+    }
+
+    public Map<String, Integer> getTypeFacets() {
+        return facets(mByType);
+    }
+
+    public Map<String, Integer> getMimeTypeFacets() {
+        return facets(mByMimeType);
+    }
+
+    private void collect(Node node, List<String> queryWords, String type,
+            String mimeType, String studio, int limit,
+            Map<MediaCatalogEntry, Boolean> seen,
+            List<MediaCatalogEntry> results) {
+        if (node.entries != null) {
+            for (MediaCatalogEntry entry : node.entries) {
+                if (seen.containsKey(entry)) {
+                    continue;
+                }
+                seen.put(entry, Boolean.TRUE);
+                if (matches(entry, type, mimeType, studio)
+                        && containsWords(entry, queryWords, false)) {
+                    results.add(entry);
+                    if (results.size() >= limit) {
+                        return;
+                    }
+                }
+            }
+        }
+        for (Node child : node.children) {
+            collect(child, queryWords, type, mimeType, studio, limit, seen,
+                    results);
+            if (results.size() >= limit) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @param checkLast
+     *            whether to check that a title word starts with the last
+     *            query word; the others must be title words
+     */
+    private static boolean containsWords(MediaCatalogEntry entry,
+            List<String> queryWords, boolean checkLast) {
+        if (queryWords.size() == 1 && !checkLast) {
+            return true;
+        }
+        List<String> titleWords = words(entry.title);
+        for (int i = 0; i < queryWords.size() - 1; i++) {
+            if (!titleWords.contains(queryWords.get(i))) {
+                return false;
+            }
+        }
+        if (!checkLast) {
+            return true;
+        }
+        String last = queryWords.get(queryWords.size() - 1);
+        for (String word : titleWords) {
+            if (word.startsWith(last)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the trie node of a word or word prefix, or null
+     */
+    private Node find(String word) {
+        Node node = mRoot;
+        for (int i = 0; i < word.length() && node != null; i++) {
+            node = node.child(word.charAt(i));
+        }
+        return node;
+    }
+
+    private static boolean matches(MediaCatalogEntry entry, String type,
+            String mimeType, String studio) {
+        return (type == null || type.equals(entry.type))
+                && (mimeType == null || mimeType.equals(entry.mimeType))
+                && (studio == null || studio.equals(entry.studio));
+    }
+
+    /**
+     * @return the smallest bucket selected by the filters, all entries when
+     *         there is no filter, or null if a filter matches nothing
+     */
+    private Set<MediaCatalogEntry> smallestBucket(String type,
+            String mimeType, String studio) {
+        Set<MediaCatalogEntry> smallest = null;
+        boolean filtered = false;
+        String[] values = { type, mimeType, studio };
+        Map<?, ?>[] buckets = { mByType, mByMimeType, mByStudio };
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == null) {
+                continue;
+            }
+            filtered = true;
+            @SuppressWarnings("unchecked")
+            Set<MediaCatalogEntry> bucket = (Set<MediaCatalogEntry>) buckets[i]
+                    .get(values[i]);
+            if (bucket == null) {
+                return null;
+            }
+            if (smallest == null || bucket.size() < smallest.size()) {
+                smallest = bucket;
+            }
+        }
+        return filtered ? smallest : mAll;
+    }
+
+    /**
+     * @return true if the word was found and removed
+     */
+    private static boolean removeWord(Node node, String word, int depth,
+            MediaCatalogEntry entry) {
+        boolean removed;
+        if (depth == word.length()) {
+            removed = node.entries != null && node.entries.remove(entry);
+        } else {
+            char c = word.charAt(depth);
+            Node child = node.child(c);
+            if (child == null) {
+                return false;
+            }
+            removed = removeWord(child, word, depth + 1, entry);
+            if (child.isEmpty()) {
+                node.removeChild(c);
+            }
+        }
+        if (removed) {
+            node.count--;
+        }
+        return removed;
+    }
+
+    private static void addToBucket(Map<String, Set<MediaCatalogEntry>> map,
+            String key, MediaCatalogEntry entry) {
+        if (key == null) {
+            return;
+        }
+        Set<MediaCatalogEntry> bucket = map.get(key);
+        if (bucket == null) {
+            bucket = new LinkedHashSet<MediaCatalogEntry>();
+            map.put(key, bucket);
+        }
+        bucket.add(entry);
+    }
+
+    private static void removeFromBucket(
+            Map<String, Set<MediaCatalogEntry>> map, String key,
+            MediaCatalogEntry entry) {
+        if (key == null) {
+            return;
+        }
+        Set<MediaCatalogEntry> bucket = map.get(key);
+        if (bucket != null && bucket.remove(entry) && bucket.isEmpty()) {
+            map.remove(key);
+        }
+    }
+
+    private static Map<String, Integer> facets(
+            Map<String, Set<MediaCatalogEntry>> map) {
+        Map<String, Integer> facets = new TreeMap<String, Integer>();
+        for (Map.Entry<String, Set<MediaCatalogEntry>> e : map.entrySet()) {
+            facets.put(e.getKey(), e.getValue().size());
+        }
+        return facets;
+    }
+
+    private static List<String> words(String text) {
+        if (text == null) {
+            return Collections.emptyList();
+        }
+        List<String> words = new ArrayList<String>();
+        String lower = text.toLowerCase(Locale.US);
+        int start = -1;
+        for (int i = 0; i <= lower.length(); i++) {
+            boolean letter = i < lower.length()
+                    && Character.isLetterOrDigit(lower.charAt(i));
+            if (letter && start < 0) {
+                start = i;
+            } else if (!letter && start >= 0) {
+                words.add(lower.substring(start, i));
+                start = -1;
+            }
+        }
+        return words;
+    }
+}
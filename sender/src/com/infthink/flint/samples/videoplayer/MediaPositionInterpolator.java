@@ -0,0 +1,93 @@
+package com.infthink.flint.samples.videoplayer;
+
+/**
+ * Extrapolates the stream position locally from the last media status
+ * reported by the receiver, so the sender does not need to poll for it.
+ *
+ * The interpolator only knows about whole seconds being visible to the user:
+ * {@link #getDelayToNextChange(long)} tells how long until the displayed
+ * second changes, and returns -1 when the position is not advancing (paused,
+ * buffering or idle).
+ */
+public class MediaPositionInterpolator {
+    private static final long DISPLAY_UNIT_MS = 1000;
+
+    private long mBasePosition;
+    private long mBaseTime;
+    private double mPlaybackRate;
+    private long mDuration;
+    private boolean mAdvancing;
+
+    /**
+     * Take a new snapshot of the receiver state.
+     *
+     * @param position
+     *            stream position reported by the receiver, in ms
+     * @param playbackRate
+     *            current playback rate, 1.0 for normal speed
+     * @param playing
+     *            whether the receiver is actually playing (not paused,
+     *            buffering or idle)
+     * @param duration
+     *            stream duration in ms, or 0 if unknown
+     * @param now
+     *            time of the snapshot, in ms on a monotonic clock
+     */
+    public void update(long position, double playbackRate, boolean playing,
+            long duration, long now) {
+        mBasePosition = Math.max(0, position);
+        mBaseTime = now;
+        mPlaybackRate = playbackRate > 0 ? playbackRate : 1.0;
+        mDuration = Math.max(0, duration);
+        mAdvancing = playing;
+    }
+
+    public void reset() {
+        mBasePosition = 0;
+        mBaseTime = 0;
+        mPlaybackRate = 1.0;
+        mDuration = 0;
+        mAdvancing = false;
+    }
+
+    public long getDuration() {
+        return mDuration;
+    }
+
+    /**
+     * Estimated stream position at the given time.
+     *
+     * @param now
+     *            time in ms on the same clock passed to update()
+     * @return
+     */
+    public long getPosition(long now) {
+        long position = mBasePosition;
+        if (mAdvancing && now > mBaseTime) {
+            position += (long) ((now - mBaseTime) * mPlaybackRate);
+        }
+        if (mDuration > 0 && position > mDuration) {
+            position = mDuration;
+        }
+        return position;
+    }
+
+    /**
+     * Time until the displayed second of the position changes.
+     *
+     * @param now
+     *            time in ms on the same clock passed to update()
+     * @return delay in ms, or -1 if the position will not change by itself
+     */
+    public long getDelayToNextChange(long now) {
+        if (!mAdvancing) {
+            return -1;
+        }
+        long position = getPosition(now);
+        if (mDuration > 0 && position >= mDuration) {
+            return -1;
+        }
+        long untilNext = DISPLAY_UNIT_MS - (position % DISPLAY_UNIT_MS);
+        return Math.max(1, (long) Math.ceil(untilNext / mPlaybackRate));
+    }
+}
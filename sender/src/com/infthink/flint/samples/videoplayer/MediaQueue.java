@@ -0,0 +1,258 @@
+package com.infthink.flint.samples.videoplayer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import tv.matchstick.flint.MediaInfo;
+
+/**
+ * Ordered list of media to play one after another.
+ *
+ * Items keep their list order; playback follows it, or a shuffled order
+ * when shuffle is on. With REPEAT_ALL the order wraps around, and with
+ * REPEAT_ONE the current item repeats. peekNext() always names the item
+ * advance() will return, so it can be prepared ahead. Not thread-safe;
+ * FlintVideoManager uses it on the main thread.
+ */
+public class MediaQueue {
+    public static final int REPEAT_OFF = 0;
+    public static final int REPEAT_ALL = 1;
+    public static final int REPEAT_ONE = 2;
+
+    private final List<MediaInfo> mItems = new ArrayList<MediaInfo>();
+    /* Positions in mItems, in play order. */
+    private final List<Integer> mOrder = new ArrayList<Integer>();
+    private final Random mRandom = new Random();
+    /* Position of the current item in mOrder, or -1. */
+    private int mCurrent = -1;
+    private int mRepeatMode = REPEAT_OFF;
+    private boolean mShuffle;
+
+    public void append(MediaInfo mediaInfo) {
+        insert(mItems.size(), mediaInfo);
+    }
+
+    /**
+     * @param index
+     *            list position, 0 to size()
+     * @param mediaInfo
+     */
+    public void insert(int index, MediaInfo mediaInfo) {
+        int current = getCurrentIndex();
+        if (current >= index) {
+            current++;
+        }
+        mItems.add(index, mediaInfo);
+        for (int i = 0; i < mOrder.size(); i++) {
+            if (mOrder.get(i) >= index) {
+                mOrder.set(i, mOrder.get(i) + 1);
+            }
+        }
+        if (mShuffle && mCurrent >= 0) {
+            // Somewhere among the items not played yet.
+            int at = mCurrent + 1
+                    + mRandom.nextInt(mOrder.size() - mCurrent);
+            mOrder.add(at, index);
+        } else if (mShuffle) {
+            mOrder.add(mRandom.nextInt(mOrder.size() + 1), index);
+        } else {
+            mOrder.add(index, index);
+        }
+        restoreCurrent(current);
+    }
+
+    /**
+     * Remove an item. If it is the current one, the item before it in play
+     * order becomes current, so that advance() continues with the item
+     * after it.
+     *
+     * @param index
+     *            list position
+     * @return the removed item
+     */
+    public MediaInfo remove(int index) {
+        int current = getCurrentIndex();
+        MediaInfo removed = mItems.remove(index);
+        int orderPosition = mOrder.indexOf(index);
+        mOrder.remove(orderPosition);
+        for (int i = 0; i < mOrder.size(); i++) {
+            if (mOrder.get(i) > index) {
+                mOrder.set(i, mOrder.get(i) - 1);
+            }
+        }
+        if (current == index) {
+            mCurrent = orderPosition - 1;
+        } else {
+            restoreCurrent(current > index ? current - 1 : current);
+        }
+        return removed;
+    }
+
+    /**
+     * Move an item to another list position.
+     *
+     * @param from
+     * @param to
+     */
+    public void move(int from, int to) {
+        if (from == to) {
+            return;
+        }
+        int current = getCurrentIndex();
+        List<Integer> shuffled = new ArrayList<Integer>(mOrder);
+        mItems.add(to, mItems.remove(from));
+        if (mShuffle) {
+            // Keep the shuffled order, renumbered for the new positions.
+            for (int i = 0; i < shuffled.size(); i++) {
+                shuffled.set(i, movedIndex(shuffled.get(i), from, to));
+            }
+            mOrder.clear();
+            mOrder.addAll(shuffled);
+        } else {
+            resetOrder();
+        }
+        restoreCurrent(current >= 0 ? movedIndex(current, from, to) : -1);
+    }
+
+    public void clear() {
+        mItems.clear();
+        mOrder.clear();
+        mCurrent = -1;
+    }
+
+    public int size() {
+        return mItems.size();
+    }
+
+    public MediaInfo get(int index) {
+        return mItems.get(index);
+    }
+
+    public List<MediaInfo> getItems() {
+        return Collections.unmodifiableList(mItems);
+    }
+
+    public void setRepeatMode(int repeatMode) {
+        mRepeatMode = repeatMode;
+    }
+
+    public int getRepeatMode() {
+        return mRepeatMode;
+    }
+
+    /**
+     * Turning shuffle on shuffles the items after the current one.
+     *
+     * @param shuffle
+     */
+    public void setShuffle(boolean shuffle) {
+        if (shuffle == mShuffle) {
+            return;
+        }
+        int current = getCurrentIndex();
+        mShuffle = shuffle;
+        resetOrder();
+        if (shuffle) {
+            int start = 0;
+            if (current >= 0) {
+                mOrder.remove(Integer.valueOf(current));
+                mOrder.add(0, current);
+                start = 1;
+            }
+            Collections.shuffle(mOrder.subList(start, mOrder.size()), mRandom);
+        }
+        restoreCurrent(current);
+    }
+
+    public boolean isShuffle() {
+        return mShuffle;
+    }
+
+    /**
+     * @param index
+     *            list position of the item to make current
+     * @return the item
+     */
+    public MediaInfo setCurrentIndex(int index) {
+        mCurrent = mOrder.indexOf(index);
+        return getCurrent();
+    }
+
+    /**
+     * @return list position of the current item, or -1
+     */
+    public int getCurrentIndex() {
+        return mCurrent >= 0 ? mOrder.get(mCurrent) : -1;
+    }
+
+    public MediaInfo getCurrent() {
+        return mCurrent >= 0 ? mItems.get(mOrder.get(mCurrent)) : null;
+    }
+
+    /**
+     * @return the item that advance() will make current, or null at the end
+     */
+    public MediaInfo peekNext() {
+        int next = nextPosition();
+        return next >= 0 ? mItems.get(mOrder.get(next)) : null;
+    }
+
+    /**
+     * Make the next item current.
+     *
+     * @return the new current item, or null at the end of the queue
+     */
+    public MediaInfo advance() {
+        int next = nextPosition();
+        if (next < 0) {
+            mCurrent = -1;
+            return null;
+        }
+        mCurrent = next;
+        return getCurrent();
+    }
+
+    private int nextPosition() {
+        if (mOrder.isEmpty()) {
+            return -1;
+        }
+        if (mRepeatMode == REPEAT_ONE && mCurrent >= 0) {
+            return mCurrent;
+        }
+        int next = mCurrent + 1;
+        if (next < mOrder.size()) {
+            return next;
+        }
+        return mRepeatMode == REPEAT_ALL ? 0 : -1;
+    }
+
+    private void resetOrder() {
+        mOrder.clear();
+        for (int i = 0; i < mItems.size(); i++) {
+            mOrder.add(i);
+        }
+    }
+
+    /**
+     * @param current
+     *            list position of the current item, or -1
+     */
+    private void restoreCurrent(int current) {
+        mCurrent = current >= 0 ? mOrder.indexOf(current) : -1;
+    }
+
+    private static int movedIndex(int index, int from, int to) {
+        if (index == from) {
+            return to;
+        }
+        if (from < to && index > from && index <= to) {
+            return index - 1;
+        }
+        if (from > to && index >= to && index < from) {
+            return index + 1;
+        }
+        return index;
+    }
+}
@@ -0,0 +1,23 @@
+package com.infthink.flint.samples.videoplayer;
+
+/**
+ * One encoding of a catalog entry, from a &lt;rendition&gt; element.
+ */
+public final class MediaRendition {
+    public final String url;
+    /** Average bitrate in bits per second. */
+    public final long bitrate;
+    /** Frame height in pixels, 0 if unknown. */
+    public final int height;
+
+    public MediaRendition(String url, long bitrate, int height) {
+        this.url = url;
+        this.bitrate = bitrate;
+        this.height = height;
+    }
+
+    @Override
+    public String toString() {
+        return height + "p " + (bitrate / 1000) + "kbps " + url;
+    }
+}
@@ -0,0 +1,531 @@
+package com.infthink.flint.samples.videoplayer;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Sample tables of a progressive MP4 file, read from its moov box.
+ *
+ * Only the moov box is read; sample data stays in the file. Each track's
+ * tables are expanded into flat arrays, one entry per sample, so a sample's
+ * position, size and timing can be looked up directly. The first video and
+ * the first audio track are indexed, other tracks are skipped. Edit lists
+ * are ignored.
+ */
+public class Mp4Index {
+    /* Larger moov boxes are refused rather than read into memory. */
+    private static final long MAX_MOOV_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * One indexed track.
+     */
+    public static final class Track {
+        public final int trackId;
+        /** "vide" or "soun". */
+        public final String handler;
+        public final long timescale;
+        public final int width;
+        public final int height;
+        /** Codec for an RFC 6381 codecs parameter, e.g. "avc1.64001f". */
+        public final String codec;
+        public final int sampleCount;
+        public final long[] offsets;
+        public final int[] sizes;
+        /** Decode times in timescale units. */
+        public final long[] decodeTimes;
+        /** Composition minus decode time. */
+        public final int[] compositionOffsets;
+        /** Decode time at the end of the last sample. */
+        public final long endTime;
+        /** Null if every sample is a sync sample. */
+        public final boolean[] sync;
+
+        /* Boxes copied as they are into the init segment. */
+        final ByteBuffer tkhd;
+        final ByteBuffer mdhd;
+        final ByteBuffer hdlr;
+        final ByteBuffer mediaHeader;
+        final ByteBuffer dinf;
+        final ByteBuffer stsd;
+
+        Track(int trackId, String handler, long timescale, int width,
+                int height, String codec, long[] offsets, int[] sizes,
+                long[] decodeTimes, int[] compositionOffsets, long endTime,
+                boolean[] sync, ByteBuffer tkhd, ByteBuffer mdhd,
+                ByteBuffer hdlr, ByteBuffer mediaHeader, ByteBuffer dinf,
+                ByteBuffer stsd) {
+            this.trackId = trackId;
+            this.handler = handler;
+            this.timescale = timescale;
+            this.width = width;
+            this.height = height;
+            this.codec = codec;
+            this.sampleCount = sizes.length;
+            this.offsets = offsets;
+            this.sizes = sizes;
+            this.decodeTimes = decodeTimes;
+            this.compositionOffsets = compositionOffsets;
+            this.endTime = endTime;
+            this.sync = sync;
+            this.tkhd = tkhd;
+            this.mdhd = mdhd;
+            this.hdlr = hdlr;
+            this.mediaHeader = mediaHeader;
+            this.dinf = dinf;
+            this.stsd = stsd;
+        }
+
+        public boolean isVideo() {
+            return "vide".equals(handler);
+        }
+
+        public boolean isSync(int sample) {
+            return sync == null || sync[sample];
+        }
+
+        public double getDuration() {
+            return (double) endTime / timescale;
+        }
+
+        /**
+         * @param time
+         *            in timescale units
+         * @return the first sample decoded at or after time
+         */
+        public int findSample(long time) {
+            int index = Arrays.binarySearch(decodeTimes, time);
+            if (index < 0) {
+                return -index - 1;
+            }
+            // Samples of zero duration share a decode time.
+            while (index > 0 && decodeTimes[index - 1] == time) {
+                index--;
+            }
+            return index;
+        }
+    }
+
+    public final List<Track> tracks;
+    final ByteBuffer mvhd;
+
+    private Mp4Index(List<Track> tracks, ByteBuffer mvhd) {
+        this.tracks = tracks;
+        this.mvhd = mvhd;
+    }
+
+    /**
+     * @return the first video track, else the first track
+     */
+    public Track getMainTrack() {
+        for (Track track : tracks) {
+            if (track.isVideo()) {
+                return track;
+            }
+        }
+        return tracks.get(0);
+    }
+
+    /**
+     * Read the index of a file.
+     *
+     * @param file
+     * @return
+     * @throws IOException
+     *             if the file cannot be read or is not an MP4 file with
+     *             audio or video
+     */
+    public static Mp4Index read(RandomAccessFile file) throws IOException {
+        ByteBuffer moov = readTopLevelBox(file, "moov");
+        if (moov == null) {
+            throw new IOException("no moov box");
+        }
+        ByteBuffer mvhd = findBox(moov, "mvhd");
+        if (mvhd == null) {
+            throw new IOException("no mvhd box");
+        }
+        List<Track> tracks = new ArrayList<Track>();
+        boolean haveVideo = false;
+        boolean haveAudio = false;
+        for (ByteBuffer trak : findBoxes(moov, "trak")) {
+            ByteBuffer mdia = findBox(trak, "mdia");
+            ByteBuffer hdlr = mdia != null ? findBox(mdia, "hdlr") : null;
+            if (hdlr == null) {
+                continue;
+            }
+            String handler = fourcc(hdlr, hdlr.position() + 16);
+            if ("vide".equals(handler) && !haveVideo) {
+                haveVideo = true;
+            } else if ("soun".equals(handler) && !haveAudio) {
+                haveAudio = true;
+            } else {
+                continue;
+            }
+            tracks.add(readTrack(trak, mdia, hdlr, handler));
+        }
+        if (tracks.isEmpty()) {
+            throw new IOException("no audio or video track");
+        }
+        return new Mp4Index(tracks, mvhd);
+    }
+
+    /*
+     * The whole box, header included, or null if the file has no such box
+     * at the top level.
+     */
+    private static ByteBuffer readTopLevelBox(RandomAccessFile file,
+            String type) throws IOException {
+        long position = 0;
+        long length = file.length();
+        byte[] header = new byte[16];
+        while (position + 8 <= length) {
+            file.seek(position);
+            file.readFully(header, 0, 8);
+            long size = ByteBuffer.wrap(header).getInt(0) & 0xffffffffL;
+            String boxType = new String(header, 4, 4, "ISO-8859-1");
+            if (size == 1) {
+                file.readFully(header, 8, 8);
+                size = ByteBuffer.wrap(header).getLong(8);
+            } else if (size == 0) {
+                size = length - position;
+            }
+            if (size < 8) {
+                throw new IOException("bad box size " + size + " at "
+                        + position);
+            }
+            if (boxType.equals(type)) {
+                if (size > MAX_MOOV_SIZE) {
+                    throw new IOException(type + " box too large: " + size);
+                }
+                byte[] box = new byte[(int) size];
+                file.seek(position);
+                file.readFully(box);
+                return ByteBuffer.wrap(box);
+            }
+            position += size;
+        }
+        return null;
+    }
+
+    private static Track readTrack(ByteBuffer trak, ByteBuffer mdia,
+            ByteBuffer hdlr, String handler) throws IOException {
+        ByteBuffer tkhd = require(trak, "tkhd");
+        ByteBuffer mdhd = require(mdia, "mdhd");
+        ByteBuffer minf = require(mdia, "minf");
+        ByteBuffer stbl = require(minf, "stbl");
+        ByteBuffer stsd = require(stbl, "stsd");
+        ByteBuffer mediaHeader = findBox(minf, "vide".equals(handler) ? "vmhd"
+                : "smhd");
+        ByteBuffer dinf = findBox(minf, "dinf");
+
+        int tkhdStart = payload(tkhd);
+        boolean tkhdV1 = tkhd.get(tkhdStart) == 1;
+        int trackId = tkhd.getInt(tkhdStart + (tkhdV1 ? 20 : 12));
+        // Width and height are 16.16 fixed point, last in the box.
+        int width = tkhd.getInt(tkhd.limit() - 8) >>> 16;
+        int height = tkhd.getInt(tkhd.limit() - 4) >>> 16;
+
+        int mdhdStart = payload(mdhd);
+        long timescale = (mdhd.get(mdhdStart) == 1 ? mdhd
+                .getInt(mdhdStart + 20) : mdhd.getInt(mdhdStart + 12)) & 0xffffffffL;
+        if (timescale == 0) {
+            throw new IOException("track " + trackId + " has no timescale");
+        }
+
+        int[] sizes = readSizes(stbl);
+        int count = sizes.length;
+        long[] offsets = readOffsets(stbl, sizes);
+        long[] decodeTimes = new long[count];
+        long endTime = readDecodeTimes(stbl, decodeTimes);
+        int[] compositionOffsets = readCompositionOffsets(stbl, count);
+        boolean[] sync = readSync(stbl, count);
+
+        return new Track(trackId, handler, timescale, width, height,
+                readCodec(stsd), offsets, sizes, decodeTimes,
+                compositionOffsets, endTime, sync, tkhd, mdhd, hdlr,
+                mediaHeader, dinf, stsd);
+    }
+
+    private static int[] readSizes(ByteBuffer stbl) throws IOException {
+        ByteBuffer stsz = require(stbl, "stsz");
+        int p = payload(stsz) + 4;
+        int uniformSize = stsz.getInt(p);
+        int count = stsz.getInt(p + 4);
+        int[] sizes = new int[count];
+        for (int i = 0; i < count; i++) {
+            sizes[i] = uniformSize != 0 ? uniformSize : stsz.getInt(p + 8 + i
+                    * 4);
+        }
+        return sizes;
+    }
+
+    private static long[] readOffsets(ByteBuffer stbl, int[] sizes)
+            throws IOException {
+        ByteBuffer stco = findBox(stbl, "stco");
+        ByteBuffer co64 = stco == null ? require(stbl, "co64") : null;
+        ByteBuffer chunkOffsets = stco != null ? stco : co64;
+        int p = payload(chunkOffsets) + 4;
+        int chunkCount = chunkOffsets.getInt(p);
+
+        ByteBuffer stsc = require(stbl, "stsc");
+        int q = payload(stsc) + 4;
+        int entryCount = stsc.getInt(q);
+
+        long[] offsets = new long[sizes.length];
+        int sample = 0;
+        for (int entry = 0; entry < entryCount; entry++) {
+            int firstChunk = stsc.getInt(q + 4 + entry * 12) - 1;
+            int samplesPerChunk = stsc.getInt(q + 8 + entry * 12);
+            int lastChunk = entry + 1 < entryCount ? stsc.getInt(q + 4
+                    + (entry + 1) * 12) - 1 : chunkCount;
+            for (int chunk = firstChunk; chunk < lastChunk; chunk++) {
+                long offset = stco != null ? stco.getInt(p + 4 + chunk * 4) & 0xffffffffL
+                        : co64.getLong(p + 4 + chunk * 8);
+                for (int i = 0; i < samplesPerChunk && sample < sizes.length; i++) {
+                    offsets[sample] = offset;
+                    offset += sizes[sample];
+                    sample++;
+                }
+            }
+        }
+        if (sample != sizes.length) {
+            throw new IOException("chunks hold " + sample + " of "
+                    + sizes.length + " samples");
+        }
+        return offsets;
+    }
+
+    /*
+     * @return the decode time after the last sample
+     */
+    private static long readDecodeTimes(ByteBuffer stbl, long[] decodeTimes)
+            throws IOException {
+        ByteBuffer stts = require(stbl, "stts");
+        int p = payload(stts) + 4;
+        int entryCount = stts.getInt(p);
+        long time = 0;
+        int sample = 0;
+        for (int entry = 0; entry < entryCount; entry++) {
+            int count = stts.getInt(p + 4 + entry * 8);
+            long delta = stts.getInt(p + 8 + entry * 8) & 0xffffffffL;
+            for (int i = 0; i < count && sample < decodeTimes.length; i++) {
+                decodeTimes[sample++] = time;
+                time += delta;
+            }
+        }
+        if (sample != decodeTimes.length) {
+            throw new IOException("stts covers " + sample + " of "
+                    + decodeTimes.length + " samples");
+        }
+        return time;
+    }
+
+    private static int[] readCompositionOffsets(ByteBuffer stbl, int count) {
+        int[] compositionOffsets = new int[count];
+        ByteBuffer ctts = findBox(stbl, "ctts");
+        if (ctts == null) {
+            return compositionOffsets;
+        }
+        int p = payload(ctts) + 4;
+        int entryCount = ctts.getInt(p);
+        int sample = 0;
+        for (int entry = 0; entry < entryCount; entry++) {
+            int entrySamples = ctts.getInt(p + 4 + entry * 8);
+            int offset = ctts.getInt(p + 8 + entry * 8);
+            for (int i = 0; i < entrySamples && sample < count; i++) {
+                compositionOffsets[sample++] = offset;
+            }
+        }
+        return compositionOffsets;
+    }
+
+    private static boolean[] readSync(ByteBuffer stbl, int count) {
+        ByteBuffer stss = findBox(stbl, "stss");
+        if (stss == null) {
+            return null;
+        }
+        boolean[] sync = new boolean[count];
+        int p = payload(stss) + 4;
+        int entryCount = stss.getInt(p);
+        for (int entry = 0; entry < entryCount; entry++) {
+            int sample = stss.getInt(p + 4 + entry * 4) - 1;
+            if (sample >= 0 && sample < count) {
+                sync[sample] = true;
+            }
+        }
+        return sync;
+    }
+
+    /*
+     * The codecs parameter of the first sample entry: avc1/avc3 with the
+     * profile and level from avcC, mp4a with the object and audio object
+     * types from esds, or just the entry type for anything else.
+     */
+    private static String readCodec(ByteBuffer stsd) {
+        int p = payload(stsd) + 8;
+        if (p + 8 > stsd.limit()) {
+            return null;
+        }
+        int entrySize = stsd.getInt(p);
+        String type = fourcc(stsd, p + 4);
+        ByteBuffer entry = slice(stsd, p, entrySize);
+        if ("avc1".equals(type) || "avc3".equals(type)) {
+            // Child boxes follow the 78 bytes of a visual sample entry.
+            ByteBuffer avcC = findBox(entry, 8 + 78, "avcC");
+            if (avcC != null) {
+                int q = payload(avcC);
+                return String.format(Locale.US, "%s.%02x%02x%02x", type,
+                        avcC.get(q + 1) & 0xff, avcC.get(q + 2) & 0xff,
+                        avcC.get(q + 3) & 0xff);
+            }
+        } else if ("mp4a".equals(type)) {
+            // Child boxes follow the 28 bytes of an audio sample entry, or
+            // more in the QuickTime versions of it.
+            int version = entry.getShort(8 + 8) & 0xffff;
+            int children = 8 + 28 + (version == 1 ? 16 : version == 2 ? 36
+                    : 0);
+            ByteBuffer esds = findBox(entry, children, "esds");
+            if (esds != null) {
+                String codec = readEsdsCodec(esds);
+                if (codec != null) {
+                    return codec;
+                }
+            }
+            return "mp4a.40.2";
+        }
+        return type;
+    }
+
+    private static String readEsdsCodec(ByteBuffer esds) {
+        int p = payload(esds) + 4;
+        int objectType = -1;
+        while (p < esds.limit()) {
+            int tag = esds.get(p++) & 0xff;
+            int length = 0;
+            for (int i = 0; i < 4 && p < esds.limit(); i++) {
+                int b = esds.get(p++) & 0xff;
+                length = (length << 7) | (b & 0x7f);
+                if ((b & 0x80) == 0) {
+                    break;
+                }
+            }
+            if (tag == 0x03) {
+                // ES_Descriptor: ES_ID, flags, and the optional fields the
+                // flags announce, then nested descriptors.
+                int flags = esds.get(p + 2) & 0xff;
+                p += 3;
+                if ((flags & 0x80) != 0) {
+                    p += 2;
+                }
+                if ((flags & 0x40) != 0) {
+                    p += 1 + (esds.get(p) & 0xff);
+                }
+                if ((flags & 0x20) != 0) {
+                    p += 2;
+                }
+            } else if (tag == 0x04) {
+                // DecoderConfigDescriptor, then nested descriptors.
+                objectType = esds.get(p) & 0xff;
+                p += 13;
+            } else if (tag == 0x05) {
+                int audioObjectType = (esds.get(p) & 0xff) >> 3;
+                if (audioObjectType == 31 && length > 1) {
+                    audioObjectType = 32 + ((((esds.get(p) & 0x07) << 3) | ((esds
+                            .get(p + 1) & 0xff) >> 5)));
+                }
+                return String.format(Locale.US, "mp4a.%02x.%d", objectType,
+                        audioObjectType);
+            } else {
+                p += length;
+            }
+        }
+        return objectType >= 0 ? String.format(Locale.US, "mp4a.%02x", objectType)
+                : null;
+    }
+
+    // ---- Box access ----
+
+    /*
+     * Boxes are ByteBuffers positioned at their header and limited to their
+     * end.
+     */
+
+    static String fourcc(ByteBuffer buffer, int index) {
+        char[] chars = new char[4];
+        for (int i = 0; i < 4; i++) {
+            chars[i] = (char) (buffer.get(index + i) & 0xff);
+        }
+        return new String(chars);
+    }
+
+    /*
+     * Offset of the first byte after the box header.
+     */
+    static int payload(ByteBuffer box) {
+        int start = box.position();
+        return start + (box.getInt(start) == 1 ? 16 : 8);
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int start, long size) {
+        ByteBuffer box = buffer.duplicate();
+        box.limit((int) Math.min(buffer.limit(), start + size));
+        box.position(start);
+        return box;
+    }
+
+    private static ByteBuffer require(ByteBuffer parent, String type)
+            throws IOException {
+        ByteBuffer box = findBox(parent, type);
+        if (box == null) {
+            throw new IOException("no " + type + " box");
+        }
+        return box;
+    }
+
+    static ByteBuffer findBox(ByteBuffer parent, String type) {
+        return findBox(parent, payload(parent) - parent.position(), type);
+    }
+
+    /*
+     * @param childrenStart offset of the first child from the parent's start
+     */
+    private static ByteBuffer findBox(ByteBuffer parent, int childrenStart,
+            String type) {
+        List<ByteBuffer> boxes = findBoxes(parent, childrenStart, type, true);
+        return boxes.isEmpty() ? null : boxes.get(0);
+    }
+
+    private static List<ByteBuffer> findBoxes(ByteBuffer parent, String type) {
+        return findBoxes(parent, payload(parent) - parent.position(), type,
+                false);
+    }
+
+    private static List<ByteBuffer> findBoxes(ByteBuffer parent,
+            int childrenStart, String type, boolean first) {
+        List<ByteBuffer> boxes = new ArrayList<ByteBuffer>();
+        int p = parent.position() + childrenStart;
+        while (p + 8 <= parent.limit()) {
+            long size = parent.getInt(p) & 0xffffffffL;
+            if (size == 1 && p + 16 <= parent.limit()) {
+                size = parent.getLong(p + 8);
+            } else if (size == 0) {
+                size = parent.limit() - p;
+            }
+            if (size < 8 || p + size > parent.limit()) {
+                break;
+            }
+            if (fourcc(parent, p + 4).equals(type)) {
+                boxes.add(slice(parent, p, size));
+                if (first) {
+                    break;
+                }
+            }
+            p += size;
+        }
+        return boxes;
+    }
+}
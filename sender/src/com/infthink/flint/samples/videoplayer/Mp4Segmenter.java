@@ -0,0 +1,375 @@
+package com.infthink.flint.samples.videoplayer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+/**
+ * Cuts an indexed MP4 file into fragmented MP4 segments and describes them
+ * with HLS playlists.
+ *
+ * Segments start at sync samples of the main track, about a target duration
+ * apart, and carry every track's samples for their time span. The init
+ * segment reuses the file's own track headers and sample descriptions, and
+ * each media segment is a moof box with one traf per track followed by an
+ * mdat of sample data copied from the file, so no sample is decoded or
+ * re-encoded. Segments are independent of each other, so any of them can
+ * be written without the ones before it.
+ */
+public class Mp4Segmenter {
+    public static final double DEFAULT_SEGMENT_SECONDS = 6;
+
+    // tfhd: moof-relative data offsets.
+    private static final int TFHD_DEFAULT_BASE_IS_MOOF = 0x020000;
+    // trun: data offset and per-sample duration, size, flags and
+    // composition offset.
+    private static final int TRUN_FLAGS = 0x000001 | 0x000100 | 0x000200
+            | 0x000400 | 0x000800;
+    // Sample flags: depends on no other sample / non-sync sample that
+    // depends on others.
+    private static final int SAMPLE_FLAGS_SYNC = 0x02000000;
+    private static final int SAMPLE_FLAGS_NON_SYNC = 0x01010000;
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private final Mp4Index mIndex;
+    private final Mp4Index.Track mMain;
+    /* Segment start times in the main track's timescale, then its end. */
+    private final long[] mBoundaries;
+    private long mPeakBitrate = -1;
+
+    /**
+     * @param index
+     * @param targetSeconds
+     *            segments are cut at the first sync sample at least this
+     *            long after the start of the segment
+     */
+    public Mp4Segmenter(Mp4Index index, double targetSeconds) {
+        mIndex = index;
+        mMain = index.getMainTrack();
+        long target = (long) (targetSeconds * mMain.timescale);
+        long[] boundaries = new long[mMain.sampleCount + 1];
+        int count = 0;
+        long start = mMain.sampleCount > 0 ? mMain.decodeTimes[0] : 0;
+        boundaries[count++] = start;
+        for (int i = 1; i < mMain.sampleCount; i++) {
+            if (mMain.isSync(i) && mMain.decodeTimes[i] - start >= target) {
+                start = mMain.decodeTimes[i];
+                boundaries[count++] = start;
+            }
+        }
+        boundaries[count++] = mMain.endTime;
+        mBoundaries = new long[count];
+        System.arraycopy(boundaries, 0, mBoundaries, 0, count);
+    }
+
+    public int getSegmentCount() {
+        return mBoundaries.length - 1;
+    }
+
+    /**
+     * @param segment
+     * @return start of the segment in seconds
+     */
+    public double getSegmentStart(int segment) {
+        return (double) mBoundaries[segment] / mMain.timescale;
+    }
+
+    public double getSegmentDuration(int segment) {
+        return (double) (mBoundaries[segment + 1] - mBoundaries[segment])
+                / mMain.timescale;
+    }
+
+    /**
+     * @param seconds
+     * @return the segment holding the time, e.g. to seek to
+     */
+    public int findSegment(double seconds) {
+        long time = (long) (seconds * mMain.timescale);
+        for (int segment = getSegmentCount() - 1; segment > 0; segment--) {
+            if (mBoundaries[segment] <= time) {
+                return segment;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return the codecs parameter, e.g. "avc1.64001f,mp4a.40.2"
+     */
+    public String getCodecs() {
+        StringBuilder sb = new StringBuilder();
+        for (Mp4Index.Track track : mIndex.tracks) {
+            if (track.codec != null) {
+                if (sb.length() > 0) {
+                    sb.append(',');
+                }
+                sb.append(track.codec);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return the highest bitrate of any segment, in bits per second
+     */
+    public synchronized long getPeakBitrate() {
+        if (mPeakBitrate < 0) {
+            mPeakBitrate = 0;
+            for (int segment = 0; segment < getSegmentCount(); segment++) {
+                long bytes = 0;
+                for (Mp4Index.Track track : mIndex.tracks) {
+                    int end = lastSample(track, segment);
+                    for (int i = firstSample(track, segment); i < end; i++) {
+                        bytes += track.sizes[i];
+                    }
+                }
+                double duration = getSegmentDuration(segment);
+                if (duration > 0) {
+                    mPeakBitrate = Math.max(mPeakBitrate,
+                            (long) (bytes * 8 / duration));
+                }
+            }
+        }
+        return mPeakBitrate;
+    }
+
+    /**
+     * @param mediaPlaylistUri
+     * @return a master playlist with the one variant
+     */
+    public String getMasterPlaylist(String mediaPlaylistUri) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("#EXTM3U\n#EXT-X-VERSION:7\n#EXT-X-INDEPENDENT-SEGMENTS\n");
+        sb.append("#EXT-X-STREAM-INF:BANDWIDTH=").append(getPeakBitrate())
+                .append(",CODECS=\"").append(getCodecs()).append('"');
+        if (mMain.isVideo() && mMain.width > 0 && mMain.height > 0) {
+            sb.append(",RESOLUTION=").append(mMain.width).append('x')
+                    .append(mMain.height);
+        }
+        sb.append('\n').append(mediaPlaylistUri).append('\n');
+        return sb.toString();
+    }
+
+    /**
+     * @param initUri
+     * @param segmentUriSuffix
+     *            segment n is at n + segmentUriSuffix
+     * @return a VOD media playlist of all segments
+     */
+    public String getMediaPlaylist(String initUri, String segmentUriSuffix) {
+        double longest = 0;
+        for (int segment = 0; segment < getSegmentCount(); segment++) {
+            longest = Math.max(longest, getSegmentDuration(segment));
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append("#EXTM3U\n#EXT-X-VERSION:7\n");
+        sb.append("#EXT-X-TARGETDURATION:").append((long) Math.ceil(longest))
+                .append('\n');
+        sb.append("#EXT-X-MEDIA-SEQUENCE:0\n#EXT-X-PLAYLIST-TYPE:VOD\n");
+        sb.append("#EXT-X-INDEPENDENT-SEGMENTS\n");
+        sb.append("#EXT-X-MAP:URI=\"").append(initUri).append("\"\n");
+        for (int segment = 0; segment < getSegmentCount(); segment++) {
+            sb.append(String.format(Locale.US, "#EXTINF:%.6f,\n",
+                    getSegmentDuration(segment)));
+            sb.append(segment).append(segmentUriSuffix).append('\n');
+        }
+        sb.append("#EXT-X-ENDLIST\n");
+        return sb.toString();
+    }
+
+    /**
+     * Write the init segment: the file's track headers and sample
+     * descriptions, with empty sample tables.
+     *
+     * @param out
+     * @throws IOException
+     */
+    public void writeInitSegment(OutputStream out) throws IOException {
+        out.write(box("ftyp", ascii("iso6"), int32(0), ascii("iso6"),
+                ascii("isom"), ascii("mp41")));
+
+        ByteArrayOutputStream traks = new ByteArrayOutputStream();
+        ByteArrayOutputStream trexes = new ByteArrayOutputStream();
+        for (Mp4Index.Track track : mIndex.tracks) {
+            ByteArrayOutputStream minf = new ByteArrayOutputStream();
+            if (track.mediaHeader != null) {
+                minf.write(copy(track.mediaHeader));
+            }
+            minf.write(track.dinf != null ? copy(track.dinf) : box("dinf",
+                    fullBox("dref", 0, 0, int32(1), fullBox("url ", 0, 1))));
+            minf.write(box("stbl", copy(track.stsd),
+                    fullBox("stts", 0, 0, int32(0)),
+                    fullBox("stsc", 0, 0, int32(0)),
+                    fullBox("stsz", 0, 0, int32(0), int32(0)),
+                    fullBox("stco", 0, 0, int32(0))));
+            traks.write(box("trak", copy(track.tkhd),
+                    box("mdia", copy(track.mdhd), copy(track.hdlr),
+                            box("minf", minf.toByteArray()))));
+            trexes.write(fullBox("trex", 0, 0, int32(track.trackId),
+                    int32(1), int32(0), int32(0), int32(0)));
+        }
+        out.write(box("moov", copy(mIndex.mvhd), traks.toByteArray(),
+                box("mvex", trexes.toByteArray())));
+    }
+
+    /**
+     * Write a media segment.
+     *
+     * @param file
+     *            the indexed file; not used by other threads meanwhile
+     * @param segment
+     * @param out
+     * @throws IOException
+     */
+    public void writeSegment(RandomAccessFile file, int segment,
+            OutputStream out) throws IOException {
+        int trackCount = mIndex.tracks.size();
+        int[] first = new int[trackCount];
+        int[] last = new int[trackCount];
+        long dataSize = 0;
+        for (int t = 0; t < trackCount; t++) {
+            Mp4Index.Track track = mIndex.tracks.get(t);
+            first[t] = firstSample(track, segment);
+            last[t] = lastSample(track, segment);
+            for (int i = first[t]; i < last[t]; i++) {
+                dataSize += track.sizes[i];
+            }
+        }
+
+        // The data offsets depend on the size of the moof itself, which
+        // does not depend on them.
+        byte[] moof = moof(segment, first, last, 0);
+        moof = moof(segment, first, last, moof.length + 8);
+        out.write(moof);
+        out.write(int32((int) (8 + dataSize)));
+        out.write(ascii("mdat"));
+
+        byte[] buffer = new byte[COPY_BUFFER_SIZE];
+        for (int t = 0; t < trackCount; t++) {
+            Mp4Index.Track track = mIndex.tracks.get(t);
+            int i = first[t];
+            while (i < last[t]) {
+                // Copy runs of samples that are contiguous in the file.
+                long start = track.offsets[i];
+                long end = start + track.sizes[i];
+                i++;
+                while (i < last[t] && track.offsets[i] == end) {
+                    end += track.sizes[i];
+                    i++;
+                }
+                file.seek(start);
+                for (long remaining = end - start; remaining > 0;) {
+                    int n = (int) Math.min(buffer.length, remaining);
+                    file.readFully(buffer, 0, n);
+                    out.write(buffer, 0, n);
+                    remaining -= n;
+                }
+            }
+        }
+    }
+
+    /*
+     * @param dataOffset offset of the first track's data from the start of
+     *        the moof
+     */
+    private byte[] moof(int segment, int[] first, int[] last, long dataOffset)
+            throws IOException {
+        ByteArrayOutputStream trafs = new ByteArrayOutputStream();
+        for (int t = 0; t < mIndex.tracks.size(); t++) {
+            Mp4Index.Track track = mIndex.tracks.get(t);
+            int count = last[t] - first[t];
+            if (count <= 0) {
+                continue;
+            }
+            long trackDataOffset = dataOffset;
+            ByteBuffer samples = ByteBuffer.allocate(count * 16);
+            for (int i = first[t]; i < last[t]; i++) {
+                long next = i + 1 < track.sampleCount ? track.decodeTimes[i + 1]
+                        : track.endTime;
+                samples.putInt((int) (next - track.decodeTimes[i]));
+                samples.putInt(track.sizes[i]);
+                samples.putInt(track.isSync(i) ? SAMPLE_FLAGS_SYNC
+                        : SAMPLE_FLAGS_NON_SYNC);
+                samples.putInt(track.compositionOffsets[i]);
+                dataOffset += track.sizes[i];
+            }
+            trafs.write(box("traf",
+                    fullBox("tfhd", 0, TFHD_DEFAULT_BASE_IS_MOOF,
+                            int32(track.trackId)),
+                    fullBox("tfdt", 1, 0,
+                            int64(track.decodeTimes[first[t]])),
+                    fullBox("trun", 1, TRUN_FLAGS, int32(count),
+                            int32((int) trackDataOffset), samples.array())));
+        }
+        return box("moof", fullBox("mfhd", 0, 0, int32(segment + 1)),
+                trafs.toByteArray());
+    }
+
+    private int firstSample(Mp4Index.Track track, int segment) {
+        return track.findSample(toTrackTime(track, mBoundaries[segment]));
+    }
+
+    private int lastSample(Mp4Index.Track track, int segment) {
+        if (segment + 1 == getSegmentCount()) {
+            return track.sampleCount;
+        }
+        return track.findSample(toTrackTime(track, mBoundaries[segment + 1]));
+    }
+
+    private long toTrackTime(Mp4Index.Track track, long mainTime) {
+        if (track == mMain) {
+            return mainTime;
+        }
+        return Math.round((double) mainTime * track.timescale
+                / mMain.timescale);
+    }
+
+    // ---- Box writing ----
+
+    private static byte[] box(String type, byte[]... parts) throws IOException {
+        int size = 8;
+        for (byte[] part : parts) {
+            size += part.length;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(size);
+        out.write(int32(size));
+        out.write(ascii(type));
+        for (byte[] part : parts) {
+            out.write(part);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] fullBox(String type, int version, int flags,
+            byte[]... parts) throws IOException {
+        byte[][] all = new byte[parts.length + 1][];
+        all[0] = int32((version << 24) | flags);
+        System.arraycopy(parts, 0, all, 1, parts.length);
+        return box(type, all);
+    }
+
+    private static byte[] copy(ByteBuffer box) {
+        byte[] bytes = new byte[box.remaining()];
+        box.duplicate().get(bytes);
+        return bytes;
+    }
+
+    private static byte[] int32(int value) {
+        return ByteBuffer.allocate(4).putInt(value).array();
+    }
+
+    private static byte[] int64(long value) {
+        return ByteBuffer.allocate(8).putLong(value).array();
+    }
+
+    private static byte[] ascii(String text) {
+        byte[] bytes = new byte[text.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) text.charAt(i);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,106 @@
+package com.infthink.flint.samples.videoplayer;
+
+/**
+ * What the position text, duration text and seek bar of the player show for
+ * a given stream position, kept apart from the views so it can be exercised
+ * and measured on its own. Updates allocate nothing; the texts are only
+ * re-rendered when their displayed second changes.
+ */
+public class PlaybackPositionDisplay {
+    public static final int CHANGED_POSITION_TEXT = 1;
+    public static final int CHANGED_DURATION_TEXT = 1 << 1;
+    public static final int CHANGED_PROGRESS = 1 << 2;
+    public static final int CHANGED_MAX = 1 << 3;
+
+    private final TimeText mPositionText = new TimeText();
+    private final TimeText mDurationText = new TimeText();
+    private boolean mHasDuration;
+    // Forces the first duration update to be reported.
+    private boolean mDurationShown;
+    private int mProgress;
+    private int mMax;
+
+    /**
+     * Compute the display for a new position and duration.
+     *
+     * @param position
+     *            in ms, or -1 if unknown
+     * @param duration
+     *            in ms, 0 if there is no stream, or -1 if unknown
+     * @param userSeeking
+     *            true while the user drags the seek bar; the position and
+     *            seek bar are then left alone
+     * @return a combination of the CHANGED_* flags
+     */
+    public int update(long position, long duration, boolean userSeeking) {
+        int changed = 0;
+        if (!userSeeking) {
+            if (position == 0) {
+                changed |= setProgress(0);
+            } else if (position > 0) {
+                changed |= setProgress((int) (position / 1000));
+            }
+            if (mPositionText.set(position)) {
+                changed |= CHANGED_POSITION_TEXT;
+            }
+        }
+
+        if (duration == 0) {
+            if (mHasDuration || !mDurationShown) {
+                mHasDuration = false;
+                mDurationShown = true;
+                changed |= CHANGED_DURATION_TEXT;
+            }
+            changed |= setMax(0);
+        } else if (duration > 0) {
+            if (mDurationText.set(duration) || !mHasDuration) {
+                mHasDuration = true;
+                mDurationShown = true;
+                changed |= CHANGED_DURATION_TEXT;
+            }
+            if (!userSeeking) {
+                changed |= setMax((int) (duration / 1000));
+            }
+        }
+        return changed;
+    }
+
+    public TimeText getPositionText() {
+        return mPositionText;
+    }
+
+    /**
+     * @return the duration, or null when there is no stream
+     */
+    public TimeText getDurationText() {
+        return mHasDuration ? mDurationText : null;
+    }
+
+    /**
+     * @return seek bar progress in seconds
+     */
+    public int getProgress() {
+        return mProgress;
+    }
+
+    /**
+     * @return seek bar maximum in seconds
+     */
+    public int getMax() {
+        return mMax;
+    }
+
+    /*
+     * The seek bar is always reported, since the user may have moved it
+     * since the last update.
+     */
+    private int setProgress(int progress) {
+        mProgress = progress;
+        return CHANGED_PROGRESS;
+    }
+
+    private int setMax(int max) {
+        mMax = max;
+        return CHANGED_MAX;
+    }
+}
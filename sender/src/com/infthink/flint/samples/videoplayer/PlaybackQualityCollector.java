@@ -0,0 +1,241 @@
+package com.infthink.flint.samples.videoplayer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.util.Log;
+
+/**
+ * Playback quality of each receiver, from the reports it sends on the
+ * telemetry namespace (see receiver/index.html).
+ *
+ * A report carries the running totals of one playback (startup time,
+ * rebuffers, time played, frames) and the samples taken since the previous
+ * report. The latest totals of a playback replace its earlier ones, so a lost
+ * report only loses its samples. Thread-safe.
+ */
+public class PlaybackQualityCollector {
+    private static final String TAG = PlaybackQualityCollector.class
+            .getSimpleName();
+
+    private static final String TYPE_QOE = "QOE";
+    /* Playbacks remembered per device; older ones drop out of the totals. */
+    private static final int MAX_PLAYBACKS = 32;
+
+    /**
+     * Totals of a device over its remembered playbacks.
+     */
+    public static final class DeviceQuality {
+        public final String deviceId;
+        public final String deviceName;
+        public final int playbacks;
+        /** Average time from load to first frame in ms, or -1. */
+        public final long averageStartupMs;
+        public final int rebufferCount;
+        public final long rebufferMs;
+        public final long playingMs;
+        public final long droppedFrames;
+        public final long totalFrames;
+        /** Seconds buffered ahead in the latest sample, or -1. */
+        public final double bufferedAhead;
+        /** Bitrate in the latest sample in bits per second, or -1. */
+        public final long bitrate;
+        public final long reports;
+
+        DeviceQuality(String deviceId, String deviceName, int playbacks,
+                long averageStartupMs, int rebufferCount, long rebufferMs,
+                long playingMs, long droppedFrames, long totalFrames,
+                double bufferedAhead, long bitrate, long reports) {
+            this.deviceId = deviceId;
+            this.deviceName = deviceName;
+            this.playbacks = playbacks;
+            this.averageStartupMs = averageStartupMs;
+            this.rebufferCount = rebufferCount;
+            this.rebufferMs = rebufferMs;
+            this.playingMs = playingMs;
+            this.droppedFrames = droppedFrames;
+            this.totalFrames = totalFrames;
+            this.bufferedAhead = bufferedAhead;
+            this.bitrate = bitrate;
+            this.reports = reports;
+        }
+
+        /**
+         * @return share of the watch time spent rebuffering, 0 to 1
+         */
+        public double getRebufferRatio() {
+            long watchMs = playingMs + rebufferMs;
+            return watchMs > 0 ? (double) rebufferMs / watchMs : 0;
+        }
+
+        /**
+         * @return share of the decoded frames that were dropped, 0 to 1
+         */
+        public double getDroppedFrameRatio() {
+            return totalFrames > 0 ? (double) droppedFrames / totalFrames : 0;
+        }
+
+        @Override
+        public String toString() {
+            return deviceName + ": playbacks=" + playbacks + " startup="
+                    + averageStartupMs + "ms rebuffers=" + rebufferCount
+                    + String.format(" rebufferRatio=%.3f droppedRatio=%.3f",
+                            getRebufferRatio(), getDroppedFrameRatio())
+                    + " bufferedAhead=" + bufferedAhead + "s bitrate="
+                    + bitrate;
+        }
+    }
+
+    private static final class Playback {
+        long startupMs = -1;
+        int rebufferCount;
+        long rebufferMs;
+        long playingMs;
+        long droppedFrames;
+        long totalFrames;
+    }
+
+    @SuppressWarnings("serial")
+    private static final class Device {
+        String name;
+        final Map<Long, Playback> playbacks = new LinkedHashMap<Long, Playback>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Playback> eldest) {
+                return size() > MAX_PLAYBACKS;
+            }
+        };
+        double bufferedAhead = -1;
+        long bitrate = -1;
+        long reports;
+    }
+
+    private final Map<String, Device> mDevices = new HashMap<String, Device>();
+    private long mMalformedReports;
+
+    /**
+     * Take in a message received on the telemetry namespace.
+     *
+     * @param deviceId
+     * @param deviceName
+     * @param message
+     * @return the updated quality of the device, or null if the message was
+     *         not a report
+     */
+    public DeviceQuality onMessage(String deviceId, String deviceName,
+            String message) {
+        JSONObject report;
+        try {
+            report = new JSONObject(message);
+        } catch (JSONException e) {
+            Log.w(TAG, "Malformed report from " + deviceName, e);
+            synchronized (this) {
+                mMalformedReports++;
+            }
+            return null;
+        }
+        if (!TYPE_QOE.equals(report.optString("type"))) {
+            return null;
+        }
+
+        Playback playback = new Playback();
+        playback.startupMs = report.optLong("startupMs", -1);
+        playback.rebufferCount = report.optInt("rebufferCount", 0);
+        playback.rebufferMs = report.optLong("rebufferMs", 0);
+        playback.playingMs = report.optLong("playingMs", 0);
+        playback.droppedFrames = report.optLong("droppedFrames", 0);
+        playback.totalFrames = report.optLong("totalFrames", 0);
+
+        JSONArray samples = report.optJSONArray("samples");
+        JSONObject last = samples != null && samples.length() > 0 ? samples
+                .optJSONObject(samples.length() - 1) : null;
+
+        synchronized (this) {
+            Device device = mDevices.get(deviceId);
+            if (device == null) {
+                device = new Device();
+                mDevices.put(deviceId, device);
+            }
+            device.name = deviceName;
+            device.reports++;
+            device.playbacks.put(report.optLong("session", 0), playback);
+            if (last != null) {
+                device.bufferedAhead = last.optDouble("bufferedAhead", -1);
+                device.bitrate = last.optLong("bitrate", -1);
+            }
+            return snapshot(deviceId, device);
+        }
+    }
+
+    /**
+     * @param deviceId
+     * @return the quality of the device, or null if it never reported
+     */
+    public synchronized DeviceQuality getQuality(String deviceId) {
+        Device device = mDevices.get(deviceId);
+        return device != null ? snapshot(deviceId, device) : null;
+    }
+
+    /**
+     * @return all devices, the most rebuffering first
+     */
+    public List<DeviceQuality> getQualities() {
+        List<DeviceQuality> qualities = new ArrayList<DeviceQuality>();
+        synchronized (this) {
+            for (Map.Entry<String, Device> entry : mDevices.entrySet()) {
+                qualities.add(snapshot(entry.getKey(), entry.getValue()));
+            }
+        }
+        Collections.sort(qualities, new Comparator<DeviceQuality>() {
+            @Override
+            public int compare(DeviceQuality lhs, DeviceQuality rhs) {
+                return Double.compare(rhs.getRebufferRatio(),
+                        lhs.getRebufferRatio());
+            }
+        });
+        return qualities;
+    }
+
+    public synchronized long getMalformedReportCount() {
+        return mMalformedReports;
+    }
+
+    public synchronized void clear() {
+        mDevices.clear();
+        mMalformedReports = 0;
+    }
+
+    private static DeviceQuality snapshot(String deviceId, Device device) {
+        long startupTotal = 0;
+        int startups = 0;
+        int rebufferCount = 0;
+        long rebufferMs = 0;
+        long playingMs = 0;
+        long droppedFrames = 0;
+        long totalFrames = 0;
+        for (Playback playback : device.playbacks.values()) {
+            if (playback.startupMs >= 0) {
+                startupTotal += playback.startupMs;
+                startups++;
+            }
+            rebufferCount += playback.rebufferCount;
+            rebufferMs += playback.rebufferMs;
+            playingMs += playback.playingMs;
+            droppedFrames += playback.droppedFrames;
+            totalFrames += playback.totalFrames;
+        }
+        return new DeviceQuality(deviceId, device.name,
+                device.playbacks.size(), startups > 0 ? startupTotal
+                        / startups : -1, rebufferCount, rebufferMs,
+                playingMs, droppedFrames, totalFrames, device.bufferedAhead,
+                device.bitrate, device.reports);
+    }
+}
@@ -0,0 +1,438 @@
+package com.infthink.flint.samples.videoplayer;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import tv.matchstick.flint.MediaInfo;
+import tv.matchstick.flint.MediaStatus;
+import tv.matchstick.flint.PendingResult;
+import tv.matchstick.flint.RemoteMediaPlayer;
+import tv.matchstick.flint.RemoteMediaPlayer.MediaChannelResult;
+import tv.matchstick.flint.ResultCallback;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Keeps the receivers of a FlintSessionPool group playing the same media in
+ * step.
+ *
+ * Every interval each playing device is asked for its status. The reported
+ * position is taken to be valid halfway between sending the request and
+ * receiving the answer, which gives the device's media clock offset from the
+ * local clock with an error of at most half the round trip. As in NTP, only
+ * the sample with the shortest round trip of the last few is trusted. The
+ * median offset is the common timeline; a device nearing the tolerance away
+ * from it gets a seek to where the timeline will be when the seek arrives.
+ * How far a device still lags after such a seek (rebuffering) is learned and
+ * added to its next corrections; a device corrected for the first time
+ * starts from the lead learned last on any device. Each tick costs one
+ * status request and a few array operations per device. All methods must be
+ * called on the main thread.
+ */
+public class PlaybackSyncEngine {
+    private static final String TAG = PlaybackSyncEngine.class.getSimpleName();
+
+    public static final long DEFAULT_TOLERANCE_MS = 100;
+    public static final long DEFAULT_INTERVAL_MS = 1000;
+
+    private static final int SAMPLE_WINDOW = 8;
+    private static final int MIN_SAMPLES = 3;
+    private static final long CORRECTION_COOLDOWN_MS = 3000;
+    private static final long MAX_SEEK_LEAD_MS = 2000;
+
+    /**
+     * Offset samples of one device, in a fixed ring so that recording does
+     * not allocate. The round trips of all answered probes are kept in a
+     * ring of their own that reset() leaves alone, so the latency is still
+     * known after a pause or seek.
+     */
+    private static final class DeviceClock {
+        final long[] offsets = new long[SAMPLE_WINDOW];
+        final long[] roundTrips = new long[SAMPLE_WINDOW];
+        final long[] probeRoundTrips = new long[SAMPLE_WINDOW];
+        int count;
+        int next;
+        int probeCount;
+        int probeNext;
+        boolean probing;
+        long correctedAt = -1;
+        boolean awaitingResidual;
+        long seekLead;
+        boolean seekLeadLearned;
+        long error;
+
+        void addRoundTrip(long roundTrip) {
+            probeRoundTrips[probeNext] = roundTrip;
+            probeNext = (probeNext + 1) % SAMPLE_WINDOW;
+            if (probeCount < SAMPLE_WINDOW) {
+                probeCount++;
+            }
+        }
+
+        void add(long offset, long roundTrip) {
+            offsets[next] = offset;
+            roundTrips[next] = roundTrip;
+            next = (next + 1) % SAMPLE_WINDOW;
+            if (count < SAMPLE_WINDOW) {
+                count++;
+            }
+        }
+
+        void reset() {
+            count = 0;
+            next = 0;
+        }
+
+        private int best() {
+            int best = 0;
+            for (int i = 1; i < count; i++) {
+                if (roundTrips[i] < roundTrips[best]) {
+                    best = i;
+                }
+            }
+            return best;
+        }
+
+        /**
+         * @return media position minus local elapsed time, in ms
+         */
+        long getOffset() {
+            return offsets[best()];
+        }
+
+        /**
+         * @return estimated one-way command latency, in ms, or 0 before the
+         *         first answer
+         */
+        long getLatency() {
+            if (probeCount == 0) {
+                return 0;
+            }
+            long shortest = probeRoundTrips[0];
+            for (int i = 1; i < probeCount; i++) {
+                shortest = Math.min(shortest, probeRoundTrips[i]);
+            }
+            return shortest / 2;
+        }
+    }
+
+    private final FlintSessionPool mPool;
+    private final String mGroup;
+    private final Handler mHandler;
+    private final Map<String, DeviceClock> mClocks = new HashMap<String, DeviceClock>();
+    private final Runnable mTickRunnable;
+
+    private long mToleranceMs = DEFAULT_TOLERANCE_MS;
+    private long mIntervalMs = DEFAULT_INTERVAL_MS;
+    private boolean mRunning;
+    private long[] mScratch = new long[0];
+
+    private long mMaxSkew;
+    private long mCorrections;
+    /* Seek lead learned last on any device. */
+    private long mSeekLead;
+    private boolean mSeekLeadLearned;
+    private long mTicks;
+
+    /**
+     * @param pool
+     * @param group
+     *            group to keep in step, or null for every session
+     */
+    public PlaybackSyncEngine(FlintSessionPool pool, String group) {
+        mPool = pool;
+        mGroup = group;
+        mHandler = new Handler(Looper.getMainLooper());
+        mTickRunnable = new Runnable() {
+            @Override
+            public void run() {
+                tick();
+                mHandler.postDelayed(this, mIntervalMs);
+            }
+        };
+    }
+
+    /**
+     * @param toleranceMs
+     *            largest distance from the common timeline to keep the
+     *            devices within; a device is corrected at three quarters of
+     *            it
+     */
+    public void setTolerance(long toleranceMs) {
+        mToleranceMs = toleranceMs;
+    }
+
+    public long getTolerance() {
+        return mToleranceMs;
+    }
+
+    public void setInterval(long intervalMs) {
+        mIntervalMs = intervalMs;
+    }
+
+    public void start() {
+        if (mRunning) {
+            return;
+        }
+        mRunning = true;
+        mHandler.post(mTickRunnable);
+    }
+
+    public void stop() {
+        mRunning = false;
+        mHandler.removeCallbacks(mTickRunnable);
+        mClocks.clear();
+    }
+
+    public boolean isRunning() {
+        return mRunning;
+    }
+
+    /**
+     * Load the media paused at the same position everywhere, then start
+     * playback so that the play commands arrive together, using the latencies
+     * measured so far, and keep the devices in step from there.
+     *
+     * @param mediaInfo
+     * @param position
+     *            in ms
+     */
+    public void startSynchronized(final MediaInfo mediaInfo,
+            final long position) {
+        mPool.fanOut(mGroup, CommandLatencyStats.OP_FAN_OUT_LOAD,
+                new FlintSessionPool.SessionCommand() {
+                    @Override
+                    public PendingResult<MediaChannelResult> send(
+                            FlintSessionPool.Session session) {
+                        return session.getMediaPlayer().load(
+                                session.getApiClient(), mediaInfo, false,
+                                position);
+                    }
+                }, new FlintSessionPool.FanOutCallback() {
+                    @Override
+                    public void onFanOutCompleted(
+                            FlintSessionPool.FanOutResult result) {
+                        Log.d(TAG, "startSynchronized: " + result);
+                        playStaggered();
+                        start();
+                    }
+                });
+    }
+
+    /**
+     * @return largest distance between a device and the common timeline seen
+     *         on the last tick, in ms
+     */
+    public long getMaxSkew() {
+        return mMaxSkew;
+    }
+
+    /**
+     * @param deviceId
+     * @return distance of the device from the common timeline on the last
+     *         tick, positive when ahead, in ms
+     */
+    public long getError(String deviceId) {
+        DeviceClock clock = mClocks.get(deviceId);
+        return clock != null ? clock.error : 0;
+    }
+
+    public long getCorrectionCount() {
+        return mCorrections;
+    }
+
+    public long getTickCount() {
+        return mTicks;
+    }
+
+    private void playStaggered() {
+        List<FlintSessionPool.Session> sessions = mPool.getSessions(mGroup);
+        long maxLatency = 0;
+        for (FlintSessionPool.Session session : sessions) {
+            maxLatency = Math.max(maxLatency, getClock(session).getLatency());
+        }
+        for (final FlintSessionPool.Session session : sessions) {
+            if (!session.isReady()) {
+                continue;
+            }
+            DeviceClock clock = getClock(session);
+            long latency = clock.getLatency();
+            clock.reset();
+            mHandler.postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    RemoteMediaPlayer player = session.getMediaPlayer();
+                    if (player == null) {
+                        return;
+                    }
+                    try {
+                        player.play(session.getApiClient());
+                    } catch (IllegalStateException e) {
+                        Log.w(TAG, session.getDeviceId() + ": unable to play", e);
+                    }
+                }
+            }, maxLatency - latency);
+        }
+    }
+
+    private DeviceClock getClock(FlintSessionPool.Session session) {
+        DeviceClock clock = mClocks.get(session.getDeviceId());
+        if (clock == null) {
+            clock = new DeviceClock();
+            mClocks.put(session.getDeviceId(), clock);
+        }
+        return clock;
+    }
+
+    private void tick() {
+        mTicks++;
+        List<FlintSessionPool.Session> sessions = mPool.getSessions(mGroup);
+        for (Iterator<String> it = mClocks.keySet().iterator(); it.hasNext();) {
+            FlintSessionPool.Session session = mPool.getSession(it.next());
+            if (session == null || !session.isReady()) {
+                it.remove();
+            }
+        }
+        for (FlintSessionPool.Session session : sessions) {
+            if (session.isReady()) {
+                probe(session, getClock(session));
+            }
+        }
+        correct(SystemClock.elapsedRealtime());
+    }
+
+    private void probe(FlintSessionPool.Session session,
+            final DeviceClock clock) {
+        if (clock.probing) {
+            return;
+        }
+        final RemoteMediaPlayer player = session.getMediaPlayer();
+        PendingResult<MediaChannelResult> pending;
+        try {
+            pending = player.requestStatus(session.getApiClient());
+        } catch (IllegalStateException e) {
+            Log.w(TAG, session.getDeviceId() + ": unable to request status", e);
+            return;
+        }
+        if (pending == null) {
+            return;
+        }
+        clock.probing = true;
+        final long sentAt = SystemClock.elapsedRealtime();
+        pending.setResultCallback(new ResultCallback<MediaChannelResult>() {
+            @Override
+            public void onResult(MediaChannelResult result) {
+                clock.probing = false;
+                long receivedAt = SystemClock.elapsedRealtime();
+                if (sentAt <= clock.correctedAt) {
+                    // Sent no later than the seek, so it may report the
+                    // position from before it.
+                    return;
+                }
+                if (!result.getStatus().isSuccess()) {
+                    clock.reset();
+                    return;
+                }
+                clock.addRoundTrip(receivedAt - sentAt);
+                MediaStatus status = player.getMediaStatus();
+                if (status == null
+                        || status.getPlayerState() != MediaStatus.PLAYER_STATE_PLAYING
+                        || status.getPlaybackRate() != 1.0) {
+                    if (clock.count > 0) {
+                        // Stalled after the seek had played out, so what is
+                        // left over says nothing about the seek lead.
+                        clock.awaitingResidual = false;
+                    }
+                    clock.reset();
+                    return;
+                }
+                long midpoint = sentAt + (receivedAt - sentAt) / 2;
+                clock.add(status.getStreamPosition() - midpoint, receivedAt
+                        - sentAt);
+            }
+        });
+    }
+
+    private void correct(long now) {
+        if (mScratch.length < mClocks.size()) {
+            mScratch = new long[mClocks.size()];
+        }
+        int n = 0;
+        for (DeviceClock clock : mClocks.values()) {
+            if (isSettled(clock, now)) {
+                mScratch[n++] = clock.getOffset();
+            }
+        }
+        if (n < 2) {
+            mMaxSkew = 0;
+            return;
+        }
+        Arrays.sort(mScratch, 0, n);
+        long target = mScratch[n / 2];
+
+        // Samples are a few ticks old and clocks drift meanwhile, so correct
+        // before the tolerance is reached rather than after; but not before
+        // a seek lead is known, as the seek would land further off.
+        long threshold = mSeekLeadLearned ? mToleranceMs - mToleranceMs / 4
+                : mToleranceMs;
+        long maxSkew = 0;
+        for (Map.Entry<String, DeviceClock> entry : mClocks.entrySet()) {
+            DeviceClock clock = entry.getValue();
+            if (!isSettled(clock, now)) {
+                continue;
+            }
+            long error = clock.getOffset() - target;
+            clock.error = error;
+            maxSkew = Math.max(maxSkew, Math.abs(error));
+            if (clock.awaitingResidual) {
+                // A device still behind after its seek needs to be sent
+                // further ahead next time.
+                clock.awaitingResidual = false;
+                clock.seekLead = Math.max(0, Math.min(MAX_SEEK_LEAD_MS,
+                        clock.seekLead - error));
+                clock.seekLeadLearned = true;
+                mSeekLead = clock.seekLead;
+                mSeekLeadLearned = true;
+            }
+            if (Math.abs(error) > threshold) {
+                seek(mPool.getSession(entry.getKey()), clock, now, target);
+            }
+        }
+        mMaxSkew = maxSkew;
+    }
+
+    private boolean isSettled(DeviceClock clock, long now) {
+        return clock.count >= MIN_SAMPLES
+                && (clock.correctedAt < 0 || now - clock.correctedAt >= CORRECTION_COOLDOWN_MS);
+    }
+
+    private void seek(FlintSessionPool.Session session, DeviceClock clock,
+            long now, long target) {
+        RemoteMediaPlayer player = session.getMediaPlayer();
+        if (player == null) {
+            return;
+        }
+        if (!clock.seekLeadLearned) {
+            clock.seekLead = mSeekLead;
+        }
+        long position = now + clock.getLatency() + target + clock.seekLead;
+        Log.d(TAG, session.getDeviceId() + ": off by " + clock.error
+                + "ms, seeking to " + position);
+        try {
+            player.seek(session.getApiClient(), position,
+                    RemoteMediaPlayer.RESUME_STATE_UNCHANGED);
+        } catch (IllegalStateException e) {
+            Log.w(TAG, session.getDeviceId() + ": unable to seek", e);
+            return;
+        }
+        mCorrections++;
+        clock.reset();
+        clock.correctedAt = now;
+        clock.awaitingResidual = true;
+    }
+}
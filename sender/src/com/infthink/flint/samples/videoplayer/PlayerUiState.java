@@ -0,0 +1,128 @@
+package com.infthink.flint.samples.videoplayer;
+
+import tv.matchstick.flint.MediaStatus;
+
+/**
+ * Immutable snapshot of which player controls are enabled, computed from the
+ * connection state and the receiver's player state. Two snapshots compare
+ * equal when the UI would look the same, so the activity only has to touch
+ * the widgets whose state differs.
+ */
+public final class PlayerUiState {
+    public static final int PLAYER_STATE_NONE = 0;
+    public static final int PLAYER_STATE_PLAYING = 1;
+    public static final int PLAYER_STATE_PAUSED = 2;
+    public static final int PLAYER_STATE_BUFFERING = 3;
+
+    public final int playerState;
+    public final boolean launchAppEnabled;
+    public final boolean joinAppEnabled;
+    public final boolean leaveAppEnabled;
+    public final boolean stopAppEnabled;
+    public final boolean autoplayEnabled;
+    public final boolean startMediaEnabled;
+    public final boolean stopMediaEnabled;
+    public final boolean playPauseEnabled;
+    public final boolean seekBarEnabled;
+    public final boolean deviceVolumeEnabled;
+    public final boolean streamVolumeEnabled;
+
+    private PlayerUiState(int playerState, boolean hasDeviceConnection,
+            boolean hasAppConnection, boolean hasMediaConnection,
+            boolean hasMedia) {
+        this.playerState = playerState;
+        launchAppEnabled = hasDeviceConnection && !hasAppConnection;
+        joinAppEnabled = hasDeviceConnection && !hasAppConnection;
+        leaveAppEnabled = hasDeviceConnection && hasAppConnection;
+        stopAppEnabled = hasDeviceConnection && hasAppConnection;
+        autoplayEnabled = hasDeviceConnection && hasAppConnection;
+        startMediaEnabled = hasMediaConnection;
+        stopMediaEnabled = hasMediaConnection && hasMedia;
+        playPauseEnabled = (playerState == PLAYER_STATE_PAUSED)
+                || (playerState == PLAYER_STATE_PLAYING);
+        seekBarEnabled = hasMediaConnection && hasMedia;
+        deviceVolumeEnabled = hasDeviceConnection;
+        streamVolumeEnabled = hasMediaConnection && hasMedia;
+    }
+
+    /**
+     * Compute the UI state.
+     *
+     * @param hasDeviceConnection
+     * @param hasAppConnection
+     * @param hasMediaConnection
+     * @param hasMediaStatus
+     *            whether the receiver has reported a media status yet
+     * @param mediaPlayerState
+     *            one of the MediaStatus.PLAYER_STATE_* values, ignored when
+     *            there is no media status
+     * @return
+     */
+    public static PlayerUiState compute(boolean hasDeviceConnection,
+            boolean hasAppConnection, boolean hasMediaConnection,
+            boolean hasMediaStatus, int mediaPlayerState) {
+        int playerState = PLAYER_STATE_NONE;
+        boolean hasMedia = false;
+        if (hasMediaConnection && hasMediaStatus) {
+            if (mediaPlayerState == MediaStatus.PLAYER_STATE_PAUSED) {
+                playerState = PLAYER_STATE_PAUSED;
+            } else if (mediaPlayerState == MediaStatus.PLAYER_STATE_PLAYING) {
+                playerState = PLAYER_STATE_PLAYING;
+            } else if (mediaPlayerState == MediaStatus.PLAYER_STATE_BUFFERING) {
+                playerState = PLAYER_STATE_BUFFERING;
+            }
+            hasMedia = mediaPlayerState != MediaStatus.PLAYER_STATE_IDLE;
+        }
+        return new PlayerUiState(playerState, hasDeviceConnection,
+                hasAppConnection, hasMediaConnection, hasMedia);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof PlayerUiState)) {
+            return false;
+        }
+        PlayerUiState other = (PlayerUiState) o;
+        return playerState == other.playerState
+                && launchAppEnabled == other.launchAppEnabled
+                && joinAppEnabled == other.joinAppEnabled
+                && leaveAppEnabled == other.leaveAppEnabled
+                && stopAppEnabled == other.stopAppEnabled
+                && autoplayEnabled == other.autoplayEnabled
+                && startMediaEnabled == other.startMediaEnabled
+                && stopMediaEnabled == other.stopMediaEnabled
+                && playPauseEnabled == other.playPauseEnabled
+                && seekBarEnabled == other.seekBarEnabled
+                && deviceVolumeEnabled == other.deviceVolumeEnabled
+                && streamVolumeEnabled == other.streamVolumeEnabled;
+    }
+
+    @Override
+    public int hashCode() {
+        int flags = 0;
+        boolean[] values = { launchAppEnabled, joinAppEnabled,
+                leaveAppEnabled, stopAppEnabled, autoplayEnabled,
+                startMediaEnabled, stopMediaEnabled, playPauseEnabled,
+                seekBarEnabled, deviceVolumeEnabled, streamVolumeEnabled };
+        for (boolean value : values) {
+            flags = (flags << 1) | (value ? 1 : 0);
+        }
+        return 31 * playerState + flags;
+    }
+
+    @Override
+    public String toString() {
+        return "PlayerUiState{playerState=" + playerState + ", launchApp="
+                + launchAppEnabled + ", joinApp=" + joinAppEnabled
+                + ", leaveApp=" + leaveAppEnabled + ", stopApp="
+                + stopAppEnabled + ", autoplay=" + autoplayEnabled
+                + ", startMedia=" + startMediaEnabled + ", stopMedia="
+                + stopMediaEnabled + ", playPause=" + playPauseEnabled
+                + ", seekBar=" + seekBarEnabled + ", deviceVolume="
+                + deviceVolumeEnabled + ", streamVolume="
+                + streamVolumeEnabled + "}";
+    }
+}
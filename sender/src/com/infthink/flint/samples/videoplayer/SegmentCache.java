@@ -0,0 +1,141 @@
+package com.infthink.flint.samples.videoplayer;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+
+/**
+ * Disk cache of generated files, such as the segments of SegmentedMedia.
+ *
+ * Files live in a DiskLruDirectory. A file is written under a temporary name
+ * and renamed when complete, so a file found in the cache is always whole.
+ * Files are handed out open, so trimming one does not affect a reader that
+ * already has it. Thread-safe.
+ */
+public class SegmentCache {
+    /**
+     * Writes the content of a file that is not cached yet.
+     */
+    public interface Generator {
+        void write(OutputStream out) throws IOException;
+    }
+
+    private final DiskLruDirectory mDisk;
+
+    private long mHits;
+    private long mMisses;
+    private long mBytesGenerated;
+    private long mGenerateMs;
+
+    /**
+     * @param directory
+     *            e.g. a subdirectory of getCacheDir()
+     * @param maxDiskBytes
+     */
+    public SegmentCache(File directory, long maxDiskBytes) {
+        mDisk = new DiskLruDirectory(directory, maxDiskBytes);
+    }
+
+    /**
+     * @param key
+     * @return whether the file is cached; does not mark it as used
+     */
+    public boolean contains(String key) {
+        return mDisk.getFile(key).isFile();
+    }
+
+    /**
+     * @param key
+     * @return the cached file opened for reading, or null
+     */
+    public RandomAccessFile open(String key) {
+        File file = mDisk.get(key);
+        if (file == null) {
+            return null;
+        }
+        RandomAccessFile opened;
+        try {
+            opened = new RandomAccessFile(file, "r");
+        } catch (FileNotFoundException e) {
+            // Trimmed since.
+            return null;
+        }
+        synchronized (this) {
+            mHits++;
+        }
+        return opened;
+    }
+
+    /**
+     * Generate a file and add it to the cache.
+     *
+     * @param key
+     * @param generator
+     * @return the file opened for reading; the caller closes it
+     * @throws IOException
+     *             if the generator fails or the file cannot be written
+     */
+    public RandomAccessFile put(String key, Generator generator)
+            throws IOException {
+        File file = mDisk.getFile(key);
+        File tmp = mDisk.createTempFile(file);
+        long start = System.currentTimeMillis();
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(tmp),
+                64 * 1024);
+        RandomAccessFile opened = null;
+        try {
+            generator.write(out);
+            out.close();
+            out = null;
+            // Opened before trimming can see it.
+            opened = new RandomAccessFile(tmp, "r");
+            if (!tmp.renameTo(file)) {
+                throw new IOException("Unable to store " + file);
+            }
+        } catch (IOException e) {
+            if (opened != null) {
+                opened.close();
+            }
+            throw e;
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // Ignore.
+                }
+            }
+            tmp.delete();
+        }
+        synchronized (this) {
+            mMisses++;
+            mBytesGenerated += opened.length();
+            mGenerateMs += System.currentTimeMillis() - start;
+        }
+        mDisk.trim();
+        return opened;
+    }
+
+    public synchronized long getHitCount() {
+        return mHits;
+    }
+
+    public synchronized long getMissCount() {
+        return mMisses;
+    }
+
+    public synchronized long getBytesGenerated() {
+        return mBytesGenerated;
+    }
+
+    /**
+     * @return average time to generate a file in ms, or -1
+     */
+    public synchronized long getAverageGenerateMs() {
+        return mMisses > 0 ? mGenerateMs / mMisses : -1;
+    }
+}
@@ -0,0 +1,189 @@
+package com.infthink.flint.samples.videoplayer;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+
+/**
+ * A local MP4 file offered as HLS with fragmented MP4 segments.
+ *
+ * Resources are generated when first asked for and kept in a SegmentCache,
+ * so a seek costs at most the one segment it lands in rather than a remux of
+ * the file. The file is indexed on the first resource that needs it.
+ * Resources are named MASTER_PLAYLIST, "media.m3u8", "init.mp4" and
+ * "&lt;n&gt;.m4s". Thread-safe; each resource is generated with its own read
+ * of the file, so a requested segment never waits for another one.
+ */
+public class SegmentedMedia {
+    public static final String MASTER_PLAYLIST = "master.m3u8";
+    private static final String MEDIA_PLAYLIST = "media.m3u8";
+    private static final String INIT_SEGMENT = "init.mp4";
+    private static final String SEGMENT_SUFFIX = ".m4s";
+
+    private final File mFile;
+    private final SegmentCache mCache;
+    private final double mSegmentSeconds;
+    /* Identifies this version of the file and segmenting in cache keys. */
+    private final String mKeyPrefix;
+
+    private Mp4Segmenter mSegmenter;
+    private boolean mClosed;
+
+    /**
+     * @param file
+     *            a progressive MP4 file
+     * @param cache
+     * @param segmentSeconds
+     *            target segment duration
+     */
+    public SegmentedMedia(File file, SegmentCache cache, double segmentSeconds) {
+        mFile = file;
+        mCache = cache;
+        mSegmentSeconds = segmentSeconds;
+        mKeyPrefix = file.getAbsolutePath() + "|" + file.length() + "|"
+                + file.lastModified() + "|" + segmentSeconds + "|";
+    }
+
+    /**
+     * @param name
+     * @return whether the resource is cached
+     */
+    public boolean isCached(String name) {
+        return mCache.contains(mKeyPrefix + name);
+    }
+
+    /**
+     * @param name
+     * @return the resource opened for reading if it is cached, else null;
+     *         does not block on generation
+     */
+    public RandomAccessFile openCachedResource(String name) {
+        return mCache.open(mKeyPrefix + name);
+    }
+
+    /**
+     * Open a resource, generating it if it is not cached.
+     *
+     * @param name
+     * @return the resource opened for reading; the caller closes it
+     * @throws FileNotFoundException
+     *             if there is no such resource, or after close()
+     * @throws IOException
+     *             if the file cannot be read or is not a usable MP4 file
+     */
+    public RandomAccessFile openResource(final String name) throws IOException {
+        RandomAccessFile cached = openCachedResource(name);
+        if (cached != null) {
+            return cached;
+        }
+        final Mp4Segmenter segmenter = getSegmenter();
+        SegmentCache.Generator generator;
+        if (MASTER_PLAYLIST.equals(name)) {
+            generator = playlist(segmenter.getMasterPlaylist(MEDIA_PLAYLIST));
+        } else if (MEDIA_PLAYLIST.equals(name)) {
+            generator = playlist(segmenter.getMediaPlaylist(INIT_SEGMENT,
+                    SEGMENT_SUFFIX));
+        } else if (INIT_SEGMENT.equals(name)) {
+            generator = new SegmentCache.Generator() {
+                @Override
+                public void write(OutputStream out) throws IOException {
+                    segmenter.writeInitSegment(out);
+                }
+            };
+        } else {
+            final int segment = parseSegment(name);
+            if (segment < 0 || segment >= segmenter.getSegmentCount()) {
+                throw new FileNotFoundException(name);
+            }
+            generator = new SegmentCache.Generator() {
+                @Override
+                public void write(OutputStream out) throws IOException {
+                    RandomAccessFile input = new RandomAccessFile(mFile, "r");
+                    try {
+                        segmenter.writeSegment(input, segment, out);
+                    } finally {
+                        input.close();
+                    }
+                }
+            };
+        }
+        return mCache.put(mKeyPrefix + name, generator);
+    }
+
+    /**
+     * @param name
+     * @return the name of the segment after the named one, or null if the
+     *         name is not a segment or the segment is the last
+     */
+    public synchronized String getNextSegment(String name) {
+        int segment = parseSegment(name);
+        if (segment < 0 || mSegmenter == null
+                || segment + 1 >= mSegmenter.getSegmentCount()) {
+            return null;
+        }
+        return (segment + 1) + SEGMENT_SUFFIX;
+    }
+
+    /**
+     * @param name
+     * @return the content type of the resource
+     */
+    public static String getContentType(String name) {
+        if (name.endsWith(".m3u8")) {
+            return "application/x-mpegURL";
+        }
+        return "video/mp4";
+    }
+
+    /**
+     * Stop generating resources and drop the index. Resources already cached
+     * stay in the cache.
+     */
+    public synchronized void close() {
+        mClosed = true;
+        mSegmenter = null;
+    }
+
+    public synchronized boolean isClosed() {
+        return mClosed;
+    }
+
+    private synchronized Mp4Segmenter getSegmenter() throws IOException {
+        if (mClosed) {
+            throw new FileNotFoundException(mFile + " is closed");
+        }
+        if (mSegmenter == null) {
+            RandomAccessFile input = new RandomAccessFile(mFile, "r");
+            try {
+                mSegmenter = new Mp4Segmenter(Mp4Index.read(input),
+                        mSegmentSeconds);
+            } finally {
+                input.close();
+            }
+        }
+        return mSegmenter;
+    }
+
+    private static SegmentCache.Generator playlist(final String text) {
+        return new SegmentCache.Generator() {
+            @Override
+            public void write(OutputStream out) throws IOException {
+                out.write(text.getBytes("UTF-8"));
+            }
+        };
+    }
+
+    private static int parseSegment(String name) {
+        if (!name.endsWith(SEGMENT_SUFFIX)) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(name.substring(0, name.length()
+                    - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
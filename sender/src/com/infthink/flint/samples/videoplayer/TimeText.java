@@ -0,0 +1,82 @@
+package com.infthink.flint.samples.videoplayer;
+
+/**
+ * A stream time rendered as "m:ss" or "h:mm:ss" into a reusable char array.
+ *
+ * Setting a time allocates nothing, and the characters are only rewritten
+ * when the displayed second changes. Show it with
+ * TextView.setText(getChars(), 0, length()).
+ */
+public final class TimeText {
+    // "596523:59:59" is the longest time an int of seconds can hold.
+    private static final int MAX_LENGTH = 12;
+
+    private final char[] mChars = new char[MAX_LENGTH];
+    private int mLength;
+    private long mSecond = -1;
+
+    /**
+     * @param millisec
+     *            negative times show as 0:00
+     * @return true if the text changed
+     */
+    public boolean set(long millisec) {
+        long second = Math.max(0, Math.min(millisec / 1000, Integer.MAX_VALUE));
+        if (second == mSecond) {
+            return false;
+        }
+        mSecond = second;
+        render((int) second);
+        return true;
+    }
+
+    public char[] getChars() {
+        return mChars;
+    }
+
+    public int length() {
+        return mLength;
+    }
+
+    @Override
+    public String toString() {
+        return new String(mChars, 0, mLength);
+    }
+
+    private void render(int seconds) {
+        int hours = seconds / (60 * 60);
+        seconds %= (60 * 60);
+        int minutes = seconds / 60;
+        seconds %= 60;
+
+        int i = 0;
+        if (hours > 0) {
+            i = appendNumber(hours, i);
+            mChars[i++] = ':';
+            i = appendTwoDigits(minutes, i);
+        } else {
+            i = appendNumber(minutes, i);
+        }
+        mChars[i++] = ':';
+        i = appendTwoDigits(seconds, i);
+        mLength = i;
+    }
+
+    private int appendNumber(int value, int i) {
+        int digits = 1;
+        for (int v = value; v >= 10; v /= 10) {
+            digits++;
+        }
+        for (int j = i + digits - 1; j >= i; j--) {
+            mChars[j] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        return i + digits;
+    }
+
+    private int appendTwoDigits(int value, int i) {
+        mChars[i] = (char) ('0' + value / 10);
+        mChars[i + 1] = (char) ('0' + value % 10);
+        return i + 2;
+    }
+}
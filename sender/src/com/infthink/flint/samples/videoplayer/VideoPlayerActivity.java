@@ -1,5 +1,6 @@
 package com.infthink.flint.samples.videoplayer;
 
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 import com.infthink.flint.samples.videoplayer.R;
@@ -7,36 +8,36 @@ import com.infthink.flint.samples.videoplayer.R;
 import tv.matchstick.flint.Flint;
 import tv.matchstick.flint.MediaStatus;
 import tv.matchstick.flint.RemoteMediaPlayer;
+import android.graphics.Bitmap;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.Handler;
 import android.support.v7.app.ActionBarActivity;
+import android.util.Log;
 import android.view.Menu;
 import android.view.View;
 import android.view.View.OnClickListener;
 import android.widget.Button;
 import android.widget.CheckBox;
 import android.widget.CompoundButton;
+import android.widget.ImageView;
 import android.widget.SeekBar;
 import android.widget.Spinner;
 import android.widget.TextView;
 
 public class VideoPlayerActivity extends ActionBarActivity implements
-        FlintStatusChangeListener {
+        FlintStatusChangeListener, FlintRouteChooserDialogFragment.Listener {
+    private static final String TAG = VideoPlayerActivity.class
+            .getSimpleName();
+
     private static final int AFTER_SEEK_DO_NOTHING = 0;
     private static final int AFTER_SEEK_PLAY = 1;
     private static final int AFTER_SEEK_PAUSE = 2;
 
-    private static final int PLAYER_STATE_NONE = 0;
-    private static final int PLAYER_STATE_PLAYING = 1;
-    private static final int PLAYER_STATE_PAUSED = 2;
-    private static final int PLAYER_STATE_BUFFERING = 3;
-
-    private static final int REFRESH_INTERVAL_MS = (int) TimeUnit.SECONDS
-            .toMillis(1);
-
     private TextView mMediaTitle;
     private TextView mMediaArtist;
+    private ImageView mMediaArt;
+    private String mMediaArtUrl;
     private TextView mAppStatusTextView;
     private TextView mCurrentDeviceTextView;
     private TextView mStreamPositionTextView;
@@ -58,6 +59,7 @@ public class VideoPlayerActivity extends ActionBarActivity implements
     private CheckBox mStreamMuteCheckBox;
 
     private CheckBox mAutoplayCheckbox;
+    private CheckBox mLiveScrubCheckbox;
 
     private boolean mSeeking;
     private boolean mIsUserSeeking;
@@ -65,9 +67,13 @@ public class VideoPlayerActivity extends ActionBarActivity implements
     private boolean mIsUserAdjustingMuted;
 
     private int mPlayerState;
+    private PlayerUiState mUiState;
+    private final PlaybackPositionDisplay mPositionDisplay = new PlaybackPositionDisplay();
+
+    private boolean mDeviceSelected;
+    private FlintDeviceCache.Entry mKnownDevice;
 
     protected Handler mHandler;
-    private Runnable mRefreshRunnable;
 
     private FlintVideoManager mFlintVideoManager;
 
@@ -78,6 +84,7 @@ public class VideoPlayerActivity extends ActionBarActivity implements
 
         mMediaTitle = (TextView) findViewById(R.id.media_title);
         mMediaArtist = (TextView) findViewById(R.id.media_artist);
+        mMediaArt = (ImageView) findViewById(R.id.media_art);
         mAppStatusTextView = (TextView) findViewById(R.id.app_status);
         mCurrentDeviceTextView = (TextView) findViewById(R.id.connected_device);
         mStreamPositionTextView = (TextView) findViewById(R.id.stream_position);
@@ -92,6 +99,7 @@ public class VideoPlayerActivity extends ActionBarActivity implements
         mStopMediaButton = (Button) findViewById(R.id.stop);
 
         mAutoplayCheckbox = (CheckBox) findViewById(R.id.autoplay_checkbox);
+        mLiveScrubCheckbox = (CheckBox) findViewById(R.id.live_scrub_checkbox);
 
         mSeekBar = (SeekBar) findViewById(R.id.seek_bar);
         mSeekBehaviorSpinner = (Spinner) findViewById(R.id.seek_behavior_spinner);
@@ -106,25 +114,22 @@ public class VideoPlayerActivity extends ActionBarActivity implements
         String applicationId = "~samplemediaplayer";
         Flint.FlintApi.setApplicationId(applicationId);
         mFlintVideoManager = new FlintVideoManager(this, applicationId, this);
+        mFlintVideoManager.loadCatalog(R.xml.media);
 
         setUpControls();
+    }
 
-        mRefreshRunnable = new Runnable() {
+    private void setUpControls() {
+        mCurrentDeviceTextView.setOnClickListener(new OnClickListener() {
             @Override
-            public void run() {
-                if (!mSeeking) {
-                    refreshPlaybackPosition(
-                            mFlintVideoManager.getMediaCurrentTime(),
-                            mFlintVideoManager.getMediaDuration());
+            public void onClick(View v) {
+                if (!mDeviceSelected && mKnownDevice != null) {
+                    mFlintVideoManager
+                            .selectKnownDevice(mKnownDevice.deviceId);
                 }
-                updateStreamVolume();
-                updateButtonStates();
-                startRefreshTimer();
             }
-        };
-    }
+        });
 
-    private void setUpControls() {
         mStartMediaButton.setOnClickListener(new OnClickListener() {
             @Override
             public void onClick(View arg0) {
@@ -163,7 +168,7 @@ public class VideoPlayerActivity extends ActionBarActivity implements
         mPlayPauseButton.setOnClickListener(new OnClickListener() {
             @Override
             public void onClick(View v) {
-                if (mPlayerState == PLAYER_STATE_PAUSED) {
+                if (mPlayerState == PlayerUiState.PLAYER_STATE_PAUSED) {
                     mFlintVideoManager.playMedia();
                 } else {
                     mFlintVideoManager.pauseMedia();
@@ -195,6 +200,12 @@ public class VideoPlayerActivity extends ActionBarActivity implements
             @Override
             public void onProgressChanged(SeekBar seekBar, int progress,
                     boolean fromUser) {
+                if (fromUser && mIsUserSeeking
+                        && mLiveScrubCheckbox.isChecked()
+                        && mFlintVideoManager.isMediaConnected()) {
+                    mFlintVideoManager.scrubMedia(TimeUnit.SECONDS
+                            .toMillis(progress));
+                }
             }
         });
 
@@ -249,6 +260,27 @@ public class VideoPlayerActivity extends ActionBarActivity implements
             Uri imageUrl) {
         mMediaTitle.setText(title);
         mMediaArtist.setText(subtitle);
+
+        String url = imageUrl != null ? imageUrl.toString() : null;
+        if (url == null ? mMediaArtUrl == null : url.equals(mMediaArtUrl)) {
+            return;
+        }
+        mMediaArtUrl = url;
+        mMediaArt.setImageDrawable(null);
+        if (url == null) {
+            return;
+        }
+        mFlintVideoManager.getImageCache().load(url,
+                mMediaArt.getLayoutParams().width,
+                mMediaArt.getLayoutParams().height, new ImageCache.Callback() {
+                    @Override
+                    public void onImageLoaded(String url, Bitmap bitmap) {
+                        // Ignore images of media that is no longer current.
+                        if (bitmap != null && url.equals(mMediaArtUrl)) {
+                            mMediaArt.setImageBitmap(bitmap);
+                        }
+                    }
+                });
     }
 
     private void setUpVolumeControls(final SeekBar volumeBar,
@@ -298,26 +330,28 @@ public class VideoPlayerActivity extends ActionBarActivity implements
     }
 
     private void refreshPlaybackPosition(long position, long duration) {
-        if (!mIsUserSeeking) {
-            if (position == 0) {
-                mStreamPositionTextView.setText(R.string.no_time);
-                mSeekBar.setProgress(0);
-            } else if (position > 0) {
-                mSeekBar.setProgress((int) TimeUnit.MILLISECONDS
-                        .toSeconds(position));
-            }
-            mStreamPositionTextView.setText(formatTime(position));
+        int changed = mPositionDisplay.update(position, duration,
+                mIsUserSeeking);
+        if ((changed & PlaybackPositionDisplay.CHANGED_PROGRESS) != 0) {
+            mSeekBar.setProgress(mPositionDisplay.getProgress());
         }
-
-        if (duration == 0) {
-            mStreamDurationTextView.setText(R.string.no_time);
-            mSeekBar.setMax(0);
-        } else if (duration > 0) {
-            mStreamDurationTextView.setText(formatTime(duration));
-            if (!mIsUserSeeking) {
-                mSeekBar.setMax((int) TimeUnit.MILLISECONDS.toSeconds(duration));
+        if ((changed & PlaybackPositionDisplay.CHANGED_POSITION_TEXT) != 0) {
+            TimeText positionText = mPositionDisplay.getPositionText();
+            mStreamPositionTextView.setText(positionText.getChars(), 0,
+                    positionText.length());
+        }
+        if ((changed & PlaybackPositionDisplay.CHANGED_DURATION_TEXT) != 0) {
+            TimeText durationText = mPositionDisplay.getDurationText();
+            if (durationText != null) {
+                mStreamDurationTextView.setText(durationText.getChars(), 0,
+                        durationText.length());
+            } else {
+                mStreamDurationTextView.setText(R.string.no_time);
             }
         }
+        if ((changed & PlaybackPositionDisplay.CHANGED_MAX) != 0) {
+            mSeekBar.setMax(mPositionDisplay.getMax());
+        }
     }
 
     private void refreshStreamVolume(double percent, boolean muted) {
@@ -339,59 +373,68 @@ public class VideoPlayerActivity extends ActionBarActivity implements
         }
     }
 
-    private String formatTime(long millisec) {
-        int seconds = (int) (millisec / 1000);
-        int hours = seconds / (60 * 60);
-        seconds %= (60 * 60);
-        int minutes = seconds / 60;
-        seconds %= 60;
-
-        String time;
-        if (hours > 0) {
-            time = String.format("%d:%02d:%02d", hours, minutes, seconds);
-        } else {
-            time = String.format("%d:%02d", minutes, seconds);
-        }
-        return time;
-    }
-
     private void updateButtonStates() {
-        boolean hasDeviceConnection = mFlintVideoManager.isDeviceConnected();
-        boolean hasAppConnection = mFlintVideoManager.isAppConnected();
         boolean hasMediaConnection = mFlintVideoManager.isMediaConnected();
-        boolean hasMedia = false;
-
-        if (hasMediaConnection) {
-            MediaStatus mediaStatus = mFlintVideoManager.getMediaStatus();
-            if (mediaStatus != null) {
-                int mediaPlayerState = mediaStatus.getPlayerState();
-                int playerState = PLAYER_STATE_NONE;
-                if (mediaPlayerState == MediaStatus.PLAYER_STATE_PAUSED) {
-                    playerState = PLAYER_STATE_PAUSED;
-                } else if (mediaPlayerState == MediaStatus.PLAYER_STATE_PLAYING) {
-                    playerState = PLAYER_STATE_PLAYING;
-                } else if (mediaPlayerState == MediaStatus.PLAYER_STATE_BUFFERING) {
-                    playerState = PLAYER_STATE_BUFFERING;
-                }
-                setPlayerState(playerState);
-
-                hasMedia = mediaStatus.getPlayerState() != MediaStatus.PLAYER_STATE_IDLE;
-            }
-        } else {
-            setPlayerState(PLAYER_STATE_NONE);
+        MediaStatus mediaStatus = hasMediaConnection ? mFlintVideoManager
+                .getMediaStatus() : null;
+        PlayerUiState state = PlayerUiState.compute(
+                mFlintVideoManager.isDeviceConnected(),
+                mFlintVideoManager.isAppConnected(), hasMediaConnection,
+                mediaStatus != null,
+                mediaStatus != null ? mediaStatus.getPlayerState() : 0);
+        if (state.equals(mUiState)) {
+            return;
+        }
+        applyUiState(mUiState, state);
+        mUiState = state;
+    }
+
+    /**
+     * Apply only the controls that differ between the two states.
+     * 
+     * @param old
+     *            the state currently shown, or null to apply everything
+     * @param state
+     */
+    private void applyUiState(PlayerUiState old, PlayerUiState state) {
+        if (old == null || old.playerState != state.playerState) {
+            setPlayerState(state.playerState);
+        }
+        if (old == null || old.playPauseEnabled != state.playPauseEnabled) {
+            mPlayPauseButton.setEnabled(state.playPauseEnabled);
+        }
+        if (old == null || old.launchAppEnabled != state.launchAppEnabled) {
+            mLaunchAppButton.setEnabled(state.launchAppEnabled);
+        }
+        if (old == null || old.joinAppEnabled != state.joinAppEnabled) {
+            mJoinAppButton.setEnabled(state.joinAppEnabled);
+        }
+        if (old == null || old.leaveAppEnabled != state.leaveAppEnabled) {
+            mLeaveAppButton.setEnabled(state.leaveAppEnabled);
+        }
+        if (old == null || old.stopAppEnabled != state.stopAppEnabled) {
+            mStopAppButton.setEnabled(state.stopAppEnabled);
+        }
+        if (old == null || old.autoplayEnabled != state.autoplayEnabled) {
+            mAutoplayCheckbox.setEnabled(state.autoplayEnabled);
+        }
+        if (old == null || old.startMediaEnabled != state.startMediaEnabled) {
+            mStartMediaButton.setEnabled(state.startMediaEnabled);
+        }
+        if (old == null || old.stopMediaEnabled != state.stopMediaEnabled) {
+            mStopMediaButton.setEnabled(state.stopMediaEnabled);
+        }
+        if (old == null || old.seekBarEnabled != state.seekBarEnabled) {
+            setSeekBarEnabled(state.seekBarEnabled);
+        }
+        if (old == null
+                || old.deviceVolumeEnabled != state.deviceVolumeEnabled) {
+            setDeviceVolumeControlsEnabled(state.deviceVolumeEnabled);
+        }
+        if (old == null
+                || old.streamVolumeEnabled != state.streamVolumeEnabled) {
+            setStreamVolumeControlsEnabled(state.streamVolumeEnabled);
         }
-
-        mLaunchAppButton.setEnabled(hasDeviceConnection && !hasAppConnection);
-        mJoinAppButton.setEnabled(hasDeviceConnection && !hasAppConnection);
-        mLeaveAppButton.setEnabled(hasDeviceConnection && hasAppConnection);
-        mStopAppButton.setEnabled(hasDeviceConnection && hasAppConnection);
-        mAutoplayCheckbox.setEnabled(hasDeviceConnection && hasAppConnection);
-
-        mStartMediaButton.setEnabled(hasMediaConnection);
-        mStopMediaButton.setEnabled(hasMediaConnection && hasMedia);
-        setSeekBarEnabled(hasMediaConnection && hasMedia);
-        setDeviceVolumeControlsEnabled(hasDeviceConnection);
-        setStreamVolumeControlsEnabled(hasMediaConnection && hasMedia);
     }
 
     private void setSeekBarEnabled(boolean enabled) {
@@ -410,14 +453,11 @@ public class VideoPlayerActivity extends ActionBarActivity implements
 
     private void setPlayerState(int playerState) {
         mPlayerState = playerState;
-        if (mPlayerState == PLAYER_STATE_PAUSED) {
+        if (mPlayerState == PlayerUiState.PLAYER_STATE_PAUSED) {
             mPlayPauseButton.setText(R.string.play);
-        } else if (mPlayerState == PLAYER_STATE_PLAYING) {
+        } else if (mPlayerState == PlayerUiState.PLAYER_STATE_PLAYING) {
             mPlayPauseButton.setText(R.string.pause);
         }
-
-        mPlayPauseButton.setEnabled((mPlayerState == PLAYER_STATE_PAUSED)
-                || (mPlayerState == PLAYER_STATE_PLAYING));
     }
 
     private void clearMediaState() {
@@ -425,17 +465,10 @@ public class VideoPlayerActivity extends ActionBarActivity implements
         refreshPlaybackPosition(0, 0);
     }
 
-    protected final void startRefreshTimer() {
-        mHandler.postDelayed(mRefreshRunnable, REFRESH_INTERVAL_MS);
-    }
-
-    protected final void cancelRefreshTimer() {
-        mHandler.removeCallbacks(mRefreshRunnable);
-    }
-
     @Override
     protected void onStart() {
         super.onStart();
+        mFlintVideoManager.onStart();
     }
 
     @Override
@@ -451,6 +484,7 @@ public class VideoPlayerActivity extends ActionBarActivity implements
     @Override
     protected void onStop() {
         super.onStop();
+        mFlintVideoManager.onStop();
     }
 
     @Override
@@ -472,14 +506,38 @@ public class VideoPlayerActivity extends ActionBarActivity implements
         return super.onPrepareOptionsMenu(menu);
     }
 
+    @Override
+    public void onRouteChooserVisibilityChanged(boolean visible) {
+        mFlintVideoManager.setRouteChooserOpen(visible);
+    }
+
     @Override
     public void onDeviceSelected(String name) {
+        mDeviceSelected = true;
         setCurrentDeviceName(name);
     }
 
     @Override
     public void onDeviceUnselected() {
-        setCurrentDeviceName(getString(R.string.no_device));
+        mDeviceSelected = false;
+        showKnownDevice();
+    }
+
+    @Override
+    public void onKnownDevicesUpdated(List<FlintDeviceCache.Entry> devices) {
+        mKnownDevice = devices.isEmpty() ? null : devices.get(0);
+        if (!mDeviceSelected) {
+            showKnownDevice();
+        }
+    }
+
+    private void showKnownDevice() {
+        if (mKnownDevice != null) {
+            setCurrentDeviceName(getString(R.string.known_device,
+                    mKnownDevice.friendlyName));
+        } else {
+            setCurrentDeviceName(getString(R.string.no_device));
+        }
     }
 
     @Override
@@ -502,21 +560,16 @@ public class VideoPlayerActivity extends ActionBarActivity implements
     public void onConnectionFailed() {
         updateButtonStates();
         clearMediaState();
-        cancelRefreshTimer();
     }
 
     @Override
     public void onConnected() {
-        setDeviceVolumeControlsEnabled(true);
-        mLaunchAppButton.setEnabled(true);
-        mJoinAppButton.setEnabled(true);
+        updateButtonStates();
     }
 
     @Override
     public void onNoLongerRunning(boolean isRunning) {
-        if (isRunning) {
-            startRefreshTimer();
-        } else {
+        if (!isRunning) {
             clearMediaState();
             updateButtonStates();
         }
@@ -524,7 +577,6 @@ public class VideoPlayerActivity extends ActionBarActivity implements
 
     @Override
     public void onConnectionSuspended() {
-        cancelRefreshTimer();
         updateButtonStates();
     }
 
@@ -536,12 +588,17 @@ public class VideoPlayerActivity extends ActionBarActivity implements
             clearMediaState();
         }
 
-        refreshPlaybackPosition(mFlintVideoManager.getMediaCurrentTime(),
-                mFlintVideoManager.getMediaDuration());
         updateStreamVolume();
         updateButtonStates();
     }
 
+    @Override
+    public void onMediaPositionUpdated(long position, long duration) {
+        if (!mSeeking) {
+            refreshPlaybackPosition(position, duration);
+        }
+    }
+
     @Override
     public void onMediaMetadataUpdated(String title, String artist, Uri imageUrl) {
         setCurrentMediaMetadata(title, artist, imageUrl);
@@ -550,7 +607,6 @@ public class VideoPlayerActivity extends ActionBarActivity implements
     @Override
     public void onApplicationConnectionResult(String applicationStatus) {
         setApplicationStatus(applicationStatus);
-        startRefreshTimer();
         updateButtonStates();
     }
 
@@ -573,4 +629,10 @@ public class VideoPlayerActivity extends ActionBarActivity implements
     public void onMediaVolumeEnd() {
         mIsUserAdjustingMuted = false;
     }
+
+    @Override
+    public void onPlaybackQualityUpdated(
+            PlaybackQualityCollector.DeviceQuality quality) {
+        Log.d(TAG, "playback quality: " + quality);
+    }
 }